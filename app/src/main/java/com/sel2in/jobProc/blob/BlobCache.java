@@ -0,0 +1,327 @@
+package com.sel2in.jobProc.blob;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local copies of blobs from the BlobStore under jobproc.blobStore.cache.dir, at most maxMb,
+ * least recently used dropped first. A blob asked for by several threads at once is downloaded
+ * once. What is on disk at startup is kept, ordered by file time (a hit touches the file).
+ *
+ * Callers that need the file beyond the next eviction hard-link or copy it (JobBlobs links
+ * inputs into the job's folder), so dropping a cache entry never pulls a file from under a job.
+ * Readers that use the cached file itself (downloads) pin it: a pinned file is neither evicted
+ * nor deleted by invalidate() until the last pin is closed.
+ *
+ * get(key, version) re-downloads a copy cached for another version of the blob (see
+ * BlobStore.version). Versions are not kept across restarts; such copies are fetched again once.
+ */
+@Slf4j
+@Service
+public class BlobCache {
+
+    private static final String TMP_DIR = ".tmp";
+
+    private final BlobStore blobStore;
+    private final Path dir;
+    private final long maxBytes;
+
+    /** key -> size, in access order */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    /** key -> BlobStore.version of the cached copy, when the caller gave one */
+    private final Map<String, String> versions = new HashMap<>();
+    /** key -> open pins */
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final Map<String, CompletableFuture<Path>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    public BlobCache(Optional<BlobStore> blobStore,
+                     @Value("${jobproc.blobStore.cache.dir:./blobCache}") String dir,
+                     @Value("${jobproc.blobStore.cache.maxMb:10240}") long maxMb) {
+        this.blobStore = blobStore.orElse(null);
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxBytes = maxMb * 1024 * 1024;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (blobStore == null || !Files.isDirectory(dir)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> !p.getParent().endsWith(TMP_DIR))
+                    .sorted(Comparator.comparingLong(BlobCache::mtime))
+                    .collect(Collectors.toList());
+        }
+        synchronized (this) {
+            for (Path p : files) {
+                long size = Files.size(p);
+                entries.put(dir.relativize(p).toString().replace('\\', '/'), size);
+                totalBytes += size;
+            }
+            evict(null);
+        }
+        log.info("Blob cache {}: {} file(s), {} bytes", dir, entries.size(), totalBytes);
+    }
+
+    /** True when a BlobStore is configured (jobproc.blobStore.type other than none) */
+    public boolean isEnabled() {
+        return blobStore != null;
+    }
+
+    /** The configured store; null when not enabled */
+    public BlobStore getStore() {
+        return blobStore;
+    }
+
+    /** The local copy of the blob, downloaded first if it is not cached; NoSuchFileException if there is no such blob */
+    public Path get(String key) throws IOException {
+        return get(key, null);
+    }
+
+    /** Same as get(key), but a copy cached for another version of the blob is downloaded again */
+    public Path get(String key, String version) throws IOException {
+        if (blobStore == null) {
+            throw new IllegalStateException("No blob store configured");
+        }
+        Path file = path(key);
+        synchronized (this) {
+            if (entries.get(key) != null) {
+                if (Files.exists(file) && (version == null || version.equals(versions.get(key)))) {
+                    hits.incrementAndGet();
+                    touch(file);
+                    return file;
+                }
+                forget(key);
+            }
+        }
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> other = loading.putIfAbsent(key, mine);
+        if (other != null) {
+            return await(other);
+        }
+        try {
+            mine.complete(download(key, version, file));
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            loading.remove(key);
+        }
+        return await(mine);
+    }
+
+    /**
+     * The local copy of the blob like get(key, version), kept on disk until the pin is closed.
+     * For readers that use the cached file itself rather than a link or copy of it.
+     */
+    public Pin pin(String key, String version) throws IOException {
+        while (true) {
+            Path file = get(key, version);
+            synchronized (this) {
+                if (entries.containsKey(key) && Files.exists(file)) {
+                    pins.merge(key, 1, Integer::sum);
+                    return new Pin(key, file);
+                }
+            }
+            // Evicted by another download before we got to pin it
+        }
+    }
+
+    /** Drops the local copy, e.g. after the blob changed. A pinned copy is deleted when its last pin is closed */
+    public synchronized void invalidate(String key) throws IOException {
+        forget(key);
+        if (!pins.containsKey(key)) {
+            Files.deleteIfExists(path(key));
+        }
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("dir", dir.toString());
+        status.put("files", entries.size());
+        status.put("bytes", totalBytes);
+        status.put("maxBytes", maxBytes);
+        status.put("hits", hits.get());
+        status.put("misses", misses.get());
+        status.put("evictions", evictions.get());
+        status.put("pinned", pins.size());
+        status.put("bytesDownloaded", bytesDownloaded.get());
+        return status;
+    }
+
+    /** A cached file kept on disk until closed */
+    public final class Pin implements AutoCloseable {
+
+        private final String key;
+        private final Path file;
+        private boolean closed;
+
+        private Pin(String key, Path file) {
+            this.key = key;
+            this.file = file;
+        }
+
+        public Path path() {
+            return file;
+        }
+
+        @Override
+        public void close() {
+            synchronized (BlobCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (pins.merge(key, -1, Integer::sum) > 0) {
+                    return;
+                }
+                pins.remove(key);
+                if (!entries.containsKey(key) && !loading.containsKey(key)) {
+                    // Invalidated while pinned
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        log.warn("Cannot drop cached blob {}: {}", key, e.getMessage());
+                    }
+                }
+                evict(null);
+            }
+        }
+    }
+
+    // ===== internals =====
+
+    /** Removes the entry; the file is left to the caller */
+    private void forget(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        versions.remove(key);
+    }
+
+    private Path download(String key, String version, Path file) throws IOException {
+        misses.incrementAndGet();
+        Path tmpDir = dir.resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        Files.createDirectories(file.getParent());
+        Path tmp = tmpDir.resolve(UUID.randomUUID().toString());
+        try {
+            long size;
+            try (InputStream in = blobStore.get(key)) {
+                size = Files.copy(in, tmp);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            bytesDownloaded.addAndGet(size);
+            synchronized (this) {
+                Long old = entries.put(key, size);
+                totalBytes += size - (old != null ? old : 0);
+                if (version != null) {
+                    versions.put(key, version);
+                } else {
+                    versions.remove(key);
+                }
+                evict(key);
+            }
+            return file;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Drops least recently used files until the cache fits; keep and pinned files are never dropped */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().equals(keep) || pins.containsKey(e.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(path(e.getKey()));
+            } catch (IOException ex) {
+                log.warn("Cannot drop cached blob {}: {}", e.getKey(), ex.getMessage());
+                continue;
+            }
+            totalBytes -= e.getValue();
+            it.remove();
+            versions.remove(e.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Path path(String key) throws IOException {
+        Path p = dir.resolve(key).normalize();
+        if (!p.startsWith(dir) || p.equals(dir) || key.startsWith(TMP_DIR)) {
+            throw new IOException("Invalid blob key: " + key);
+        }
+        return p;
+    }
+
+    private static Path await(CompletableFuture<Path> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a blob download", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // only the order after a restart suffers
+        }
+    }
+
+    private static long mtime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
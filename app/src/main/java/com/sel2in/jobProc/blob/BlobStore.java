@@ -0,0 +1,45 @@
+package com.sel2in.jobProc.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage shared by all engine nodes for job input and output files, so nodes do not need a
+ * common file system. Keys are '/'-separated paths (see JobBlobs for the layout).
+ *
+ * Implementations (jobproc.blobStore.type):
+ *   none  - no shared storage, every node works on its own inputFiles / outputFiles (default)
+ *   local - a directory, e.g. a volume mounted on every node
+ *   s3    - an S3-compatible object store (AWS S3, MinIO, Ceph ...), SigV4-signed requests
+ *
+ * Processors never see this: JobBlobs copies inputs to the local disk (through BlobCache) before
+ * a job runs and uploads its output folder after it finished.
+ */
+public interface BlobStore {
+
+    /** Stores the file under key, replacing what was there */
+    void put(String key, Path file) throws IOException;
+
+    /** The blob's content; NoSuchFileException if there is none */
+    InputStream get(String key) throws IOException;
+
+    /** Size in bytes, or -1 if there is no such blob */
+    long size(String key) throws IOException;
+
+    /**
+     * A tag that changes whenever the blob is replaced, even by content of the same size (the
+     * S3 ETag); null if there is no such blob
+     */
+    String version(String key) throws IOException;
+
+    /** Deletes the blob; a missing one is fine */
+    void delete(String key) throws IOException;
+
+    /** Keys starting with prefix, in key order */
+    List<String> list(String prefix) throws IOException;
+
+    Map<String, Object> getStatus();
+}
@@ -0,0 +1,136 @@
+package com.sel2in.jobProc.blob;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Blobs as files under jobproc.blobStore.local.dir, the key being the relative path. A blob is
+ * written to a temporary name and renamed, so readers on other nodes never see half a file.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "jobproc.blobStore.type", havingValue = "local")
+public class LocalBlobStore implements BlobStore {
+
+    private static final String TMP_PREFIX = ".tmp-";
+
+    private final Path root;
+
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    public LocalBlobStore(@Value("${jobproc.blobStore.local.dir:./blobs}") String dir) {
+        this.root = Paths.get(dir).toAbsolutePath().normalize();
+        log.info("Blob store: local directory {}", root);
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        Path target = path(key);
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(TMP_PREFIX + UUID.randomUUID());
+        try {
+            Files.copy(file, tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        puts.incrementAndGet();
+        bytesWritten.addAndGet(Files.size(target));
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        InputStream in = Files.newInputStream(path(key));
+        gets.incrementAndGet();
+        return in;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try {
+            return Files.size(path(key));
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /** put() renames a new file into place, so its inode (fileKey) changes with every write */
+    @Override
+    public String version(String key) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path(key), BasicFileAttributes.class);
+            return attrs.size() + "-" + attrs.lastModifiedTime().toMillis()
+                    + (attrs.fileKey() != null ? "-" + attrs.fileKey() : "");
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(path(key));
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        // The deepest directory the prefix names completely
+        int slash = prefix.lastIndexOf('/');
+        Path dir = slash < 0 ? root : path(prefix.substring(0, slash));
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith(TMP_PREFIX))
+                    .map(p -> root.relativize(p).toString().replace('\\', '/'))
+                    .filter(k -> k.startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("type", "local");
+        status.put("dir", root.toString());
+        status.put("puts", puts.get());
+        status.put("gets", gets.get());
+        status.put("bytesWritten", bytesWritten.get());
+        return status;
+    }
+
+    private Path path(String key) throws IOException {
+        Path p = root.resolve(key).normalize();
+        if (!p.startsWith(root) || p.equals(root)) {
+            throw new IOException("Invalid blob key: " + key);
+        }
+        return p;
+    }
+}
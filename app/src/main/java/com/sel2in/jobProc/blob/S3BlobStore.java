@@ -0,0 +1,269 @@
+package com.sel2in.jobProc.blob;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blobs as objects in an S3-compatible bucket, spoken to with the JDK HTTP client and SigV4
+ * signatures, so no SDK is needed. Works with AWS S3 and with MinIO, Ceph RGW, LocalStack and
+ * similar stand-ins (pathStyle: true for those).
+ *
+ * Objects are written with a single PUT (up to 5 GB), the body signed with its SHA-256 so the
+ * store rejects anything damaged on the way. Reads stream the response body.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "jobproc.blobStore.type", havingValue = "s3")
+public class S3BlobStore implements BlobStore {
+
+    private static final String SERVICE = "s3";
+
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+    private final Duration timeout;
+    private final HttpClient http;
+
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    public S3BlobStore(@Value("${jobproc.blobStore.s3.endpoint:https://s3.amazonaws.com}") String endpoint,
+                       @Value("${jobproc.blobStore.s3.region:us-east-1}") String region,
+                       @Value("${jobproc.blobStore.s3.bucket}") String bucket,
+                       @Value("${jobproc.blobStore.s3.accessKey}") String accessKey,
+                       @Value("${jobproc.blobStore.s3.secretKey}") String secretKey,
+                       @Value("${jobproc.blobStore.s3.pathStyle:false}") boolean pathStyle,
+                       @Value("${jobproc.blobStore.s3.timeoutMs:60000}") long timeoutMs) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(Math.min(timeoutMs, 10000)))
+                .build();
+        log.info("Blob store: s3 bucket {} at {}", bucket, this.endpoint);
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        HttpResponse<String> response = send("PUT", key, Map.of(), HttpRequest.BodyPublishers.ofFile(file),
+                sha256Hex(file), HttpResponse.BodyHandlers.ofString());
+        check(response, "PUT", key);
+        puts.incrementAndGet();
+        bytesWritten.addAndGet(Files.size(file));
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        HttpResponse<InputStream> response = send("GET", key, Map.of(), HttpRequest.BodyPublishers.noBody(),
+                SigV4.EMPTY_SHA256, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            String body;
+            try (InputStream in = response.body()) {
+                body = new String(in.readNBytes(1000), StandardCharsets.UTF_8);
+            }
+            if (response.statusCode() == 404) {
+                throw new NoSuchFileException(key);
+            }
+            errors.incrementAndGet();
+            throw new IOException("S3 GET " + key + ": HTTP " + response.statusCode() + " " + body);
+        }
+        gets.incrementAndGet();
+        return response.body();
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        HttpResponse<Void> response = head(key);
+        return response == null ? -1 : response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    /** The object's ETag; stores that send none get length and Last-Modified instead */
+    @Override
+    public String version(String key) throws IOException {
+        HttpResponse<Void> response = head(key);
+        if (response == null) {
+            return null;
+        }
+        return response.headers().firstValue("ETag").orElseGet(() ->
+                response.headers().firstValue("Content-Length").orElse("") + "-"
+                        + response.headers().firstValue("Last-Modified").orElse(""));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<String> response = send("DELETE", key, Map.of(), HttpRequest.BodyPublishers.noBody(),
+                SigV4.EMPTY_SHA256, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 404) {
+            check(response, "DELETE", key);
+        }
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            Map<String, String> query = new TreeMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", prefix);
+            if (token != null) {
+                query.put("continuation-token", token);
+            }
+            HttpResponse<String> response = send("GET", null, query, HttpRequest.BodyPublishers.noBody(),
+                    SigV4.EMPTY_SHA256, HttpResponse.BodyHandlers.ofString());
+            check(response, "LIST", prefix);
+            Document doc = parse(response.body());
+            NodeList contents = doc.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                keys.add(text((Element) contents.item(i), "Key"));
+            }
+            token = "true".equals(text(doc.getDocumentElement(), "IsTruncated"))
+                    ? text(doc.getDocumentElement(), "NextContinuationToken") : null;
+        } while (token != null && !token.isEmpty());
+        keys.sort(null);
+        return keys;
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("type", "s3");
+        status.put("endpoint", endpoint.toString());
+        status.put("bucket", bucket);
+        status.put("requests", requests.get());
+        status.put("puts", puts.get());
+        status.put("gets", gets.get());
+        status.put("errors", errors.get());
+        status.put("bytesWritten", bytesWritten.get());
+        return status;
+    }
+
+    // ===== internals =====
+
+    /** HEAD of the object; null if there is none */
+    private HttpResponse<Void> head(String key) throws IOException {
+        HttpResponse<Void> response = send("HEAD", key, Map.of(), HttpRequest.BodyPublishers.noBody(),
+                SigV4.EMPTY_SHA256, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        if (response.statusCode() != 200) {
+            errors.incrementAndGet();
+            throw new IOException("S3 HEAD " + key + ": HTTP " + response.statusCode());
+        }
+        return response;
+    }
+
+    /** Signs and sends one request; key null addresses the bucket itself */
+    private <T> HttpResponse<T> send(String method, String key, Map<String, String> query,
+                                     HttpRequest.BodyPublisher body, String payloadHash,
+                                     HttpResponse.BodyHandler<T> handler) throws IOException {
+        String authority = pathStyle ? endpoint.getRawAuthority() : bucket + "." + endpoint.getRawAuthority();
+        String path = (pathStyle ? "/" + SigV4.encode(bucket, false) : "")
+                + "/" + (key != null ? SigV4.encode(key, true) : "");
+        if (pathStyle && key == null) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String canonicalQuery = SigV4.canonicalQuery(query);
+        URI uri = URI.create(endpoint.getScheme() + "://" + authority + endpoint.getRawPath() + path
+                + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        String amzDate = SigV4.AMZ_DATE.format(Instant.now());
+        Map<String, String> headers = new TreeMap<>();
+        headers.put("host", authority);
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", amzDate);
+        String authorization = SigV4.authorization(method, endpoint.getRawPath() + path, canonicalQuery,
+                headers, payloadHash, amzDate, region, SERVICE, accessKey, secretKey);
+
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .method(method, body)
+                .header("x-amz-content-sha256", payloadHash)
+                .header("x-amz-date", amzDate)
+                .header("Authorization", authorization)
+                .build();
+        requests.incrementAndGet();
+        try {
+            return http.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during S3 " + method + " " + key, e);
+        }
+    }
+
+    private void check(HttpResponse<String> response, String op, String key) throws IOException {
+        int code = response.statusCode();
+        if (code < 200 || code >= 300) {
+            errors.incrementAndGet();
+            String body = response.body();
+            throw new IOException("S3 " + op + " " + key + ": HTTP " + code + " "
+                    + (body != null && body.length() > 1000 ? body.substring(0, 1000) : body));
+        }
+    }
+
+    private static String sha256Hex(Path file) throws IOException {
+        MessageDigest digest = SigV4.sha256();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return SigV4.hex(digest.digest());
+    }
+
+    private static Document parse(String xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            return factory.newDocumentBuilder().parse(new java.io.ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IOException("Unreadable S3 listing: " + e.getMessage(), e);
+        }
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.sel2in.jobProc.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * jobproc.inbox: directories whose new files become jobs (InboxWatcher).
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "jobproc.inbox")
+public class InboxProperties {
+
+    private boolean enabled = false;
+
+    /** A file counts as written once its size and modification time stayed the same this long */
+    private long settleMs = 5000;
+
+    /** How often pending files are checked */
+    private long pollMs = 1000;
+
+    /** How often the directories are listed in case the watch missed something */
+    private long reconcileMs = 30000;
+
+    private List<Inbox> dirs = new ArrayList<>();
+
+    @Data
+    public static class Inbox {
+        private String path;
+        private String processor;
+
+        /** Glob matched against the file name */
+        private String pattern = "*";
+
+        /** Job name; ${fileName} is replaced */
+        private String jobName = "${fileName}";
+
+        private String comment;
+        private long delaySeconds = 30;
+
+        /**
+         * Input parameters of every job; ${fileName}, ${fileSize} and ${inbox} are replaced.
+         * Values that are numbers become NUMBER params.
+         */
+        private Map<String, String> params = new LinkedHashMap<>();
+
+        /**
+         * Hash the file into InputFileStore (one read, shared with identical files). false moves
+         * it into the job's folder without reading it.
+         */
+        private boolean deduplicate = true;
+    }
+}
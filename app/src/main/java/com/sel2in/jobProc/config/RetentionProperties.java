@@ -0,0 +1,67 @@
+package com.sel2in.jobProc.config;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * jobproc.retention: when old job folders are compacted into bundles and deleted (OutputRetention).
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "jobproc.retention")
+public class RetentionProperties {
+
+    private boolean enabled = true;
+    private long runMs = 3600000;
+
+    /** Folders looked at per query */
+    private int batchSize = 200;
+
+    /** Job folders compacted or deleted per run; the rest waits for the next run */
+    private int maxJobsPerRun = 5000;
+
+    /** Most jobs in one bundle */
+    private int bundleMaxJobs = 5000;
+
+    /** Read rate of compaction, MB per second (0 = unlimited) */
+    private int maxMbPerSecond = 20;
+
+    /** Used for processors without a policy of their own */
+    private Policy defaults = new Policy(7, 0, 0);
+
+    private List<ProcessorPolicy> processors = new ArrayList<>();
+
+    /** Days are counted from the newest file of the job's folder. 0 turns a step off. */
+    @Data
+    public static class Policy {
+        /** Output folders this old are compacted into a bundle */
+        private Integer compactAfterDays;
+
+        /** Output (folder or bundle) this old is deleted */
+        private Integer deleteAfterDays;
+
+        /** Input folders this old are deleted; their stored content goes with the next input store gc */
+        private Integer inputDeleteAfterDays;
+
+        public Policy() {
+        }
+
+        public Policy(Integer compactAfterDays, Integer deleteAfterDays, Integer inputDeleteAfterDays) {
+            this.compactAfterDays = compactAfterDays;
+            this.deleteAfterDays = deleteAfterDays;
+            this.inputDeleteAfterDays = inputDeleteAfterDays;
+        }
+    }
+
+    /** A processor's policy; unset values come from defaults */
+    @Data
+    @EqualsAndHashCode(callSuper = true)
+    public static class ProcessorPolicy extends Policy {
+        private String processor;
+    }
+}
@@ -0,0 +1,26 @@
+package com.sel2in.jobProc.config;
+
+import org.springframework.boot.web.servlet.filter.OrderedFormContentFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.servlet.http.HttpServletRequest;
+
+@Configuration
+public class WebConfig {
+
+    /**
+     * Replaces Boot's FormContentFilter, which reads a whole PUT body labelled
+     * application/x-www-form-urlencoded into a String. Upload chunks are streamed by
+     * UploadController whatever their content type, so they are left alone.
+     */
+    @Bean
+    public OrderedFormContentFilter formContentFilter() {
+        return new OrderedFormContentFilter() {
+            @Override
+            protected boolean shouldNotFilter(HttpServletRequest request) {
+                return request.getRequestURI().startsWith("/api/job/upload/");
+            }
+        };
+    }
+}
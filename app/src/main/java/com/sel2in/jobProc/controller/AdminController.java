@@ -4,9 +4,33 @@ import com.sel2in.jobProc.entity.AppParam;
 import com.sel2in.jobProc.entity.JobRecord;
 import com.sel2in.jobProc.repo.AppParamRepository;
 import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.service.AffinityRouter;
+import com.sel2in.jobProc.service.CheckpointService;
+import com.sel2in.jobProc.service.ChunkedUploadService;
+import com.sel2in.jobProc.service.FileDownloads;
+import com.sel2in.jobProc.service.InboxWatcher;
+import com.sel2in.jobProc.service.InputFileStore;
+import com.sel2in.jobProc.service.JobBlobs;
+import com.sel2in.jobProc.service.CompletionWriter;
+import com.sel2in.jobProc.service.JobArchiver;
+import com.sel2in.jobProc.service.JobClaimService;
 import com.sel2in.jobProc.service.JobEngine;
+import com.sel2in.jobProc.service.JobEventLog;
+import com.sel2in.jobProc.service.JobEventStream;
+import com.sel2in.jobProc.service.JobExecutionService;
+import com.sel2in.jobProc.service.JobReadModel;
+import com.sel2in.jobProc.service.MissedJobRecovery;
+import com.sel2in.jobProc.service.OutputFolderIndex;
+import com.sel2in.jobProc.service.OutputRetention;
+import com.sel2in.jobProc.service.ProcessorRollups;
+import com.sel2in.jobProc.service.ReferenceData;
+import com.sel2in.jobProc.service.ZipDownloads;
+import com.sel2in.jobProc.store.JobStateStore;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SchedulerMetaData;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
@@ -24,6 +48,28 @@ public class AdminController {
     private final AppParamRepository appParamRepository;
     private final JobEngine jobEngine;
     private final JobRepository jobRepository;
+    private final Scheduler quartzScheduler;
+    private final JobClaimService jobClaimService;
+    private final AffinityRouter affinityRouter;
+    private final MissedJobRecovery missedJobRecovery;
+    private final CheckpointService checkpointService;
+    private final CompletionWriter completionWriter;
+    private final JobExecutionService jobExecutionService;
+    private final ProcessorRollups processorRollups;
+    private final JobEventStream jobEventStream;
+    private final JobReadModel jobReadModel;
+    private final JobEventLog jobEventLog;
+    private final JobArchiver jobArchiver;
+    private final JobStateStore jobStateStore;
+    private final ReferenceData referenceData;
+    private final ChunkedUploadService chunkedUploadService;
+    private final InputFileStore inputFileStore;
+    private final InboxWatcher inboxWatcher;
+    private final FileDownloads fileDownloads;
+    private final ZipDownloads zipDownloads;
+    private final OutputFolderIndex outputFolderIndex;
+    private final OutputRetention outputRetention;
+    private final JobBlobs jobBlobs;
 
     // ===== AppParams =====
 
@@ -42,6 +88,7 @@ public class AdminController {
             param.setDescription(description);
         }
         param = appParamRepository.save(param);
+        referenceData.changed();
         log.info("AppParam set: {} = {}", name, value);
 
         // If thread pool size changed, apply immediately
@@ -64,23 +111,78 @@ public class AdminController {
         status.put("poolSize", jobEngine.getPoolSize());
         status.put("activeThreads", jobEngine.getActiveCount());
         status.put("activeJobIds", jobEngine.getActiveJobIds());
+        status.put("nodeId", jobClaimService.getNodeId());
+        status.put("claimMode", jobClaimService.getMode());
+        status.put("nodes", affinityRouter.getNodes());
+        status.put("routing", affinityRouter.getStatus());
+        status.put("completions", completionWriter.getStatus());
+        status.put("rollups", processorRollups.getStatus());
+        status.put("events", jobEventStream.getStatus());
+        status.put("readModel", jobReadModel.getStatus());
+        status.put("eventLog", jobEventLog.getStatus());
+        status.put("archive", jobArchiver.getStatus());
+        status.put("stateStore", jobStateStore.getStatus());
+        status.put("referenceData", referenceData.getStatus());
+        status.put("uploads", chunkedUploadService.getStatus());
+        status.put("inputStore", inputFileStore.getStatus());
+        status.put("inbox", inboxWatcher.getStatus());
+        status.put("downloads", fileDownloads.getStatus());
+        status.put("zipDownloads", zipDownloads.getStatus());
+        status.put("outputIndex", outputFolderIndex.getStatus());
+        status.put("retention", outputRetention.getStatus());
+        status.put("blobs", jobBlobs.getStatus());
+        try {
+            SchedulerMetaData meta = quartzScheduler.getMetaData();
+            status.put("schedulerInstanceId", meta.getSchedulerInstanceId());
+            status.put("jobStore", meta.getJobStoreClass().getSimpleName());
+            status.put("clustered", meta.isJobStoreClustered());
+            status.put("persistentJobStore", meta.isJobStoreSupportsPersistence());
+        } catch (SchedulerException e) {
+            log.warn("Could not read Quartz metadata: {}", e.getMessage());
+        }
         return status;
     }
 
+    /** Progress of the startup recovery (orphaned RUNNING jobs, then missed SCHEDULED ones). */
+    @GetMapping("/recovery")
+    public Map<String, Object> recoveryStatus() {
+        return missedJobRecovery.getProgress();
+    }
+
+    /** Checkpoint write latency and size metrics. */
+    @GetMapping("/checkpoints")
+    public Map<String, Object> checkpointMetrics() {
+        return checkpointService.getMetrics();
+    }
+
+    /** Runs the archiver now instead of waiting for jobproc.archive.runMs. */
+    @PostMapping("/archive/run")
+    public Map<String, Object> runArchiver() {
+        jobArchiver.run();
+        return jobArchiver.getStatus();
+    }
+
+    /** Deletes stored input files no job links to any more, instead of waiting for jobproc.inputStore.gcMs. */
+    @PostMapping("/inputStore/gc")
+    public Map<String, Object> collectInputStore() {
+        inputFileStore.gc();
+        return inputFileStore.getStatus();
+    }
+
+    /** Runs output / input retention now instead of waiting for jobproc.retention.runMs. */
+    @PostMapping("/retention/run")
+    public Map<String, Object> runRetention() {
+        return outputRetention.run();
+    }
+
     // ===== Job Cancel =====
 
     @PostMapping("/job/cancel")
     public Map<String, Object> cancelJob(@RequestParam Long jobId) {
         boolean cancelled = jobEngine.cancelJob(jobId);
         if (cancelled) {
-            // Update DB
-            jobRepository.findById(jobId).ifPresent(job -> {
-                job.setStatus("CANCELLED");
-                job.setMainErrorCode("CANCELLED");
-                job.setErrorReason("Cancelled by admin");
-                job.setJobEndDateTime(LocalDateTime.now());
-                jobRepository.save(job);
-            });
+            // Update DB, unless the engine's cancellation was recorded first
+            jobExecutionService.markCancelled(jobId, "CANCELLED", "Cancelled by admin");
         }
         Map<String, Object> result = new LinkedHashMap<>();
         result.put("jobId", jobId);
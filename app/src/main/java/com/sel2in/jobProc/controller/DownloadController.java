@@ -1,67 +1,107 @@
 package com.sel2in.jobProc.controller;
 
+import com.sel2in.jobProc.blob.BlobCache;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.OutputDataFile;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.entity.OutputFolder;
+import com.sel2in.jobProc.service.FileDownloads;
+import com.sel2in.jobProc.service.JobBlobs;
+import com.sel2in.jobProc.service.JobReadModel;
+import com.sel2in.jobProc.service.OutputBundles;
+import com.sel2in.jobProc.service.OutputFolderIndex;
+import com.sel2in.jobProc.service.OutputStore;
+import com.sel2in.jobProc.service.ReferenceData;
+import com.sel2in.jobProc.service.ZipDownloads;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Page;
 import org.springframework.http.*;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
 
 /**
  * Serves files and directory listings from the outputFiles directory
  * under the /dwn/ URL path.
  *
- *   GET /dwn/          → list job output folders
+ *   GET /dwn/          → list job output folders (a page of the OutputFolderIndex)
  *   GET /dwn/5/        → list files in job 5's output
- *   GET /dwn/5/report.html → serve/download the file
+ *   GET /dwn/5/report.html → serve/download the file (ranges, 304s, gzip)
+ *   GET /dwn/zip/5         → job 5's whole output as a streamed ZIP
+ *
+ * Jobs whose output has been stored are listed from the OutputDataFile index;
+ * older jobs fall back to reading their folder, compacted jobs (OutputRetention)
+ * to their bundle, and jobs run on another node to the shared blob store (JobBlobs).
  */
 @Slf4j
 @Controller
 @RequestMapping("/dwn")
+@RequiredArgsConstructor
 public class DownloadController {
 
-    private static final String OUTPUT_DIR = "./outputFiles";
-    private static final String INPUT_DIR = "./inputFiles";
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ReferenceData referenceData;
+    private final JobReadModel jobReadModel;
+    private final OutputFolderIndex outputFolderIndex;
+    private final FileDownloads fileDownloads;
+    private final ZipDownloads zipDownloads;
+    private final OutputBundles outputBundles;
+    private final JobBlobs jobBlobs;
+    private final OutputStore outputStore;
+    private final InputDataFileRepository inputDataFileRepository;
 
     /**
-     * Root listing: show all job output folders.
+     * Root listing: one page of job output folders from the OutputFolderIndex, sortable by
+     * job, files, size or modified.
      */
     @GetMapping({"", "/"})
     @ResponseBody
-    public ResponseEntity<String> listRoot() throws IOException {
-        Path root = Paths.get(OUTPUT_DIR);
-        if (!Files.exists(root) || !Files.isDirectory(root)) {
-            return ResponseEntity.ok(buildHtml("Output Files", "<p>No output files yet.</p>"));
-        }
-
-        List<Path> dirs;
-        try (var stream = Files.list(root)) {
-            dirs = stream.filter(Files::isDirectory)
-                         .sorted(Comparator.comparing(p -> p.getFileName().toString()))
-                         .collect(Collectors.toList());
+    public ResponseEntity<String> listRoot(@RequestParam(defaultValue = "0") int page,
+                                           @RequestParam(defaultValue = "100") int size,
+                                           @RequestParam(defaultValue = "job") String sort,
+                                           @RequestParam(defaultValue = "desc") String dir) {
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        boolean desc = !"asc".equalsIgnoreCase(dir);
+        Page<OutputFolder> folders = outputFolderIndex.page(page, size, sort, desc);
+        if (folders.getTotalElements() == 0) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_HTML)
+                    .body(buildHtml("Output Files", "<p>No output files yet.</p>"));
         }
 
+        DecimalFormat df = new DecimalFormat("#,##0");
         StringBuilder rows = new StringBuilder();
-        for (Path dir : dirs) {
-            String name = dir.getFileName().toString();
-            long count = 0;
-            try (var s = Files.list(dir)) { count = s.count(); }
+        for (OutputFolder f : folders) {
             rows.append("<tr>")
-                .append("<td><a href=\"/dwn/").append(name).append("/\">📁 Job ").append(name).append("</a></td>")
-                .append("<td>").append(count).append(" file(s)</td>")
+                .append("<td><a href=\"/dwn/").append(f.getJobId()).append("/\">📁 Job ").append(f.getJobId()).append("</a></td>")
+                .append("<td>").append(df.format(f.getFileCount())).append(" file(s)</td>")
+                .append("<td>").append(df.format(f.getTotalBytes())).append(" bytes</td>")
+                .append("<td>").append(f.getLastModified() != null ? f.getLastModified().withNano(0).toString().replace('T', ' ') : "—").append("</td>")
                 .append("</tr>\n");
         }
 
-        String body = dirs.isEmpty()
-                ? "<p>No output files yet.</p>"
-                : "<table><tr><th>Job Output</th><th>Files</th></tr>\n" + rows + "</table>";
+        long[] totals = outputFolderIndex.totals();
+        String summary = "<p>" + df.format(totals[0]) + " job folder(s), " + df.format(totals[1]) + " file(s), "
+                + df.format(totals[2]) + " bytes</p>\n";
+        String header = "<tr>" + sortHeader("Job Output", "job", sort, desc, size)
+                + sortHeader("Files", "files", sort, desc, size)
+                + sortHeader("Size", "size", sort, desc, size)
+                + sortHeader("Modified", "modified", sort, desc, size) + "</tr>\n";
+        String query = "&size=" + size + "&sort=" + esc(sort) + "&dir=" + (desc ? "desc" : "asc");
+        String body = summary + "<table>" + header + rows + "</table>\n"
+                + pager("/dwn/", folders.getNumber(), folders.getTotalPages(), query);
 
         return ResponseEntity.ok()
                 .contentType(MediaType.TEXT_HTML)
@@ -69,12 +109,41 @@ public class DownloadController {
     }
 
     /**
-     * Job folder listing: show files in a specific job's output.
+     * Job folder listing: show files in a specific job's output, a page at a time.
      */
     @GetMapping("/{jobId}/")
     @ResponseBody
-    public ResponseEntity<String> listJob(@PathVariable String jobId) throws IOException {
-        Path jobDir = Paths.get(OUTPUT_DIR, jobId);
+    public ResponseEntity<String> listJob(@PathVariable String jobId,
+                                          @RequestParam(defaultValue = "0") int page,
+                                          @RequestParam(defaultValue = "500") int size) throws IOException {
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        page = Math.max(0, page);
+        if (hidden(jobId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .contentType(MediaType.TEXT_HTML)
+                    .body(buildHtml("Not Found", "<p>No output folder for job " + esc(jobId) + ".</p>"));
+        }
+        Long id = parseJobId(jobId);
+        List<OutputDataFile> indexed = id != null ? jobReadModel.outputFiles(id) : Collections.emptyList();
+        if (!indexed.isEmpty()) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_HTML)
+                    .body(buildHtml("Job " + esc(jobId) + " — Output Files", indexedListing(jobId, indexed, page, size)));
+        }
+
+        Path jobDir = referenceData.outputFileDirectory().resolve(jobId);
+        Long bundleId = id != null && !Files.isDirectory(jobDir) ? outputBundles.bundleOf(id) : null;
+        if (bundleId != null) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_HTML)
+                    .body(buildHtml("Job " + esc(jobId) + " — Output Files", bundleListing(jobId, bundleId, page, size)));
+        }
+        List<String> shared = id != null && !Files.isDirectory(jobDir) ? jobBlobs.outputNames(id) : List.of();
+        if (!shared.isEmpty()) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_HTML)
+                    .body(buildHtml("Job " + esc(jobId) + " — Output Files", sharedListing(jobId, shared, page, size)));
+        }
         if (!Files.exists(jobDir) || !Files.isDirectory(jobDir)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .contentType(MediaType.TEXT_HTML)
@@ -86,27 +155,31 @@ public class DownloadController {
             files = stream.sorted(Comparator.comparing(p -> p.getFileName().toString()))
                           .collect(Collectors.toList());
         }
+        int pages = (files.size() + size - 1) / size;
 
         StringBuilder rows = new StringBuilder();
         DecimalFormat df = new DecimalFormat("#,##0");
-        for (Path file : files) {
+        // Only the files of this page are looked at
+        for (Path file : files.subList(Math.min(files.size(), page * size), Math.min(files.size(), (page + 1) * size))) {
             String name = file.getFileName().toString();
             boolean isDir = Files.isDirectory(file);
-            long size = isDir ? 0 : Files.size(file);
+            long fileSize = isDir ? 0 : Files.size(file);
             String icon = isDir ? "📁" : guessIcon(name);
             String link = isDir
                     ? "/dwn/" + jobId + "/" + name + "/"
                     : "/dwn/" + jobId + "/" + name;
             rows.append("<tr>")
                 .append("<td><a href=\"").append(link).append("\">").append(icon).append(" ").append(esc(name)).append("</a></td>")
-                .append("<td>").append(isDir ? "—" : df.format(size) + " bytes").append("</td>")
+                .append("<td>").append(isDir ? "—" : df.format(fileSize) + " bytes").append("</td>")
                 .append("</tr>\n");
         }
 
-        String nav = "<p><a href=\"/dwn/\">← Back to all jobs</a></p>\n";
+        String nav = "<p><a href=\"/dwn/\">← Back to all jobs</a> · "
+                + "<a href=\"/dwn/zip/" + esc(jobId) + "\">📦 Download all (ZIP)</a></p>\n";
         String body = files.isEmpty()
                 ? nav + "<p>No files in this folder.</p>"
-                : nav + "<table><tr><th>File</th><th>Size</th></tr>\n" + rows + "</table>";
+                : nav + "<table><tr><th>File</th><th>Size</th></tr>\n" + rows + "</table>\n"
+                    + pager("/dwn/" + esc(jobId) + "/", page, pages, "&size=" + size);
 
         return ResponseEntity.ok()
                 .contentType(MediaType.TEXT_HTML)
@@ -114,61 +187,249 @@ public class DownloadController {
     }
 
     /**
-     * Serve a file from a job's output folder.
+     * Serve a file from a job's output folder. Supports Range, conditional GET and gzip (FileDownloads).
      */
     @GetMapping("/{jobId}/{fileName:.+}")
-    public ResponseEntity<Resource> serveFile(@PathVariable String jobId,
-                                              @PathVariable String fileName) {
+    public void serveFile(@PathVariable String jobId,
+                          @PathVariable String fileName,
+                          HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
         // Prevent path traversal
         if (jobId.contains("..") || fileName.contains("..")) {
-            return ResponseEntity.badRequest().build();
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (hidden(jobId)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        Path filePath = Paths.get(OUTPUT_DIR, jobId, fileName);
+        Path filePath = referenceData.outputFileDirectory().resolve(jobId).resolve(fileName);
         File file = filePath.toFile();
 
-        if (!file.exists() || !file.isFile()) {
-            return ResponseEntity.notFound().build();
+        if (!file.isFile()) {
+            // Processors may report output files outside the job folder; those are in the index
+            file = indexedFile(jobId, fileName);
         }
-
         String contentType = guessContentType(fileName);
         boolean isInline = contentType.startsWith("text/") || contentType.equals("application/pdf")
                 || contentType.startsWith("image/");
+        String disposition = isInline ? "inline" : "attachment";
 
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        (isInline ? "inline" : "attachment") + "; filename=\"" + fileName + "\"")
-                .body(new FileSystemResource(file));
+        if (file == null || !file.isFile()) {
+            // Compacted by OutputRetention: the file is in the job's bundle
+            Long id = parseJobId(jobId);
+            Long bundleId = id != null ? outputBundles.bundleOf(id) : null;
+            if (bundleId != null) {
+                try (OutputBundles.Handle bundle = outputBundles.acquire(bundleId)) {
+                    ZipEntry entry = outputBundles.entry(bundle.zip(), id, fileName);
+                    if (entry != null) {
+                        fileDownloads.sendEntry(request, response, bundleId, bundle.zip(), entry, fileName, contentType, disposition);
+                        return;
+                    }
+                }
+            }
+            // Run on another node: the file is in the blob store, cached here while it is sent
+            BlobCache.Pin shared = id != null ? jobBlobs.outputFile(id, fileName) : null;
+            if (shared == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            try (shared) {
+                fileDownloads.send(request, response, shared.path(), fileName, contentType, disposition, false);
+            }
+            return;
+        }
+
+        fileDownloads.send(request, response, file.toPath(), fileName, contentType, disposition);
     }
 
     /**
      * Serve a file from a job's input folder.
      */
     @GetMapping("/input/{jobId}/{fileName:.+}")
-    public ResponseEntity<Resource> serveInputFile(@PathVariable String jobId,
-                                                   @PathVariable String fileName) {
+    public void serveInputFile(@PathVariable String jobId,
+                               @PathVariable String fileName,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
         if (jobId.contains("..") || fileName.contains("..")) {
-            return ResponseEntity.badRequest().build();
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (hidden(jobId)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        Path filePath = Paths.get(INPUT_DIR, jobId, fileName);
+        Path filePath = referenceData.inputFileDirectory().resolve(jobId).resolve(fileName);
         File file = filePath.toFile();
 
+        if (!file.isFile() && jobBlobs.isEnabled()) {
+            // Stored on another node: fetched from the blob store
+            Long id = parseJobId(jobId);
+            InputDataFile stored = id == null ? null : inputDataFileRepository.findByInputDataId(id).stream()
+                    .filter(f -> fileName.equals(f.getFileName()))
+                    .findFirst()
+                    .orElse(null);
+            if (stored != null) {
+                filePath = jobBlobs.localInput(stored);
+                file = filePath.toFile();
+            }
+        }
         if (!file.exists() || !file.isFile()) {
-            return ResponseEntity.notFound().build();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        String contentType = guessContentType(fileName);
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "inline; filename=\"" + fileName + "\"")
-                .body(new FileSystemResource(file));
+        fileDownloads.send(request, response, filePath, fileName, guessContentType(fileName), "inline");
+    }
+
+    /**
+     * The whole output of a job as a ZIP, built while it is sent (ZipDownloads).
+     */
+    @GetMapping("/zip/{jobId}")
+    public void zipJob(@PathVariable Long jobId, HttpServletResponse response) throws IOException {
+        sendZip(List.of(jobId), false, response);
+    }
+
+    /**
+     * The output of several jobs in one ZIP, one folder per job: /dwn/zip?jobIds=4,5,9
+     */
+    @GetMapping("/zip")
+    public void zipJobs(@RequestParam List<Long> jobIds, HttpServletResponse response) throws IOException {
+        sendZip(jobIds, true, response);
     }
 
     // ── Helpers ──
 
+    /**
+     * The engine's own folders next to the job folders (.gz, .bundles, .cas, .uploads ...) are
+     * not job output and never served.
+     */
+    private static boolean hidden(String segment) {
+        return segment.startsWith(".");
+    }
+
+    private void sendZip(List<Long> jobIds, boolean perJobFolders, HttpServletResponse response) throws IOException {
+        if (jobIds.stream().distinct().count() > zipDownloads.getMaxJobs()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + zipDownloads.getMaxJobs() + " jobs per ZIP");
+            return;
+        }
+        List<Long> ids = jobIds.stream().distinct().filter(zipDownloads::hasOutput).collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String name = perJobFolders ? "jobs-output.zip" : "job-" + ids.get(0) + "-output.zip";
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(name).build().toString());
+        zipDownloads.write(ids, perJobFolders, response.getOutputStream());
+    }
+
+    private String indexedListing(String jobId, List<OutputDataFile> files, int page, int size) {
+        StringBuilder rows = new StringBuilder();
+        DecimalFormat df = new DecimalFormat("#,##0");
+        int pages = (files.size() + size - 1) / size;
+        for (OutputDataFile f : files.subList(Math.min(files.size(), page * size), Math.min(files.size(), (page + 1) * size))) {
+            String name = f.getFileName();
+            String fileSize = f.getFileSize() != null && f.getFileSize() >= 0 ? df.format(f.getFileSize()) + " bytes" : "—";
+            rows.append("<tr>")
+                .append("<td><a href=\"/dwn/").append(esc(jobId)).append("/").append(esc(name)).append("\">")
+                .append(guessIcon(name)).append(" ").append(esc(name)).append("</a></td>")
+                .append("<td>").append(fileSize).append("</td>")
+                .append("</tr>\n");
+        }
+        return "<p><a href=\"/dwn/\">← Back to all jobs</a> · "
+                + "<a href=\"/dwn/zip/" + esc(jobId) + "\">📦 Download all (ZIP)</a></p>\n"
+                + "<table><tr><th>File</th><th>Size</th></tr>\n" + rows + "</table>\n"
+                + pager("/dwn/" + esc(jobId) + "/", page, pages, "&size=" + size);
+    }
+
+    private String bundleListing(String jobId, Long bundleId, int page, int size) throws IOException {
+        List<ZipEntry> entries;
+        try (OutputBundles.Handle bundle = outputBundles.acquire(bundleId)) {
+            entries = outputBundles.entries(bundle.zip(), Long.valueOf(jobId));
+        }
+        String prefix = jobId + "/";
+        StringBuilder rows = new StringBuilder();
+        DecimalFormat df = new DecimalFormat("#,##0");
+        int pages = (entries.size() + size - 1) / size;
+        for (ZipEntry e : entries.subList(Math.min(entries.size(), page * size), Math.min(entries.size(), (page + 1) * size))) {
+            String name = e.getName().substring(prefix.length());
+            rows.append("<tr>")
+                .append("<td><a href=\"/dwn/").append(esc(jobId)).append("/").append(esc(name)).append("\">")
+                .append(guessIcon(name)).append(" ").append(esc(name)).append("</a></td>")
+                .append("<td>").append(df.format(e.getSize())).append(" bytes</td>")
+                .append("</tr>\n");
+        }
+        return "<p><a href=\"/dwn/\">← Back to all jobs</a> · "
+                + "<a href=\"/dwn/zip/" + esc(jobId) + "\">📦 Download all (ZIP)</a></p>\n"
+                + "<p>Archived in output bundle " + bundleId + ".</p>\n"
+                + "<table><tr><th>File</th><th>Size</th></tr>\n" + rows + "</table>\n"
+                + pager("/dwn/" + esc(jobId) + "/", page, pages, "&size=" + size);
+    }
+
+    private String sharedListing(String jobId, List<String> names, int page, int size) {
+        StringBuilder rows = new StringBuilder();
+        int pages = (names.size() + size - 1) / size;
+        for (String name : names.subList(Math.min(names.size(), page * size), Math.min(names.size(), (page + 1) * size))) {
+            rows.append("<tr>")
+                .append("<td><a href=\"/dwn/").append(esc(jobId)).append("/").append(esc(name)).append("\">")
+                .append(guessIcon(name)).append(" ").append(esc(name)).append("</a></td>")
+                .append("</tr>\n");
+        }
+        return "<p><a href=\"/dwn/\">← Back to all jobs</a> · "
+                + "<a href=\"/dwn/zip/" + esc(jobId) + "\">📦 Download all (ZIP)</a></p>\n"
+                + "<p>Stored in the shared blob store.</p>\n"
+                + "<table><tr><th>File</th></tr>\n" + rows + "</table>\n"
+                + pager("/dwn/" + esc(jobId) + "/", page, pages, "&size=" + size);
+    }
+
+    private String sortHeader(String label, String key, String sort, boolean desc, int size) {
+        boolean current = key.equals(sort);
+        String dir = current && desc ? "asc" : "desc";
+        return "<th><a href=\"/dwn/?sort=" + key + "&dir=" + dir + "&size=" + size + "\">" + label
+                + (current ? (desc ? " ▼" : " ▲") : "") + "</a></th>";
+    }
+
+    private String pager(String path, int page, int pages, String query) {
+        if (pages <= 1) {
+            return "";
+        }
+        StringBuilder p = new StringBuilder("<p>");
+        if (page > 0) {
+            p.append("<a href=\"").append(path).append("?page=").append(page - 1).append(query).append("\">← Previous</a> ");
+        }
+        p.append("Page ").append(page + 1).append(" of ").append(pages);
+        if (page + 1 < pages) {
+            p.append(" <a href=\"").append(path).append("?page=").append(page + 1).append(query).append("\">Next →</a>");
+        }
+        return p.append("</p>\n").toString();
+    }
+
+    private File indexedFile(String jobId, String fileName) {
+        Long id = parseJobId(jobId);
+        if (id == null) {
+            return null;
+        }
+        // Checked again here: rows indexed before the output directory check, or a file swapped for a link since
+        return jobReadModel.outputFiles(id).stream()
+                .filter(f -> fileName.equals(f.getFileName()))
+                .map(f -> Paths.get(f.getFilePath()))
+                .filter(outputStore::isServable)
+                .map(Path::toFile)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private Long parseJobId(String name) {
+        try {
+            return Long.valueOf(name);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private String guessContentType(String name) {
         String lower = name.toLowerCase();
         if (lower.endsWith(".html") || lower.endsWith(".htm")) return "text/html";
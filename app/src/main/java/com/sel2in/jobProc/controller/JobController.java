@@ -1,30 +1,51 @@
 package com.sel2in.jobProc.controller;
 
+import com.sel2in.jobProc.dto.JobSearchCriteria;
 import com.sel2in.jobProc.entity.InputDataFile;
 import com.sel2in.jobProc.entity.InputDataParam;
+import com.sel2in.jobProc.entity.JobEvent;
 import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.OutputDataFile;
 import com.sel2in.jobProc.repo.InputDataFileRepository;
 import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobArchiveRepository;
 import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.service.JobArchiver;
+import com.sel2in.jobProc.service.InputFileStore;
+import com.sel2in.jobProc.service.JobEngine;
+import com.sel2in.jobProc.service.JobEventLog;
+import com.sel2in.jobProc.service.JobEventStream;
 import com.sel2in.jobProc.service.JobExecutionService;
+import com.sel2in.jobProc.service.JobReadModel;
+import com.sel2in.jobProc.service.JobSearchService;
+import com.sel2in.jobProc.service.JobStateEvents;
+import com.sel2in.jobProc.service.JobStats;
+import com.sel2in.jobProc.service.JobTriggers;
+import com.sel2in.jobProc.service.OutputStore;
+import com.sel2in.jobProc.service.ProcessorRollups;
+import com.sel2in.jobProc.service.ReferenceData;
 import com.sel2in.jobProc.service.ScheduledJobTrigger;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.quartz.*;
+import org.quartz.SchedulerException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -41,12 +62,21 @@ public class JobController {
     private final JobRepository jobRepository;
     private final InputDataFileRepository inputDataFileRepository;
     private final InputDataParamRepository inputDataParamRepository;
-    private final Scheduler quartzScheduler;
     private final JobExecutionService jobExecutionService;
-    private final com.sel2in.jobProc.service.JobEngine jobEngine;
-    
-    @org.springframework.beans.factory.annotation.Value("${jobproc.inputFileDirectory:./inputFiles}")
-    private String inputFileDirectory;
+    private final JobEngine jobEngine;
+    private final OutputStore outputStore;
+    private final JobSearchService jobSearchService;
+    private final JobStats jobStats;
+    private final JobStateEvents jobStateEvents;
+    private final ProcessorRollups processorRollups;
+    private final JobEventStream jobEventStream;
+    private final JobReadModel jobReadModel;
+    private final JobEventLog jobEventLog;
+    private final JobArchiver jobArchiver;
+    private final JobArchiveRepository jobArchiveRepository;
+    private final ReferenceData referenceData;
+    private final InputFileStore inputFileStore;
+    private final JobTriggers jobTriggers;
 
     @GetMapping("/serverTime")
     @ResponseBody
@@ -56,8 +86,13 @@ public class JobController {
         return dateTime + " " + timeZone;
     }
 
+    /**
+     * Without page/size every job, as before; once there are more jobs than the read model
+     * holds, only the held (newest) ones, with X-Partial-From-Id naming the lowest id returned.
+     * Page through /status?page=..&size=.. or /search for the rest.
+     */
     @GetMapping("/status")
-    public List<JobRecord> getStatus(
+    public ResponseEntity<List<JobRecord>> getStatus(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
         // Input validation
@@ -66,33 +101,160 @@ public class JobController {
         if (size > 100) size = 100;
         
         if (page == 0 && size == 50) {
-            // Legacy behavior for backward compatibility
-            return jobRepository.findAll();
+            // Legacy behavior for backward compatibility; served from memory, never a full table read
+            List<JobRecord> all = jobReadModel.allJobs();
+            if (all != null) {
+                return ResponseEntity.ok(all);
+            }
+            long fromId = jobReadModel.coveredFromId();
+            return ResponseEntity.ok().header("X-Partial-From-Id", String.valueOf(fromId))
+                    .body(jobReadModel.window(fromId));
+        }
+        List<JobRecord> cached = jobReadModel.page(page, size);
+        if (cached != null) {
+            return ResponseEntity.ok(cached);
         }
         Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
         Page<JobRecord> resultPage = jobRepository.findAll(pageable);
-        return resultPage.getContent();
+        return ResponseEntity.ok(resultPage.getContent());
+    }
+
+    /**
+     * Filtered job list, newest first by default, one keyset page at a time.
+     * Pass nextCursor of a response as "after" to get the following page.
+     * e.g. /api/job/search?statuses=FAILED,TIMED_OUT&namePrefix=Audit&endedFrom=2026-01-01T00:00:00&sort=ended
+     */
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> search(JobSearchCriteria criteria) {
+        try {
+            return ResponseEntity.ok(jobSearchService.search(criteria));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
     }
 
     @GetMapping("/stats")
-    public java.util.Map<String, Object> getStats() {
-        List<JobRecord> jobs = jobRepository.findAll();
-        java.util.Map<String, Long> statusCounts = jobs.stream()
-                .collect(java.util.stream.Collectors.groupingBy(JobRecord::getStatus, java.util.stream.Collectors.counting()));
-
-        java.util.Map<String, Object> stats = new java.util.HashMap<>();
-        stats.put("total", jobs.size());
-        stats.put("statusCounts", statusCounts);
-        
-        // Last 10 finished jobs for history chart
-        List<JobRecord> history = jobs.stream()
-                .filter(j -> j.getJobEndDateTime() != null)
-                .sorted((a, b) -> b.getJobEndDateTime().compareTo(a.getJobEndDateTime()))
-                .limit(10)
-                .collect(java.util.stream.Collectors.toList());
-        stats.put("history", history);
-
-        return stats;
+    public Map<String, Object> getStats() {
+        // Maintained from job state changes, see JobStats
+        return jobStats.getStats();
+    }
+
+    /**
+     * Server-Sent Events stream of job state changes plus a periodic "tick" with server time,
+     * engine pool and status counts. Optional filters: jobIds, statuses (from or to),
+     * processor, finalOnly; ticks=false drops the ticks, jobEvents=false sends ticks only.
+     * EventSource resumes with Last-Event-ID.
+     */
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(
+            @RequestParam(required = false) List<Long> jobIds,
+            @RequestParam(required = false) List<String> statuses,
+            @RequestParam(required = false) String processor,
+            @RequestParam(defaultValue = "false") boolean finalOnly,
+            @RequestParam(defaultValue = "true") boolean ticks,
+            @RequestParam(defaultValue = "true") boolean jobEvents,
+            @RequestParam(required = false) String lastEventId,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventIdHeader) {
+        JobEventStream.Filter filter = new JobEventStream.Filter()
+                .jobIds(jobIds).statuses(statuses).processor(processor).finalOnly(finalOnly).ticks(ticks)
+                .jobEvents(jobEvents);
+        return jobEventStream.subscribe(filter, lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+    }
+
+    /**
+     * Waits until the job finishes: 200 with its final status, or 202 with the current
+     * status when timeoutMs passes first, 404 if there is no such job.
+     */
+    @GetMapping("/{jobId}/await")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> awaitJob(
+            @PathVariable Long jobId, @RequestParam(defaultValue = "30000") long timeoutMs) {
+        return jobEventStream.await(jobId, timeoutMs);
+    }
+
+    /**
+     * Every recorded status transition of a job, oldest first, with the node that made it.
+     * Jobs from before the event log existed have only their current status.
+     */
+    @GetMapping("/{jobId}/timeline")
+    public ResponseEntity<Map<String, Object>> getTimeline(@PathVariable Long jobId) {
+        List<JobEvent> events = jobEventLog.timeline(jobId);
+        String status = jobRepository.findById(jobId).map(JobRecord::getStatus)
+                .orElseGet(() -> jobArchiveRepository.findStatus(jobId));
+        if (events.isEmpty() && status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("jobId", jobId);
+        result.put("status", status);
+        result.put("events", events);
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Change feed: transitions of all jobs after sequence "after", in order. Pass nextAfter
+     * back to continue. A transaction still committing can add a lower sequence a moment
+     * later, so a consumer that must see every row re-reads the last few seconds.
+     */
+    @GetMapping("/changes")
+    public Map<String, Object> getChanges(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "200") int limit) {
+        if (limit < 1) limit = 200;
+        if (limit > 1000) limit = 1000;
+        List<JobEvent> events = jobEventLog.after(after, limit);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("events", events);
+        result.put("nextAfter", events.isEmpty() ? after : events.get(events.size() - 1).getSeq());
+        return result;
+    }
+
+    /**
+     * Archived jobs (moved out of InputData by JobArchiver) that ended in [from, to), by id.
+     * Pass nextAfterId back as afterId for the next page.
+     * e.g. /api/job/archive?from=2026-01-01T00:00:00&to=2026-02-01T00:00:00
+     */
+    @GetMapping("/archive")
+    public ResponseEntity<Map<String, Object>> listArchived(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "0") long afterId,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(jobArchiver.list(from, to, afterId, limit));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    /** One archived job with its input params and files */
+    @GetMapping("/archive/{jobId}")
+    public ResponseEntity<Map<String, Object>> getArchived(@PathVariable Long jobId) {
+        Map<String, Object> job = jobArchiver.find(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Per-processor throughput and latency buckets over a time range.
+     * Defaults: the last 60 minutes (granularity=minute) or 48 hours (granularity=hour).
+     * e.g. /api/job/rollups?granularity=hour&processor=com.example.Audit&from=2026-01-01T00:00:00
+     */
+    @GetMapping("/rollups")
+    public ResponseEntity<Map<String, Object>> getRollups(
+            @RequestParam(defaultValue = "minute") String granularity,
+            @RequestParam(required = false) String processor,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            return ResponseEntity.ok(processorRollups.query(granularity, processor, from, to));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
     }
 
     /**
@@ -151,24 +313,16 @@ public class JobController {
         job.setScheduledRunTime(runAt);
         job.setStatus("SCHEDULED");
         job = jobRepository.save(job);
+        jobStateEvents.created(job);
 
-        // Handle File Uploads
+        // Handle File Uploads; stored once per content, the job's file links to it
         if (files != null && !files.isEmpty()) {
-            Path jobInputDir = Paths.get(inputFileDirectory, job.getId().toString());
-            Files.createDirectories(jobInputDir);
-
             for (MultipartFile file : files) {
                 if (file.isEmpty()) continue;
                 String fileName = file.getOriginalFilename();
-                Path filePath = jobInputDir.resolve(fileName).toAbsolutePath();
-                file.transferTo(filePath.toFile());
-
-                InputDataFile idf = new InputDataFile();
-                idf.setInputDataId(job.getId());
-                idf.setFileName(fileName);
-                idf.setFilePath(filePath.toString());
-                idf.setFileSize(file.getSize());
-                inputDataFileRepository.save(idf);
+                try (InputStream in = file.getInputStream()) {
+                    inputFileStore.store(job.getId(), fileName, in);
+                }
                 log.info("Saved input file: {} for job {}", fileName, job.getId());
             }
         }
@@ -201,17 +355,56 @@ public class JobController {
         long delaySec = ChronoUnit.SECONDS.between(now, runAt);
         log.info("Job {} '{}' will run in {}s at {}", job.getId(), jobName, delaySec, runAt);
 
-        // Schedule via Quartz
-        try {
-            scheduleQuartzJob(job.getId(), runAt);
-        } catch (SchedulerException e) {
-            log.error("Failed to schedule Quartz trigger for job {}", job.getId(), e);
-            job.setStatus("SCHEDULE_FAILED");
-            job.setNotes("Quartz error: " + e.getMessage());
-            jobRepository.save(job);
+        jobTriggers.schedule(job, runAt);
+        return job;
+    }
+
+    /**
+     * Schedules a new job with the processor, name, comment, input params and input files of
+     * jobId, which may have finished. Input files link to the same stored content (InputFileStore),
+     * so nothing is copied.
+     */
+    @PostMapping("/clone")
+    public ResponseEntity<Object> cloneJob(
+            @RequestParam Long jobId,
+            @RequestParam(defaultValue = "1") int delayMinutes) throws IOException {
+        JobRecord source = jobRepository.findById(jobId).orElse(null);
+        if (source == null) {
+            return ResponseEntity.notFound().build();
         }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime earliest = now.plusSeconds(MIN_DELAY_SECONDS);
+        LocalDateTime requested = now.plusMinutes(Math.max(0, delayMinutes));
+        LocalDateTime runAt = requested.isBefore(earliest) ? earliest : requested;
 
-        return job;
+        JobRecord job = new JobRecord();
+        job.setJobName(source.getJobName());
+        job.setProcessorClassName(source.getProcessorClassName());
+        job.setComment(source.getComment());
+        job.setJobSubmittedDateTime(now);
+        job.setScheduledRunTime(runAt);
+        job.setStatus("SCHEDULED");
+        job = jobRepository.save(job);
+        jobStateEvents.created(job);
+
+        for (InputDataFile file : inputDataFileRepository.findByInputDataId(jobId)) {
+            inputFileStore.copy(file, job.getId());
+        }
+        for (InputDataParam param : inputDataParamRepository.findByInputDataId(jobId)) {
+            InputDataParam copy = new InputDataParam();
+            copy.setInputDataId(job.getId());
+            copy.setParamName(param.getParamName());
+            copy.setParamType(param.getParamType());
+            copy.setNumberValue(param.getNumberValue());
+            copy.setStringValue(param.getStringValue());
+            copy.setDateValue(param.getDateValue());
+            copy.setObjectJson(param.getObjectJson());
+            inputDataParamRepository.save(copy);
+        }
+        log.info("Job {} cloned from job {}, will run at {}", job.getId(), jobId, runAt);
+
+        jobTriggers.schedule(job, runAt);
+        return ResponseEntity.ok(job);
     }
 
     /**
@@ -224,26 +417,22 @@ public class JobController {
         JobRecord job = jobRepository.findById(jobId).orElse(null);
         if (job == null) return "Job not found";
 
-        if (!"SCHEDULED".equals(job.getStatus()) && !"FAILED".equals(job.getStatus())) {
+        if (!"SCHEDULED".equals(job.getStatus()) && !"FAILED".equals(job.getStatus())
+                && !"TIMED_OUT".equals(job.getStatus())) {
             return "Job is in status " + job.getStatus() + ", cannot trigger run now";
         }
 
         LocalDateTime now = LocalDateTime.now();
         LocalDateTime runAt = now.plusSeconds(3);
 
-        // Update DB
-        job.setStatus("SCHEDULED");
-        job.setScheduledRunTime(runAt);
-        jobRepository.save(job);
+        // Conditional on the status read above, through the state store
+        if (!jobExecutionService.reschedule(jobId, job.getStatus(), runAt)) {
+            return "Job " + jobId + " changed status meanwhile, not rescheduled";
+        }
 
-        // Reschedule via Quartz
+        // Replace the Quartz trigger (none in lease mode)
         try {
-            // Remove old trigger/job if exists
-            quartzScheduler.unscheduleJob(new TriggerKey("trigger-" + jobId, "jobproc"));
-            quartzScheduler.deleteJob(new JobKey("job-" + jobId, "jobproc"));
-
-            // Schedule fresh
-            scheduleQuartzJob(jobId, runAt);
+            jobTriggers.reschedule(jobId, runAt);
         } catch (SchedulerException e) {
             log.error("Failed to reschedule Quartz trigger for job {}", jobId, e);
             return "Error rescheduling job: " + e.getMessage();
@@ -252,29 +441,13 @@ public class JobController {
         return "Job " + jobId + " rescheduled to run in 3 seconds";
     }
 
-    private void scheduleQuartzJob(Long jobId, LocalDateTime runAt) throws SchedulerException {
-        JobDetail jobDetail = JobBuilder.newJob(ScheduledJobTrigger.class)
-                .withIdentity("job-" + jobId, "jobproc")
-                .usingJobData("jobId", jobId)
-                .build();
-
-        Date triggerTime = Date.from(runAt.atZone(ZoneId.systemDefault()).toInstant());
-
-        Trigger trigger = TriggerBuilder.newTrigger()
-                .withIdentity("trigger-" + jobId, "jobproc")
-                .startAt(triggerTime)
-                .build();
-
-        quartzScheduler.scheduleJob(jobDetail, trigger);
-    }
-
     /**
      * Cancel a running job.
      * @param jobId The job ID to cancel
      */
     @PostMapping("/cancel")
-    public java.util.Map<String, Object> cancelJob(@RequestParam Long jobId) {
-        java.util.Map<String, Object> response = new java.util.HashMap<>();
+    public Map<String, Object> cancelJob(@RequestParam Long jobId) {
+        Map<String, Object> response = new HashMap<>();
         
         JobRecord job = jobRepository.findById(jobId).orElse(null);
         if (job == null) {
@@ -292,11 +465,8 @@ public class JobController {
         boolean cancelled = jobEngine.cancelJob(jobId);
         
         if (cancelled) {
-            job.setStatus("CANCELLED");
-            job.setJobEndDateTime(LocalDateTime.now());
-            job.setErrorReason("Job cancelled by user");
-            jobRepository.save(job);
-            
+            jobExecutionService.markCancelled(jobId, null, "Job cancelled by user");
+
             response.put("success", true);
             response.put("message", "Job " + jobId + " cancelled successfully");
         } else {
@@ -316,9 +486,8 @@ public class JobController {
         Map<String, Object> result = new LinkedHashMap<>();
         result.put("jobId", jobId);
 
-        // Input files from DB
-        List<com.sel2in.jobProc.entity.InputDataFile> dbFiles =
-                inputDataFileRepository.findByInputDataId(jobId);
+        // Input files from the read model (DB on a miss)
+        List<InputDataFile> dbFiles = jobReadModel.inputFiles(jobId);
         List<Map<String, String>> inputs = new ArrayList<>();
         if (dbFiles != null) {
             for (int i = 0; i < Math.min(dbFiles.size(), 3); i++) {
@@ -330,17 +499,28 @@ public class JobController {
         }
         result.put("inputFiles", inputs);
 
-        // Output files from disk
+        // Output files from the index; jobs without stored output fall back to the folder
         List<Map<String, String>> outputs = new ArrayList<>();
-        java.nio.file.Path outDir = java.nio.file.Paths.get("./outputFiles", String.valueOf(jobId));
-        if (java.nio.file.Files.exists(outDir) && java.nio.file.Files.isDirectory(outDir)) {
-            try (var stream = java.nio.file.Files.list(outDir)) {
-                List<java.nio.file.Path> files = stream
-                        .filter(java.nio.file.Files::isRegularFile)
+        List<OutputDataFile> indexed = jobReadModel.outputFiles(jobId);
+        if (!indexed.isEmpty()) {
+            for (int i = 0; i < Math.min(indexed.size(), 3); i++) {
+                Map<String, String> f = new LinkedHashMap<>();
+                f.put("name", indexed.get(i).getFileName());
+                f.put("url", "/dwn/" + jobId + "/" + indexed.get(i).getFileName());
+                outputs.add(f);
+            }
+            result.put("outputFiles", outputs);
+            return result;
+        }
+        Path outDir = referenceData.outputFileDirectory().resolve(String.valueOf(jobId));
+        if (Files.exists(outDir) && Files.isDirectory(outDir)) {
+            try (var stream = Files.list(outDir)) {
+                List<Path> files = stream
+                        .filter(Files::isRegularFile)
                         .sorted()
                         .limit(3)
                         .collect(Collectors.toList());
-                for (java.nio.file.Path p : files) {
+                for (Path p : files) {
                     Map<String, String> f = new LinkedHashMap<>();
                     f.put("name", p.getFileName().toString());
                     f.put("url", "/dwn/" + jobId + "/" + p.getFileName().toString());
@@ -354,4 +534,29 @@ public class JobController {
 
         return result;
     }
+
+    /**
+     * Stored OutputData of a job's latest run: fields, parameters and indexed files.
+     * Large parameter values are not inlined; fetch them from the listed url.
+     */
+    @GetMapping("/output/{jobId}")
+    public ResponseEntity<Map<String, Object>> getOutput(@PathVariable Long jobId) {
+        Map<String, Object> output = outputStore.describe(jobId);
+        if (output == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(output);
+    }
+
+    /**
+     * Full value of one output parameter.
+     */
+    @GetMapping("/output/{jobId}/param/{name}")
+    public ResponseEntity<Object> getOutputParam(@PathVariable Long jobId, @PathVariable String name) {
+        Object value = outputStore.paramValue(jobId, name);
+        if (value == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(value);
+    }
 }
@@ -2,17 +2,15 @@ package com.sel2in.jobProc.controller;
 
 import com.sel2in.jobProc.entity.ProcessorDefinition;
 import com.sel2in.jobProc.repo.ProcessorRepository;
+import com.sel2in.jobProc.service.ProcessorJarInstaller;
 import com.sel2in.jobProc.service.ProcessorLoader;
+import com.sel2in.jobProc.service.ReferenceData;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 @Slf4j
@@ -21,10 +19,10 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ProcessorController {
 
-    private static final String JAR_DIR = "./processors";
-
     private final ProcessorRepository processorRepository;
     private final ProcessorLoader processorLoader;
+    private final ReferenceData referenceData;
+    private final ProcessorJarInstaller processorJarInstaller;
 
     @GetMapping("/listAll")
     public List<ProcessorDefinition> listAll() {
@@ -47,19 +45,21 @@ public class ProcessorController {
             definition.setCreatedTs(existing.getCreatedTs());
         });
         processorRepository.save(definition);
+        referenceData.changed();
         return "Processor saved successfully";
     }
 
     /**
      * Upload a processor JAR file and register it.
-     * The JAR is saved to ./processors/ directory.
+     * The JAR is streamed to the processor JAR directory (jobproc.processorJarDirectory), checked
+     * to contain a JobProcessor named className and swapped in atomically (ProcessorJarInstaller).
      *
      * @param file       The JAR file
      * @param className  Fully qualified class name of the JobProcessor implementation
      */
     @PostMapping("/uploadJar")
     public String uploadJar(@RequestParam("file") MultipartFile file,
-                            @RequestParam String className) throws IOException, NoSuchAlgorithmException {
+                            @RequestParam String className) throws IOException {
         if (file.isEmpty()) {
             return "Error: no file uploaded";
         }
@@ -77,37 +77,14 @@ public class ProcessorController {
             return "Error: file must be a .jar";
         }
 
-        // Save JAR to processors directory
-        Path jarDir = Paths.get(JAR_DIR);
-        Files.createDirectories(jarDir);
-        Path jarPath = jarDir.resolve(originalName).toAbsolutePath();
-        file.transferTo(jarPath.toFile());
-        log.info("Uploaded JAR: {} ({} bytes)", jarPath, file.getSize());
-
-        // Calculate Checksum (SHA-256)
-        byte[] hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(jarPath));
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+        ProcessorDefinition def;
+        try {
+            def = processorJarInstaller.install(file, className);
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
         }
-        String checksum = hexString.toString();
-        log.info("JAR Checksum: {}", checksum);
-
-        // Evict old cached ClassLoader if re-uploading
-        processorLoader.evictCache(jarPath.toString());
-
-        // Register or update in DB
-        String pathStr = jarPath.toString();
-        ProcessorDefinition def = processorRepository.findByClassName(className)
-                .orElse(new ProcessorDefinition());
-        def.setClassName(className);
-        def.setJarPath(pathStr);
-        def.setChecksum(checksum);
-        processorRepository.save(def);
-
-        return "JAR uploaded and processor registered: " + className + " -> " + pathStr + " (sha256: " + checksum + ")";
+        return "JAR uploaded and processor registered: " + className + " -> " + def.getJarPath()
+                + " (sha256: " + def.getChecksum() + ")";
     }
 
     @DeleteMapping("/remove/{className}")
@@ -115,6 +92,7 @@ public class ProcessorController {
         processorRepository.findByClassName(className).ifPresent(proc -> {
             processorLoader.evictCache(proc.getJarPath());
             processorRepository.delete(proc);
+            referenceData.changed();
         });
         return "Processor removed successfully";
     }
@@ -0,0 +1,141 @@
+package com.sel2in.jobProc.controller;
+
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.UploadSession;
+import com.sel2in.jobProc.service.ChunkedUploadService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Resumable chunked upload of job input files, for files too large for one multipart
+ * request to /api/job/schedule.
+ *
+ *   POST   /api/job/upload?fileName=big.csv&size=5368709120[&chunkSize=..][&sha256=..] → uploadId
+ *   PUT    /api/job/upload/{uploadId}/chunks/{index}   body = raw chunk, header X-Chunk-Sha256
+ *   GET    /api/job/upload/{uploadId}                  → received count and missing chunk indexes
+ *   POST   /api/job/upload/{uploadId}/finish?jobId=5   → attaches the file to SCHEDULED job 5
+ *   DELETE /api/job/upload/{uploadId}
+ *
+ * After a failure the client asks for the missing chunks and sends only those.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/job/upload")
+@RequiredArgsConstructor
+public class UploadController {
+
+    /** Missing chunk indexes listed per status request */
+    private static final int MAX_MISSING_LISTED = 1000;
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> start(
+            @RequestParam String fileName,
+            @RequestParam long size,
+            @RequestParam(defaultValue = "0") int chunkSize,
+            @RequestParam(required = false) String sha256) {
+        try {
+            UploadSession session = chunkedUploadService.start(fileName, size, chunkSize, sha256);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("uploadId", session.getUploadId());
+            result.put("fileName", session.getFileName());
+            result.put("size", session.getTotalSize());
+            result.put("chunkSize", session.getChunkSize());
+            result.put("chunkCount", session.getChunkCount());
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException | IOException e) {
+            return error(HttpStatus.BAD_REQUEST, e);
+        }
+    }
+
+    /** The chunk is read from the request body as it arrives; nothing is buffered by the container */
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<Map<String, Object>> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(name = "X-Chunk-Sha256", required = false) String sha256Header,
+            @RequestParam(name = "sha256", required = false) String sha256Param,
+            HttpServletRequest request) {
+        try {
+            UploadSession session = chunkedUploadService.writeChunk(uploadId, index,
+                    sha256Header != null ? sha256Header : sha256Param, request.getInputStream());
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("uploadId", uploadId);
+            result.put("index", index);
+            result.put("receivedCount", session.getReceivedCount());
+            result.put("chunkCount", session.getChunkCount());
+            return ResponseEntity.ok(result);
+        } catch (NoSuchElementException e) {
+            return error(HttpStatus.NOT_FOUND, e);
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e);
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e);
+        } catch (IOException e) {
+            log.warn("Chunk {} of upload {} failed: {}", index, uploadId, e.getMessage());
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.describe(uploadId, MAX_MISSING_LISTED));
+        } catch (NoSuchElementException e) {
+            return error(HttpStatus.NOT_FOUND, e);
+        }
+    }
+
+    @PostMapping("/{uploadId}/finish")
+    public ResponseEntity<Map<String, Object>> finish(@PathVariable String uploadId, @RequestParam Long jobId) {
+        try {
+            InputDataFile file = chunkedUploadService.finish(uploadId, jobId);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("jobId", jobId);
+            result.put("fileId", file.getId());
+            result.put("fileName", file.getFileName());
+            result.put("fileSize", file.getFileSize());
+            return ResponseEntity.ok(result);
+        } catch (NoSuchElementException e) {
+            return error(HttpStatus.NOT_FOUND, e);
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e);
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e);
+        } catch (IOException e) {
+            log.warn("Finishing upload {} failed: {}", uploadId, e.getMessage());
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Map<String, Object>> abort(@PathVariable String uploadId) {
+        try {
+            chunkedUploadService.abort(uploadId);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("uploadId", uploadId);
+            result.put("aborted", true);
+            return ResponseEntity.ok(result);
+        } catch (NoSuchElementException e) {
+            return error(HttpStatus.NOT_FOUND, e);
+        } catch (IOException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, e);
+        }
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, Exception e) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(status).body(error);
+    }
+}
@@ -0,0 +1,37 @@
+package com.sel2in.jobProc.dto;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Filters and page position for GET /api/job/search. Null fields do not filter.
+ * Time ranges are inclusive "from", exclusive "to".
+ */
+@Data
+public class JobSearchCriteria {
+    private List<String> statuses;
+    private String processorClassName;
+    private String namePrefix;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime submittedFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime submittedTo;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime scheduledFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime scheduledTo;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime endedFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime endedTo;
+
+    /** id (default), submitted, scheduled or ended */
+    private String sort = "id";
+    private boolean ascending;
+    private int limit = 50;
+    /** nextCursor of the previous page, null for the first page */
+    private String after;
+}
@@ -0,0 +1,30 @@
+package com.sel2in.jobProc.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row of a job search result: the JobRecord columns the job pages show,
+ * selected directly by JPQL constructor expression (no entity is loaded).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobSummary {
+    private Long id;
+    private String jobName;
+    private String processorClassName;
+    private String status;
+    private String comment;
+    private String notes;
+    private String mainErrorCode;
+    private String errorReason;
+    private String nodeId;
+    private LocalDateTime jobSubmittedDateTime;
+    private LocalDateTime scheduledRunTime;
+    private LocalDateTime jobStartDateTime;
+    private LocalDateTime jobEndDateTime;
+}
@@ -0,0 +1,24 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Version counter of a node-local cache; bumped on every change so the other nodes reload.
+ */
+@Entity
+@Table(name = "CacheVersion")
+@Data
+public class CacheVersion {
+
+    @Id
+    @Column(name = "cache_name", length = 100)
+    private String name;
+
+    @Column(name = "version")
+    private long version;
+
+    @Column(name = "updated_ts")
+    private LocalDateTime updatedTs;
+}
@@ -0,0 +1,38 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * One row per engine node, refreshed by NodeRegistry.
+ * Other nodes read it to route jobs to nodes that already have the processor loaded.
+ */
+@Entity
+@Table(name = "EngineNode")
+@Data
+public class EngineNodeStatus {
+
+    @Id
+    @Column(name = "node_id", length = 200)
+    private String nodeId;
+
+    /** Comma separated "className@version" of processors loaded on the node */
+    @Column(name = "warm_processors", length = 4000)
+    private String warmProcessors;
+
+    @Column(name = "pool_size")
+    private int poolSize;
+
+    @Column(name = "active_jobs")
+    private int activeJobs;
+
+    @Column(name = "free_slots")
+    private int freeSlots;
+
+    @Column(name = "started_ts")
+    private LocalDateTime startedTs;
+
+    @Column(name = "heartbeat_ts")
+    private LocalDateTime heartbeatTs;
+}
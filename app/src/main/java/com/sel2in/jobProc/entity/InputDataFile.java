@@ -5,7 +5,7 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "InputDataFile")
+@Table(name = "InputDataFile", indexes = @Index(name = "idx_input_file_hash", columnList = "content_hash"))
 @Data
 public class InputDataFile {
 
@@ -26,6 +26,10 @@ public class InputDataFile {
     @Column(name = "file_size")
     private Long fileSize;
 
+    /** SHA-256 of the content; the file is a link to InputFileStore's blob of that hash */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "created_ts", updatable = false)
     private LocalDateTime createdTs;
 
@@ -0,0 +1,72 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * A finished job moved out of InputData by JobArchiver. The job columns are kept as they were;
+ * its InputDataParam and InputDataFile rows are in payload as gzip JSON.
+ * Rows are written once and never updated.
+ */
+@Entity
+@Table(name = "JobArchive", indexes = @Index(name = "idx_archive_ended", columnList = "job_end_datetime, job_id"))
+@Data
+public class JobArchive {
+
+    /** The InputData id the job had */
+    @Id
+    @Column(name = "job_id")
+    private Long jobId;
+
+    @Column(name = "job_name")
+    private String jobName;
+
+    @Column(name = "processor_class_name")
+    private String processorClassName;
+
+    private String comment;
+    private String notes;
+
+    @Column(length = 50)
+    private String status;
+
+    @Column(name = "main_error_code")
+    private String mainErrorCode;
+
+    @Column(name = "error_reason")
+    private String errorReason;
+
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "job_submitted_datetime")
+    private LocalDateTime jobSubmittedDateTime;
+
+    @Column(name = "job_submitted_timezone")
+    private String jobSubmittedTimeZone;
+
+    @Column(name = "scheduled_run_time")
+    private LocalDateTime scheduledRunTime;
+
+    @Column(name = "job_start_datetime")
+    private LocalDateTime jobStartDateTime;
+
+    @Column(name = "job_end_datetime")
+    private LocalDateTime jobEndDateTime;
+
+    @Column(name = "created_ts")
+    private LocalDateTime createdTs;
+
+    @Column(name = "archived_ts")
+    private LocalDateTime archivedTs;
+
+    /** gzip of {"params": [...], "files": [...]} */
+    @Lob
+    @Column(name = "payload")
+    private byte[] payload;
+
+    /** Size of the JSON before compression */
+    @Column(name = "payload_bytes")
+    private Long payloadBytes;
+}
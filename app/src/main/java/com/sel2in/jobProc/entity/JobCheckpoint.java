@@ -0,0 +1,39 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Latest checkpoint saved by a job's processor; one row per job, overwritten on each save.
+ */
+@Entity
+@Table(name = "JobCheckpoint")
+@Data
+public class JobCheckpoint {
+
+    @Id
+    @Column(name = "job_id")
+    private Long jobId;
+
+    @Lob
+    @Column(name = "checkpoint_data")
+    private byte[] data;
+
+    /** Set when the checkpoint was saved from a file */
+    @Column(name = "file_name", length = 500)
+    private String fileName;
+
+    @Column(name = "size_bytes")
+    private long sizeBytes;
+
+    /** Number of checkpoints saved for the job so far */
+    @Column(name = "checkpoint_seq")
+    private long sequence;
+
+    @Column(name = "node_id", length = 200)
+    private String nodeId;
+
+    @Column(name = "updated_ts")
+    private LocalDateTime updatedTs;
+}
@@ -0,0 +1,49 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * One job status transition, appended in the transaction that made it (see JobEventLog).
+ * Rows are never updated; event_seq orders them across all nodes.
+ */
+@Entity
+@Table(name = "JobEvent", indexes = @Index(name = "idx_job_event_job", columnList = "job_id, event_seq"))
+@Data
+public class JobEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "event_seq")
+    private Long seq;
+
+    @Column(name = "job_id", nullable = false)
+    private Long jobId;
+
+    @Column(name = "from_status", length = 50)
+    private String fromStatus;
+
+    @Column(name = "to_status", length = 50)
+    private String toStatus;
+
+    @Column(name = "processor_class_name", length = 500)
+    private String processorClassName;
+
+    /** Node the job is (or was) running on */
+    @Column(name = "node_id", length = 200)
+    private String nodeId;
+
+    /** Node that made the change and wrote this row */
+    @Column(name = "origin_node", length = 200)
+    private String originNode;
+
+    @Column(name = "error_code", length = 200)
+    private String errorCode;
+
+    @Column(name = "reason", length = 4000)
+    private String reason;
+
+    @Column(name = "occurred_ts")
+    private LocalDateTime occurredTs;
+}
@@ -5,7 +5,15 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "InputData")
+@Table(name = "InputData", indexes = {
+        // Job search (JobSearchService) and due-job / orphan scans; id last for keyset paging
+        @Index(name = "idx_input_status_id", columnList = "status, input_data_id"),
+        @Index(name = "idx_input_status_sched", columnList = "status, scheduled_run_time, input_data_id"),
+        @Index(name = "idx_input_proc_status", columnList = "processor_class_name, status, input_data_id"),
+        @Index(name = "idx_input_name", columnList = "job_name, input_data_id"),
+        @Index(name = "idx_input_submitted", columnList = "job_submitted_datetime, input_data_id"),
+        @Index(name = "idx_input_ended", columnList = "job_end_datetime, input_data_id")
+})
 @Data
 public class JobRecord {
 
@@ -47,6 +55,14 @@ public class JobRecord {
     @Column(name = "error_reason")
     private String errorReason;
 
+    /** Engine node that claimed the job (see NodeIdentity) */
+    @Column(name = "node_id")
+    private String nodeId;
+
+    /** While RUNNING, the claiming node renews this; once it passes the job can be re-claimed */
+    @Column(name = "lease_expires_ts")
+    private LocalDateTime leaseExpires;
+
     @Column(name = "created_ts", updatable = false)
     private LocalDateTime createdTs;
 
@@ -0,0 +1,24 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Number of jobs per status, kept up to date by JobStats so the dashboard never counts InputData.
+ */
+@Entity
+@Table(name = "JobStatusCount")
+@Data
+public class JobStatusCount {
+
+    @Id
+    @Column(name = "status", length = 50)
+    private String status;
+
+    @Column(name = "job_count")
+    private long jobCount;
+
+    @Column(name = "updated_ts")
+    private LocalDateTime updatedTs;
+}
@@ -0,0 +1,63 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * A ZIP under outputFiles/.bundles holding the output folders of many old jobs of one
+ * processor (OutputRetention), entries named &lt;jobId&gt;/&lt;path&gt;. The ZIP central directory is
+ * the index used to serve single files. OutputFolder.bundleId points here.
+ */
+@Entity
+@Table(name = "OutputBundle", indexes = @Index(name = "idx_output_bundle_delete", columnList = "status, delete_after"))
+@Data
+public class OutputBundle {
+
+    public static final String WRITING = "WRITING";
+    public static final String READY = "READY";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "bundle_id")
+    private Long id;
+
+    @Column(name = "processor_class_name")
+    private String processorClassName;
+
+    /** WRITING until the ZIP is complete and the folders may be deleted, then READY */
+    @Column(length = 20)
+    private String status;
+
+    @Column(name = "bundle_path", length = 1000)
+    private String bundlePath;
+
+    @Column(name = "job_count")
+    private int jobCount;
+
+    @Column(name = "file_count")
+    private int fileCount;
+
+    /** Size of the ZIP */
+    @Column(name = "bundle_bytes")
+    private long bundleBytes;
+
+    /** Bytes of the files before compaction */
+    @Column(name = "source_bytes")
+    private long sourceBytes;
+
+    /** Whole bundle is deleted after this; null keeps it */
+    @Column(name = "delete_after")
+    private LocalDateTime deleteAfter;
+
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "created_ts", updatable = false)
+    private LocalDateTime createdTs;
+
+    @PrePersist
+    protected void onCreate() {
+        createdTs = LocalDateTime.now();
+    }
+}
@@ -4,8 +4,11 @@ import javax.persistence.*;
 import lombok.Data;
 import java.time.LocalDateTime;
 
+/**
+ * Index of a job's output files, so listings do not have to scan the output directory.
+ */
 @Entity
-@Table(name = "OutputDataFile")
+@Table(name = "OutputDataFile", indexes = @Index(name = "idx_output_file_job", columnList = "job_id"))
 @Data
 public class OutputDataFile {
 
@@ -17,10 +20,10 @@ public class OutputDataFile {
     @Column(name = "job_id")
     private Long jobId;
 
-    @Column(name = "file_name")
+    @Column(name = "file_name", length = 500)
     private String fileName;
 
-    @Column(name = "file_path")
+    @Column(name = "file_path", length = 2000)
     private String filePath;
 
     @Column(name = "file_size")
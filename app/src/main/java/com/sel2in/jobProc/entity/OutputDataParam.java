@@ -5,7 +5,7 @@ import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "OutputDataParam")
+@Table(name = "OutputDataParam", indexes = @Index(name = "idx_output_param_job", columnList = "job_id"))
 @Data
 public class OutputDataParam {
 
@@ -20,10 +20,11 @@ public class OutputDataParam {
     @Column(name = "param_name")
     private String paramName;
 
+    /** NUMBER, STRING, TEXT, JSON, or GZIP_TEXT / GZIP_JSON when the value is in blob_value */
     @Column(name = "param_type")
     private String paramType;
 
-    @Column(name = "string_value")
+    @Column(name = "string_value", length = 4000)
     private String stringValue;
 
     @Column(name = "number_value")
@@ -34,4 +35,13 @@ public class OutputDataParam {
 
     @Column(name = "object_json", columnDefinition = "CLOB")
     private String objectJson;
+
+    /** gzip of large TEXT / JSON values */
+    @Lob
+    @Column(name = "blob_value")
+    private byte[] blobValue;
+
+    /** Length of the value in characters, before compression */
+    @Column(name = "value_size")
+    private Long valueSize;
 }
@@ -4,8 +4,12 @@ import javax.persistence.*;
 import lombok.Data;
 import java.time.LocalDateTime;
 
+/**
+ * Latest output of a job (input_data_id), replaced when the job runs again.
+ * Written by OutputStore when the run completes.
+ */
 @Entity
-@Table(name = "OutputData")
+@Table(name = "OutputData", indexes = @Index(name = "idx_output_input", columnList = "input_data_id"))
 @Data
 public class OutputDataRecord {
 
@@ -23,10 +27,10 @@ public class OutputDataRecord {
     @Column(name = "processor_class_name")
     private String processorClassName;
 
-    @Column(name = "output_command")
+    @Column(name = "output_command", length = 2000)
     private String outputCommand;
 
-    @Column(name = "output_note")
+    @Column(name = "output_note", length = 4000)
     private String outputNote;
 
     @Column(name = "job_start_datetime")
@@ -41,7 +45,7 @@ public class OutputDataRecord {
     @Column(name = "job_end_timezone")
     private String jobEndTimezone;
 
-    @Column(name = "main_error_reason")
+    @Column(name = "main_error_reason", length = 4000)
     private String mainErrorReason;
 
     private String status;
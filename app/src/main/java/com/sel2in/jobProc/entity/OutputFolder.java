@@ -0,0 +1,48 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Summary of one job's output folder (outputFiles/&lt;jobId&gt;), kept by OutputFolderIndex so the
+ * /dwn/ listing is a paged query instead of a scan of every folder. Once OutputRetention has
+ * compacted the folder into an OutputBundle, bundleId says where its files are.
+ */
+@Entity
+@Table(name = "OutputFolder", indexes = {
+        @Index(name = "idx_output_folder_files", columnList = "file_count"),
+        @Index(name = "idx_output_folder_bytes", columnList = "total_bytes"),
+        @Index(name = "idx_output_folder_modified", columnList = "last_modified"),
+        @Index(name = "idx_output_folder_bundle", columnList = "bundle_id")
+})
+@Data
+public class OutputFolder {
+
+    /** The folder name; output folders are named after the job id */
+    @Id
+    @Column(name = "job_id")
+    private Long jobId;
+
+    /** Regular files in the folder and its sub folders */
+    @Column(name = "file_count")
+    private int fileCount;
+
+    @Column(name = "total_bytes")
+    private long totalBytes;
+
+    /** Newest modification time of the folder or a file in it */
+    @Column(name = "last_modified")
+    private LocalDateTime lastModified;
+
+    /** Folder mtime (epoch ms) when it was scanned; a different one means it changed since */
+    @Column(name = "dir_mtime")
+    private long dirMtime;
+
+    @Column(name = "indexed_ts")
+    private LocalDateTime indexedTs;
+
+    /** Set while the folder is being compacted and after: the OutputBundle holding its files */
+    @Column(name = "bundle_id")
+    private Long bundleId;
+}
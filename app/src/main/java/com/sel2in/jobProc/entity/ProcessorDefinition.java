@@ -35,6 +35,13 @@ public class ProcessorDefinition {
     @Column(name = "checksum")
     private String checksum;
 
+    /**
+     * What to do with a job left RUNNING by a crashed engine:
+     * RERUN (default, from the start), FAIL, or RESUME (rerun, handing the processor its last checkpoint).
+     */
+    @Column(name = "orphan_policy", length = 10)
+    private String orphanPolicy = "RERUN";
+
     @PrePersist
     protected void onCreate() {
         createdTs = LocalDateTime.now();
@@ -0,0 +1,75 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Per-processor counters for one minute or one hour (granularity), written by ProcessorRollups.
+ * wait = scheduled run time to start, run = start to end. The h0..h5 columns are histogram
+ * buckets, upper bounds in ProcessorRollups.BOUNDS_MS.
+ */
+@Entity
+@Table(name = "ProcessorRollup",
+        uniqueConstraints = @UniqueConstraint(name = "uk_rollup_bucket",
+                columnNames = {"granularity", "bucket_start", "processor_class_name"}))
+@Data
+public class ProcessorRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "rollup_id")
+    private Long id;
+
+    @Column(name = "granularity", length = 10, nullable = false)
+    private String granularity;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "processor_class_name", length = 200, nullable = false)
+    private String processorClassName;
+
+    private long submitted;
+    private long started;
+    private long completed;
+    private long succeeded;
+    private long failed;
+    @Column(name = "timed_out")
+    private long timedOut;
+    private long cancelled;
+
+    @Column(name = "wait_count")
+    private long waitCount;
+    @Column(name = "wait_sum_ms")
+    private long waitSumMs;
+    @Column(name = "wait_max_ms")
+    private long waitMaxMs;
+    @Column(name = "wait_h0") private long waitH0;
+    @Column(name = "wait_h1") private long waitH1;
+    @Column(name = "wait_h2") private long waitH2;
+    @Column(name = "wait_h3") private long waitH3;
+    @Column(name = "wait_h4") private long waitH4;
+    @Column(name = "wait_h5") private long waitH5;
+
+    @Column(name = "run_count")
+    private long runCount;
+    @Column(name = "run_sum_ms")
+    private long runSumMs;
+    @Column(name = "run_max_ms")
+    private long runMaxMs;
+    @Column(name = "run_h0") private long runH0;
+    @Column(name = "run_h1") private long runH1;
+    @Column(name = "run_h2") private long runH2;
+    @Column(name = "run_h3") private long runH3;
+    @Column(name = "run_h4") private long runH4;
+    @Column(name = "run_h5") private long runH5;
+
+    public long[] getWaitHistogram() {
+        return new long[]{waitH0, waitH1, waitH2, waitH3, waitH4, waitH5};
+    }
+
+    public long[] getRunHistogram() {
+        return new long[]{runH0, runH1, runH2, runH3, runH4, runH5};
+    }
+}
@@ -0,0 +1,68 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * A chunked input file upload in progress (ChunkedUploadService). Chunks are written into
+ * part_path at index * chunk_size; received holds one bit per chunk that arrived with a
+ * matching checksum and chunk_hashes that checksum. The row is deleted when the file is attached to a job or expires.
+ */
+@Entity
+@Table(name = "UploadSession")
+@Data
+public class UploadSession {
+
+    @Id
+    @Column(name = "upload_id", length = 36)
+    private String uploadId;
+
+    @Column(name = "file_name")
+    private String fileName;
+
+    @Column(name = "total_size")
+    private long totalSize;
+
+    @Column(name = "chunk_size")
+    private int chunkSize;
+
+    @Column(name = "chunk_count")
+    private int chunkCount;
+
+    @Column(name = "received_count")
+    private int receivedCount;
+
+    /** Bit i of byte i / 8 is set when chunk i is written */
+    @Lob
+    @Column(name = "received")
+    private byte[] received;
+
+    /** SHA-256 of chunk i at bytes i * 32 .. i * 32 + 31, set with its bit; checked again by finish */
+    @Lob
+    @Column(name = "chunk_hashes")
+    private byte[] chunkHashes;
+
+    /** Optional SHA-256 of the whole file, checked when the upload is finished */
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "part_path")
+    private String partPath;
+
+    /** Node holding the part file */
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "created_ts", updatable = false)
+    private LocalDateTime createdTs;
+
+    @Column(name = "updated_ts")
+    private LocalDateTime updatedTs;
+
+    @PrePersist
+    protected void onCreate() {
+        createdTs = LocalDateTime.now();
+        updatedTs = createdTs;
+    }
+}
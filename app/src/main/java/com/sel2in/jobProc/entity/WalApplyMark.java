@@ -0,0 +1,26 @@
+package com.sel2in.jobProc.entity;
+
+import javax.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * How far the write-ahead log in walDir has been written into InputData / JobEvent
+ * (jobproc.stateStore.type=wal); updated in the same transaction as each applied batch.
+ */
+@Entity
+@Table(name = "WalApplyMark")
+@Data
+public class WalApplyMark {
+
+    @Id
+    @Column(name = "wal_dir", length = 500)
+    private String walDir;
+
+    /** Highest log sequence number whose record is in the database */
+    @Column(name = "applied_lsn")
+    private long appliedLsn;
+
+    @Column(name = "updated_ts")
+    private LocalDateTime updatedTs;
+}
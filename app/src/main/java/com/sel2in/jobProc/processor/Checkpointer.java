@@ -0,0 +1,29 @@
+package com.sel2in.jobProc.processor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Lets a processor save its progress while processJob runs.
+ * The engine keeps only the latest checkpoint of a job and hands it back through
+ * InputData.getLastCheckpoint() when the job is run again (after a crash, a timeout
+ * or a manual rerun). It is removed once the job ends with SUCCESS.
+ */
+public interface Checkpointer {
+
+    /**
+     * Stores an opaque checkpoint, replacing the previous one.
+     * Returns once the checkpoint is persisted.
+     */
+    void save(byte[] data);
+
+    /**
+     * Stores the contents of a small file as the checkpoint, replacing the previous one.
+     */
+    void saveFile(Path file) throws IOException;
+
+    /**
+     * The latest checkpoint of this job (saved in this run or an earlier one), or null.
+     */
+    byte[] latest();
+}
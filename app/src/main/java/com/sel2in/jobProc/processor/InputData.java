@@ -14,6 +14,26 @@ public class InputData implements Serializable {
     private String notes;
     private Map<String, Object> parameters;
     private List<String> inputFiles; // Paths
+    /** Where the engine collects this job's output files (outputFiles/&lt;jobId&gt;); create it before writing. */
+    private String outputDirectory;
     private java.util.Date jobSubmittedDateTime;
     private String jobSubmittedTimeZone;
+
+    /** Engine hook for saving progress; null when the processor is run outside the engine. */
+    private transient Checkpointer checkpointer;
+
+    /** Latest checkpoint saved by an earlier run of this job, null on a fresh start. */
+    private byte[] lastCheckpoint;
+
+    /** True if an earlier run left a checkpoint, i.e. the processor can resume from it. */
+    public boolean isResuming() {
+        return lastCheckpoint != null;
+    }
+
+    /** Saves a checkpoint if the engine provided a checkpointer, otherwise does nothing. */
+    public void saveCheckpoint(byte[] data) {
+        if (checkpointer != null) {
+            checkpointer.save(data);
+        }
+    }
 }
@@ -0,0 +1,19 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.CacheVersion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface CacheVersionRepository extends JpaRepository<CacheVersion, String> {
+
+    @Modifying
+    @Query("UPDATE CacheVersion v SET v.version = v.version + 1, v.updatedTs = :now WHERE v.name = :name")
+    int bump(@Param("name") String name, @Param("now") LocalDateTime now);
+
+    @Query("SELECT v.version FROM CacheVersion v WHERE v.name = :name")
+    Long findVersion(@Param("name") String name);
+}
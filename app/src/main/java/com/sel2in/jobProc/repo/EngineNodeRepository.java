@@ -0,0 +1,11 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.EngineNodeStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface EngineNodeRepository extends JpaRepository<EngineNodeStatus, String> {
+    List<EngineNodeStatus> findByHeartbeatTsAfter(LocalDateTime since);
+}
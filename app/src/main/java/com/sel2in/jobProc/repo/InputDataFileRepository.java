@@ -4,9 +4,14 @@ import com.sel2in.jobProc.entity.InputDataFile;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface InputDataFileRepository extends JpaRepository<InputDataFile, Long> {
     List<InputDataFile> findByInputDataId(Long inputDataId);
+
+    List<InputDataFile> findByInputDataIdIn(Collection<Long> inputDataIds);
+
+    boolean existsByContentHash(String contentHash);
 }
@@ -0,0 +1,29 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.dto.JobSummary;
+import com.sel2in.jobProc.entity.JobArchive;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface JobArchiveRepository extends JpaRepository<JobArchive, Long> {
+
+    /** Archived jobs that ended in [from, to), by id after afterId; the payload is not read */
+    @Query("SELECT new com.sel2in.jobProc.dto.JobSummary(a.jobId, a.jobName, a.processorClassName, a.status, "
+            + "a.comment, a.notes, a.mainErrorCode, a.errorReason, a.nodeId, a.jobSubmittedDateTime, "
+            + "a.scheduledRunTime, a.jobStartDateTime, a.jobEndDateTime) FROM JobArchive a "
+            + "WHERE a.jobEndDateTime >= :from AND a.jobEndDateTime < :to AND a.jobId > :afterId ORDER BY a.jobId")
+    List<JobSummary> findEndedBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                      @Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("SELECT a.status FROM JobArchive a WHERE a.jobId = :jobId")
+    String findStatus(@Param("jobId") Long jobId);
+
+    /** Archived job count per status, as [status, count]. Added to JobStats at startup. */
+    @Query("SELECT a.status, COUNT(a) FROM JobArchive a GROUP BY a.status")
+    List<Object[]> countByStatus();
+}
@@ -0,0 +1,14 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, Long> {
+
+    @Modifying
+    @Query("DELETE FROM JobCheckpoint c WHERE c.jobId = :jobId")
+    int deleteForJob(@Param("jobId") Long jobId);
+}
@@ -0,0 +1,25 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface JobEventRepository extends JpaRepository<JobEvent, Long> {
+
+    List<JobEvent> findBySeqGreaterThanOrderBySeqAsc(Long afterSeq, Pageable pageable);
+
+    List<JobEvent> findByJobIdOrderBySeqAsc(Long jobId);
+
+    @Query("SELECT MAX(e.seq) FROM JobEvent e")
+    Long findMaxSeq();
+
+    @Modifying
+    @Query("DELETE FROM JobEvent e WHERE e.occurredTs < :cutoff")
+    int deleteOlderThan(@Param("cutoff") LocalDateTime cutoff);
+}
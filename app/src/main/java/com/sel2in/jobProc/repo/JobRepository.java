@@ -1,10 +1,146 @@
 package com.sel2in.jobProc.repo;
 
 import com.sel2in.jobProc.entity.JobRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface JobRepository extends JpaRepository<JobRecord, Long> {
     List<JobRecord> findByStatus(String status);
+
+    /**
+     * Atomically moves a job from SCHEDULED to RUNNING and stamps the claiming node's lease.
+     * Returns 0 if another engine node (or a recovery pass) already took it.
+     */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = 'RUNNING', j.jobStartDateTime = :startTime, "
+            + "j.nodeId = :nodeId, j.leaseExpires = :leaseExpires "
+            + "WHERE j.id = :id AND j.status = 'SCHEDULED'")
+    int claimScheduled(@Param("id") Long id, @Param("startTime") LocalDateTime startTime,
+                       @Param("nodeId") String nodeId, @Param("leaseExpires") LocalDateTime leaseExpires);
+
+    /**
+     * Due SCHEDULED jobs, oldest first, as [id, processorClassName, scheduledRunTime].
+     * Candidates only - each must still be claimed.
+     */
+    @Query("SELECT j.id, j.processorClassName, j.scheduledRunTime FROM JobRecord j "
+            + "WHERE j.status = 'SCHEDULED' AND j.scheduledRunTime <= :now ORDER BY j.scheduledRunTime")
+    List<Object[]> findDue(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /** IDs of jobs RUNNING on the node, earliest claimed first: input prefetch. */
+    @Query("SELECT j.id FROM JobRecord j WHERE j.status = 'RUNNING' AND j.nodeId = :nodeId "
+            + "ORDER BY j.jobStartDateTime")
+    List<Long> findRunningIdsOfNode(@Param("nodeId") String nodeId, Pageable pageable);
+
+    /**
+     * Same as findDue but row-locks the batch and skips rows locked by other nodes.
+     * Needs MySQL 8 / PostgreSQL; must run inside the claiming transaction.
+     * Native SQL: the table is input_data (JobRecord's @Table name through Spring's naming strategy).
+     */
+    @Query(value = "SELECT input_data_id, processor_class_name, scheduled_run_time FROM input_data "
+            + "WHERE status = 'SCHEDULED' AND scheduled_run_time <= :now "
+            + "ORDER BY scheduled_run_time LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Object[]> lockDueSkipLocked(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.leaseExpires = :leaseExpires "
+            + "WHERE j.id IN :ids AND j.nodeId = :nodeId AND j.status = 'RUNNING'")
+    int renewLeases(@Param("ids") Collection<Long> ids, @Param("nodeId") String nodeId,
+                    @Param("leaseExpires") LocalDateTime leaseExpires);
+
+    /**
+     * Records the end of a run. Only applies while the job is still RUNNING on this node, so a
+     * late completion never overwrites an admin cancel or a re-queue by the lease reaper.
+     */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = :status, j.jobEndDateTime = :endTime, "
+            + "j.mainErrorCode = :errorCode, j.errorReason = :errorReason, j.leaseExpires = NULL "
+            + "WHERE j.id = :id AND j.status = 'RUNNING' AND (j.nodeId IS NULL OR j.nodeId = :nodeId)")
+    int completeRunning(@Param("id") Long id, @Param("nodeId") String nodeId, @Param("status") String status,
+                        @Param("endTime") LocalDateTime endTime, @Param("errorCode") String errorCode,
+                        @Param("errorReason") String errorReason);
+
+    /** RUNNING jobs whose lease ran out, as [id, processorClassName] */
+    @Query("SELECT j.id, j.processorClassName FROM JobRecord j WHERE j.status = 'RUNNING' AND j.leaseExpires < :now")
+    List<Object[]> findExpiredLeases(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Startup orphans: RUNNING jobs with no lease (started before leases existed) or an expired one,
+     * as [id, processorClassName], keyset paged by id.
+     */
+    @Query("SELECT j.id, j.processorClassName FROM JobRecord j WHERE j.status = 'RUNNING' "
+            + "AND (j.leaseExpires IS NULL OR j.leaseExpires < :now) AND j.id > :afterId ORDER BY j.id")
+    List<Object[]> findOrphans(@Param("now") LocalDateTime now, @Param("afterId") Long afterId, Pageable pageable);
+
+    /** A restarted node (fixed jobproc.nodeId) cannot still be running anything: expire its leases. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.leaseExpires = :past WHERE j.status = 'RUNNING' AND j.nodeId = :nodeId")
+    int expireLeasesOfNode(@Param("nodeId") String nodeId, @Param("past") LocalDateTime past);
+
+    /** Puts an orphaned RUNNING job back to SCHEDULED, unless its node renewed the lease meanwhile. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = 'SCHEDULED', j.nodeId = NULL, j.leaseExpires = NULL "
+            + "WHERE j.id = :id AND j.status = 'RUNNING' AND (j.leaseExpires IS NULL OR j.leaseExpires < :now)")
+    int requeueOrphan(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    /** Puts a job back to SCHEDULED at runAt, unless its status moved on from fromStatus meanwhile. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = 'SCHEDULED', j.scheduledRunTime = :runAt, j.leaseExpires = NULL "
+            + "WHERE j.id = :id AND j.status = :fromStatus")
+    int reschedule(@Param("id") Long id, @Param("fromStatus") String fromStatus, @Param("runAt") LocalDateTime runAt);
+
+    /** Fails an orphaned RUNNING job, unless its node renewed the lease meanwhile. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = 'FAILED', j.mainErrorCode = 'ORPHANED', j.errorReason = :reason, "
+            + "j.jobEndDateTime = :now, j.leaseExpires = NULL "
+            + "WHERE j.id = :id AND j.status = 'RUNNING' AND (j.leaseExpires IS NULL OR j.leaseExpires < :now)")
+    int failOrphan(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("reason") String reason);
+
+    /** Overdue SCHEDULED job IDs, keyset paged by id so recovery can stream them. */
+    @Query("SELECT j.id FROM JobRecord j WHERE j.status = 'SCHEDULED' AND j.scheduledRunTime < :now "
+            + "AND j.id > :afterId ORDER BY j.id")
+    List<Long> findOverdueIds(@Param("now") LocalDateTime now, @Param("afterId") Long afterId, Pageable pageable);
+
+    /** Cancels a RUNNING job; 0 if it already finished (its completion won) or was not running. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.status = 'CANCELLED', j.mainErrorCode = :errorCode, j.errorReason = :reason, "
+            + "j.jobEndDateTime = :now, j.leaseExpires = NULL WHERE j.id = :id AND j.status = 'RUNNING'")
+    int cancelRunning(@Param("id") Long id, @Param("now") LocalDateTime now,
+                      @Param("errorCode") String errorCode, @Param("reason") String reason);
+
+    /** Sets only the notes; status columns belong to the JobStateStore. */
+    @Modifying
+    @Query("UPDATE JobRecord j SET j.notes = :notes WHERE j.id = :id")
+    int updateNotes(@Param("id") Long id, @Param("notes") String notes);
+
+    /** Job count per status, as [status, count]. Only used to rebuild JobStats at startup. */
+    @Query("SELECT j.status, COUNT(j) FROM JobRecord j GROUP BY j.status")
+    List<Object[]> countByStatus();
+
+    /** Most recently finished jobs (job_end_datetime index) */
+    @Query("SELECT new com.sel2in.jobProc.dto.JobSummary(j.id, j.jobName, j.processorClassName, j.status, j.comment, "
+            + "j.notes, j.mainErrorCode, j.errorReason, j.nodeId, j.jobSubmittedDateTime, j.scheduledRunTime, "
+            + "j.jobStartDateTime, j.jobEndDateTime) FROM JobRecord j WHERE j.jobEndDateTime IS NOT NULL "
+            + "ORDER BY j.jobEndDateTime DESC, j.id DESC")
+    List<com.sel2in.jobProc.dto.JobSummary> findRecentlyEnded(Pageable pageable);
+
+    /** Finished jobs that ended before cutoff, oldest first (JobArchiver, job_end_datetime index) */
+    @Query("SELECT j FROM JobRecord j WHERE j.jobEndDateTime < :cutoff AND j.status IN :statuses "
+            + "ORDER BY j.jobEndDateTime, j.id")
+    List<JobRecord> findEndedBefore(@Param("cutoff") LocalDateTime cutoff,
+                                    @Param("statuses") Collection<String> statuses, Pageable pageable);
+
+    /** Jobs that never got a trigger and were submitted before cutoff (they have no end time) */
+    @Query("SELECT j FROM JobRecord j WHERE j.status = 'SCHEDULE_FAILED' AND j.jobEndDateTime IS NULL "
+            + "AND j.jobSubmittedDateTime < :cutoff ORDER BY j.id")
+    List<JobRecord> findScheduleFailedBefore(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    /** Jobs created after afterId, oldest first (JobReadModel catching up with other nodes) */
+    List<JobRecord> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
 }
@@ -0,0 +1,17 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.JobStatusCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface JobStatusCountRepository extends JpaRepository<JobStatusCount, String> {
+
+    /** Adds a delta in place, so nodes flushing at the same time do not lose each other's counts */
+    @Modifying
+    @Query("UPDATE JobStatusCount c SET c.jobCount = c.jobCount + :delta, c.updatedTs = :now WHERE c.status = :status")
+    int addToCount(@Param("status") String status, @Param("delta") long delta, @Param("now") LocalDateTime now);
+}
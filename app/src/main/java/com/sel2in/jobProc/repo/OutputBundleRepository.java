@@ -0,0 +1,17 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.OutputBundle;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutputBundleRepository extends JpaRepository<OutputBundle, Long> {
+
+    List<OutputBundle> findByStatusAndDeleteAfterBefore(String status, LocalDateTime cutoff, Pageable pageable);
+
+    List<OutputBundle> findByStatusAndCreatedTsBefore(String status, LocalDateTime cutoff);
+}
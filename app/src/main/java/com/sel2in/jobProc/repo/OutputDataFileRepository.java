@@ -0,0 +1,18 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.OutputDataFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface OutputDataFileRepository extends JpaRepository<OutputDataFile, Long> {
+
+    List<OutputDataFile> findByJobIdOrderByFileName(Long outputId);
+
+    /** Indexed output files of a job (by input_data_id), by name */
+    @Query("SELECT f FROM OutputDataFile f, OutputDataRecord o "
+            + "WHERE f.jobId = o.id AND o.inputDataId = :jobId ORDER BY f.fileName")
+    List<OutputDataFile> findForJob(@Param("jobId") Long jobId);
+}
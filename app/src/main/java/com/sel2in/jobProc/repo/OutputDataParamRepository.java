@@ -0,0 +1,19 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.OutputDataParam;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface OutputDataParamRepository extends JpaRepository<OutputDataParam, Long> {
+
+    /** Parameter list without the CLOB / BLOB columns: [name, type, valueSize, stringValue, numberValue] */
+    @Query("SELECT p.paramName, p.paramType, p.valueSize, p.stringValue, p.numberValue FROM OutputDataParam p "
+            + "WHERE p.jobId = :outputId ORDER BY p.id")
+    List<Object[]> findSummaries(@Param("outputId") Long outputId);
+
+    Optional<OutputDataParam> findFirstByJobIdAndParamName(Long outputId, String paramName);
+}
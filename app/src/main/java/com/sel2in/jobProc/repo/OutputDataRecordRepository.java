@@ -0,0 +1,10 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.OutputDataRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface OutputDataRecordRepository extends JpaRepository<OutputDataRecord, Long> {
+    Optional<OutputDataRecord> findFirstByInputDataIdOrderByIdDesc(Long inputDataId);
+}
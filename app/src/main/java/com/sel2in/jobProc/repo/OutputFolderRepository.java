@@ -0,0 +1,44 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.OutputFolder;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutputFolderRepository extends JpaRepository<OutputFolder, Long> {
+
+    List<OutputFolder> findByJobIdBetween(Long from, Long to);
+
+    List<OutputFolder> findByBundleId(Long bundleId);
+
+    /** [folders, files, bytes] over the whole index */
+    @Query("SELECT COUNT(f), COALESCE(SUM(f.fileCount), 0), COALESCE(SUM(f.totalBytes), 0) FROM OutputFolder f")
+    List<Object[]> totals();
+
+    /** Loose (not compacted) folders last written before cutoff, by job id after afterId */
+    @Query("SELECT f FROM OutputFolder f WHERE f.bundleId IS NULL AND f.lastModified < :cutoff "
+            + "AND f.jobId > :afterId ORDER BY f.jobId")
+    List<OutputFolder> findLooseBefore(@Param("cutoff") LocalDateTime cutoff, @Param("afterId") Long afterId,
+                                       Pageable pageable);
+
+    /** Takes folders for a bundle; a folder another node took already is not counted */
+    @Modifying
+    @Query("UPDATE OutputFolder f SET f.bundleId = :bundleId WHERE f.jobId IN :jobIds AND f.bundleId IS NULL")
+    int claim(@Param("bundleId") Long bundleId, @Param("jobIds") Collection<Long> jobIds);
+
+    @Modifying
+    @Query("UPDATE OutputFolder f SET f.bundleId = NULL WHERE f.bundleId = :bundleId")
+    int release(@Param("bundleId") Long bundleId);
+
+    @Modifying
+    @Query("DELETE FROM OutputFolder f WHERE f.bundleId = :bundleId")
+    int deleteByBundle(@Param("bundleId") Long bundleId);
+}
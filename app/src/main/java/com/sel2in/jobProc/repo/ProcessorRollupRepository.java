@@ -0,0 +1,27 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.ProcessorRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ProcessorRollupRepository extends JpaRepository<ProcessorRollup, Long> {
+
+    /** Buckets in [from, to), all processors when processorClassName is null */
+    @Query("SELECT r FROM ProcessorRollup r WHERE r.granularity = :granularity "
+            + "AND r.bucketStart >= :from AND r.bucketStart < :to "
+            + "AND (:processor IS NULL OR r.processorClassName = :processor) "
+            + "ORDER BY r.bucketStart, r.processorClassName")
+    List<ProcessorRollup> findRange(@Param("granularity") String granularity, @Param("processor") String processor,
+                                    @Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                    Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM ProcessorRollup r WHERE r.granularity = :granularity AND r.bucketStart < :cutoff")
+    int deleteOlderThan(@Param("granularity") String granularity, @Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,7 @@
+package com.sel2in.jobProc.repo;
+
+import com.sel2in.jobProc.entity.WalApplyMark;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface WalApplyMarkRepository extends JpaRepository<WalApplyMark, String> {
+}
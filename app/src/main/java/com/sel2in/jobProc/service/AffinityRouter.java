@@ -0,0 +1,155 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.EngineNodeStatus;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether this node should claim a due job (lease mode), preferring nodes
+ * that already have the job's processor version loaded.
+ *
+ * A node claims a job when:
+ *  - the processor is warm here, or
+ *  - no other live node has it warm with a free slot, or
+ *  - this node has more than imbalanceLimit free slots over the best warm node, or
+ *  - the job has waited longer than maxDeferSeconds (no starvation if a warm node is stuck).
+ * Otherwise it leaves the job for the warm node. The poller asks again on every poll while
+ * the job waits, so a deferral is recorded once per job, not once per poll.
+ */
+@Slf4j
+@Service
+public class AffinityRouter {
+
+    private static final int RECENT_DECISIONS = 50;
+
+    private final NodeRegistry nodeRegistry;
+    private final ProcessorLoader processorLoader;
+    private final ReferenceData referenceData;
+    private final JobEngine jobEngine;
+
+    private final boolean enabled;
+    private final int imbalanceLimit;
+    private final long maxDeferSeconds;
+
+    private final Map<String, AtomicLong> decisionCounts = new ConcurrentHashMap<>();
+    private final Deque<Map<String, Object>> recentDecisions = new ArrayDeque<>();
+    /** Jobs deferred and not claimed here since: jobId -> first deferral */
+    private final Map<Long, LocalDateTime> deferred = new ConcurrentHashMap<>();
+
+    public AffinityRouter(NodeRegistry nodeRegistry, ProcessorLoader processorLoader,
+                          ReferenceData referenceData, JobEngine jobEngine,
+                          @Value("${jobproc.routing.enabled:true}") boolean enabled,
+                          @Value("${jobproc.routing.imbalanceLimit:2}") int imbalanceLimit,
+                          @Value("${jobproc.routing.maxDeferSeconds:10}") long maxDeferSeconds) {
+        this.nodeRegistry = nodeRegistry;
+        this.processorLoader = processorLoader;
+        this.referenceData = referenceData;
+        this.jobEngine = jobEngine;
+        this.enabled = enabled;
+        this.imbalanceLimit = Math.max(0, imbalanceLimit);
+        this.maxDeferSeconds = maxDeferSeconds;
+    }
+
+    /**
+     * @return true if this node should claim the job now
+     */
+    public boolean shouldClaim(Long jobId, String processorClassName, LocalDateTime scheduledRunTime) {
+        if (!enabled) {
+            return true;
+        }
+        String checksum = referenceData.processor(processorClassName)
+                .map(ProcessorDefinition::getChecksum).orElse(null);
+        if (processorLoader.isWarm(processorClassName, checksum)) {
+            return record(jobId, processorClassName, "WARM", null, true);
+        }
+
+        String warmKey = processorClassName + "@" + ProcessorLoader.versionKey(checksum);
+        Optional<EngineNodeStatus> bestWarm = nodeRegistry.warmPeers(warmKey).stream()
+                .filter(n -> n.getFreeSlots() > 0)
+                .max(Comparator.comparingInt(EngineNodeStatus::getFreeSlots));
+        if (bestWarm.isEmpty()) {
+            return record(jobId, processorClassName, "COLD_NO_WARM_NODE", null, true);
+        }
+
+        EngineNodeStatus peer = bestWarm.get();
+        if (scheduledRunTime != null
+                && Duration.between(scheduledRunTime, LocalDateTime.now()).getSeconds() > maxDeferSeconds) {
+            return record(jobId, processorClassName, "COLD_OVERDUE", peer.getNodeId(), true);
+        }
+        int myFree = jobEngine.getPoolSize() - jobEngine.getActiveJobIds().size();
+        if (myFree - peer.getFreeSlots() > imbalanceLimit) {
+            return record(jobId, processorClassName, "COLD_CAPACITY", peer.getNodeId(), true);
+        }
+        return defer(jobId, processorClassName, peer.getNodeId());
+    }
+
+    private boolean defer(Long jobId, String processorClassName, String warmNode) {
+        LocalDateTime now = LocalDateTime.now();
+        if (deferred.putIfAbsent(jobId, now) != null) {
+            return false;
+        }
+        // A job the warm node took is never asked about again; forget it once it would be overdue here
+        LocalDateTime stale = now.minusSeconds(maxDeferSeconds + 60);
+        deferred.values().removeIf(first -> first.isBefore(stale));
+        return record(jobId, processorClassName, "DEFERRED", warmNode, false);
+    }
+
+    private boolean record(Long jobId, String processorClassName, String decision, String warmNode, boolean claim) {
+        if (claim) {
+            deferred.remove(jobId);
+        }
+        decisionCounts.computeIfAbsent(decision, k -> new AtomicLong()).incrementAndGet();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("time", LocalDateTime.now());
+        entry.put("jobId", jobId);
+        entry.put("processor", processorClassName);
+        entry.put("decision", decision);
+        entry.put("warmNode", warmNode);
+        synchronized (recentDecisions) {
+            recentDecisions.addFirst(entry);
+            while (recentDecisions.size() > RECENT_DECISIONS) {
+                recentDecisions.removeLast();
+            }
+        }
+        log.debug("Routing job {} ({}): {} {}", jobId, processorClassName, decision, warmNode != null ? warmNode : "");
+        return claim;
+    }
+
+    /**
+     * Routing summary for the admin status page.
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("imbalanceLimit", imbalanceLimit);
+        status.put("maxDeferSeconds", maxDeferSeconds);
+        status.put("warmHere", processorLoader.getWarmProcessors());
+        Map<String, Long> counts = new LinkedHashMap<>();
+        decisionCounts.forEach((k, v) -> counts.put(k, v.get()));
+        status.put("decisionCounts", counts);
+        status.put("deferredJobs", deferred.size());
+        synchronized (recentDecisions) {
+            status.put("recentDecisions", new ArrayList<>(recentDecisions));
+        }
+        return status;
+    }
+
+    public List<EngineNodeStatus> getNodes() {
+        return nodeRegistry.getLiveNodes();
+    }
+}
@@ -0,0 +1,249 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobCheckpoint;
+import com.sel2in.jobProc.processor.Checkpointer;
+import com.sel2in.jobProc.repo.JobCheckpointRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.SqlLobValue;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores processor checkpoints (latest only, in the JobCheckpoint table) and keeps
+ * write latency and size metrics for GET /api/admin/checkpoints.
+ *
+ * A checkpoint is written as a streamed BLOB (delete and insert in one transaction), so a
+ * checkpoint saved from a file is never read into memory.
+ */
+@Slf4j
+@Service
+public class CheckpointService {
+
+    private static final String DELETE = "DELETE FROM job_checkpoint WHERE job_id = :jobId";
+    private static final String INSERT = "INSERT INTO job_checkpoint (job_id, checkpoint_data, file_name, size_bytes, "
+            + "checkpoint_seq, node_id, updated_ts) VALUES (:jobId, :data, :fileName, :size, :seq, :nodeId, :ts)";
+
+    private final JobCheckpointRepository checkpointRepository;
+    private final NodeIdentity nodeIdentity;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final long maxBytes;
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong restores = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong lastBytes = new AtomicLong();
+    private final AtomicLong largestBytes = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong lastWriteNanos = new AtomicLong();
+    private final AtomicLong slowestWriteNanos = new AtomicLong();
+
+    public CheckpointService(JobCheckpointRepository checkpointRepository, NodeIdentity nodeIdentity,
+                             NamedParameterJdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+                             @Value("${jobproc.checkpoint.maxBytes:16777216}") long maxBytes) {
+        this.checkpointRepository = checkpointRepository;
+        this.nodeIdentity = nodeIdentity;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the checkpointer for one run of a job, loaded with the job's latest checkpoint if any.
+     */
+    public JobCheckpointer open(Long jobId) {
+        JobCheckpoint existing = checkpointRepository.findById(jobId).orElse(null);
+        if (existing != null) {
+            restores.incrementAndGet();
+            log.info("Job {} resumes from checkpoint #{} ({} bytes, saved {} on {})", jobId,
+                    existing.getSequence(), existing.getSizeBytes(), existing.getUpdatedTs(), existing.getNodeId());
+            return new JobCheckpointer(jobId, existing.getData(), existing.getSequence());
+        }
+        return new JobCheckpointer(jobId, null, 0);
+    }
+
+    /** Drops a job's checkpoint, so its next run starts from the beginning. */
+    @Transactional
+    public void clear(Long jobId) {
+        if (checkpointRepository.deleteForJob(jobId) > 0) {
+            log.debug("Checkpoint of job {} removed", jobId);
+        }
+    }
+
+    private void checkSize(long size) {
+        if (size > maxBytes) {
+            rejected.incrementAndGet();
+            throw new IllegalArgumentException("Checkpoint of " + size + " bytes exceeds jobproc.checkpoint.maxBytes ("
+                    + maxBytes + ")");
+        }
+    }
+
+    /** Replaces the job's checkpoint with size bytes read from data */
+    private void store(Long jobId, InputStream data, long size, String fileName, long sequence) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("jobId", jobId)
+                .addValue("data", new SqlLobValue(data, (int) size), Types.BLOB)
+                .addValue("fileName", fileName)
+                .addValue("size", size)
+                .addValue("seq", sequence)
+                .addValue("nodeId", nodeIdentity.getNodeId())
+                .addValue("ts", LocalDateTime.now());
+
+        long start = System.nanoTime();
+        try {
+            tx.executeWithoutResult(status -> {
+                jdbc.update(DELETE, params);
+                jdbc.update(INSERT, params);
+            });
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+
+        saves.incrementAndGet();
+        bytesWritten.addAndGet(size);
+        lastBytes.set(size);
+        largestBytes.accumulateAndGet(size, Math::max);
+        totalWriteNanos.addAndGet(nanos);
+        lastWriteNanos.set(nanos);
+        slowestWriteNanos.accumulateAndGet(nanos, Math::max);
+        log.debug("Job {} checkpoint #{} saved: {} bytes in {} ms", jobId, sequence, size, nanos / 1_000_000.0);
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = saves.get();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("saves", count);
+        m.put("rejected", rejected.get());
+        m.put("failures", failures.get());
+        m.put("restores", restores.get());
+        m.put("bytesWritten", bytesWritten.get());
+        m.put("lastBytes", lastBytes.get());
+        m.put("largestBytes", largestBytes.get());
+        m.put("avgBytes", count == 0 ? 0 : bytesWritten.get() / count);
+        m.put("lastWriteMs", lastWriteNanos.get() / 1_000_000.0);
+        m.put("avgWriteMs", count == 0 ? 0.0 : totalWriteNanos.get() / 1_000_000.0 / count);
+        m.put("slowestWriteMs", slowestWriteNanos.get() / 1_000_000.0);
+        m.put("maxBytes", maxBytes);
+        m.put("storedCheckpoints", checkpointRepository.count());
+        return m;
+    }
+
+    /**
+     * Checkpointer handed to one run of a job. Closed when the run ends, so a processor
+     * that is still going after a timeout cannot overwrite the checkpoint of the next run.
+     * The monitor only guards the sequence and the closed flag; the database write happens
+     * outside it, so close() never waits for a slow save.
+     */
+    public class JobCheckpointer implements Checkpointer {
+
+        private final Long jobId;
+        private final Object saving = new Object();
+        /** In memory when saved as bytes; a file checkpoint is read back from the table on demand */
+        private volatile byte[] latest;
+        private volatile boolean latestInTable;
+        private long sequence;
+        /** Sequence of the checkpoint now in the table; guarded by saving */
+        private long storedSequence;
+        private volatile boolean closed;
+        private boolean warnedClosed;
+
+        JobCheckpointer(Long jobId, byte[] latest, long sequence) {
+            this.jobId = jobId;
+            this.latest = latest;
+            this.sequence = sequence;
+            this.storedSequence = sequence;
+        }
+
+        @Override
+        public void save(byte[] data) {
+            if (data == null) {
+                throw new IllegalArgumentException("Checkpoint data is null");
+            }
+            checkSize(data.length);
+            long next = nextSequence();
+            if (next < 0) {
+                return;
+            }
+            // The processor may reuse its buffer once save() returns
+            byte[] copy = data.clone();
+            write(next, () -> {
+                store(jobId, new ByteArrayInputStream(copy), copy.length, null, next);
+                latest = copy;
+                latestInTable = false;
+            });
+        }
+
+        @Override
+        public void saveFile(Path file) throws IOException {
+            long size = Files.size(file);
+            checkSize(size);
+            long next = nextSequence();
+            if (next < 0) {
+                return;
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                write(next, () -> {
+                    store(jobId, in, size, file.getFileName().toString(), next);
+                    latest = null;
+                    latestInTable = true;
+                });
+            }
+        }
+
+        /** The sequence number of the next checkpoint, or -1 once the run has ended */
+        private synchronized long nextSequence() {
+            if (closed) {
+                if (!warnedClosed) {
+                    warnedClosed = true;
+                    log.warn("Job {} tried to save a checkpoint after its run ended, ignored", jobId);
+                }
+                return -1;
+            }
+            return ++sequence;
+        }
+
+        /** One save at a time; one overtaken by a later checkpoint of the same run is skipped */
+        private void write(long next, Runnable save) {
+            synchronized (saving) {
+                if (next <= storedSequence) {
+                    return;
+                }
+                save.run();
+                storedSequence = next;
+            }
+        }
+
+        @Override
+        public byte[] latest() {
+            byte[] data = latest;
+            if (data == null && latestInTable) {
+                data = checkpointRepository.findById(jobId).map(JobCheckpoint::getData).orElse(null);
+            }
+            return data;
+        }
+
+        public synchronized void close() {
+            closed = true;
+        }
+    }
+}
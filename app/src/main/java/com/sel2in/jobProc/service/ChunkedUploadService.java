@@ -0,0 +1,476 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.UploadSession;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.UploadSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.LockModeType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resumable input file uploads for files too large to send in one multipart request.
+ *
+ * start() creates an UploadSession and an empty part file in inputFileDirectory/.uploads.
+ * Each chunk is a plain request body streamed bufferBytes at a time through SHA-256 into a
+ * temp file; only once its length and checksum match is it copied into the part file at
+ * index * chunkSize, so chunks may arrive in any order, in parallel, and be resent after a
+ * failure without a bad copy ever overwriting good data. A chunk already received is not
+ * written again: a resend with the same checksum is accepted as is, one with another checksum
+ * is rejected. Its bit and checksum are set in the session after the data is forced to disk,
+ * with the row locked (SELECT ... FOR UPDATE) so parallel chunks do not lose bits.
+ * finish() hashes the part file once, checking every chunk against its checksum on the way
+ * (chunks that no longer match are cleared, to be sent again), and hands it to
+ * InputFileStore, which renames it into the content store and links it into the job's input
+ * directory. Nothing is buffered in memory and the part file exists on disk only once.
+ *
+ * The part file lives on the node that started the upload unless inputFileDirectory is shared.
+ */
+@Slf4j
+@Service
+public class ChunkedUploadService {
+
+    private static final String UPLOAD_DIR = ".uploads";
+    private static final int MAX_CHUNKS = 1 << 20;
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+    private static final int HASH_BYTES = 32;
+
+    private final UploadSessionRepository sessionRepository;
+    private final JobRepository jobRepository;
+    private final InputFileStore inputFileStore;
+    private final ReferenceData referenceData;
+    private final NodeIdentity nodeIdentity;
+    private final EntityManager entityManager;
+    private final TransactionTemplate tx;
+    private final int bufferBytes;
+    private final int defaultChunkBytes;
+    private final int maxChunkBytes;
+    private final int expireHours;
+
+    /** Serializes finish / abort / expiry of a session on this node */
+    private final Map<String, Object> sessionLocks = new ConcurrentHashMap<>();
+    /** Striped by upload and chunk index: one copy of a chunk into the part file at a time */
+    private final Object[] chunkLocks = new Object[64];
+
+    private final AtomicLong chunksWritten = new AtomicLong();
+    private final AtomicLong chunksRejected = new AtomicLong();
+    private final AtomicLong chunksDuplicate = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public ChunkedUploadService(UploadSessionRepository sessionRepository, JobRepository jobRepository,
+                                InputFileStore inputFileStore, ReferenceData referenceData,
+                                NodeIdentity nodeIdentity, EntityManager entityManager,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${jobproc.upload.bufferBytes:65536}") int bufferBytes,
+                                @Value("${jobproc.upload.chunkBytes:8388608}") int defaultChunkBytes,
+                                @Value("${jobproc.upload.maxChunkBytes:67108864}") int maxChunkBytes,
+                                @Value("${jobproc.upload.expireHours:24}") int expireHours) {
+        this.sessionRepository = sessionRepository;
+        this.jobRepository = jobRepository;
+        this.inputFileStore = inputFileStore;
+        this.referenceData = referenceData;
+        this.nodeIdentity = nodeIdentity;
+        this.entityManager = entityManager;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        this.maxChunkBytes = Math.max(MIN_CHUNK_BYTES, maxChunkBytes);
+        this.defaultChunkBytes = Math.min(this.maxChunkBytes, Math.max(MIN_CHUNK_BYTES, defaultChunkBytes));
+        this.expireHours = expireHours;
+        for (int i = 0; i < chunkLocks.length; i++) {
+            chunkLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens an upload of totalSize bytes in chunks of chunkSize (0 = jobproc.upload.chunkBytes).
+     * sha256 of the whole file is optional and checked by finish().
+     */
+    public UploadSession start(String fileName, long totalSize, int chunkSize, String sha256) throws IOException {
+        if (fileName == null || fileName.isBlank() || fileName.contains("/") || fileName.contains("\\")
+                || fileName.equals(".") || fileName.equals("..")) {
+            throw new IllegalArgumentException("fileName must be a plain file name");
+        }
+        if (totalSize < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        if (chunkSize <= 0) {
+            chunkSize = defaultChunkBytes;
+        }
+        if (chunkSize < MIN_CHUNK_BYTES || chunkSize > maxChunkBytes) {
+            throw new IllegalArgumentException("chunkSize must be between " + MIN_CHUNK_BYTES + " and " + maxChunkBytes);
+        }
+        long chunks = (totalSize + chunkSize - 1) / chunkSize;
+        if (chunks > MAX_CHUNKS) {
+            throw new IllegalArgumentException("too many chunks (" + chunks + "), use a larger chunkSize");
+        }
+        if (sha256 != null && !sha256.isBlank() && !sha256.trim().matches("(?i)[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("sha256 must be 64 hex digits");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path dir = uploadDirectory();
+        Files.createDirectories(dir);
+        Path part = dir.resolve(uploadId + ".part");
+        Files.createFile(part);
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(uploadId);
+        session.setFileName(fileName);
+        session.setTotalSize(totalSize);
+        session.setChunkSize(chunkSize);
+        session.setChunkCount((int) chunks);
+        session.setReceived(new byte[(int) ((chunks + 7) / 8)]);
+        session.setChunkHashes(new byte[(int) chunks * HASH_BYTES]);
+        session.setSha256(sha256 != null && !sha256.isBlank() ? sha256.trim().toLowerCase() : null);
+        session.setPartPath(part.toString());
+        session.setNodeId(nodeIdentity.getNodeId());
+        session = sessionRepository.save(session);
+        log.info("Upload {} started: {} ({} bytes in {} chunks of {})",
+                uploadId, fileName, totalSize, chunks, chunkSize);
+        return session;
+    }
+
+    /**
+     * Writes chunk index from body. The chunk must be exactly chunkSize bytes (the last one the
+     * remainder) with SHA-256 chunkSha256; otherwise it is not marked received and may be resent.
+     * A chunk received before is not written again and its body is not read.
+     * @return the session after the chunk was recorded
+     * @throws IllegalStateException if the chunk was received before with another checksum
+     */
+    public UploadSession writeChunk(String uploadId, int index, String chunkSha256, InputStream body) throws IOException {
+        UploadSession session = find(uploadId);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("chunk index must be between 0 and " + (session.getChunkCount() - 1));
+        }
+        if (chunkSha256 == null || !chunkSha256.trim().matches("(?i)[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("chunk sha256 (64 hex digits) is required");
+        }
+        String want = chunkSha256.trim().toLowerCase();
+        if (isReceived(session, index)) {
+            return resent(session, index, want);
+        }
+        Path part = partFile(session);
+        long offset = (long) index * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+
+        // Verified in a temp file first: a short, long or corrupt body never reaches the part file
+        Path chunk = Files.createTempFile(part.getParent(), uploadId + "." + index + ".", ".chunk");
+        try {
+            MessageDigest digest = sha256();
+            long written = 0;
+            byte[] buffer = new byte[bufferBytes];
+            try (OutputStream out = Files.newOutputStream(chunk)) {
+                int n;
+                while ((n = body.read(buffer)) > 0) {
+                    if (written + n > expected) {
+                        chunksRejected.incrementAndGet();
+                        throw new IllegalArgumentException("chunk " + index + " is longer than " + expected + " bytes");
+                    }
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    written += n;
+                }
+            }
+            if (written != expected) {
+                chunksRejected.incrementAndGet();
+                throw new IllegalArgumentException("chunk " + index + " has " + written + " bytes, expected " + expected);
+            }
+            byte[] hash = digest.digest();
+            String actual = ProcessorLoader.toHex(hash);
+            if (!actual.equals(want)) {
+                chunksRejected.incrementAndGet();
+                throw new IllegalArgumentException("chunk " + index + " checksum mismatch: got " + actual);
+            }
+
+            synchronized (chunkLocks[Math.floorMod(Objects.hash(uploadId, index), chunkLocks.length)]) {
+                session = find(uploadId);
+                if (isReceived(session, index)) {
+                    return resent(session, index, want);
+                }
+                try (FileChannel in = FileChannel.open(chunk, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                    // transferFrom would copy nothing past the end of the part file, which starts empty
+                    out.position(offset);
+                    long copied = 0;
+                    while (copied < written) {
+                        copied += in.transferTo(copied, written - copied, out);
+                    }
+                    out.force(false);
+                }
+                chunksWritten.incrementAndGet();
+                bytesWritten.addAndGet(written);
+                return tx.execute(status -> markReceived(uploadId, index, hash));
+            }
+        } finally {
+            Files.deleteIfExists(chunk);
+        }
+    }
+
+    /** A chunk sent again: fine if it is the same data, nothing is written */
+    private UploadSession resent(UploadSession session, int index, String sha256) {
+        byte[] hashes = session.getChunkHashes();
+        if (hashes != null && !ProcessorLoader.toHex(Arrays.copyOfRange(hashes, index * HASH_BYTES, (index + 1) * HASH_BYTES)).equals(sha256)) {
+            chunksRejected.incrementAndGet();
+            throw new IllegalStateException("chunk " + index + " was already received with another checksum");
+        }
+        chunksDuplicate.incrementAndGet();
+        return session;
+    }
+
+    private static boolean isReceived(UploadSession session, int index) {
+        return (session.getReceived()[index / 8] & (1 << (index % 8))) != 0;
+    }
+
+    /** Sets the chunk's bit and checksum on the row re-read under a write lock (the request may hold a stale copy) */
+    private UploadSession markReceived(String uploadId, int index, byte[] hash) {
+        UploadSession session = lockSession(uploadId);
+        if (!isReceived(session, index)) {
+            byte[] received = session.getReceived().clone();
+            received[index / 8] |= 1 << (index % 8);
+            session.setReceived(received);
+            byte[] hashes = session.getChunkHashes() != null
+                    ? session.getChunkHashes().clone() : new byte[session.getChunkCount() * HASH_BYTES];
+            System.arraycopy(hash, 0, hashes, index * HASH_BYTES, HASH_BYTES);
+            session.setChunkHashes(hashes);
+            session.setReceivedCount(session.getReceivedCount() + 1);
+        }
+        session.setUpdatedTs(LocalDateTime.now());
+        return session;
+    }
+
+    /** Clears the bits of chunks whose data did not match their checksum, so they are sent again */
+    private void clearReceived(String uploadId, List<Integer> indexes) {
+        tx.executeWithoutResult(status -> {
+            UploadSession session = lockSession(uploadId);
+            byte[] received = session.getReceived().clone();
+            for (int index : indexes) {
+                if (isReceived(session, index)) {
+                    received[index / 8] &= ~(1 << (index % 8));
+                    session.setReceivedCount(session.getReceivedCount() - 1);
+                }
+            }
+            session.setReceived(received);
+            session.setUpdatedTs(LocalDateTime.now());
+        });
+    }
+
+    private UploadSession lockSession(String uploadId) {
+        UploadSession session = entityManager.find(UploadSession.class, uploadId);
+        try {
+            if (session == null) {
+                throw new EntityNotFoundException();
+            }
+            entityManager.refresh(session, LockModeType.PESSIMISTIC_WRITE);
+        } catch (EntityNotFoundException e) {
+            throw new NoSuchElementException("upload " + uploadId + " was finished or aborted");
+        }
+        return session;
+    }
+
+    /**
+     * Attaches the completed upload to a SCHEDULED job as one of its input files.
+     * @throws IllegalStateException if chunks are missing or no longer match their checksums, the
+     *                               whole-file checksum does not match or the job has already started
+     */
+    public InputDataFile finish(String uploadId, Long jobId) throws IOException {
+        synchronized (lock(uploadId)) {
+            UploadSession session = find(uploadId);
+            int missing = session.getChunkCount() - session.getReceivedCount();
+            if (missing > 0) {
+                throw new IllegalStateException(missing + " chunk(s) not received yet");
+            }
+            JobRecord job = jobRepository.findById(jobId)
+                    .orElseThrow(() -> new IllegalArgumentException("job " + jobId + " not found"));
+            if (!"SCHEDULED".equals(job.getStatus())) {
+                throw new IllegalStateException("job " + jobId + " is " + job.getStatus() + ", files can only be added while SCHEDULED");
+            }
+            Path part = partFile(session);
+            if (Files.size(part) != session.getTotalSize()) {
+                throw new IllegalStateException("part file has " + Files.size(part) + " bytes, expected " + session.getTotalSize());
+            }
+            List<Integer> corrupt = new ArrayList<>();
+            String actual = hashFile(session, part, corrupt);
+            if (!corrupt.isEmpty()) {
+                clearReceived(uploadId, corrupt);
+                log.warn("Upload {}: chunk(s) {} changed on disk since they were received", uploadId, corrupt);
+                throw new IllegalStateException("chunk(s) " + corrupt + " do not match their checksums, send them again");
+            }
+            if (session.getSha256() != null && !actual.equals(session.getSha256())) {
+                throw new IllegalStateException("file checksum mismatch: got " + actual);
+            }
+            Path target = referenceData.inputFileDirectory().resolve(jobId.toString()).resolve(session.getFileName());
+            if (Files.exists(target)) {
+                throw new IllegalStateException("job " + jobId + " already has a file named " + session.getFileName());
+            }
+
+            InputDataFile idf = inputFileStore.storeFile(jobId, session.getFileName(), part, actual);
+            sessionRepository.delete(session);
+            sessionLocks.remove(uploadId);
+            finished.incrementAndGet();
+            log.info("Upload {} finished: {} ({} bytes) attached to job {}",
+                    uploadId, session.getFileName(), session.getTotalSize(), jobId);
+            return idf;
+        }
+    }
+
+    public void abort(String uploadId) throws IOException {
+        synchronized (lock(uploadId)) {
+            UploadSession session = find(uploadId);
+            Files.deleteIfExists(Paths.get(session.getPartPath()));
+            sessionRepository.delete(session);
+            sessionLocks.remove(uploadId);
+            log.info("Upload {} aborted", uploadId);
+        }
+    }
+
+    /** The session with the indexes of chunks still missing (at most maxMissing of them) */
+    public Map<String, Object> describe(String uploadId, int maxMissing) {
+        UploadSession session = find(uploadId);
+        List<Integer> missing = new ArrayList<>();
+        byte[] received = session.getReceived();
+        for (int i = 0; i < session.getChunkCount() && missing.size() < maxMissing; i++) {
+            if ((received[i / 8] & (1 << (i % 8))) == 0) {
+                missing.add(i);
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("uploadId", session.getUploadId());
+        result.put("fileName", session.getFileName());
+        result.put("size", session.getTotalSize());
+        result.put("chunkSize", session.getChunkSize());
+        result.put("chunkCount", session.getChunkCount());
+        result.put("receivedCount", session.getReceivedCount());
+        result.put("missing", missing);
+        result.put("complete", session.getReceivedCount() == session.getChunkCount());
+        result.put("nodeId", session.getNodeId());
+        result.put("updatedTs", session.getUpdatedTs());
+        return result;
+    }
+
+    /** Drops uploads that received nothing for expireHours, with their part files */
+    @Scheduled(fixedDelayString = "${jobproc.upload.sweepMs:600000}", initialDelay = 60000)
+    public void expire() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(expireHours);
+        for (UploadSession session : sessionRepository.findByUpdatedTsBefore(cutoff)) {
+            synchronized (lock(session.getUploadId())) {
+                try {
+                    Files.deleteIfExists(Paths.get(session.getPartPath()));
+                } catch (IOException e) {
+                    log.warn("Could not delete part file {}: {}", session.getPartPath(), e.getMessage());
+                }
+                sessionRepository.deleteById(session.getUploadId());
+                sessionLocks.remove(session.getUploadId());
+                expired.incrementAndGet();
+                log.info("Upload {} ({}) expired after {}h without chunks",
+                        session.getUploadId(), session.getFileName(), expireHours);
+            }
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("open", sessionRepository.count());
+        status.put("chunksWritten", chunksWritten.get());
+        status.put("chunksRejected", chunksRejected.get());
+        status.put("chunksDuplicate", chunksDuplicate.get());
+        status.put("bytesWritten", bytesWritten.get());
+        status.put("finished", finished.get());
+        status.put("expired", expired.get());
+        status.put("defaultChunkBytes", defaultChunkBytes);
+        status.put("maxChunkBytes", maxChunkBytes);
+        return status;
+    }
+
+    private UploadSession find(String uploadId) {
+        return sessionRepository.findById(uploadId)
+                .orElseThrow(() -> new NoSuchElementException("upload " + uploadId + " not found"));
+    }
+
+    private Path partFile(UploadSession session) {
+        Path part = Paths.get(session.getPartPath());
+        if (!Files.exists(part)) {
+            throw new IllegalStateException("part file of upload " + session.getUploadId()
+                    + " is not on this node, send its chunks to " + session.getNodeId());
+        }
+        return part;
+    }
+
+    private Path uploadDirectory() {
+        return referenceData.inputFileDirectory().resolve(UPLOAD_DIR).toAbsolutePath().normalize();
+    }
+
+    private Object lock(String uploadId) {
+        return sessionLocks.computeIfAbsent(uploadId, k -> new Object());
+    }
+
+    /** SHA-256 of the part file; chunks not matching the checksum they were received with are added to corrupt */
+    private String hashFile(UploadSession session, Path file, List<Integer> corrupt) throws IOException {
+        MessageDigest digest = sha256();
+        MessageDigest chunkDigest = sha256();
+        byte[] hashes = session.getChunkHashes();
+        long chunkSize = session.getChunkSize();
+        long pos = 0;
+        byte[] buffer = new byte[bufferBytes];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+                for (int off = 0; off < n; ) {
+                    int take = (int) Math.min(n - off, chunkSize - pos % chunkSize);
+                    chunkDigest.update(buffer, off, take);
+                    off += take;
+                    pos += take;
+                    if (pos % chunkSize == 0 || pos == session.getTotalSize()) {
+                        int index = (int) ((pos - 1) / chunkSize);
+                        byte[] hash = chunkDigest.digest();
+                        // sessions started before chunk checksums were kept have none
+                        if (hashes != null && !Arrays.equals(hash, 0, HASH_BYTES,
+                                hashes, index * HASH_BYTES, (index + 1) * HASH_BYTES)) {
+                            corrupt.add(index);
+                        }
+                    }
+                }
+            }
+        }
+        return ProcessorLoader.toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
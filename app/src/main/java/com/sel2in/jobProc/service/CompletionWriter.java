@@ -0,0 +1,367 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobError;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.processor.OutputData;
+import com.sel2in.jobProc.repo.JobCheckpointRepository;
+import com.sel2in.jobProc.repo.JobErrorRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind for job completions. Engine workers only queue the result and move on;
+ * one writer thread drains the queue and persists status, end time, errors and the
+ * checkpoint cleanup in a transaction per batch, then the returned OutputData
+ * (OutputStore) in a second one, so a bad output value cannot hold up the status.
+ * Updates are conditional on the job still being RUNNING on this node, so a completion
+ * that arrives after an admin cancel or a lease re-queue is dropped instead of overwriting it.
+ *
+ * A completion that cannot be written even on its own (e.g. the DB is down) is retried with
+ * backoff (retryMs, doubling up to a minute) up to maxRetries times. Only then is it given up,
+ * and the job is left RUNNING for the lease reaper to apply its orphan policy. Until then its
+ * job is in getPendingJobIds(), whose leases the heartbeat keeps renewing: the run is over, so
+ * the reaper must not run it again.
+ */
+@Slf4j
+@Service
+public class CompletionWriter {
+
+    private static final long MAX_RETRY_MS = 60_000;
+
+    private final JobStateStore jobStateStore;
+    private final JobErrorRepository jobErrorRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final NodeIdentity nodeIdentity;
+    private final OutputStore outputStore;
+    private final JobStateEvents jobStateEvents;
+    private final TransactionTemplate tx;
+    private final BlockingQueue<Completion> queue;
+    private final int batchSize;
+    private final long retryMs;
+    private final int maxRetries;
+    /** Completions whose write failed, waiting for their next attempt */
+    private final Queue<Completion> retries = new ConcurrentLinkedQueue<>();
+    /** Jobs whose completion is queued or waiting for a retry */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    /** Set by shutdown(): nothing will retry any more */
+    private volatile boolean stopped;
+    private Thread writer;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong outputFailures = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong queueFullWaits = new AtomicLong();
+    private final AtomicLong lastBatchMicros = new AtomicLong();
+
+    public CompletionWriter(JobStateStore jobStateStore, JobErrorRepository jobErrorRepository,
+                            JobCheckpointRepository checkpointRepository, NodeIdentity nodeIdentity,
+                            OutputStore outputStore, JobStateEvents jobStateEvents,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${jobproc.completion.queueCapacity:10000}") int queueCapacity,
+                            @Value("${jobproc.completion.batchSize:100}") int batchSize,
+                            @Value("${jobproc.completion.retryMs:1000}") long retryMs,
+                            @Value("${jobproc.completion.maxRetries:20}") int maxRetries) {
+        this.jobStateStore = jobStateStore;
+        this.jobErrorRepository = jobErrorRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.nodeIdentity = nodeIdentity;
+        this.outputStore = outputStore;
+        this.jobStateEvents = jobStateEvents;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.retryMs = Math.max(1, retryMs);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /** One finished run, as reported by the engine */
+    public static final class Completion {
+        final Long jobId;
+        final String status;
+        final LocalDateTime endTime;
+        final String errorCode;
+        final String errorReason;
+        final OutputData output;
+        /** Copied from the job row for the state change event */
+        String jobName;
+        String processorClassName;
+        String notes;
+        LocalDateTime submittedAt;
+        LocalDateTime scheduledAt;
+        LocalDateTime startedAt;
+        /** Failed writes so far, and when the next attempt is due (System.nanoTime) */
+        int attempts;
+        long retryAt;
+
+        public Completion(Long jobId, String status, String errorCode, String errorReason, OutputData output) {
+            this.jobId = jobId;
+            this.status = status;
+            this.endTime = LocalDateTime.now();
+            this.errorCode = errorCode;
+            this.errorReason = errorReason;
+            this.output = output;
+        }
+
+        /** Copies the job row's name, processor, notes and times so listeners need not reload it */
+        public Completion forJob(JobRecord job) {
+            this.jobName = job.getJobName();
+            this.processorClassName = job.getProcessorClassName();
+            this.notes = job.getNotes();
+            this.submittedAt = job.getJobSubmittedDateTime();
+            this.scheduledAt = job.getScheduledRunTime();
+            this.startedAt = job.getJobStartDateTime();
+            return this;
+        }
+
+        JobStateChangedEvent toEvent(String nodeId) {
+            JobStateChangedEvent e = new JobStateChangedEvent(jobId, "RUNNING", status);
+            e.setJobName(jobName);
+            e.setProcessorClassName(processorClassName);
+            e.setNotes(notes);
+            e.setNodeId(nodeId);
+            e.setErrorCode(errorCode);
+            e.setErrorReason(errorReason);
+            e.setSubmittedAt(submittedAt);
+            e.setScheduledAt(scheduledAt);
+            e.setStartedAt(startedAt);
+            e.setEndedAt(endTime);
+            return e;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::drainLoop, "completion-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a completion. Blocks only when the queue is full (the DB is far behind);
+     * before the writer starts or after shutdown the completion is written directly.
+     */
+    public void submit(Completion completion) {
+        pending.add(completion.jobId);
+        if (!running) {
+            writeBatch(Collections.singletonList(completion));
+            return;
+        }
+        queued.incrementAndGet();
+        try {
+            if (!queue.offer(completion)) {
+                queueFullWaits.incrementAndGet();
+                log.warn("Completion queue full ({}), job {} waits for the writer", queue.size(), completion.jobId);
+                queue.put(completion);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeBatch(Collections.singletonList(completion));
+        }
+    }
+
+    private void drainLoop() {
+        List<Completion> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Completion first = queue.poll(retries.isEmpty() ? 500 : 50, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                takeDueRetries(batch);
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Completion> batch) {
+        long start = System.nanoTime();
+        List<Completion> applied;
+        try {
+            applied = tx.execute(status -> persist(batch));
+            batch.forEach(c -> pending.remove(c.jobId));
+            written.addAndGet(applied.size());
+            superseded.addAndGet(batch.size() - applied.size());
+            batches.incrementAndGet();
+        } catch (Exception e) {
+            // One bad row must not lose the rest: fall back to a transaction per completion
+            failedBatches.incrementAndGet();
+            if (batch.size() > 1) {
+                log.error("Completion batch of {} failed, writing one by one: {}", batch.size(), e.getMessage());
+                for (Completion c : batch) {
+                    writeBatch(Collections.singletonList(c));
+                }
+            } else {
+                retryLater(batch.get(0), e);
+            }
+            lastBatchMicros.set((System.nanoTime() - start) / 1000);
+            return;
+        }
+
+        if (!applied.isEmpty()) {
+            try {
+                tx.executeWithoutResult(status -> outputStore.persist(applied));
+            } catch (Exception e) {
+                outputFailures.incrementAndGet();
+                log.error("Could not store OutputData of {} job(s): {}", applied.size(), e.getMessage());
+            }
+        }
+        lastBatchMicros.set((System.nanoTime() - start) / 1000);
+    }
+
+    /** Schedules another attempt for a completion that failed on its own, or gives it up after maxRetries */
+    private void retryLater(Completion c, Exception e) {
+        c.attempts++;
+        if (c.attempts > maxRetries || stopped) {
+            pending.remove(c.jobId);
+            abandoned.incrementAndGet();
+            log.error("Job {} completion ({}) not written after {} attempt(s), the job stays RUNNING until its lease "
+                    + "runs out and the lease reaper applies its orphan policy: {}", c.jobId, c.status, c.attempts, e.getMessage());
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_MS, retryMs << Math.min(c.attempts - 1, 16));
+        c.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        retried.incrementAndGet();
+        retries.add(c);
+        log.warn("Job {} completion ({}) failed (attempt {}), retrying in {} ms: {}",
+                c.jobId, c.status, c.attempts, delay, e.getMessage());
+    }
+
+    /** Moves retries that are due into the batch, as long as it has room */
+    private void takeDueRetries(List<Completion> batch) {
+        long now = System.nanoTime();
+        for (Iterator<Completion> it = retries.iterator(); it.hasNext() && batch.size() < batchSize; ) {
+            Completion c = it.next();
+            if (now - c.retryAt >= 0) {
+                it.remove();
+                batch.add(c);
+            }
+        }
+    }
+
+    private List<Completion> persist(List<Completion> batch) {
+        String nodeId = nodeIdentity.getNodeId();
+        List<JobError> errors = new ArrayList<>();
+        List<Long> succeeded = new ArrayList<>();
+        List<Completion> applied = new ArrayList<>();
+        for (Completion c : batch) {
+            if (!jobStateStore.complete(c.jobId, nodeId, c.status, c.endTime,
+                    clip(c.errorCode), clip(c.errorReason))) {
+                log.info("Job {} completion ({}) dropped, job was changed meanwhile (cancelled or re-queued)",
+                        c.jobId, c.status);
+                continue;
+            }
+            applied.add(c);
+            jobStateEvents.publish(c.toEvent(nodeId));
+            if (c.errorCode != null && !c.errorCode.isEmpty()) {
+                JobError error = new JobError();
+                error.setJobId(c.jobId);
+                error.setReasonCode(clip(c.errorCode));
+                error.setReasonString(clip(c.errorReason));
+                errors.add(error);
+            }
+            if ("SUCCESS".equals(c.status)) {
+                succeeded.add(c.jobId);
+            }
+            log.info("Job {} completed with status: {}", c.jobId, c.status);
+        }
+        if (!errors.isEmpty()) {
+            jobErrorRepository.saveAll(errors);
+        }
+        for (Long id : succeeded) {
+            checkpointRepository.deleteForJob(id);
+        }
+        jobStateStore.sync();
+        return applied;
+    }
+
+    /** JobRecord and JobError text columns are VARCHAR(255) */
+    private static String clip(String s) {
+        return s == null || s.length() <= 255 ? s : s.substring(0, 255);
+    }
+
+    /** Jobs run on this node whose completion is not written yet; their leases must stay renewed */
+    public Set<Long> getPendingJobIds() {
+        return pending;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("queueDepth", queue.size());
+        s.put("queueCapacity", queue.size() + queue.remainingCapacity());
+        s.put("queued", queued.get());
+        s.put("written", written.get());
+        s.put("superseded", superseded.get());
+        s.put("batches", batches.get());
+        s.put("failedBatches", failedBatches.get());
+        s.put("outputFailures", outputFailures.get());
+        s.put("retrying", retries.size());
+        s.put("retried", retried.get());
+        s.put("abandoned", abandoned.get());
+        s.put("queueFullWaits", queueFullWaits.get());
+        s.put("lastBatchMs", lastBatchMicros.get() / 1000.0);
+        return s;
+    }
+
+    /**
+     * Flushes what is still queued before the DB connection pool goes away. Completions waiting
+     * for a retry get one last attempt; any that still fail are logged and left to the lease reaper.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(10_000);
+        }
+        stopped = true;
+        List<Completion> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.addAll(retries);
+        retries.clear();
+        if (!rest.isEmpty()) {
+            writeBatch(rest);
+        }
+    }
+}
@@ -23,6 +23,9 @@ public class DataSeeder implements ApplicationRunner {
 
     private final AppParamRepository appParamRepository;
     private final EntityManager entityManager;
+    private final JobStats jobStats;
+    private final JobReadModel jobReadModel;
+    private final ReferenceData referenceData;
 
     @Override
     @Transactional
@@ -30,10 +33,14 @@ public class DataSeeder implements ApplicationRunner {
         if (args.containsOption("dbReset") || args.getNonOptionArgs().contains("--dbReset")) {
             log.warn("*** --dbReset detected: wiping all tables ***");
             resetDatabase();
+            jobStats.rebuild();
+            jobReadModel.rebuild();
             seed();
+            referenceData.changed();
         } else if (appParamRepository.count() == 0) {
             log.info("Database empty - seeding default AppParams...");
             seed();
+            referenceData.changed();
         } else {
             log.info("Database already has {} AppParams, skipping seed.", appParamRepository.count());
         }
@@ -41,7 +48,7 @@ public class DataSeeder implements ApplicationRunner {
 
     private void resetDatabase() {
         String[] tables = {
-            "JOB_ERROR", "OUTPUT_DATA_FILE", "OUTPUT_DATA_PARAM", "OUTPUT_DATA",
+            "JOB_EVENT", "JOB_ARCHIVE", "JOB_ERROR", "OUTPUT_DATA_FILE", "OUTPUT_DATA_PARAM", "OUTPUT_DATA",
             "INPUT_DATA_FILE", "INPUT_DATA_PARAM", "INPUT_DATA",
             "JOB_PROCESSOR_INSTANCES", "JOB_PROCESSOR", "APP_PARAMS"
         };
@@ -0,0 +1,500 @@
+package com.sel2in.jobProc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes a file to an HTTP response the way a static file server would: ETag and Last-Modified
+ * with 304 answers to If-None-Match / If-Modified-Since, a single byte range (206, If-Range),
+ * and no copy through the heap.
+ *
+ * Bodies of sendfileMinBytes and more are handed to Tomcat's sendfile when the connector offers
+ * it, so the kernel copies file to socket after the request thread is released. Otherwise
+ * FileChannel.transferTo writes straight into the response.
+ *
+ * Text files (html, csv, json ...) are gzipped once and kept under
+ * outputFileDirectory/.gz, keyed by path, size and modification time; clients sending
+ * Accept-Encoding: gzip get that copy. The cache is trimmed to gzipCacheMaxMb, least recently
+ * served first. /dwn/ never serves folders starting with "." such as this one.
+ */
+@Slf4j
+@Service
+public class FileDownloads {
+
+    public static final String GZIP_DIR = ".gz";
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ReferenceData referenceData;
+    private final long sendfileMinBytes;
+    private final long gzipMinBytes;
+    private final long gzipMaxBytes;
+    private final long gzipCacheMaxBytes;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong ranges = new AtomicLong();
+    private final AtomicLong sendfiles = new AtomicLong();
+    private final AtomicLong gzipHits = new AtomicLong();
+    private final AtomicLong gzipWritten = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public FileDownloads(ReferenceData referenceData,
+                         @Value("${jobproc.download.sendfileMinBytes:49152}") long sendfileMinBytes,
+                         @Value("${jobproc.download.gzipMinBytes:1024}") long gzipMinBytes,
+                         @Value("${jobproc.download.gzipMaxBytes:67108864}") long gzipMaxBytes,
+                         @Value("${jobproc.download.gzipCacheMaxMb:512}") long gzipCacheMaxMb) {
+        this.referenceData = referenceData;
+        this.sendfileMinBytes = sendfileMinBytes;
+        this.gzipMinBytes = gzipMinBytes;
+        this.gzipMaxBytes = gzipMaxBytes;
+        this.gzipCacheMaxBytes = gzipCacheMaxMb * 1024 * 1024;
+    }
+
+    /**
+     * Answers a GET or HEAD for file. disposition is "inline" or "attachment".
+     */
+    public void send(HttpServletRequest request, HttpServletResponse response, Path file,
+                     String fileName, String contentType, String disposition) throws IOException {
+        send(request, response, file, fileName, contentType, disposition, true);
+    }
+
+    /**
+     * Same as send(), but with sendfile false the body is written before this returns. For files
+     * that may be gone once it does (a BlobCache pin): Tomcat's sendfile opens the file later.
+     */
+    public void send(HttpServletRequest request, HttpServletResponse response, Path file,
+                     String fileName, String contentType, String disposition,
+                     boolean sendfile) throws IOException {
+        long size;
+        long modified;
+        try {
+            size = Files.size(file);
+            modified = Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+        boolean compressible = compressible(contentType) && size >= gzipMinBytes && size <= gzipMaxBytes;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, modified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if (compressible) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        boolean gzip = compressible && range == null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        // The gzip copy is another representation and gets its own tag
+        String tag = gzip ? etag.substring(0, etag.length() - 1) + "-gz\"" : etag;
+        response.setHeader(HttpHeaders.ETAG, tag);
+
+        if (notModified(request, tag, modified)) {
+            notModified.incrementAndGet();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(disposition, fileName));
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+        served.incrementAndGet();
+
+        if (gzip) {
+            Path compressed = gzipped(file, etag);
+            if (compressed != null) {
+                gzipHits.incrementAndGet();
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                long length = Files.size(compressed);
+                response.setContentLengthLong(length);
+                if (!head) {
+                    write(request, response, compressed, 0, length, true);
+                }
+                return;
+            }
+        }
+
+        long start = 0;
+        long end = size;
+        if (range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, modified)) {
+            long[] r = parseRange(range, size);
+            if (r == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            if (r.length == 2) {
+                start = r[0];
+                end = r[1];
+                ranges.incrementAndGet();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+        }
+        response.setContentLengthLong(end - start);
+        if (!head) {
+            write(request, response, file, start, end - start, sendfile);
+        }
+    }
+
+    /**
+     * Answers a GET or HEAD for a file kept in a bundle (OutputBundles). Same headers and 304 /
+     * range handling as send(); the body is inflated on the fly, a range by skipping up to its start.
+     * The caller holds an OutputBundles.Handle on zip until this returns.
+     */
+    public void sendEntry(HttpServletRequest request, HttpServletResponse response, Long bundleId,
+                          ZipFile zip, ZipEntry entry, String fileName, String contentType,
+                          String disposition) throws IOException {
+        long size = entry.getSize();
+        long modified = Math.max(0, entry.getTime()) / 1000 * 1000;
+        String etag = "\"b" + Long.toHexString(bundleId) + "-" + Long.toHexString(entry.getCrc())
+                + "-" + Long.toHexString(size) + "\"";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, modified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (notModified(request, etag, modified)) {
+            notModified.incrementAndGet();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(disposition, fileName));
+        served.incrementAndGet();
+
+        long start = 0;
+        long end = size;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, modified)) {
+            long[] r = parseRange(range, size);
+            if (r == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            if (r.length == 2) {
+                start = r[0];
+                end = r[1];
+                ranges.incrementAndGet();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+        }
+        response.setContentLengthLong(end - start);
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return;
+        }
+        bytesSent.addAndGet(end - start);
+        try (InputStream in = zip.getInputStream(entry)) {
+            long skip = start;
+            while (skip > 0) {
+                long n = in.skip(skip);
+                if (n <= 0) {
+                    return;
+                }
+                skip -= n;
+            }
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[65536];
+            long remaining = end - start;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    /** Drops gzip copies beyond gzipCacheMaxMb, least recently served first */
+    @Scheduled(fixedDelayString = "${jobproc.download.gzipSweepMs:600000}", initialDelay = 120000)
+    public synchronized void trimCache() {
+        Path dir = cacheDirectory();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(dir)) {
+            entries = list.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Cannot list gzip cache {}: {}", dir, e.getMessage());
+            return;
+        }
+        List<Object[]> byAge = new ArrayList<>();
+        long total = 0;
+        for (Path p : entries) {
+            try {
+                long len = Files.size(p);
+                total += len;
+                byAge.add(new Object[]{p, Files.getLastModifiedTime(p).toMillis(), len});
+            } catch (IOException e) {
+                // deleted meanwhile
+            }
+        }
+        if (total <= gzipCacheMaxBytes) {
+            return;
+        }
+        byAge.sort(Comparator.comparingLong(a -> (Long) a[1]));
+        int deleted = 0;
+        for (Object[] e : byAge) {
+            if (total <= gzipCacheMaxBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists((Path) e[0]);
+                total -= (Long) e[2];
+                deleted++;
+            } catch (IOException ex) {
+                log.warn("Cannot delete gzip cache entry {}: {}", e[0], ex.getMessage());
+            }
+        }
+        log.info("Gzip cache: dropped {} entries, {} bytes left", deleted, total);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("served", served.get());
+        status.put("notModified", notModified.get());
+        status.put("ranges", ranges.get());
+        status.put("sendfile", sendfiles.get());
+        status.put("gzipHits", gzipHits.get());
+        status.put("gzipWritten", gzipWritten.get());
+        status.put("bytesSent", bytesSent.get());
+        return status;
+    }
+
+    // ===== internals =====
+
+    private void write(HttpServletRequest request, HttpServletResponse response, Path file,
+                       long start, long length, boolean sendfile) throws IOException {
+        bytesSent.addAndGet(length);
+        if (sendfile && length >= sendfileMinBytes && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            sendfiles.incrementAndGet();
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long pos = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long n = in.transferTo(pos, remaining, out);
+                if (n <= 0) {
+                    break; // file shrank under us; the client sees a short body
+                }
+                pos += n;
+                remaining -= n;
+            }
+        }
+    }
+
+    /** The cached gzip copy of file, written on first use; null if it cannot be written */
+    private Path gzipped(Path file, String etag) {
+        Path dir = cacheDirectory();
+        Path cached = dir.resolve(cacheKey(file, etag) + ".gz");
+        try {
+            if (Files.exists(cached)) {
+                Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+                return cached;
+            }
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve("tmp-" + UUID.randomUUID());
+            try {
+                try (InputStream in = Files.newInputStream(file);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 65536)) {
+                    in.transferTo(out);
+                }
+                try {
+                    Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            gzipWritten.incrementAndGet();
+            return cached;
+        } catch (IOException e) {
+            log.warn("Cannot gzip {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private String cacheKey(Path file, String etag) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(file.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            md.update(etag.getBytes(StandardCharsets.UTF_8));
+            return ProcessorLoader.toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path cacheDirectory() {
+        return referenceData.outputFileDirectory().resolve(GZIP_DIR);
+    }
+
+    private boolean notModified(HttpServletRequest request, String tag, long modified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String t : ifNoneMatch.split(",")) {
+                String candidate = t.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long since = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        // HTTP dates have whole seconds
+        return since >= 0 && modified / 1000 <= since / 1000;
+    }
+
+    private boolean ifRangeMatches(String ifRange, String etag, long modified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = parseDate(ifRange);
+            return date >= 0 && modified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * {start, endExclusive} for a single satisfiable range, an empty array when the header is to be
+     * ignored (several ranges, not bytes, malformed), null when it cannot be satisfied.
+     */
+    static long[] parseRange(String header, long size) {
+        String h = header.trim();
+        if (!h.startsWith("bytes=") || h.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = h.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // bytes=-N: the last N bytes
+                long n = Long.parseLong(last);
+                if (n <= 0 || size == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, size - n), size};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size) {
+                return null;
+            }
+            if (end < start) {
+                return new long[0];
+            }
+            return new long[]{start, end + 1};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static long parseDate(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.IF_RANGE, value);
+        return headers.getFirstDate(HttpHeaders.IF_RANGE);
+    }
+
+    /** RFC 6266 header value; names outside ASCII go out as filename*=UTF-8''... */
+    private static String contentDisposition(String disposition, String fileName) {
+        return ContentDisposition.builder(disposition).filename(fileName, StandardCharsets.UTF_8).build().toString();
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (tokens[0].trim().equalsIgnoreCase("gzip")) {
+                for (int i = 1; i < tokens.length; i++) {
+                    String p = tokens[i].trim().replace(" ", "");
+                    if (p.equals("q=0") || p.matches("q=0\\.0*")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean compressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.equals("application/json")
+                || contentType.equals("application/javascript") || contentType.equals("application/xml")
+                || contentType.equals("image/svg+xml");
+    }
+}
@@ -0,0 +1,369 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.config.InboxProperties;
+import com.sel2in.jobProc.entity.InputDataParam;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Creates a job for every file that lands in a configured inbox directory (jobproc.inbox.dirs),
+ * so files already on the server are handed over without an HTTP upload.
+ *
+ * A WatchService reports new and changed files; every reconcileMs the directories are also
+ * listed, which covers files present at startup and events the watch dropped. A file is taken
+ * once its size and modification time stayed the same for settleMs. Names starting with "."
+ * or ending in .tmp / .part are skipped, so writers that rename when done are never seen early.
+ *
+ * The file is claimed by an atomic rename into the inbox's .processing folder under a unique
+ * name "&lt;uuid&gt;_&lt;name&gt;" (when several nodes watch a shared inbox only one rename
+ * succeeds, and a newer file of the same name never replaces one still being adopted). The job
+ * row, its input file (InputFileStore.adopt() moves it into inputFiles without copying it) and
+ * its params are saved in one transaction; the trigger is set once that committed. If the job
+ * cannot be created nothing of it is kept and the file goes to .failed, still under its unique
+ * name.
+ */
+@Slf4j
+@Service
+public class InboxWatcher {
+
+    private static final String PROCESSING_DIR = ".processing";
+    private static final String FAILED_DIR = ".failed";
+    private static final char CLAIM_SEPARATOR = '_';
+
+    private final InboxProperties properties;
+    private final JobRepository jobRepository;
+    private final InputDataParamRepository inputDataParamRepository;
+    private final InputFileStore inputFileStore;
+    private final JobStateEvents jobStateEvents;
+    private final JobTriggers jobTriggers;
+    private final TransactionTemplate tx;
+
+    private final List<Watched> inboxes = new ArrayList<>();
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread watchThread;
+
+    private final AtomicLong adopted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong takenByOtherNode = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private volatile LocalDateTime lastReconcileAt;
+
+    private static final class Watched {
+        final InboxProperties.Inbox config;
+        final Path dir;
+        final PathMatcher matcher;
+
+        Watched(InboxProperties.Inbox config, Path dir) {
+            this.config = config;
+            this.dir = dir;
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + config.getPattern());
+        }
+    }
+
+    private static final class Pending {
+        final Watched inbox;
+        long size = -1;
+        long modified = -1;
+        long stableSince;
+
+        Pending(Watched inbox) {
+            this.inbox = inbox;
+        }
+    }
+
+    public InboxWatcher(InboxProperties properties, JobRepository jobRepository,
+                        InputDataParamRepository inputDataParamRepository, InputFileStore inputFileStore,
+                        JobStateEvents jobStateEvents, JobTriggers jobTriggers,
+                        PlatformTransactionManager transactionManager) {
+        this.properties = properties;
+        this.jobRepository = jobRepository;
+        this.inputDataParamRepository = inputDataParamRepository;
+        this.inputFileStore = inputFileStore;
+        this.jobStateEvents = jobStateEvents;
+        this.jobTriggers = jobTriggers;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        for (InboxProperties.Inbox config : properties.getDirs()) {
+            if (config.getPath() == null || config.getProcessor() == null) {
+                log.warn("Inbox without path or processor ignored: {}", config);
+                continue;
+            }
+            Path dir = Paths.get(config.getPath()).toAbsolutePath().normalize();
+            Files.createDirectories(dir);
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            inboxes.add(new Watched(config, dir));
+            try (Stream<Path> left = Files.list(dir.resolve(PROCESSING_DIR))) {
+                long count = left.count();
+                if (count > 0) {
+                    log.warn("Inbox {}: {} file(s) left in {} by an interrupted adoption; move them back "
+                            + "without the <uuid>_ prefix to retry", dir, count, PROCESSING_DIR);
+                }
+            } catch (NoSuchFileException e) {
+                // nothing was ever claimed here
+            }
+            log.info("Watching inbox {} ({}) for {}", dir, config.getPattern(), config.getProcessor());
+        }
+        watchThread = new Thread(this::watchLoop, "inbox-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        reconcile();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Closing inbox watch service: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            Watched inbox = inboxes.stream().filter(w -> w.dir.equals(dir)).findFirst().orElse(null);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // events were dropped; the next reconcile lists the directory
+                    overflows.incrementAndGet();
+                    continue;
+                }
+                if (inbox != null) {
+                    consider(inbox, dir.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /** Lists every inbox; files the watch did not report are picked up here */
+    @Scheduled(fixedDelayString = "${jobproc.inbox.reconcileMs:30000}", initialDelay = 30000)
+    public void reconcile() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (Watched inbox : inboxes) {
+            try (Stream<Path> files = Files.list(inbox.dir)) {
+                files.forEach(file -> consider(inbox, file));
+            } catch (IOException e) {
+                log.warn("Cannot list inbox {}: {}", inbox.dir, e.getMessage());
+            }
+        }
+        lastReconcileAt = LocalDateTime.now();
+    }
+
+    /** Adopts the pending files that stopped changing */
+    @Scheduled(fixedDelayString = "${jobproc.inbox.pollMs:1000}", initialDelay = 5000)
+    public void poll() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Path, Pending> entry : pending.entrySet()) {
+            Path file = entry.getKey();
+            Pending p = entry.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // gone (taken by another node, or removed by its writer)
+                pending.remove(file);
+                continue;
+            }
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (attrs.size() != p.size || modified != p.modified) {
+                p.size = attrs.size();
+                p.modified = modified;
+                p.stableSince = now;
+            } else if (now - p.stableSince >= properties.getSettleMs()) {
+                pending.remove(file);
+                adopt(p.inbox, file);
+            }
+        }
+    }
+
+    private void consider(Watched inbox, Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(".part")
+                || !inbox.matcher.matches(file.getFileName()) || !Files.isRegularFile(file)) {
+            return;
+        }
+        pending.computeIfAbsent(file, f -> new Pending(inbox));
+    }
+
+    private void adopt(Watched inbox, Path file) {
+        String fileName = file.getFileName().toString();
+        Path claimed;
+        try {
+            Path processing = inbox.dir.resolve(PROCESSING_DIR);
+            Files.createDirectories(processing);
+            claimed = processing.resolve(UUID.randomUUID().toString() + CLAIM_SEPARATOR + fileName);
+            Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            takenByOtherNode.incrementAndGet();
+            return;
+        } catch (IOException e) {
+            log.warn("Inbox {}: cannot claim {}: {}", inbox.dir, fileName, e.getMessage());
+            return;
+        }
+
+        InboxProperties.Inbox config = inbox.config;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime runAt = now.plusSeconds(Math.max(0, config.getDelaySeconds()));
+        Long[] jobId = new Long[1];
+        JobRecord job;
+        long size;
+        try {
+            size = Files.size(claimed);
+            // Listeners (read model, stats, events) hear of the job once all of it is committed
+            job = tx.execute(status -> {
+                JobRecord j = new JobRecord();
+                j.setJobName(expand(config.getJobName(), inbox, fileName, 0));
+                j.setProcessorClassName(config.getProcessor());
+                j.setComment(config.getComment() != null ? config.getComment() : "inbox " + inbox.dir);
+                j.setJobSubmittedDateTime(now);
+                j.setScheduledRunTime(runAt);
+                j.setStatus("SCHEDULED");
+                j = jobRepository.save(j);
+                jobId[0] = j.getId();
+                jobStateEvents.created(j);
+                try {
+                    inputFileStore.adopt(j.getId(), fileName, claimed, config.isDeduplicate());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                for (Map.Entry<String, String> param : config.getParams().entrySet()) {
+                    saveParam(j.getId(), param.getKey(), expand(param.getValue(), inbox, fileName, size));
+                }
+                return j;
+            });
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            log.error("Inbox {}: no job could be created for {}", inbox.dir, fileName, e);
+            if (jobId[0] != null) {
+                try {
+                    // The rows are rolled back; take the file back from the job's folder
+                    inputFileStore.release(jobId[0], fileName, claimed);
+                } catch (IOException re) {
+                    log.warn("Inbox {}: cannot take {} back from job {}: {}", inbox.dir, fileName, jobId[0], re.getMessage());
+                }
+            }
+            moveToFailed(inbox, claimed);
+            return;
+        }
+
+        // Marks the job SCHEDULE_FAILED itself if Quartz refuses it
+        jobTriggers.schedule(job, runAt);
+        adopted.incrementAndGet();
+        log.info("Inbox {}: {} ({} bytes) became job {} for {}", inbox.dir, fileName, size, job.getId(),
+                config.getProcessor());
+    }
+
+    private void saveParam(Long jobId, String name, String value) {
+        InputDataParam param = new InputDataParam();
+        param.setInputDataId(jobId);
+        param.setParamName(name);
+        try {
+            param.setNumberValue(Double.parseDouble(value));
+            param.setParamType("NUMBER");
+        } catch (NumberFormatException e) {
+            param.setParamType("STRING");
+            param.setStringValue(value);
+        }
+        inputDataParamRepository.save(param);
+    }
+
+    private static String expand(String template, Watched inbox, String fileName, long size) {
+        if (template == null) {
+            return null;
+        }
+        return template.replace("${fileName}", fileName)
+                .replace("${fileSize}", String.valueOf(size))
+                .replace("${inbox}", inbox.dir.toString());
+    }
+
+    private void moveToFailed(Watched inbox, Path claimed) {
+        if (!Files.exists(claimed)) {
+            return;
+        }
+        try {
+            Path failedDir = inbox.dir.resolve(FAILED_DIR);
+            Files.createDirectories(failedDir);
+            // The unique claimed name keeps failures of files with the same name apart
+            try {
+                Files.move(claimed, failedDir.resolve(claimed.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(claimed, failedDir.resolve(claimed.getFileName()));
+            }
+        } catch (IOException e) {
+            log.warn("Inbox {}: cannot move {} to {}: {}", inbox.dir, claimed.getFileName(), FAILED_DIR, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", properties.isEnabled());
+        List<String> dirs = new ArrayList<>();
+        for (Watched inbox : inboxes) {
+            dirs.add(inbox.dir + " -> " + inbox.config.getProcessor());
+        }
+        status.put("dirs", dirs);
+        status.put("pending", pending.size());
+        status.put("adopted", adopted.get());
+        status.put("failed", failed.get());
+        status.put("takenByOtherNode", takenByOtherNode.get());
+        status.put("watchOverflows", overflows.get());
+        status.put("lastReconcileAt", lastReconcileAt);
+        return status;
+    }
+}
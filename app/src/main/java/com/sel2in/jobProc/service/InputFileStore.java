@@ -0,0 +1,371 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores job input files once per content. Each distinct file is kept as a read-only blob
+ * inputFileDirectory/.cas/&lt;first 2 hex&gt;/&lt;sha256&gt;; a job's file
+ * inputFiles/&lt;jobId&gt;/&lt;name&gt; is a hard link to it, so processors see the usual path and
+ * name, and a hundred jobs sharing a reference CSV use the disk space of one.
+ *
+ * The file system counts the links: a blob whose link count is back to 1 is referenced by no
+ * job and is deleted by gc() once older than gcGraceMinutes. Where hard links are not possible
+ * (another file system, no support) the job gets a plain copy and the blob is kept while an
+ * InputDataFile row carries its hash.
+ *
+ * Blobs are read-only because every linked job would see a change made through one of them.
+ * With a shared BlobStore every attached file is uploaded as well (JobBlobs), once per content.
+ */
+@Slf4j
+@Service
+public class InputFileStore {
+
+    private static final String CAS_DIR = ".cas";
+    private static final String TMP_DIR = "tmp";
+
+    private final InputDataFileRepository inputDataFileRepository;
+    private final ReferenceData referenceData;
+    private final JobBlobs jobBlobs;
+    private final int bufferBytes;
+    private final long gcGraceMinutes;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong copyFallbacks = new AtomicLong();
+    private final AtomicLong blobsDeleted = new AtomicLong();
+    private volatile LocalDateTime lastGcAt;
+    /** Blobs created without hard links are checked and moved in place under this lock */
+    private final Object publishLock = new Object();
+
+    public InputFileStore(InputDataFileRepository inputDataFileRepository, ReferenceData referenceData, JobBlobs jobBlobs,
+                          @Value("${jobproc.upload.bufferBytes:65536}") int bufferBytes,
+                          @Value("${jobproc.inputStore.gcGraceMinutes:60}") long gcGraceMinutes) {
+        this.inputDataFileRepository = inputDataFileRepository;
+        this.referenceData = referenceData;
+        this.jobBlobs = jobBlobs;
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        this.gcGraceMinutes = gcGraceMinutes;
+    }
+
+    /** Streams in to the store and attaches it to the job as fileName */
+    public InputDataFile store(Long jobId, String fileName, InputStream in) throws IOException {
+        Path tmp = newTempFile();
+        try {
+            MessageDigest digest = sha256();
+            long size = 0;
+            byte[] buffer = new byte[bufferBytes];
+            try (InputStream din = new DigestInputStream(in, digest);
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                int n;
+                while ((n = din.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    size += n;
+                }
+            }
+            return attach(jobId, fileName, tmp, ProcessorLoader.toHex(digest.digest()), size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Takes an already written file with SHA-256 sha256 (a finished chunked upload) into the store and attaches it */
+    public InputDataFile storeFile(Long jobId, String fileName, Path file, String sha256) throws IOException {
+        long size = Files.size(file);
+        try {
+            return attach(jobId, fileName, file, sha256, size);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Takes a file already on this server (an inbox file) for the job. With deduplicate it is
+     * read once to hash it and moved into the store; without, it is only moved into the job's
+     * folder. Either way no data is copied when both are on the same file system.
+     */
+    public InputDataFile adopt(Long jobId, String fileName, Path file, boolean deduplicate) throws IOException {
+        if (deduplicate) {
+            return storeFile(jobId, fileName, file, hash(file));
+        }
+        Path target = jobFile(jobId, fileName);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return save(jobId, fileName, target, null, Files.size(target));
+    }
+
+    /**
+     * Undoes adopt() for a job whose transaction rolled back: the job's file goes back to file
+     * if adopt() took it from there (it may be read-only then, being a link to the stored blob)
+     * and the job's input folder is removed.
+     */
+    public void release(Long jobId, String fileName, Path file) throws IOException {
+        Path target = jobFile(jobId, fileName);
+        if (Files.exists(target)) {
+            if (Files.exists(file)) {
+                Files.delete(target);
+            } else {
+                Files.move(target, file);
+            }
+        }
+        try {
+            Files.deleteIfExists(target.getParent());
+        } catch (DirectoryNotEmptyException e) {
+            log.warn("Input folder {} of rolled back job {} is not empty, left in place", target.getParent(), jobId);
+        }
+    }
+
+    /** Attaches a file another job already has (clone); no data is copied */
+    public InputDataFile copy(InputDataFile source, Long jobId) throws IOException {
+        String hash = source.getContentHash();
+        Path blob = hash != null ? blobPath(hash) : null;
+        if (blob == null || !Files.exists(blob)) {
+            // Stored before the content store existed, collected, or stored on another node:
+            // take it in from the job's file
+            try (InputStream in = Files.newInputStream(jobBlobs.localInput(source))) {
+                return store(jobId, source.getFileName(), in);
+            }
+        }
+        Path target = jobFile(jobId, source.getFileName());
+        linkOrCopy(blob, target);
+        deduplicated.incrementAndGet();
+        bytesSaved.addAndGet(source.getFileSize() != null ? source.getFileSize() : 0);
+        return save(jobId, source.getFileName(), target, hash, Files.size(target));
+    }
+
+    /**
+     * Deletes blobs no job links to any more. A blob is kept for gcGraceMinutes after it was
+     * written so a job being attached at that moment does not lose it.
+     */
+    @Scheduled(fixedDelayString = "${jobproc.inputStore.gcMs:3600000}", initialDelay = 300000)
+    public synchronized int gc() {
+        Path cas = casDirectory();
+        if (!Files.isDirectory(cas)) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minusSeconds(gcGraceMinutes * 60);
+        int deleted = 0;
+        List<Path> blobs;
+        try (Stream<Path> walk = Files.walk(cas, 2)) {
+            blobs = walk.filter(p -> p.getParent() != null && !p.getParent().equals(cas) && Files.isRegularFile(p))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Cannot list input store {}: {}", cas, e.getMessage());
+            return 0;
+        }
+        for (Path blob : blobs) {
+            try {
+                if (Files.getLastModifiedTime(blob).toInstant().isAfter(cutoff)) {
+                    continue;
+                }
+                // Leftovers of uploads cut off by a crash are deleted as well
+                boolean tmp = blob.getParent().getFileName().toString().equals(TMP_DIR);
+                if (!tmp && referenced(blob)) {
+                    continue;
+                }
+                Files.delete(blob);
+                deleted++;
+            } catch (IOException e) {
+                log.warn("Cannot collect input blob {}: {}", blob.getFileName(), e.getMessage());
+            }
+        }
+        blobsDeleted.addAndGet(deleted);
+        lastGcAt = LocalDateTime.now();
+        if (deleted > 0) {
+            log.info("Input store: deleted {} unreferenced blob(s)", deleted);
+        }
+        return deleted;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("stored", stored.get());
+        status.put("deduplicated", deduplicated.get());
+        status.put("bytesSaved", bytesSaved.get());
+        status.put("copyFallbacks", copyFallbacks.get());
+        status.put("blobsDeleted", blobsDeleted.get());
+        status.put("lastGcAt", lastGcAt);
+        return status;
+    }
+
+    // ===== internals =====
+
+    private InputDataFile attach(Long jobId, String fileName, Path source, String hash, long size) throws IOException {
+        Path blob = blobPath(hash);
+        Path target = jobFile(jobId, fileName);
+        for (int attempt = 0; ; attempt++) {
+            if (Files.exists(blob)) {
+                try {
+                    linkOrCopy(blob, target);
+                    deduplicated.incrementAndGet();
+                    bytesSaved.addAndGet(size);
+                    log.info("Input file {} for job {} deduplicated (sha256 {})", fileName, jobId, hash);
+                    return save(jobId, fileName, target, hash, size);
+                } catch (NoSuchFileException e) {
+                    // collected between the check and the link; store it again below
+                }
+            }
+            if (publish(source, blob)) {
+                blob.toFile().setReadOnly();
+                linkOrCopy(blob, target);
+                stored.incrementAndGet();
+                log.info("Input file {} for job {} stored (sha256 {}, {} bytes)", fileName, jobId, hash, size);
+                return save(jobId, fileName, target, hash, size);
+            }
+            // stored by a concurrent upload of the same content: link to that one
+            if (attempt == 2) {
+                throw new IOException("input blob " + hash + " keeps appearing and disappearing");
+            }
+        }
+    }
+
+    /**
+     * Creates blob with source's content unless there is one already (false). Never replaces a
+     * blob: jobs linked to the old one would drop out of its link count. The source stays where
+     * it is; callers delete it.
+     */
+    private boolean publish(Path source, Path blob) throws IOException {
+        Files.createDirectories(blob.getParent());
+        try {
+            // Created or refused in one step, also against another node sharing the directory
+            Files.createLink(blob, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            // source on another file system (an inbox) or no hard links here
+        }
+        Path tmp = newTempFile();
+        try {
+            Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.createLink(blob, tmp);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } catch (UnsupportedOperationException | IOException e) {
+                synchronized (publishLock) {
+                    if (Files.exists(blob)) {
+                        return false;
+                    }
+                    Files.move(tmp, blob);
+                    return true;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void linkOrCopy(Path blob, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        // Replaced like a re-upload of the same name always was
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, blob);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            if (copyFallbacks.getAndIncrement() == 0) {
+                log.warn("Hard links not possible in {} ({}); job input files are copied", target.getParent(), e.toString());
+            }
+            Files.copy(blob, target);
+        }
+    }
+
+    private InputDataFile save(Long jobId, String fileName, Path target, String hash, long size) throws IOException {
+        InputDataFile idf = new InputDataFile();
+        idf.setInputDataId(jobId);
+        idf.setFileName(fileName);
+        idf.setFilePath(target.toString());
+        idf.setFileSize(size);
+        idf.setContentHash(hash);
+        // Other nodes read it from the blob store (if one is configured)
+        jobBlobs.inputStored(idf, target);
+        return inputDataFileRepository.save(idf);
+    }
+
+    /** Linked from a job's directory, or (where links are not counted) named by an InputDataFile row */
+    private boolean referenced(Path blob) throws IOException {
+        try {
+            Object links = Files.getAttribute(blob, "unix:nlink");
+            if (links instanceof Integer) {
+                return (Integer) links > 1;
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // no link count on this file system
+        }
+        return inputDataFileRepository.existsByContentHash(blob.getFileName().toString());
+    }
+
+    private Path jobFile(Long jobId, String fileName) {
+        return referenceData.inputFileDirectory().resolve(jobId.toString()).resolve(fileName).toAbsolutePath();
+    }
+
+    private Path casDirectory() {
+        return referenceData.inputFileDirectory().resolve(CAS_DIR).toAbsolutePath().normalize();
+    }
+
+    private Path blobPath(String hash) {
+        return casDirectory().resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path newTempFile() throws IOException {
+        Path dir = casDirectory().resolve(TMP_DIR);
+        Files.createDirectories(dir);
+        // Not createTempFile: its owner-only permissions would end up on every linked job file
+        return Files.createFile(dir.resolve("in-" + UUID.randomUUID() + ".tmp"));
+    }
+
+    private String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[bufferBytes];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return ProcessorLoader.toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.sel2in.jobProc.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sel2in.jobProc.dto.JobSummary;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.InputDataParam;
+import com.sel2in.jobProc.entity.JobArchive;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobArchiveRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Moves finished jobs out of the hot InputData / InputDataParam / InputDataFile tables into
+ * JobArchive, so those tables hold only pending, active and recent work.
+ *
+ * Every runMs it archives jobs that ended more than afterDays ago, batchSize jobs per
+ * transaction, pausing pauseMs between batches and stopping after maxBatchesPerRun.
+ * A job is copied with INSERT ... SELECT guarded by its status, then deleted; if it was re-run
+ * meanwhile the batch rolls back and is retried next run. Several nodes may run this: the
+ * one that loses a race gets a duplicate key and stops until its next run.
+ *
+ * Each archived job gets an ARCHIVED row in the JobEvent log (its timeline keeps the end)
+ * and is dropped from the read model here; other nodes drop it when they reconcile.
+ * OutputData and job errors are not moved.
+ */
+@Slf4j
+@Service
+public class JobArchiver {
+
+    public static final String ARCHIVED = "ARCHIVED";
+
+    private static final List<String> ENDED = List.of("SUCCESS", "FAILED", "TIMED_OUT", "CANCELLED", "SCHEDULE_FAILED");
+
+    private static final String INSERT_ARCHIVE = "INSERT INTO job_archive (job_id, job_name, processor_class_name, "
+            + "comment, notes, status, main_error_code, error_reason, node_id, job_submitted_datetime, "
+            + "job_submitted_timezone, scheduled_run_time, job_start_datetime, job_end_datetime, created_ts, "
+            + "archived_ts, payload, payload_bytes) "
+            + "SELECT input_data_id, job_name, processor_class_name, comment, notes, status, main_error_code, "
+            + "error_reason, node_id, job_submitted_datetime, job_submitted_timezone, scheduled_run_time, "
+            + "job_start_datetime, job_end_datetime, created_ts, :now, :payload, :payloadBytes "
+            + "FROM input_data WHERE input_data_id = :jobId AND status = :status";
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final JobRepository jobRepository;
+    private final JobArchiveRepository archiveRepository;
+    private final InputDataParamRepository paramRepository;
+    private final InputDataFileRepository fileRepository;
+    private final JobReadModel jobReadModel;
+    private final JobEventLog jobEventLog;
+    private final ObjectMapper mapper;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final int afterDays;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long pauseMs;
+
+    private final AtomicLong archivedJobs = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private volatile LocalDateTime lastRunAt;
+    private volatile int lastRunArchived;
+
+    public JobArchiver(NamedParameterJdbcTemplate jdbc, JobRepository jobRepository,
+                       JobArchiveRepository archiveRepository, InputDataParamRepository paramRepository,
+                       InputDataFileRepository fileRepository, JobReadModel jobReadModel,
+                       JobEventLog jobEventLog, ObjectMapper mapper,
+                       PlatformTransactionManager transactionManager,
+                       @Value("${jobproc.archive.enabled:true}") boolean enabled,
+                       @Value("${jobproc.archive.afterDays:30}") int afterDays,
+                       @Value("${jobproc.archive.batchSize:200}") int batchSize,
+                       @Value("${jobproc.archive.maxBatchesPerRun:50}") int maxBatchesPerRun,
+                       @Value("${jobproc.archive.pauseMs:500}") long pauseMs) {
+        this.jdbc = jdbc;
+        this.jobRepository = jobRepository;
+        this.archiveRepository = archiveRepository;
+        this.paramRepository = paramRepository;
+        this.fileRepository = fileRepository;
+        this.jobReadModel = jobReadModel;
+        this.jobEventLog = jobEventLog;
+        this.mapper = mapper;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.afterDays = Math.max(0, afterDays);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.pauseMs = Math.max(0, pauseMs);
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.archive.runMs:300000}", initialDelay = 180000)
+    public synchronized void run() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(afterDays);
+        int total = 0;
+        for (int b = 0; b < maxBatchesPerRun; b++) {
+            List<JobRecord> batch = candidates(cutoff);
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<Long> archived;
+            try {
+                archived = tx.execute(status -> archive(batch));
+            } catch (DataIntegrityViolationException | IllegalStateException e) {
+                // Another node archived the same jobs, or one was re-run meanwhile
+                conflicts.incrementAndGet();
+                log.info("Archive batch of {} job(s) rolled back: {}", batch.size(), e.getMessage());
+                break;
+            }
+            batches.incrementAndGet();
+            jobReadModel.forget(archived);
+            total += archived.size();
+            if (batch.size() < batchSize) {
+                break;
+            }
+            try {
+                Thread.sleep(pauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        lastRunAt = LocalDateTime.now();
+        lastRunArchived = total;
+        if (total > 0) {
+            log.info("Archived {} job(s) that ended before {}", total, cutoff);
+        }
+    }
+
+    private List<JobRecord> candidates(LocalDateTime cutoff) {
+        List<JobRecord> jobs = new ArrayList<>(
+                jobRepository.findEndedBefore(cutoff, ENDED, PageRequest.of(0, batchSize)));
+        if (jobs.size() < batchSize) {
+            jobs.addAll(jobRepository.findScheduleFailedBefore(cutoff, PageRequest.of(0, batchSize - jobs.size())));
+        }
+        return jobs;
+    }
+
+    /** Copies and deletes one batch; returns the ids archived. Runs in a transaction. */
+    private List<Long> archive(List<JobRecord> batch) {
+        List<Long> ids = batch.stream().map(JobRecord::getId).collect(Collectors.toList());
+        Map<Long, List<InputDataParam>> params = paramRepository.findByInputDataIdIn(ids).stream()
+                .collect(Collectors.groupingBy(InputDataParam::getInputDataId));
+        Map<Long, List<InputDataFile>> files = fileRepository.findByInputDataIdIn(ids).stream()
+                .collect(Collectors.groupingBy(InputDataFile::getInputDataId));
+
+        LocalDateTime now = LocalDateTime.now();
+        SqlParameterSource[] rows = new SqlParameterSource[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            JobRecord job = batch.get(i);
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("params", params.getOrDefault(job.getId(), Collections.emptyList()));
+            payload.put("files", files.getOrDefault(job.getId(), Collections.emptyList()));
+            String json;
+            try {
+                json = mapper.writeValueAsString(payload);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Job " + job.getId() + " inputs not serializable: " + e.getMessage(), e);
+            }
+            byte[] gz = OutputStore.gzip(json);
+            int jsonSize = json.getBytes(StandardCharsets.UTF_8).length;
+            jsonBytes.addAndGet(jsonSize);
+            storedBytes.addAndGet(gz.length);
+            rows[i] = new MapSqlParameterSource()
+                    .addValue("jobId", job.getId())
+                    .addValue("status", job.getStatus())
+                    .addValue("now", now)
+                    .addValue("payload", gz)
+                    .addValue("payloadBytes", (long) jsonSize);
+        }
+        int[] inserted = jdbc.batchUpdate(INSERT_ARCHIVE, rows);
+        List<Long> archived = new ArrayList<>();
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] != 0) {
+                archived.add(batch.get(i).getId());
+            }
+        }
+        if (archived.isEmpty()) {
+            return archived;
+        }
+
+        Map<String, Object> archivedIds = Map.of("ids", archived, "ended", ENDED);
+        jdbc.update("DELETE FROM input_data_param WHERE input_data_id IN (:ids)", archivedIds);
+        jdbc.update("DELETE FROM input_data_file WHERE input_data_id IN (:ids)", archivedIds);
+        jdbc.update("DELETE FROM job_checkpoint WHERE job_id IN (:ids)", archivedIds);
+        int deleted = jdbc.update("DELETE FROM input_data WHERE input_data_id IN (:ids) AND status IN (:ended)", archivedIds);
+        if (deleted != archived.size()) {
+            throw new IllegalStateException((archived.size() - deleted) + " job(s) changed while archiving");
+        }
+        Set<Long> done = Set.copyOf(archived);
+        for (JobRecord job : batch) {
+            if (done.contains(job.getId())) {
+                JobStateChangedEvent e = new JobStateChangedEvent(job.getId(), job.getStatus(), ARCHIVED);
+                e.setProcessorClassName(job.getProcessorClassName());
+                e.setNodeId(job.getNodeId());
+                jobEventLog.append(e);
+            }
+        }
+        archivedJobs.addAndGet(archived.size());
+        return archived;
+    }
+
+    // ===== Query =====
+
+    /** Archived jobs that ended in [from, to), by id; pass nextAfterId back for the next page */
+    public Map<String, Object> list(LocalDateTime from, LocalDateTime to, long afterId, int limit) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        int size = Math.max(1, Math.min(limit, 500));
+        List<JobSummary> items = archiveRepository.findEndedBetween(from, to, afterId, PageRequest.of(0, size));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("items", items);
+        result.put("nextAfterId", items.size() < size ? null : items.get(items.size() - 1).getId());
+        return result;
+    }
+
+    /** One archived job with its input params and files, or null */
+    public Map<String, Object> find(Long jobId) {
+        JobArchive a = archiveRepository.findById(jobId).orElse(null);
+        if (a == null) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", a.getJobId());
+        result.put("jobName", a.getJobName());
+        result.put("processorClassName", a.getProcessorClassName());
+        result.put("status", a.getStatus());
+        result.put("comment", a.getComment());
+        result.put("notes", a.getNotes());
+        result.put("mainErrorCode", a.getMainErrorCode());
+        result.put("errorReason", a.getErrorReason());
+        result.put("nodeId", a.getNodeId());
+        result.put("jobSubmittedDateTime", a.getJobSubmittedDateTime());
+        result.put("jobSubmittedTimeZone", a.getJobSubmittedTimeZone());
+        result.put("scheduledRunTime", a.getScheduledRunTime());
+        result.put("jobStartDateTime", a.getJobStartDateTime());
+        result.put("jobEndDateTime", a.getJobEndDateTime());
+        result.put("createdTs", a.getCreatedTs());
+        result.put("archivedTs", a.getArchivedTs());
+        try {
+            Map<String, Object> payload = mapper.readValue(OutputStore.gunzip(a.getPayload()),
+                    new TypeReference<Map<String, Object>>() { });
+            result.put("params", payload.get("params"));
+            result.put("files", payload.get("files"));
+        } catch (JsonProcessingException e) {
+            log.error("Archived job {} payload unreadable: {}", jobId, e.getMessage());
+            result.put("payloadError", e.getMessage());
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        s.put("afterDays", afterDays);
+        s.put("archivedJobs", archivedJobs.get());
+        s.put("batches", batches.get());
+        s.put("conflicts", conflicts.get());
+        s.put("jsonBytes", jsonBytes.get());
+        s.put("storedBytes", storedBytes.get());
+        s.put("lastRunAt", lastRunAt);
+        s.put("lastRunArchived", lastRunArchived);
+        return s;
+    }
+}
@@ -0,0 +1,279 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.blob.BlobCache;
+import com.sel2in.jobProc.blob.BlobStore;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Moves job files between this node's disk and the shared BlobStore, so any node can run any
+ * job and serve any job's output without a shared file system. Does nothing when
+ * jobproc.blobStore.type is none.
+ *
+ * Blob layout:
+ *   inputs/sha256/&lt;hash&gt;          input content stored by InputFileStore (uploaded once per content)
+ *   inputs/jobs/&lt;jobId&gt;/&lt;name&gt;     input files taken without a hash (inbox, deduplicate: false)
+ *   outputs/&lt;jobId&gt;/&lt;path&gt;        a finished job's output folder, uploaded by the node that ran it
+ *
+ * Inputs reach a job as local files: missing ones are fetched through the BlobCache and linked
+ * into inputFiles/&lt;jobId&gt;/ under their names before the job runs. prefetch() does this
+ * for jobs this node has claimed but not started yet (a lease-mode batch waiting for a worker);
+ * jobs not claimed may well run on another node, so their inputs are not fetched here.
+ *
+ * Output files of jobs run elsewhere are served from the cache, checked against the blob's
+ * version first so a re-run is never answered with the old file.
+ */
+@Slf4j
+@Service
+public class JobBlobs {
+
+    private final BlobCache blobCache;
+    private final ReferenceData referenceData;
+    private final JobRepository jobRepository;
+    private final InputDataFileRepository inputDataFileRepository;
+    private final NodeIdentity nodeIdentity;
+    private final int prefetchBatch;
+
+    private final Set<Long> pendingOutputs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong inputsUploaded = new AtomicLong();
+    private final AtomicLong inputsFetched = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong outputsUploaded = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public JobBlobs(BlobCache blobCache, ReferenceData referenceData, JobRepository jobRepository,
+                    InputDataFileRepository inputDataFileRepository, NodeIdentity nodeIdentity,
+                    @Value("${jobproc.blobStore.prefetchBatch:100}") int prefetchBatch) {
+        this.blobCache = blobCache;
+        this.referenceData = referenceData;
+        this.jobRepository = jobRepository;
+        this.inputDataFileRepository = inputDataFileRepository;
+        this.nodeIdentity = nodeIdentity;
+        this.prefetchBatch = prefetchBatch;
+    }
+
+    public boolean isEnabled() {
+        return blobCache.isEnabled();
+    }
+
+    // ===== Inputs =====
+
+    /** Uploads a job's input file just attached on this node; content already in the store is not sent again */
+    public void inputStored(InputDataFile file, Path local) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        BlobStore store = blobCache.getStore();
+        String key = inputKey(file);
+        if (file.getContentHash() != null && store.size(key) >= 0) {
+            return;
+        }
+        store.put(key, local);
+        inputsUploaded.incrementAndGet();
+    }
+
+    /**
+     * Local paths of the job's input files for InputData.inputFiles. Files missing here are
+     * fetched from the store; one that cannot be fetched keeps its recorded path (the processor
+     * reports it missing as before).
+     */
+    public List<String> localInputs(List<InputDataFile> files) {
+        List<String> paths = new ArrayList<>(files.size());
+        for (InputDataFile f : files) {
+            paths.add(localInput(f).toString());
+        }
+        return paths;
+    }
+
+    /** The input file on this node's disk, fetched from the store if it is not there yet */
+    public Path localInput(InputDataFile file) {
+        Path recorded = Paths.get(file.getFilePath());
+        if (Files.isRegularFile(recorded) || !isEnabled()) {
+            return recorded;
+        }
+        Path target = referenceData.inputFileDirectory().resolve(file.getInputDataId().toString())
+                .resolve(file.getFileName()).toAbsolutePath();
+        if (Files.isRegularFile(target)) {
+            return target;
+        }
+        try {
+            Path cached = blobCache.get(inputKey(file));
+            Files.createDirectories(target.getParent());
+            try {
+                Files.createLink(target, cached);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            inputsFetched.incrementAndGet();
+            return target;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Cannot fetch input {} of job {} from the blob store: {}",
+                    file.getFileName(), file.getInputDataId(), e.toString());
+            return recorded;
+        }
+    }
+
+    /** Fetches the inputs of jobs claimed by this node that are not on its disk yet */
+    @Scheduled(fixedDelayString = "${jobproc.blobStore.prefetchMs:10000}", initialDelay = 10000)
+    public void prefetch() {
+        if (!isEnabled()) {
+            return;
+        }
+        List<Long> due = jobRepository.findRunningIdsOfNode(nodeIdentity.getNodeId(), PageRequest.of(0, prefetchBatch));
+        if (due.isEmpty()) {
+            return;
+        }
+        int fetched = 0;
+        for (InputDataFile f : inputDataFileRepository.findByInputDataIdIn(due)) {
+            long before = inputsFetched.get();
+            localInput(f);
+            if (inputsFetched.get() > before) {
+                fetched++;
+            }
+        }
+        if (fetched > 0) {
+            prefetched.addAndGet(fetched);
+            log.info("Prefetched {} input file(s) for {} claimed job(s)", fetched, due.size());
+        }
+    }
+
+    // ===== Outputs =====
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent e) {
+        if (e.isFinal() && isEnabled()) {
+            pendingOutputs.add(e.getJobId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.blobStore.uploadMs:2000}")
+    public void flushOutputs() {
+        if (pendingOutputs.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(pendingOutputs);
+        pendingOutputs.removeAll(ids);
+        for (Long id : ids) {
+            try {
+                uploadOutputs(id);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                log.warn("Could not upload output of job {}: {}", id, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Uploads the job's output folder and removes blobs of files no longer in it (an earlier run).
+     * Nothing happens on nodes without the folder, i.e. those that did not run the job.
+     */
+    public int uploadOutputs(Long jobId) throws IOException {
+        Path dir = referenceData.outputFileDirectory().resolve(jobId.toString());
+        if (!isEnabled() || !Files.isDirectory(dir)) {
+            return 0;
+        }
+        BlobStore store = blobCache.getStore();
+        String prefix = outputPrefix(jobId);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        Set<String> keys = new HashSet<>();
+        for (Path file : files) {
+            String key = prefix + dir.relativize(file).toString().replace('\\', '/');
+            store.put(key, file);
+            blobCache.invalidate(key);
+            keys.add(key);
+        }
+        for (String key : store.list(prefix)) {
+            if (!keys.contains(key)) {
+                store.delete(key);
+                blobCache.invalidate(key);
+            }
+        }
+        outputsUploaded.addAndGet(files.size());
+        return files.size();
+    }
+
+    /**
+     * A job output file kept in the store (the job ran on another node), cached locally and
+     * pinned until the caller closes it; null if there is none. A copy cached before a re-run
+     * replaced the blob is fetched again.
+     */
+    public BlobCache.Pin outputFile(Long jobId, String name) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = outputPrefix(jobId) + name;
+        String version = blobCache.getStore().version(key);
+        if (version == null) {
+            return null;
+        }
+        return blobCache.pin(key, version);
+    }
+
+    /** Names (relative to the output folder) of the job's files in the store */
+    public List<String> outputNames(Long jobId) throws IOException {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        String prefix = outputPrefix(jobId);
+        return blobCache.getStore().list(prefix).stream()
+                .map(k -> k.substring(prefix.length()))
+                .collect(Collectors.toList());
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", isEnabled());
+        if (!isEnabled()) {
+            return status;
+        }
+        status.put("inputsUploaded", inputsUploaded.get());
+        status.put("inputsFetched", inputsFetched.get());
+        status.put("prefetched", prefetched.get());
+        status.put("outputsUploaded", outputsUploaded.get());
+        status.put("pendingOutputs", pendingOutputs.size());
+        status.put("failures", failures.get());
+        status.put("store", blobCache.getStore().getStatus());
+        status.put("cache", blobCache.getStatus());
+        return status;
+    }
+
+    // ===== internals =====
+
+    static String inputKey(InputDataFile file) {
+        return file.getContentHash() != null
+                ? "inputs/sha256/" + file.getContentHash()
+                : "inputs/jobs/" + file.getInputDataId() + "/" + file.getFileName();
+    }
+
+    private static String outputPrefix(Long jobId) {
+        return "outputs/" + jobId + "/";
+    }
+}
@@ -0,0 +1,158 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lease-based job claiming straight from the InputData table.
+ *
+ * A node owns a RUNNING job while its lease (lease_expires_ts) is in the future and
+ * keeps it alive with heartbeats. When a node dies its leases run out and any node
+ * applies the processor's orphan policy (see OrphanJobHandler), normally putting the
+ * job back to SCHEDULED where it is claimed again.
+ *
+ * jobproc.claim.mode:
+ *   quartz - (default) Quartz triggers start jobs; leases still protect against dead nodes
+ *   lease  - no Quartz triggers; every node polls for due jobs (see JobLeaseScheduler)
+ */
+@Slf4j
+@Service
+public class JobClaimService {
+
+    public static final String MODE_LEASE = "lease";
+    private static final int CANDIDATE_FACTOR = 3;
+
+    private final JobRepository jobRepository;
+    private final JobStateStore jobStateStore;
+    private final NodeIdentity nodeIdentity;
+    private final AffinityRouter affinityRouter;
+    private final JobStateEvents jobStateEvents;
+
+    private final String mode;
+    private final long leaseSeconds;
+    private final boolean skipLocked;
+
+    public JobClaimService(JobRepository jobRepository, JobStateStore jobStateStore, NodeIdentity nodeIdentity,
+                           AffinityRouter affinityRouter, JobStateEvents jobStateEvents,
+                           @Value("${jobproc.claim.mode:quartz}") String mode,
+                           @Value("${jobproc.claim.leaseSeconds:60}") long leaseSeconds,
+                           @Value("${jobproc.claim.skipLocked:false}") boolean skipLocked) {
+        this.jobRepository = jobRepository;
+        this.jobStateStore = jobStateStore;
+        this.nodeIdentity = nodeIdentity;
+        this.affinityRouter = affinityRouter;
+        this.jobStateEvents = jobStateEvents;
+        this.mode = mode;
+        this.leaseSeconds = Math.max(5, leaseSeconds);
+        this.skipLocked = skipLocked;
+        log.info("Job claim mode: {} (lease {}s, skipLocked {})", mode, this.leaseSeconds, skipLocked);
+    }
+
+    public boolean isLeaseMode() {
+        return MODE_LEASE.equalsIgnoreCase(mode);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public String getNodeId() {
+        return nodeIdentity.getNodeId();
+    }
+
+    public LocalDateTime nextLeaseExpiry() {
+        return LocalDateTime.now().plusSeconds(leaseSeconds);
+    }
+
+    /**
+     * Claims one job for this node. Must be called inside a transaction.
+     * @return true if this node now owns the job
+     */
+    public boolean claim(Long jobId, LocalDateTime startTime, LocalDateTime leaseExpires) {
+        return claim(jobId, null, null, startTime, leaseExpires);
+    }
+
+    /**
+     * Claims one job for this node and announces SCHEDULED -> RUNNING when it applied.
+     * Must be called inside a transaction.
+     */
+    public boolean claim(Long jobId, String processorClassName, LocalDateTime scheduledAt,
+                         LocalDateTime startTime, LocalDateTime leaseExpires) {
+        if (!jobStateStore.claim(jobId, getNodeId(), startTime, leaseExpires)) {
+            return false;
+        }
+        JobStateChangedEvent e = new JobStateChangedEvent(jobId, "SCHEDULED", "RUNNING");
+        e.setProcessorClassName(processorClassName);
+        e.setNodeId(getNodeId());
+        e.setScheduledAt(scheduledAt);
+        e.setStartedAt(startTime);
+        jobStateEvents.publish(e);
+        return true;
+    }
+
+    /**
+     * Claims up to max due jobs for this node. Jobs whose processor is warm on another
+     * node with free capacity are left for that node (see AffinityRouter).
+     * @return IDs of the jobs this node now owns (status RUNNING)
+     */
+    @Transactional
+    public List<Long> claimDueJobs(int max) {
+        if (max <= 0) {
+            return List.of();
+        }
+        LocalDateTime now = LocalDateTime.now();
+        // Read a few more than we can take, some may be routed to warm nodes
+        int window = max * CANDIDATE_FACTOR;
+        List<Object[]> candidates = skipLocked
+                ? jobRepository.lockDueSkipLocked(now, window)
+                : jobRepository.findDue(now, PageRequest.of(0, window));
+
+        LocalDateTime leaseExpires = nextLeaseExpiry();
+        List<Long> claimed = new ArrayList<>();
+        for (Object[] row : candidates) {
+            if (claimed.size() >= max) {
+                break;
+            }
+            Long id = ((Number) row[0]).longValue();
+            String processorClassName = (String) row[1];
+            LocalDateTime scheduledAt = toLocalDateTime(row[2]);
+            if (!affinityRouter.shouldClaim(id, processorClassName, scheduledAt)) {
+                continue;
+            }
+            // With SKIP LOCKED the row is already ours; without it, losing the race returns 0
+            if (claim(id, processorClassName, scheduledAt, now, leaseExpires)) {
+                claimed.add(id);
+            }
+        }
+        if (!claimed.isEmpty()) {
+            log.info("Node {} claimed {} job(s): {}", getNodeId(), claimed.size(), claimed);
+        }
+        return claimed;
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    /**
+     * Extends the lease of jobs running on this node.
+     */
+    @Transactional
+    public int renewLeases(Collection<Long> jobIds) {
+        return jobStateStore.renewLeases(jobIds, getNodeId(), nextLeaseExpiry());
+    }
+}
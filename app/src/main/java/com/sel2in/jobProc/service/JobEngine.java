@@ -1,18 +1,16 @@
 package com.sel2in.jobProc.service;
 
-import com.sel2in.jobProc.entity.AppParam;
 import com.sel2in.jobProc.processor.JobProcessor;
 import com.sel2in.jobProc.processor.InputData;
 import com.sel2in.jobProc.processor.JobEstimate;
 import com.sel2in.jobProc.processor.OutputData;
-import com.sel2in.jobProc.repo.AppParamRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
 
 @Slf4j
@@ -20,15 +18,15 @@ import java.util.concurrent.*;
 public class JobEngine {
 
     private final ProcessorLoader processorLoader;
-    private final AppParamRepository appParamRepository;
+    private final ReferenceData referenceData;
 
     /** Tracks active job futures by jobId for monitoring and cancellation */
     private final Map<Long, CompletableFuture<OutputData>> activeJobs = new ConcurrentHashMap<>();
     private ThreadPoolExecutor executorService;
 
-    public JobEngine(ProcessorLoader processorLoader, AppParamRepository appParamRepository) {
+    public JobEngine(ProcessorLoader processorLoader, ReferenceData referenceData) {
         this.processorLoader = processorLoader;
-        this.appParamRepository = appParamRepository;
+        this.referenceData = referenceData;
     }
 
     @PostConstruct
@@ -39,20 +37,10 @@ public class JobEngine {
     }
 
     /**
-     * Loads thread pool size from AppParams DB, falls back to 5.
+     * Thread pool size from the numberOfThreads AppParam, else jobproc.defaultNumberOfThreads.
      */
     private int loadThreadPoolSize() {
-        try {
-            Optional<AppParam> param = appParamRepository.findById("numberOfThreads");
-            if (param.isPresent()) {
-                int size = Integer.parseInt(param.get().getValue());
-                log.info("Thread pool size from DB: {}", size);
-                return Math.max(1, Math.min(size, 50)); // clamp 1-50
-            }
-        } catch (Exception e) {
-            log.warn("Could not load numberOfThreads from DB: {}", e.getMessage());
-        }
-        return 5;
+        return Math.max(1, Math.min(referenceData.numberOfThreads(), 50)); // clamp 1-50
     }
 
     /**
@@ -61,8 +49,14 @@ public class JobEngine {
     public void resizePool(int newSize) {
         newSize = Math.max(1, Math.min(newSize, 50));
         log.info("Resizing thread pool: {} -> {}", executorService.getCorePoolSize(), newSize);
-        executorService.setCorePoolSize(newSize);
-        executorService.setMaximumPoolSize(newSize);
+        // The core size may never exceed the maximum, so grow the maximum first
+        if (newSize > executorService.getMaximumPoolSize()) {
+            executorService.setMaximumPoolSize(newSize);
+            executorService.setCorePoolSize(newSize);
+        } else {
+            executorService.setCorePoolSize(newSize);
+            executorService.setMaximumPoolSize(newSize);
+        }
     }
 
     public int getPoolSize() {
@@ -125,7 +119,7 @@ public class JobEngine {
     /**
      * Returns the set of currently tracked active job IDs.
      */
-    public java.util.Set<Long> getActiveJobIds() {
+    public Set<Long> getActiveJobIds() {
         return activeJobs.keySet();
     }
 
@@ -0,0 +1,149 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.repo.JobEventRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of job status transitions (the JobEvent table).
+ *
+ * JobStateEvents appends a row in the same transaction that changed InputData.status, so the
+ * log holds exactly the transitions that committed (with the wal state store: that were logged,
+ * written shortly after the InputData change they go with). It gives every job a full timeline and
+ * lets consumers on any node follow all changes by event_seq instead of polling InputData.
+ *
+ * Sequence numbers are handed out at insert, so a slow transaction can commit a lower seq after
+ * a higher one is already visible. A Cursor therefore only moves past rows older than settleMs
+ * and does not hand out the same row twice.
+ */
+@Slf4j
+@Service
+public class JobEventLog {
+
+    private static final int MAX_TEXT = 4000;
+
+    private final JobEventRepository eventRepository;
+    private final JobStateStore jobStateStore;
+    private final NodeIdentity nodeIdentity;
+    private final long settleMs;
+    private final int retentionDays;
+
+    private final AtomicLong appended = new AtomicLong();
+
+    public JobEventLog(JobEventRepository eventRepository, JobStateStore jobStateStore, NodeIdentity nodeIdentity,
+                       @Value("${jobproc.eventLog.settleMs:5000}") long settleMs,
+                       @Value("${jobproc.eventLog.retentionDays:30}") int retentionDays) {
+        this.eventRepository = eventRepository;
+        this.jobStateStore = jobStateStore;
+        this.nodeIdentity = nodeIdentity;
+        this.settleMs = settleMs;
+        this.retentionDays = retentionDays;
+    }
+
+    /** Writes the transition through the JobStateStore; with jpa it joins the caller's transaction. */
+    public void append(JobStateChangedEvent e) {
+        JobEvent row = new JobEvent();
+        row.setJobId(e.getJobId());
+        row.setFromStatus(e.getFromStatus());
+        row.setToStatus(e.getToStatus());
+        row.setProcessorClassName(e.getProcessorClassName());
+        row.setNodeId(e.getNodeId());
+        row.setOriginNode(nodeIdentity.getNodeId());
+        row.setErrorCode(clip(e.getErrorCode()));
+        row.setReason(clip(e.getErrorReason()));
+        row.setOccurredTs(e.getOccurredAt());
+        jobStateStore.appendEvent(row);
+        appended.incrementAndGet();
+    }
+
+    /** Every recorded transition of one job, oldest first */
+    public List<JobEvent> timeline(Long jobId) {
+        return eventRepository.findByJobIdOrderBySeqAsc(jobId);
+    }
+
+    /** Rows after afterSeq in seq order, at most limit */
+    public List<JobEvent> after(long afterSeq, int limit) {
+        return eventRepository.findBySeqGreaterThanOrderBySeqAsc(afterSeq, PageRequest.of(0, limit));
+    }
+
+    /** A cursor starting at the current end of the log */
+    public Cursor tailFromNow() {
+        Long max = eventRepository.findMaxSeq();
+        return new Cursor(max != null ? max : 0);
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.eventLog.retentionCheckMs:3600000}", initialDelay = 120000)
+    @Transactional
+    public void applyRetention() {
+        int removed = eventRepository.deleteOlderThan(LocalDateTime.now().minusDays(retentionDays));
+        if (removed > 0) {
+            log.info("Job event retention removed {} row(s) older than {} day(s)", removed, retentionDays);
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("appended", appended.get());
+        s.put("lastSeq", eventRepository.findMaxSeq());
+        s.put("settleMs", settleMs);
+        s.put("retentionDays", retentionDays);
+        return s;
+    }
+
+    private static String clip(String s) {
+        return s != null && s.length() > MAX_TEXT ? s.substring(0, MAX_TEXT) : s;
+    }
+
+    /**
+     * One consumer's position in the log. next() returns rows not handed out before;
+     * the position only moves past rows that have had settleMs to commit.
+     */
+    public class Cursor {
+        private long position;
+        private final Set<Long> handedOut = new HashSet<>();
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        /** New rows written by other nodes (this node's own changes already arrive as events) */
+        public synchronized List<JobEvent> nextForeign(int limit) {
+            String self = nodeIdentity.getNodeId();
+            List<JobEvent> rows = after(position, limit);
+            LocalDateTime settled = LocalDateTime.now().minusNanos(settleMs * 1_000_000);
+            List<JobEvent> fresh = new ArrayList<>();
+            boolean moving = true;
+            for (JobEvent row : rows) {
+                if (handedOut.add(row.getSeq()) && !self.equals(row.getOriginNode())) {
+                    fresh.add(row);
+                }
+                if (moving && row.getOccurredTs() != null && row.getOccurredTs().isBefore(settled)) {
+                    position = row.getSeq();
+                } else {
+                    moving = false;
+                }
+            }
+            handedOut.removeIf(seq -> seq <= position);
+            return fresh;
+        }
+
+        public synchronized long getPosition() {
+            return position;
+        }
+    }
+}
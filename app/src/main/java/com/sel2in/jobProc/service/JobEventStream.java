@@ -0,0 +1,470 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes job state changes to browsers over Server-Sent Events, so pages do not poll.
+ *
+ * Events:
+ *   job   - a JobStateChangedEvent, id "boot-seq"; the last replaySize are kept for replay
+ *   tick  - every tickMs: server time, engine pool and status counts (also keeps proxies from
+ *           closing an idle stream)
+ *   reset - the requested Last-Event-ID is no longer in the replay buffer (or is from before a
+ *           restart); the client should reload its view
+ *
+ * Each client has its own queue, drained in order by one of senderThreads, so a client never
+ * sees a replayed event after a newer live one and a slow client does not hold up the others.
+ * A client more than queueSize events behind (on top of its replay) is disconnected; its
+ * EventSource reconnects with Last-Event-ID and gets the replay, or a reset.
+ * Changes made on other nodes are relayed from the JobEvent log every relayMs (without the
+ * job name and times, which the log does not keep).
+ */
+@Slf4j
+@Service
+public class JobEventStream {
+
+    private final JobRepository jobRepository;
+    private final JobStats jobStats;
+    private final JobEngine jobEngine;
+    private final CompletionWriter completionWriter;
+    private final JobEventLog jobEventLog;
+    private final int replaySize;
+    private final long emitterTimeoutMs;
+    private final long maxAwaitMs;
+    private final int queueSize;
+
+    /** Ids restart with the process; the boot time keeps old ids from matching new events */
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+    private final Deque<Entry> replay = new ArrayDeque<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<DeferredResult<ResponseEntity<Map<String, Object>>>>> awaiters = new ConcurrentHashMap<>();
+    private final ExecutorService sender;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong laggardsDropped = new AtomicLong();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong relayed = new AtomicLong();
+    private JobEventLog.Cursor relayCursor;
+
+    public JobEventStream(JobRepository jobRepository, JobStats jobStats, JobEngine jobEngine,
+                          CompletionWriter completionWriter, JobEventLog jobEventLog,
+                          @Value("${jobproc.events.replaySize:1000}") int replaySize,
+                          @Value("${jobproc.events.emitterTimeoutMs:1800000}") long emitterTimeoutMs,
+                          @Value("${jobproc.events.maxAwaitMs:300000}") long maxAwaitMs,
+                          @Value("${jobproc.events.queueSize:256}") int queueSize,
+                          @Value("${jobproc.events.senderThreads:4}") int senderThreads) {
+        this.jobRepository = jobRepository;
+        this.jobStats = jobStats;
+        this.jobEngine = jobEngine;
+        this.completionWriter = completionWriter;
+        this.jobEventLog = jobEventLog;
+        this.replaySize = Math.max(1, replaySize);
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.maxAwaitMs = Math.max(1000, maxAwaitMs);
+        this.queueSize = Math.max(1, queueSize);
+        AtomicInteger threads = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(Math.max(1, senderThreads), r -> {
+            Thread t = new Thread(r, "job-events-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static final class Entry {
+        final long seq;
+        final JobStateChangedEvent event;
+
+        Entry(long seq, JobStateChangedEvent event) {
+            this.seq = seq;
+            this.event = event;
+        }
+    }
+
+    /** What one subscriber wants to see; empty sets / null mean everything. */
+    public static final class Filter {
+        private final Set<Long> jobIds = new HashSet<>();
+        private final Set<String> statuses = new HashSet<>();
+        private String processorClassName;
+        private boolean finalOnly;
+        private boolean ticks = true;
+        private boolean jobEvents = true;
+
+        public Filter jobIds(Collection<Long> ids) {
+            if (ids != null) {
+                jobIds.addAll(ids);
+            }
+            return this;
+        }
+
+        public Filter statuses(Collection<String> values) {
+            if (values != null) {
+                values.stream().filter(s -> s != null && !s.isBlank())
+                        .forEach(s -> statuses.add(s.trim().toUpperCase()));
+            }
+            return this;
+        }
+
+        public Filter processor(String processorClassName) {
+            this.processorClassName = processorClassName == null || processorClassName.isBlank()
+                    ? null : processorClassName.trim();
+            return this;
+        }
+
+        public Filter finalOnly(boolean finalOnly) {
+            this.finalOnly = finalOnly;
+            return this;
+        }
+
+        public Filter ticks(boolean ticks) {
+            this.ticks = ticks;
+            return this;
+        }
+
+        /** false: ticks only */
+        public Filter jobEvents(boolean jobEvents) {
+            this.jobEvents = jobEvents;
+            return this;
+        }
+
+        boolean matches(JobStateChangedEvent e) {
+            if (!jobEvents) {
+                return false;
+            }
+            if (!jobIds.isEmpty() && !jobIds.contains(e.getJobId())) {
+                return false;
+            }
+            if (!statuses.isEmpty() && !statuses.contains(e.getToStatus())
+                    && (e.getFromStatus() == null || !statuses.contains(e.getFromStatus()))) {
+                return false;
+            }
+            if (processorClassName != null && !processorClassName.equals(e.getProcessorClassName())) {
+                return false;
+            }
+            return !finalOnly || e.isFinal();
+        }
+    }
+
+    private final class Client {
+        final SseEmitter emitter;
+        final Filter filter;
+        final BlockingQueue<SseEmitter.SseEventBuilder> queue;
+        /** Set while a sender thread owns the queue */
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean closed;
+        /** Only touched under the replay lock */
+        long lastQueuedSeq;
+
+        Client(SseEmitter emitter, Filter filter, long lastQueuedSeq, int capacity) {
+            this.emitter = emitter;
+            this.filter = filter;
+            this.lastQueuedSeq = lastQueuedSeq;
+            this.queue = new LinkedBlockingQueue<>(capacity);
+        }
+
+        /** Never blocks: queues the event, or drops the client if it is too far behind */
+        void send(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                laggardsDropped.incrementAndGet();
+                log.info("Event stream client {} events behind, disconnected", queue.size());
+                closed = true;
+                clients.remove(this);
+                queue.clear();
+            }
+            // A closed client is completed by its sender thread: complete() would wait for a blocked send
+            if (draining.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        void sendJob(Entry entry) {
+            if (entry.seq <= lastQueuedSeq || !filter.matches(entry.event)) {
+                return;
+            }
+            lastQueuedSeq = entry.seq;
+            send(SseEmitter.event().id(bootId + "-" + entry.seq).name("job").data(entry.event));
+        }
+
+        private void drain() {
+            while (true) {
+                if (closed) {
+                    emitter.complete();
+                    return;
+                }
+                SseEmitter.SseEventBuilder event = queue.poll();
+                if (event == null) {
+                    draining.set(false);
+                    // Recheck: an event queued after the poll saw draining still set
+                    if ((queue.isEmpty() && !closed) || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    emitter.send(event);
+                } catch (IOException | IllegalStateException e) {
+                    // Browser went away; EventSource reconnects with Last-Event-ID if it wants more
+                    sendFailures.incrementAndGet();
+                    closed = true;
+                    clients.remove(this);
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            closed = true;
+            clients.remove(this);
+        }
+    }
+
+    // ===== Subscribe =====
+
+    /**
+     * Opens a stream. lastEventId (from the Last-Event-ID header on reconnect) replays the
+     * events the client missed, or sends "reset" if they are gone.
+     */
+    public SseEmitter subscribe(Filter filter, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Map<String, Object> tick = filter.ticks ? tick() : null;
+        synchronized (replay) {
+            long current = sequence.get();
+            long resumeAfter = parseSeq(lastEventId);
+            boolean reset = lastEventId != null && !lastEventId.isBlank()
+                    && (resumeAfter < 0 || resumeAfter > current
+                        || (!replay.isEmpty() && resumeAfter < replay.peekFirst().seq - 1));
+            long startAfter = resumeAfter >= 0 && !reset ? resumeAfter : current;
+            List<Entry> missed = new ArrayList<>();
+            for (Entry e : replay) {
+                if (e.seq > startAfter) {
+                    missed.add(e);
+                }
+            }
+            // Room for the replay, then queueSize live events
+            Client client = new Client(emitter, filter, startAfter, missed.size() + queueSize + 2);
+            emitter.onCompletion(client::close);
+            emitter.onTimeout(client::close);
+            emitter.onError(e -> client.close());
+            clients.add(client);
+            // Queued under the lock, so it goes out before any event published after this point
+            if (reset) {
+                resets.incrementAndGet();
+                client.send(SseEmitter.event().name("reset").data(Map.of("lastEventId", lastEventId)));
+            } else if (!missed.isEmpty()) {
+                replays.incrementAndGet();
+            }
+            missed.forEach(client::sendJob);
+            if (tick != null) {
+                client.send(SseEmitter.event().name("tick").data(tick));
+            }
+        }
+        return emitter;
+    }
+
+    private long parseSeq(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return -1;
+        }
+        int dash = lastEventId.lastIndexOf('-');
+        if (dash < 0 || !bootId.equals(lastEventId.substring(0, dash))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(lastEventId.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ===== Publish =====
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent event) {
+        published.incrementAndGet();
+        synchronized (replay) {
+            Entry entry = new Entry(sequence.incrementAndGet(), event);
+            replay.addLast(entry);
+            while (replay.size() > replaySize) {
+                replay.pollFirst();
+            }
+            clients.forEach(c -> c.sendJob(entry));
+        }
+        if (event.isFinal()) {
+            Set<DeferredResult<ResponseEntity<Map<String, Object>>>> waiting = awaiters.remove(event.getJobId());
+            if (waiting != null) {
+                Map<String, Object> body = result(event.getJobId(), event.getToStatus(), true,
+                        event.getErrorCode(), event.getErrorReason(), event.getEndedAt());
+                waiting.forEach(w -> w.setResult(ResponseEntity.ok(body)));
+            }
+        }
+    }
+
+    @PostConstruct
+    public void startRelay() {
+        relayCursor = jobEventLog.tailFromNow();
+    }
+
+    /** Passes on transitions other nodes wrote to the JobEvent log */
+    @Scheduled(fixedDelayString = "${jobproc.events.relayMs:2000}", initialDelay = 2000)
+    public void relayForeign() {
+        for (JobEvent row : relayCursor.nextForeign(500)) {
+            if (JobArchiver.ARCHIVED.equals(row.getToStatus())) {
+                continue;
+            }
+            JobStateChangedEvent e = new JobStateChangedEvent(row.getJobId(), row.getFromStatus(), row.getToStatus());
+            e.setProcessorClassName(row.getProcessorClassName());
+            e.setNodeId(row.getNodeId());
+            e.setErrorCode(row.getErrorCode());
+            e.setErrorReason(row.getReason());
+            if ("RUNNING".equals(e.getToStatus())) {
+                e.setStartedAt(row.getOccurredTs());
+            } else if (e.isFinal()) {
+                e.setEndedAt(row.getOccurredTs());
+            }
+            onStateChanged(e);
+            relayed.incrementAndGet();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.events.tickMs:5000}", initialDelay = 5000)
+    public void sendTicks() {
+        if (clients.isEmpty()) {
+            return;
+        }
+        Map<String, Object> tick = tick();
+        clients.stream().filter(c -> c.filter.ticks)
+                .forEach(c -> c.send(SseEmitter.event().name("tick").data(tick)));
+    }
+
+    private Map<String, Object> tick() {
+        Map<String, Object> tick = new LinkedHashMap<>();
+        tick.put("serverTime", LocalDateTime.now().toString().replace("T", " ").substring(0, 19)
+                + " " + ZoneId.systemDefault().getId());
+        Map<String, Object> engine = new LinkedHashMap<>();
+        engine.put("poolSize", jobEngine.getPoolSize());
+        engine.put("activeThreads", jobEngine.getActiveCount());
+        engine.put("activeJobs", jobEngine.getActiveJobIds().size());
+        engine.put("completionQueueDepth", completionWriter.getStatus().get("queueDepth"));
+        tick.put("engine", engine);
+        tick.put("stats", jobStats.getStats());
+        return tick;
+    }
+
+    // ===== Await =====
+
+    /**
+     * Completes when the job reaches a final status, or after timeoutMs with the status then
+     * (202, finished false). 404 if there is no such job.
+     */
+    public DeferredResult<ResponseEntity<Map<String, Object>>> await(Long jobId, long timeoutMs) {
+        long timeout = Math.max(1, Math.min(timeoutMs, maxAwaitMs));
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(timeout);
+        // Register before reading the row, so a completion in between is not missed
+        Set<DeferredResult<ResponseEntity<Map<String, Object>>>> waiting =
+                awaiters.computeIfAbsent(jobId, k -> ConcurrentHashMap.newKeySet());
+        waiting.add(result);
+        result.onCompletion(() -> removeAwaiter(jobId, result));
+        result.onTimeout(() -> result.setResult(current(jobId)));
+
+        ResponseEntity<Map<String, Object>> now = current(jobId);
+        if (now.getStatusCode() != HttpStatus.ACCEPTED) {
+            removeAwaiter(jobId, result);
+            result.setResult(now);
+        }
+        return result;
+    }
+
+    private void removeAwaiter(Long jobId, DeferredResult<ResponseEntity<Map<String, Object>>> result) {
+        awaiters.computeIfPresent(jobId, (k, set) -> {
+            set.remove(result);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /** From the DB: also catches jobs finished on another node */
+    private ResponseEntity<Map<String, Object>> current(Long jobId) {
+        JobRecord job = jobRepository.findById(jobId).orElse(null);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean finished = JobStateEvents.isFinal(job.getStatus());
+        Map<String, Object> body = result(jobId, job.getStatus(), finished, job.getMainErrorCode(),
+                job.getErrorReason(), job.getJobEndDateTime());
+        return finished ? ResponseEntity.ok(body) : ResponseEntity.status(HttpStatus.ACCEPTED).body(body);
+    }
+
+    private static Map<String, Object> result(Long jobId, String status, boolean finished,
+                                              String errorCode, String errorReason, LocalDateTime endedAt) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("jobId", jobId);
+        body.put("status", status);
+        body.put("finished", finished);
+        body.put("errorCode", errorCode);
+        body.put("errorReason", errorReason);
+        body.put("jobEndDateTime", endedAt);
+        return body;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("clients", clients.size());
+        s.put("awaiting", awaiters.values().stream().mapToInt(Set::size).sum());
+        s.put("lastEventId", bootId + "-" + sequence.get());
+        s.put("published", published.get());
+        s.put("relayedFromOtherNodes", relayed.get());
+        s.put("replays", replays.get());
+        s.put("resets", resets.get());
+        s.put("sendFailures", sendFailures.get());
+        s.put("laggardsDropped", laggardsDropped.get());
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clients.forEach(c -> {
+            c.close();
+            c.emitter.complete();
+        });
+        sender.shutdown();
+    }
+}
@@ -2,67 +2,235 @@ package com.sel2in.jobProc.service;
 
 import com.sel2in.jobProc.entity.InputDataFile;
 import com.sel2in.jobProc.entity.InputDataParam;
-import com.sel2in.jobProc.entity.JobError;
 import com.sel2in.jobProc.entity.JobRecord;
 import com.sel2in.jobProc.entity.ProcessorDefinition;
 import com.sel2in.jobProc.processor.InputData;
 import com.sel2in.jobProc.processor.OutputData;
 import com.sel2in.jobProc.repo.InputDataFileRepository;
 import com.sel2in.jobProc.repo.InputDataParamRepository;
-import com.sel2in.jobProc.repo.JobErrorRepository;
 import com.sel2in.jobProc.repo.JobRepository;
-import com.sel2in.jobProc.repo.ProcessorRepository;
-import lombok.RequiredArgsConstructor;
+import com.sel2in.jobProc.store.JobStateStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Loads a job from DB by ID and kicks off execution via JobEngine.
  * This is the method called by the Quartz trigger.
+ *
+ * The claim is committed on its own before the job's inputs are fetched (possibly from the
+ * blob store), so the row is not kept locked during a download. From the claim until the
+ * engine tracks the job it is listed in getStartingJobIds(), whose leases the heartbeat renews.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class JobExecutionService {
 
     private final JobRepository jobRepository;
-    private final ProcessorRepository processorRepository;
+    private final JobStateStore jobStateStore;
+    private final EntityManager entityManager;
+    private final ReferenceData referenceData;
     private final InputDataFileRepository inputDataFileRepository;
     private final InputDataParamRepository inputDataParamRepository;
-    private final JobErrorRepository jobErrorRepository;
     private final JobEngine jobEngine;
+    private final JobClaimService jobClaimService;
+    private final CheckpointService checkpointService;
+    private final CompletionWriter completionWriter;
+    private final JobStateEvents jobStateEvents;
+    private final JobBlobs jobBlobs;
+    private final TransactionTemplate tx;
+
+    /** Claimed by this node, not yet handed to the engine */
+    private final Set<Long> starting = ConcurrentHashMap.newKeySet();
+
+    public JobExecutionService(JobRepository jobRepository, JobStateStore jobStateStore, EntityManager entityManager,
+                               ReferenceData referenceData, InputDataFileRepository inputDataFileRepository,
+                               InputDataParamRepository inputDataParamRepository, JobEngine jobEngine,
+                               JobClaimService jobClaimService, CheckpointService checkpointService,
+                               CompletionWriter completionWriter, JobStateEvents jobStateEvents, JobBlobs jobBlobs,
+                               PlatformTransactionManager transactionManager) {
+        this.jobRepository = jobRepository;
+        this.jobStateStore = jobStateStore;
+        this.entityManager = entityManager;
+        this.referenceData = referenceData;
+        this.inputDataFileRepository = inputDataFileRepository;
+        this.inputDataParamRepository = inputDataParamRepository;
+        this.jobEngine = jobEngine;
+        this.jobClaimService = jobClaimService;
+        this.checkpointService = checkpointService;
+        this.completionWriter = completionWriter;
+        this.jobStateEvents = jobStateEvents;
+        this.jobBlobs = jobBlobs;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
 
     /**
      * Called by the scheduler when a job's scheduled time arrives.
-     * Loads the job from DB, resolves the processor JAR path, and runs it.
+     * Claims the job for this node, then resolves the processor JAR path and runs it.
      */
-    @Transactional
     public void runJob(Long jobId) {
         log.info("=== Scheduler triggered for job ID: {} ===", jobId);
+        JobRecord job = tx.execute(status -> claim(jobId));
+        if (job != null) {
+            start(job);
+        }
+    }
 
+    /** The job claimed for this node, or null if it is gone, not SCHEDULED or another node won it */
+    private JobRecord claim(Long jobId) {
         Optional<JobRecord> optJob = jobRepository.findById(jobId);
         if (optJob.isEmpty()) {
             log.error("Job ID {} not found in database, skipping.", jobId);
-            return;
+            return null;
         }
 
-        JobRecord job = optJob.get();
+        JobRecord job = load(optJob.get());
 
         if (!"SCHEDULED".equals(job.getStatus())) {
             log.warn("Job {} is in status '{}', expected SCHEDULED. Skipping.", jobId, job.getStatus());
-            return;
+            return null;
+        }
+
+        // Mark as RUNNING - conditional update so only one engine node wins the job
+        LocalDateTime startTime = LocalDateTime.now();
+        LocalDateTime leaseExpires = jobClaimService.nextLeaseExpiry();
+        if (!jobClaimService.claim(jobId, job.getProcessorClassName(), job.getScheduledRunTime(),
+                startTime, leaseExpires)) {
+            log.warn("Job {} was already claimed by another node or run, skipping.", jobId);
+            return null;
+        }
+        job.setStatus("RUNNING");
+        job.setJobStartDateTime(startTime);
+        job.setNodeId(jobClaimService.getNodeId());
+        job.setLeaseExpires(leaseExpires);
+        return job;
+    }
+
+    /**
+     * Runs jobs this node already claimed (lease mode poller), one after the other. All of
+     * them count as starting right away, so the leases of those still waiting are renewed.
+     */
+    public void runClaimedJobs(List<Long> jobIds) {
+        starting.addAll(jobIds);
+        for (Long jobId : jobIds) {
+            try {
+                JobRecord job = tx.execute(status -> loadClaimed(jobId));
+                if (job != null) {
+                    log.info("=== Running claimed job ID: {} ===", jobId);
+                    start(job);
+                }
+            } catch (Exception e) {
+                log.error("Failed to start claimed job {}: {}", jobId, e.getMessage(), e);
+            } finally {
+                starting.remove(jobId);
+            }
+        }
+    }
+
+    private JobRecord loadClaimed(Long jobId) {
+        JobRecord job = jobRepository.findById(jobId).map(this::load).orElse(null);
+        if (job == null) {
+            log.error("Claimed job ID {} not found in database, skipping.", jobId);
+            return null;
+        }
+        if (!"RUNNING".equals(job.getStatus()) || !jobClaimService.getNodeId().equals(job.getNodeId())) {
+            log.warn("Job {} is '{}' on node {}, not claimed by this node. Skipping.",
+                    jobId, job.getStatus(), job.getNodeId());
+            return null;
+        }
+        return job;
+    }
+
+    /** Jobs claimed by this node that are still being prepared (inputs fetched, processor loaded) */
+    public Set<Long> getStartingJobIds() {
+        return starting;
+    }
+
+    /**
+     * Hands a claimed job to the engine. The claim is committed, so a job that cannot be
+     * started is completed as FAILED rather than left RUNNING with nobody running it.
+     */
+    private void start(JobRecord job) {
+        Long jobId = job.getId();
+        starting.add(jobId);
+        try {
+            launch(job);
+        } catch (Exception e) {
+            log.error("Job {} could not be started: {}", jobId, e.getMessage(), e);
+            completionWriter.submit(new CompletionWriter.Completion(jobId, "FAILED",
+                    "ENGINE_ERROR", "Could not start: " + e.getMessage(), null).forJob(job));
+        } finally {
+            starting.remove(jobId);
+        }
+    }
+
+    /**
+     * Records CANCELLED for a job that was RUNNING. Returns false if the job was not running
+     * anymore, e.g. the engine's own cancellation completion got there first.
+     */
+    @Transactional
+    public boolean markCancelled(Long jobId, String errorCode, String reason) {
+        JobRecord job = jobRepository.findById(jobId).map(this::load).orElse(null);
+        if (job == null) {
+            return false;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (!jobStateStore.cancelRunning(jobId, now, errorCode, reason)) {
+            return false;
+        }
+        job.setStatus("CANCELLED");
+        job.setMainErrorCode(errorCode);
+        job.setErrorReason(reason);
+        job.setJobEndDateTime(now);
+        job.setLeaseExpires(null);
+        jobStateEvents.changed(job, "RUNNING");
+        return true;
+    }
+
+    /**
+     * Puts a job back to SCHEDULED at runAt (manual run). Conditional on the status the caller
+     * read, so it cannot undo a claim or completion that happened meanwhile.
+     */
+    @Transactional
+    public boolean reschedule(Long jobId, String fromStatus, LocalDateTime runAt) {
+        JobRecord job = jobRepository.findById(jobId).map(this::load).orElse(null);
+        if (job == null || !jobStateStore.reschedule(jobId, fromStatus, runAt)) {
+            return false;
         }
+        job.setStatus("SCHEDULED");
+        job.setScheduledRunTime(runAt);
+        job.setLeaseExpires(null);
+        jobStateEvents.changed(job, fromStatus);
+        return true;
+    }
+
+    /**
+     * The row as the state store sees it, detached: status columns are only written through
+     * the store, so the fields set here for events and notes must not be flushed with the entity.
+     */
+    private JobRecord load(JobRecord row) {
+        entityManager.detach(row);
+        return jobStateStore.current(row);
+    }
+
+    private void launch(JobRecord job) {
+        Long jobId = job.getId();
 
         // Resolve JAR path and checksum from ProcessorDefinition
-        Optional<ProcessorDefinition> optProc = processorRepository.findByClassName(job.getProcessorClassName());
+        Optional<ProcessorDefinition> optProc = referenceData.processor(job.getProcessorClassName());
         String jarPath;
         String checksum = null;
         if (optProc.isPresent()) {
@@ -71,15 +239,10 @@ public class JobExecutionService {
             checksum = procDef.getChecksum();
         } else {
             log.warn("No processor registered for class '{}', using default path.", job.getProcessorClassName());
-            jarPath = "./processors/" + job.getProcessorClassName().substring(
-                    job.getProcessorClassName().lastIndexOf('.') + 1) + ".jar";
+            jarPath = referenceData.processorJarDirectory().resolve(job.getProcessorClassName().substring(
+                    job.getProcessorClassName().lastIndexOf('.') + 1) + ".jar").toString();
         }
 
-        // Mark as RUNNING
-        job.setStatus("RUNNING");
-        job.setJobStartDateTime(LocalDateTime.now());
-        jobRepository.save(job);
-
         // Build InputData from DB record
         InputData inputData = new InputData();
         inputData.setInputDataId(job.getId());
@@ -87,13 +250,14 @@ public class JobExecutionService {
         inputData.setProcessorClassName(job.getProcessorClassName());
         inputData.setComment(job.getComment());
         inputData.setNotes(job.getNotes());
+        inputData.setOutputDirectory(referenceData.outputFileDirectory().resolve(String.valueOf(jobId))
+                .toAbsolutePath().toString());
 
         // Attach input files
         List<InputDataFile> dbFiles = inputDataFileRepository.findByInputDataId(job.getId());
         if (dbFiles != null && !dbFiles.isEmpty()) {
-            List<String> filePaths = dbFiles.stream()
-                    .map(InputDataFile::getFilePath)
-                    .collect(Collectors.toList());
+            // Local paths; files stored on another node come from the blob store
+            List<String> filePaths = jobBlobs.localInputs(dbFiles);
             inputData.setInputFiles(filePaths);
             log.info("Attached {} input files to job {}", filePaths.size(), job.getId());
         }
@@ -117,46 +281,36 @@ public class JobExecutionService {
             log.info("Attached {} input parameters to job {}", params.size(), job.getId());
         }
 
+        // Checkpoint hook for the processor, plus the checkpoint an earlier run left behind
+        CheckpointService.JobCheckpointer checkpointer = checkpointService.open(jobId);
+        inputData.setCheckpointer(checkpointer);
+        inputData.setLastCheckpoint(checkpointer.latest());
+
         // Calculate and log timeout before execution
         String timeoutInfo = jobEngine.calculateTimeout(inputData, jarPath, checksum);
         log.info("Job {} timeout info: {}", jobId, timeoutInfo);
         String currentNotes = job.getNotes() != null ? job.getNotes() + " | " : "";
         job.setNotes(currentNotes + timeoutInfo);
-        jobRepository.save(job);
+        tx.executeWithoutResult(status -> jobRepository.updateNotes(jobId, job.getNotes()));
 
-        // Execute async and update DB when done
+        // Execute async; the worker only hands the result to the completion writer
         jobEngine.executeAsync(inputData, jarPath, checksum).thenAccept(output -> {
-            job.setJobEndDateTime(LocalDateTime.now());
-            job.setStatus(output.getStatus() != null ? output.getStatus() : "SUCCESS");
-            job.setMainErrorCode(output.getMainErrorCode());
-            job.setErrorReason(output.getMainErrorReason());
-            jobRepository.save(job);
-            
-            // Save error details if present
-            if (output.getMainErrorCode() != null && !output.getMainErrorCode().isEmpty()) {
-                JobError error = new JobError();
-                error.setJobId(job.getId());
-                error.setReasonCode(output.getMainErrorCode());
-                error.setReasonString(output.getMainErrorReason());
-                jobErrorRepository.save(error);
-            }
-            
-            log.info("Job {} completed with status: {}", jobId, job.getStatus());
+            checkpointer.close();
+            String status = output.getStatus() != null ? output.getStatus() : "SUCCESS";
+            completionWriter.submit(new CompletionWriter.Completion(jobId, status,
+                    output.getMainErrorCode(), output.getMainErrorReason(), output).forJob(job));
         }).exceptionally(ex -> {
-            job.setJobEndDateTime(LocalDateTime.now());
-            job.setStatus("FAILED");
-            job.setMainErrorCode("ENGINE_ERROR");
-            job.setErrorReason(ex.getMessage());
-            jobRepository.save(job);
-            
-            // Save error details
-            JobError error = new JobError();
-            error.setJobId(job.getId());
-            error.setReasonCode("ENGINE_ERROR");
-            error.setReasonString(ex.getMessage());
-            jobErrorRepository.save(error);
-            
+            checkpointer.close();
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof CancellationException) {
+                // Cancelled from the admin API, which records CANCELLED itself
+                completionWriter.submit(new CompletionWriter.Completion(jobId, "CANCELLED",
+                        null, "Job cancelled by user", null).forJob(job));
+                return null;
+            }
             log.error("Job {} failed: {}", jobId, ex.getMessage());
+            completionWriter.submit(new CompletionWriter.Completion(jobId, "FAILED",
+                    "ENGINE_ERROR", ex.getMessage(), null).forJob(job));
             return null;
         });
     }
@@ -0,0 +1,81 @@
+package com.sel2in.jobProc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Background loops for lease-based claiming (see JobClaimService):
+ *  - poll:      lease mode only, claims due jobs up to the free pool capacity and runs them
+ *  - heartbeat: renews leases of jobs starting or running on this node, or whose completion is
+ *               not written yet
+ *  - reap:      applies the orphan policy to RUNNING jobs whose node stopped renewing;
+ *               in quartz mode there is no poller, so re-queued jobs are started here directly
+ */
+@Slf4j
+@Component
+public class JobLeaseScheduler {
+
+    private final JobClaimService jobClaimService;
+    private final JobExecutionService jobExecutionService;
+    private final JobEngine jobEngine;
+    private final CompletionWriter completionWriter;
+    private final OrphanJobHandler orphanJobHandler;
+    private final int batchSize;
+
+    public JobLeaseScheduler(JobClaimService jobClaimService, JobExecutionService jobExecutionService,
+                             JobEngine jobEngine, CompletionWriter completionWriter, OrphanJobHandler orphanJobHandler,
+                             @Value("${jobproc.claim.batchSize:10}") int batchSize) {
+        this.jobClaimService = jobClaimService;
+        this.jobExecutionService = jobExecutionService;
+        this.jobEngine = jobEngine;
+        this.completionWriter = completionWriter;
+        this.orphanJobHandler = orphanJobHandler;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.claim.pollIntervalMs:1000}", initialDelay = 5000)
+    public void pollDueJobs() {
+        if (!jobClaimService.isLeaseMode()) {
+            return;
+        }
+        // Only take what the pool can start now, leave the rest for other nodes
+        int free = jobEngine.getPoolSize() - jobEngine.getActiveJobIds().size()
+                - jobExecutionService.getStartingJobIds().size();
+        try {
+            jobExecutionService.runClaimedJobs(jobClaimService.claimDueJobs(Math.min(batchSize, free)));
+        } catch (Exception e) {
+            log.error("Lease poll failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.claim.heartbeatMs:15000}", initialDelay = 5000)
+    public void heartbeat() {
+        Set<Long> ids = new HashSet<>(jobEngine.getActiveJobIds());
+        ids.addAll(jobExecutionService.getStartingJobIds());
+        ids.addAll(completionWriter.getPendingJobIds());
+        try {
+            int renewed = jobClaimService.renewLeases(ids);
+            log.debug("Heartbeat renewed {} of {} lease(s)", renewed, ids.size());
+        } catch (Exception e) {
+            log.error("Lease heartbeat failed: {}", e.getMessage(), e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.claim.reapIntervalMs:30000}", initialDelay = 10000)
+    public void reapExpiredLeases() {
+        try {
+            List<Long> requeued = orphanJobHandler.reapExpiredLeases(batchSize * 10);
+            if (!jobClaimService.isLeaseMode()) {
+                requeued.forEach(jobExecutionService::runJob);
+            }
+        } catch (Exception e) {
+            log.error("Lease reaper failed: {}", e.getMessage(), e);
+        }
+    }
+}
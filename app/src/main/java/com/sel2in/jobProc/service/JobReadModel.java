@@ -0,0 +1,376 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.OutputDataFile;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory projection of the newest jobs (up to jobproc.readModel.capacity; older active
+ * jobs are kept while there is room) that serves /api/job/status, /files/{jobId} and the /dwn/ listings
+ * without touching the DB.
+ *
+ * Loaded once from InputData, then kept current from JobStateChangedEvents. Held rows are
+ * detached JobRecord copies that are replaced, never changed, so readers need no locks; writers
+ * replace them with compute(), so two events for one job never overwrite each other.
+ * All ids from coveredFromId up are held; requests reaching below it go to the DB.
+ * reconcile() tails the JobEvent log for the jobs other engine nodes created or changed; a row it
+ * read before a local event for the same job is dropped rather than put over the newer state.
+ *
+ * File lists of finished jobs are cached (fileCacheSize jobs) and dropped on any status change.
+ * An empty output list is not cached: OutputStore writes the index just after the completion.
+ */
+@Slf4j
+@Service
+public class JobReadModel {
+
+    private final JobRepository jobRepository;
+    private final InputDataFileRepository inputDataFileRepository;
+    private final OutputStore outputStore;
+    private final JobEventLog jobEventLog;
+    private final int capacity;
+    private final int fileCacheSize;
+
+    private final ConcurrentSkipListMap<Long, JobRecord> jobs = new ConcurrentSkipListMap<>();
+    /** Bumped for every local event; changedAt holds the value of each held job's latest one */
+    private final AtomicLong changeSeq = new AtomicLong();
+    private final Map<Long, Long> changedAt = new ConcurrentHashMap<>();
+    /** Every job with id >= coveredFromId is in jobs (0: every job there is) */
+    private volatile long coveredFromId;
+    /** Position in the JobEvent log; set before the load so nothing committed meanwhile is missed */
+    private volatile JobEventLog.Cursor cursor;
+    private final Map<Long, List<OutputDataFile>> outputFiles;
+    private final Map<Long, List<InputDataFile>> inputFiles;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong reconciled = new AtomicLong();
+
+    public JobReadModel(JobRepository jobRepository, InputDataFileRepository inputDataFileRepository,
+                        OutputStore outputStore, JobEventLog jobEventLog,
+                        @Value("${jobproc.readModel.capacity:5000}") int capacity,
+                        @Value("${jobproc.readModel.fileCacheSize:2000}") int fileCacheSize) {
+        this.jobRepository = jobRepository;
+        this.inputDataFileRepository = inputDataFileRepository;
+        this.outputStore = outputStore;
+        this.jobEventLog = jobEventLog;
+        this.capacity = Math.max(100, capacity);
+        this.fileCacheSize = Math.max(10, fileCacheSize);
+        this.outputFiles = lruMap(this.fileCacheSize);
+        this.inputFiles = lruMap(this.fileCacheSize);
+    }
+
+    private static <V> Map<Long, V> lruMap(int max) {
+        return Collections.synchronizedMap(new LinkedHashMap<Long, V>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > max;
+            }
+        });
+    }
+
+    /** Loads the newest jobs. Runs at startup and after a --dbReset. */
+    @PostConstruct
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        cursor = jobEventLog.tailFromNow();
+        List<JobRecord> newest = jobRepository.findAll(
+                PageRequest.of(0, capacity, Sort.by("id").descending())).getContent();
+        jobs.clear();
+        changedAt.clear();
+        outputFiles.clear();
+        inputFiles.clear();
+        newest.forEach(j -> jobs.put(j.getId(), copyOf(j)));
+        coveredFromId = newest.size() < capacity ? 0 : newest.get(newest.size() - 1).getId();
+        log.info("Job read model loaded {} job(s) in {} ms (complete from id {})",
+                jobs.size(), System.currentTimeMillis() - start, coveredFromId);
+    }
+
+    // ===== Event feed =====
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent e) {
+        Long id = e.getJobId();
+        outputFiles.remove(id);
+        if (!e.isSnapshot() && !jobs.containsKey(id)) {
+            // Older than the window, or made on another node before reconcile saw it
+            return;
+        }
+        changedAt.put(id, changeSeq.incrementAndGet());
+        // Not held (any more): stays out unless the event carries the whole job
+        jobs.compute(id, (k, current) -> current == null && !e.isSnapshot() ? null : apply(current, e));
+        applied.incrementAndGet();
+        if (jobs.size() > capacity) {
+            evict();
+        }
+    }
+
+    /** Mirrors the column changes each kind of transition makes (see JobRepository updates) */
+    private static JobRecord apply(JobRecord current, JobStateChangedEvent e) {
+        JobRecord next = current != null ? copyOf(current) : new JobRecord();
+        next.setId(e.getJobId());
+        next.setStatus(e.getToStatus());
+        if (e.isSnapshot()) {
+            next.setJobName(e.getJobName());
+            next.setProcessorClassName(e.getProcessorClassName());
+            next.setComment(e.getComment());
+            next.setNotes(e.getNotes());
+            next.setJobSubmittedDateTime(e.getSubmittedAt());
+            next.setScheduledRunTime(e.getScheduledAt());
+            next.setJobStartDateTime(e.getStartedAt());
+            next.setJobEndDateTime(e.getEndedAt());
+            next.setMainErrorCode(e.getErrorCode());
+            next.setErrorReason(e.getErrorReason());
+            next.setNodeId(e.getNodeId());
+            if (next.getCreatedTs() == null) {
+                next.setCreatedTs(e.getOccurredAt());
+            }
+        } else if ("RUNNING".equals(e.getToStatus())) {
+            next.setJobStartDateTime(e.getStartedAt() != null ? e.getStartedAt() : e.getOccurredAt());
+            next.setNodeId(e.getNodeId());
+        } else if ("SCHEDULED".equals(e.getToStatus())) {
+            next.setNodeId(null);
+        } else if (e.isFinal()) {
+            next.setJobEndDateTime(e.getEndedAt() != null ? e.getEndedAt() : e.getOccurredAt());
+            next.setMainErrorCode(e.getErrorCode());
+            next.setErrorReason(e.getErrorReason());
+            if (e.getNotes() != null) {
+                next.setNotes(e.getNotes());
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Drops the oldest finished jobs first; if active jobs alone are over capacity
+     * (a trigger storm) the oldest of those go too and are read from the DB instead.
+     */
+    private synchronized void evict() {
+        long highestDropped = evict(true);
+        if (jobs.size() > capacity) {
+            highestDropped = Math.max(highestDropped, evict(false));
+        }
+        if (highestDropped >= coveredFromId) {
+            coveredFromId = highestDropped + 1;
+        }
+    }
+
+    private long evict(boolean finishedOnly) {
+        // Down to 90% so the next few new jobs do not each trigger a scan
+        int excess = jobs.size() - (capacity - capacity / 10);
+        long highestDropped = -1;
+        for (Iterator<Map.Entry<Long, JobRecord>> it = jobs.entrySet().iterator(); it.hasNext() && excess > 0; ) {
+            Map.Entry<Long, JobRecord> entry = it.next();
+            if (!finishedOnly || JobStateEvents.isFinal(entry.getValue().getStatus())) {
+                it.remove();
+                changedAt.remove(entry.getKey());
+                inputFiles.remove(entry.getKey());
+                outputFiles.remove(entry.getKey());
+                highestDropped = entry.getKey();
+                excess--;
+                evicted.incrementAndGet();
+            }
+        }
+        return highestDropped;
+    }
+
+    /**
+     * Other nodes' changes do not reach this node's events: follow their rows in the JobEvent
+     * log and re-read the jobs they touched that fall inside the held window.
+     */
+    @Scheduled(fixedDelayString = "${jobproc.readModel.reconcileMs:15000}", initialDelay = 15000)
+    public void reconcile() {
+        JobEventLog.Cursor c = cursor;
+        if (c == null) {
+            return;
+        }
+        long from = coveredFromId;
+        List<Long> touched = c.nextForeign(capacity).stream()
+                .map(JobEvent::getJobId)
+                .filter(id -> id >= from)
+                .distinct()
+                .collect(Collectors.toList());
+        int updated = 0;
+        for (int i = 0; i < touched.size(); i += 500) {
+            List<Long> ids = touched.subList(i, Math.min(touched.size(), i + 500));
+            List<Long> gone = new ArrayList<>(ids);
+            long readAt = changeSeq.get();
+            for (JobRecord j : jobRepository.findAllById(ids)) {
+                gone.remove(j.getId());
+                outputFiles.remove(j.getId());
+                inputFiles.remove(j.getId());
+                JobRecord fresh = copyOf(j);
+                // A local event applied since the read is newer than the row
+                jobs.compute(j.getId(), (k, current) ->
+                        current != null && changedAt.getOrDefault(k, 0L) > readAt ? current : fresh);
+                updated++;
+            }
+            // Archived (or deleted) on another node
+            forget(gone);
+        }
+        if (jobs.size() > capacity) {
+            evict();
+        }
+        reconciled.addAndGet(updated);
+    }
+
+    /** Drops jobs that left InputData (JobArchiver) */
+    public void forget(Collection<Long> jobIds) {
+        for (Long id : jobIds) {
+            jobs.remove(id);
+            changedAt.remove(id);
+            outputFiles.remove(id);
+            inputFiles.remove(id);
+        }
+    }
+
+    // ===== Reads =====
+
+    /**
+     * Jobs by id, ascending, when every job is held; otherwise null (see window()).
+     */
+    public List<JobRecord> allJobs() {
+        if (coveredFromId != 0) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(jobs.values());
+    }
+
+    /** Lowest id from which every job is held, 0 when all are */
+    public long coveredFromId() {
+        return coveredFromId;
+    }
+
+    /** The held jobs with id from fromId up, ascending: the newest part of the job list */
+    public List<JobRecord> window(long fromId) {
+        hits.incrementAndGet();
+        return new ArrayList<>(jobs.tailMap(fromId, true).values());
+    }
+
+    /**
+     * One page of jobs, newest first, or null when the page reaches below the held window.
+     */
+    public List<JobRecord> page(int page, int size) {
+        long from = coveredFromId;
+        ConcurrentNavigableMap<Long, JobRecord> window = from == 0 ? jobs.descendingMap()
+                : jobs.tailMap(from, true).descendingMap();
+        long skip = (long) page * size;
+        List<JobRecord> result = new ArrayList<>(size);
+        for (JobRecord j : window.values()) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            result.add(j);
+            if (result.size() == size) {
+                break;
+            }
+        }
+        if (result.size() < size && from != 0) {
+            // Ran out of held jobs before the page was full
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return result;
+    }
+
+    public boolean holds(Long jobId) {
+        return jobs.containsKey(jobId);
+    }
+
+    /** Output files of a job; cached once the job has finished and its output is stored */
+    public List<OutputDataFile> outputFiles(Long jobId) {
+        List<OutputDataFile> cached = outputFiles.get(jobId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        List<OutputDataFile> files = outputStore.files(jobId);
+        JobRecord job = jobs.get(jobId);
+        if (job != null && JobStateEvents.isFinal(job.getStatus()) && !files.isEmpty()) {
+            outputFiles.put(jobId, Collections.unmodifiableList(files));
+        }
+        return files;
+    }
+
+    /** Input files; cached once the job has left SCHEDULED (chunked uploads attach files until then) */
+    public List<InputDataFile> inputFiles(Long jobId) {
+        List<InputDataFile> cached = inputFiles.get(jobId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        List<InputDataFile> files = inputDataFileRepository.findByInputDataId(jobId);
+        if (files == null) {
+            files = Collections.emptyList();
+        }
+        JobRecord job = jobs.get(jobId);
+        if (job != null && !"SCHEDULED".equals(job.getStatus())) {
+            inputFiles.put(jobId, Collections.unmodifiableList(files));
+        }
+        return files;
+    }
+
+    private static JobRecord copyOf(JobRecord j) {
+        JobRecord c = new JobRecord();
+        c.setId(j.getId());
+        c.setJobName(j.getJobName());
+        c.setProcessorClassName(j.getProcessorClassName());
+        c.setComment(j.getComment());
+        c.setNotes(j.getNotes());
+        c.setJobSubmittedDateTime(j.getJobSubmittedDateTime());
+        c.setJobSubmittedTimeZone(j.getJobSubmittedTimeZone());
+        c.setScheduledRunTime(j.getScheduledRunTime());
+        c.setStatus(j.getStatus());
+        c.setJobStartDateTime(j.getJobStartDateTime());
+        c.setJobEndDateTime(j.getJobEndDateTime());
+        c.setMainErrorCode(j.getMainErrorCode());
+        c.setErrorReason(j.getErrorReason());
+        c.setNodeId(j.getNodeId());
+        c.setCreatedTs(j.getCreatedTs());
+        // leaseExpires is left out, it changes with every heartbeat
+        return c;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("jobs", jobs.size());
+        s.put("capacity", capacity);
+        s.put("coveredFromId", coveredFromId);
+        s.put("cachedFileLists", outputFiles.size() + inputFiles.size());
+        s.put("hits", hits.get());
+        s.put("fallbacks", fallbacks.get());
+        s.put("applied", applied.get());
+        s.put("evicted", evicted.get());
+        s.put("reconciled", reconciled.get());
+        return s;
+    }
+}
@@ -0,0 +1,174 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.dto.JobSearchCriteria;
+import com.sel2in.jobProc.dto.JobSummary;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Job search with keyset (seek) pagination: each page continues from the sort value and
+ * id of the previous page's last row instead of an OFFSET, so deep pages cost the same
+ * as the first. Every filter / sort combination maps onto one of the InputData indexes
+ * (see JobRecord).
+ */
+@Service
+@RequiredArgsConstructor
+public class JobSearchService {
+
+    public static final int MAX_LIMIT = 500;
+
+    private static final Map<String, String> SORT_COLUMNS = Map.of(
+            "id", "j.id",
+            "submitted", "j.jobSubmittedDateTime",
+            "scheduled", "j.scheduledRunTime",
+            "ended", "j.jobEndDateTime");
+
+    private final EntityManager entityManager;
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> search(JobSearchCriteria c) {
+        String sort = c.getSort() == null ? "id" : c.getSort();
+        String sortColumn = SORT_COLUMNS.get(sort);
+        if (sortColumn == null) {
+            throw new IllegalArgumentException("sort must be one of " + SORT_COLUMNS.keySet());
+        }
+        int limit = Math.max(1, Math.min(c.getLimit(), MAX_LIMIT));
+        boolean byId = "id".equals(sort);
+
+        StringBuilder jpql = new StringBuilder("SELECT new com.sel2in.jobProc.dto.JobSummary(")
+                .append("j.id, j.jobName, j.processorClassName, j.status, j.comment, j.notes, j.mainErrorCode, ")
+                .append("j.errorReason, j.nodeId, j.jobSubmittedDateTime, j.scheduledRunTime, j.jobStartDateTime, ")
+                .append("j.jobEndDateTime) FROM JobRecord j WHERE 1 = 1");
+        Map<String, Object> params = new HashMap<>();
+
+        if (c.getStatuses() != null && !c.getStatuses().isEmpty()) {
+            jpql.append(" AND j.status IN :statuses");
+            params.put("statuses", c.getStatuses());
+        }
+        if (c.getProcessorClassName() != null && !c.getProcessorClassName().isBlank()) {
+            jpql.append(" AND j.processorClassName = :processor");
+            params.put("processor", c.getProcessorClassName().trim());
+        }
+        if (c.getNamePrefix() != null && !c.getNamePrefix().isBlank()) {
+            // Prefix LIKE can use the job_name index; escape the wildcards the user typed
+            jpql.append(" AND j.jobName LIKE :namePrefix ESCAPE '!'");
+            params.put("namePrefix", c.getNamePrefix().trim()
+                    .replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+        }
+        range(jpql, params, "j.jobSubmittedDateTime", "submitted", c.getSubmittedFrom(), c.getSubmittedTo());
+        range(jpql, params, "j.scheduledRunTime", "scheduled", c.getScheduledFrom(), c.getScheduledTo());
+        range(jpql, params, "j.jobEndDateTime", "ended", c.getEndedFrom(), c.getEndedTo());
+
+        if (!byId) {
+            // Rows without the sort value cannot be placed on a keyset page
+            jpql.append(" AND ").append(sortColumn).append(" IS NOT NULL");
+        }
+
+        String cmp = c.isAscending() ? ">" : "<";
+        if (c.getAfter() != null && !c.getAfter().isBlank()) {
+            Cursor cursor = Cursor.decode(c.getAfter(), byId);
+            if (byId) {
+                jpql.append(" AND j.id ").append(cmp).append(" :afterId");
+            } else {
+                jpql.append(" AND (").append(sortColumn).append(' ').append(cmp).append(" :afterValue OR (")
+                        .append(sortColumn).append(" = :afterValue AND j.id ").append(cmp).append(" :afterId))");
+                params.put("afterValue", cursor.value);
+            }
+            params.put("afterId", cursor.id);
+        }
+
+        String dir = c.isAscending() ? " ASC" : " DESC";
+        jpql.append(" ORDER BY ");
+        if (!byId) {
+            jpql.append(sortColumn).append(dir).append(", ");
+        }
+        jpql.append("j.id").append(dir);
+
+        TypedQuery<JobSummary> query = entityManager.createQuery(jpql.toString(), JobSummary.class);
+        params.forEach(query::setParameter);
+        query.setMaxResults(limit + 1);
+        List<JobSummary> rows = new ArrayList<>(query.getResultList());
+
+        boolean more = rows.size() > limit;
+        if (more) {
+            rows = rows.subList(0, limit);
+        }
+        String next = null;
+        if (more) {
+            JobSummary last = rows.get(rows.size() - 1);
+            next = new Cursor(byId ? null : sortValue(sort, last), last.getId()).encode();
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("items", rows);
+        result.put("count", rows.size());
+        result.put("limit", limit);
+        result.put("sort", sort);
+        result.put("ascending", c.isAscending());
+        result.put("nextCursor", next);
+        return result;
+    }
+
+    private void range(StringBuilder jpql, Map<String, Object> params, String column, String name,
+                       LocalDateTime from, LocalDateTime to) {
+        if (from != null) {
+            jpql.append(" AND ").append(column).append(" >= :").append(name).append("From");
+            params.put(name + "From", from);
+        }
+        if (to != null) {
+            jpql.append(" AND ").append(column).append(" < :").append(name).append("To");
+            params.put(name + "To", to);
+        }
+    }
+
+    private LocalDateTime sortValue(String sort, JobSummary row) {
+        switch (sort) {
+            case "submitted": return row.getJobSubmittedDateTime();
+            case "scheduled": return row.getScheduledRunTime();
+            default: return row.getJobEndDateTime();
+        }
+    }
+
+    /** Opaque page position: base64url of "id" or "sortValue|id" */
+    private static final class Cursor {
+        final LocalDateTime value;
+        final Long id;
+
+        Cursor(LocalDateTime value, Long id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        String encode() {
+            String raw = value == null ? String.valueOf(id) : value + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String token, boolean byId) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int bar = raw.indexOf('|');
+                if (byId != (bar < 0)) {
+                    throw new IllegalArgumentException("cursor does not match the sort order");
+                }
+                return bar < 0
+                        ? new Cursor(null, Long.valueOf(raw))
+                        : new Cursor(LocalDateTime.parse(raw.substring(0, bar)), Long.valueOf(raw.substring(bar + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + token, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * A job moved from one status to another (fromStatus is null for a new job).
+ * Published through JobStateEvents by every place that changes InputData.status;
+ * listeners get it after the transaction that made the change commits.
+ * Fields other than jobId and the statuses are filled in when the publisher knows them.
+ */
+@Data
+public class JobStateChangedEvent {
+    private final Long jobId;
+    private final String fromStatus;
+    private final String toStatus;
+    private final LocalDateTime occurredAt = LocalDateTime.now();
+
+    /** True when built from the whole job row (of()); otherwise only the fields that changed are set */
+    private boolean snapshot;
+
+    private String jobName;
+    private String processorClassName;
+    private String comment;
+    private String notes;
+    private String nodeId;
+    private String errorCode;
+    private String errorReason;
+    private LocalDateTime submittedAt;
+    private LocalDateTime scheduledAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime endedAt;
+
+    /** Event carrying everything the job row knows; toStatus is the row's current status. */
+    public static JobStateChangedEvent of(JobRecord job, String fromStatus) {
+        JobStateChangedEvent e = new JobStateChangedEvent(job.getId(), fromStatus, job.getStatus());
+        e.setSnapshot(true);
+        e.setJobName(job.getJobName());
+        e.setProcessorClassName(job.getProcessorClassName());
+        e.setComment(job.getComment());
+        e.setNotes(job.getNotes());
+        e.setNodeId(job.getNodeId());
+        e.setErrorCode(job.getMainErrorCode());
+        e.setErrorReason(job.getErrorReason());
+        e.setSubmittedAt(job.getJobSubmittedDateTime());
+        e.setScheduledAt(job.getScheduledRunTime());
+        e.setStartedAt(job.getJobStartDateTime());
+        e.setEndedAt(job.getJobEndDateTime());
+        return e;
+    }
+
+    public boolean isFinal() {
+        return JobStateEvents.isFinal(toStatus);
+    }
+}
@@ -0,0 +1,53 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Single place that announces job status changes (JobStateChangedEvent).
+ * Call it from the transaction that changed the row and only when the change
+ * actually applied (e.g. a conditional update returned 1). Each change is also
+ * appended to the JobEvent log in that transaction.
+ */
+@Component
+@RequiredArgsConstructor
+public class JobStateEvents {
+
+    private static final Set<String> FINAL = Set.of("SUCCESS", "FAILED", "TIMED_OUT", "CANCELLED", "SCHEDULE_FAILED");
+
+    private final ApplicationEventPublisher publisher;
+    private final JobEventLog jobEventLog;
+
+    public static boolean isFinal(String status) {
+        return status != null && FINAL.contains(status);
+    }
+
+    /** A new job row was created. */
+    public void created(JobRecord job) {
+        publish(JobStateChangedEvent.of(job, null));
+    }
+
+    /** The job row (already holding its new status) moved from fromStatus. */
+    public void changed(JobRecord job, String fromStatus) {
+        if (fromStatus != null && fromStatus.equals(job.getStatus())) {
+            return;
+        }
+        publish(JobStateChangedEvent.of(job, fromStatus));
+    }
+
+    /** A bulk / conditional update moved the job; only the id and processor are at hand. */
+    public void changed(Long jobId, String processorClassName, String fromStatus, String toStatus) {
+        JobStateChangedEvent e = new JobStateChangedEvent(jobId, fromStatus, toStatus);
+        e.setProcessorClassName(processorClassName);
+        publish(e);
+    }
+
+    public void publish(JobStateChangedEvent event) {
+        jobEventLog.append(event);
+        publisher.publishEvent(event);
+    }
+}
@@ -0,0 +1,217 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.dto.JobSummary;
+import com.sel2in.jobProc.entity.JobStatusCount;
+import com.sel2in.jobProc.repo.JobArchiveRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.JobStatusCountRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Job status counts and the latest finished jobs for /api/job/stats, kept up to date from
+ * JobStateChangedEvents instead of scanning InputData on every request.
+ *
+ * Counts are the JobStatusCount rollup table as of the last sync plus this node's changes
+ * since then. sync() adds those changes to the table (count = count + delta, so several
+ * nodes can share it) and re-reads it. InputData (and JobArchive) is only counted when the
+ * table is empty at startup, and after a --dbReset.
+ */
+@Slf4j
+@Service
+public class JobStats {
+
+    private final JobRepository jobRepository;
+    private final JobStatusCountRepository statusCountRepository;
+    private final JobArchiveRepository archiveRepository;
+    private final TransactionTemplate tx;
+    private final int recentSize;
+
+    /** Counts from the rollup table at the last sync */
+    private volatile Map<String, Long> synced = new HashMap<>();
+    /** Changes on this node not yet added to the rollup table */
+    private final Map<String, LongAdder> pending = new ConcurrentHashMap<>();
+    /** Latest finished jobs, newest first */
+    private final Deque<JobSummary> recent = new ConcurrentLinkedDeque<>();
+
+    public JobStats(JobRepository jobRepository, JobStatusCountRepository statusCountRepository,
+                    JobArchiveRepository archiveRepository, PlatformTransactionManager transactionManager,
+                    @Value("${jobproc.stats.recentSize:10}") int recentSize) {
+        this.jobRepository = jobRepository;
+        this.statusCountRepository = statusCountRepository;
+        this.archiveRepository = archiveRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.recentSize = Math.max(1, recentSize);
+    }
+
+    /**
+     * Startup: the first node on an empty rollup table counts InputData and JobArchive (rebuild).
+     * Every other node only reads the table. Rebuilding there would overwrite changes that other
+     * running nodes have counted but not synced yet.
+     */
+    @PostConstruct
+    public synchronized void load() {
+        if (statusCountRepository.count() == 0) {
+            try {
+                rebuild();
+                return;
+            } catch (DataIntegrityViolationException e) {
+                log.info("Job stats table was filled by another node meanwhile, reading it");
+            }
+        }
+        synced = readCounts();
+        reloadRecent();
+        log.info("Job stats loaded: {}", synced);
+    }
+
+    /**
+     * Counts InputData and JobArchive once and overwrites the rollup table with the result.
+     * Runs on the first start against an empty table and after a --dbReset.
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<String, Long> counts = new HashMap<>();
+        for (Object[] row : jobRepository.countByStatus()) {
+            counts.put(row[0] == null ? "UNKNOWN" : (String) row[0], ((Number) row[1]).longValue());
+        }
+        // Archived jobs still count under their final status
+        for (Object[] row : archiveRepository.countByStatus()) {
+            counts.merge(row[0] == null ? "UNKNOWN" : (String) row[0], ((Number) row[1]).longValue(), Long::sum);
+        }
+        tx.executeWithoutResult(status -> {
+            statusCountRepository.deleteAllInBatch();
+            LocalDateTime now = LocalDateTime.now();
+            List<JobStatusCount> rows = new ArrayList<>();
+            counts.forEach((s, n) -> {
+                JobStatusCount c = new JobStatusCount();
+                c.setStatus(s);
+                c.setJobCount(n);
+                c.setUpdatedTs(now);
+                rows.add(c);
+            });
+            statusCountRepository.saveAll(rows);
+        });
+        pending.clear();
+        synced = counts;
+        reloadRecent();
+        log.info("Job stats rebuilt in {} ms: {}", System.currentTimeMillis() - start, counts);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent e) {
+        if (e.getFromStatus() != null) {
+            pending.computeIfAbsent(e.getFromStatus(), k -> new LongAdder()).decrement();
+        }
+        if (e.getToStatus() != null) {
+            pending.computeIfAbsent(e.getToStatus(), k -> new LongAdder()).increment();
+        }
+        if (e.isFinal()) {
+            addRecent(new JobSummary(e.getJobId(), e.getJobName(), e.getProcessorClassName(), e.getToStatus(),
+                    null, null, e.getErrorCode(), e.getErrorReason(), e.getNodeId(), e.getSubmittedAt(),
+                    e.getScheduledAt(), e.getStartedAt(), e.getEndedAt() != null ? e.getEndedAt() : e.getOccurredAt()));
+        }
+    }
+
+    private void addRecent(JobSummary job) {
+        recent.removeIf(j -> job.getId().equals(j.getId()));
+        recent.addFirst(job);
+        while (recent.size() > recentSize) {
+            recent.pollLast();
+        }
+    }
+
+    /**
+     * Adds this node's changes to the rollup table and picks up the other nodes' changes.
+     * The latest finished jobs are re-read through the job_end_datetime index (recentSize rows).
+     */
+    @Scheduled(fixedDelayString = "${jobproc.stats.syncMs:5000}", initialDelay = 5000)
+    public synchronized void sync() {
+        Map<String, Long> deltas = new HashMap<>();
+        pending.forEach((s, adder) -> {
+            long d = adder.sumThenReset();
+            if (d != 0) {
+                deltas.put(s, d);
+            }
+        });
+        try {
+            tx.executeWithoutResult(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                deltas.forEach((s, d) -> {
+                    if (statusCountRepository.addToCount(s, d, now) == 0) {
+                        JobStatusCount c = new JobStatusCount();
+                        c.setStatus(s);
+                        c.setJobCount(d);
+                        c.setUpdatedTs(now);
+                        statusCountRepository.save(c);
+                    }
+                });
+            });
+            synced = readCounts();
+            reloadRecent();
+        } catch (Exception e) {
+            // Keep the changes for the next sync
+            deltas.forEach((s, d) -> pending.computeIfAbsent(s, k -> new LongAdder()).add(d));
+            log.warn("Job stats sync failed: {}", e.getMessage());
+        }
+    }
+
+    private Map<String, Long> readCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (JobStatusCount c : statusCountRepository.findAll()) {
+            counts.put(c.getStatus(), c.getJobCount());
+        }
+        return counts;
+    }
+
+    private void reloadRecent() {
+        List<JobSummary> latest = jobRepository.findRecentlyEnded(PageRequest.of(0, recentSize));
+        recent.clear();
+        recent.addAll(latest);
+    }
+
+    /** Status counts; cost depends on the number of statuses, not on the number of jobs. */
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> counts = new TreeMap<>(synced);
+        pending.forEach((s, adder) -> counts.merge(s, adder.sum(), Long::sum));
+        for (Iterator<Map.Entry<String, Long>> it = counts.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue() <= 0) {
+                it.remove();
+            }
+        }
+        return counts;
+    }
+
+    public List<JobSummary> getRecentlyFinished() {
+        return new ArrayList<>(recent);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Long> counts = getStatusCounts();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", counts.values().stream().mapToLong(Long::longValue).sum());
+        stats.put("statusCounts", counts);
+        stats.put("history", getRecentlyFinished());
+        return stats;
+    }
+}
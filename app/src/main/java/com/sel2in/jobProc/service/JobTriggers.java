@@ -0,0 +1,75 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.*;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Quartz triggers of SCHEDULED jobs. In lease mode there are none: engine nodes poll
+ * InputData for due jobs.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class JobTriggers {
+
+    private final Scheduler quartzScheduler;
+    private final JobClaimService jobClaimService;
+    private final JobRepository jobRepository;
+    private final JobStateEvents jobStateEvents;
+
+    /** Trigger for a new job; a Quartz failure marks the job SCHEDULE_FAILED */
+    public void schedule(JobRecord job, LocalDateTime runAt) {
+        if (jobClaimService.isLeaseMode()) {
+            return;
+        }
+        try {
+            scheduleQuartzJob(job.getId(), runAt);
+        } catch (SchedulerException e) {
+            log.error("Failed to schedule Quartz trigger for job {}", job.getId(), e);
+            job.setStatus("SCHEDULE_FAILED");
+            job.setNotes("Quartz error: " + e.getMessage());
+            jobRepository.save(job);
+            jobStateEvents.changed(job, "SCHEDULED");
+        }
+    }
+
+    /** Replaces the job's trigger with one firing at runAt */
+    public void reschedule(Long jobId, LocalDateTime runAt) throws SchedulerException {
+        if (jobClaimService.isLeaseMode()) {
+            return;
+        }
+        quartzScheduler.unscheduleJob(new TriggerKey("trigger-" + jobId, "jobproc"));
+        quartzScheduler.deleteJob(new JobKey("job-" + jobId, "jobproc"));
+        scheduleQuartzJob(jobId, runAt);
+    }
+
+    private void scheduleQuartzJob(Long jobId, LocalDateTime runAt) throws SchedulerException {
+        // requestRecovery: with the clustered JDBC store, a trigger that was firing on a node
+        // that died is re-fired by a surviving node
+        JobDetail jobDetail = JobBuilder.newJob(ScheduledJobTrigger.class)
+                .withIdentity("job-" + jobId, "jobproc")
+                .usingJobData("jobId", jobId)
+                .requestRecovery(true)
+                .build();
+
+        Date triggerTime = Date.from(runAt.atZone(ZoneId.systemDefault()).toInstant());
+
+        // One-shot trigger: if it was missed (all nodes down / busy), fire once as soon as possible
+        Trigger trigger = TriggerBuilder.newTrigger()
+                .withIdentity("trigger-" + jobId, "jobproc")
+                .startAt(triggerTime)
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .withMisfireHandlingInstructionFireNow())
+                .build();
+
+        quartzScheduler.scheduleJob(jobDetail, trigger);
+    }
+}
@@ -1,51 +1,227 @@
 package com.sel2in.jobProc.service;
 
-import com.sel2in.jobProc.entity.JobRecord;
 import com.sel2in.jobProc.repo.JobRepository;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * On server startup, finds any SCHEDULED jobs whose scheduled time has passed
- * (e.g., server was down) and triggers them to run immediately.
+ * On server startup, in the background:
+ *  1. Orphans: jobs left RUNNING by a crash (no lease, or an expired one) get their
+ *     processor's orphan policy - RERUN, FAIL or RESUME (see OrphanJobHandler).
+ *  2. Missed jobs: SCHEDULED jobs whose time has passed (e.g., server was down) are
+ *     streamed in pages and handed to the engine at jobproc.recovery.ratePerSecond,
+ *     holding back while the engine already has maxInFlight jobs, so a big backlog
+ *     does not swamp the pool. Skipped in lease mode, where the poller picks them up.
+ *     The phase stays DRAINING until every job handed over has been started.
+ * Progress is available from getProgress() (GET /api/admin/recovery).
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class MissedJobRecovery {
 
     private final JobRepository jobRepository;
     private final JobExecutionService jobExecutionService;
+    private final JobClaimService jobClaimService;
+    private final OrphanJobHandler orphanJobHandler;
+    private final JobEngine jobEngine;
+
+    private final int pageSize;
+    private final double ratePerSecond;
+    private final int threads;
+    private final int maxInFlight;
+
+    private final ExecutorService feeder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "missed-job-recovery");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile String phase = "NOT_STARTED";
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private final AtomicLong orphansFound = new AtomicLong();
+    private final AtomicLong orphansRequeued = new AtomicLong();
+    private final AtomicLong orphansFailed = new AtomicLong();
+    private final AtomicLong overdueFound = new AtomicLong();
+    private final AtomicLong overdueSubmitted = new AtomicLong();
+    private final AtomicLong overdueErrors = new AtomicLong();
+    /** Handed to a worker, runJob not yet returned (the engine does not list them yet) */
+    private final AtomicInteger starting = new AtomicInteger();
+
+    public MissedJobRecovery(JobRepository jobRepository, JobExecutionService jobExecutionService,
+                             JobClaimService jobClaimService, OrphanJobHandler orphanJobHandler, JobEngine jobEngine,
+                             @Value("${jobproc.recovery.pageSize:200}") int pageSize,
+                             @Value("${jobproc.recovery.ratePerSecond:20}") double ratePerSecond,
+                             @Value("${jobproc.recovery.threads:2}") int threads,
+                             @Value("${jobproc.recovery.maxInFlight:0}") int maxInFlight) {
+        this.jobRepository = jobRepository;
+        this.jobExecutionService = jobExecutionService;
+        this.jobClaimService = jobClaimService;
+        this.orphanJobHandler = orphanJobHandler;
+        this.jobEngine = jobEngine;
+        this.pageSize = Math.max(1, pageSize);
+        this.ratePerSecond = ratePerSecond > 0 ? ratePerSecond : 20;
+        this.threads = Math.max(1, threads);
+        this.maxInFlight = maxInFlight;
+    }
 
     @EventListener(ApplicationReadyEvent.class)
     public void recoverMissedJobs() {
-        List<JobRecord> scheduledJobs = jobRepository.findByStatus("SCHEDULED");
-        LocalDateTime now = LocalDateTime.now();
-        int recovered = 0;
+        feeder.submit(() -> {
+            startedAt = LocalDateTime.now();
+            try {
+                recoverOrphans();
+                if (jobClaimService.isLeaseMode()) {
+                    log.info("Lease claim mode: overdue jobs are picked up by the poller, skipping missed job feed");
+                } else {
+                    feedOverdueJobs();
+                }
+                phase = "DONE";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                phase = "INTERRUPTED";
+            } catch (Exception e) {
+                log.error("Startup recovery failed: {}", e.getMessage(), e);
+                phase = "FAILED";
+            } finally {
+                finishedAt = LocalDateTime.now();
+                log.info("Startup recovery {}: {}", phase, getProgress());
+            }
+        });
+    }
+
+    private void recoverOrphans() {
+        phase = "ORPHANS";
+        int released = orphanJobHandler.releaseLeasesOf(jobClaimService.getNodeId());
+        if (released > 0) {
+            log.info("Released {} lease(s) still held by this node id from before the restart", released);
+        }
 
-        for (JobRecord job : scheduledJobs) {
-            if (job.getScheduledRunTime() != null && job.getScheduledRunTime().isBefore(now)) {
-                log.info("Recovering missed job {} '{}' (was scheduled for {})",
-                        job.getId(), job.getJobName(), job.getScheduledRunTime());
+        LocalDateTime now = LocalDateTime.now();
+        long afterId = 0;
+        List<Object[]> page;
+        do {
+            page = jobRepository.findOrphans(now, afterId, PageRequest.of(0, pageSize));
+            for (Object[] row : page) {
+                Long id = ((Number) row[0]).longValue();
+                afterId = id;
+                orphansFound.incrementAndGet();
                 try {
-                    jobExecutionService.runJob(job.getId());
-                    recovered++;
+                    OrphanJobHandler.Outcome outcome = orphanJobHandler.handle(id, (String) row[1]);
+                    if (outcome == OrphanJobHandler.Outcome.REQUEUED) {
+                        orphansRequeued.incrementAndGet();
+                    } else if (outcome == OrphanJobHandler.Outcome.FAILED) {
+                        orphansFailed.incrementAndGet();
+                    }
                 } catch (Exception e) {
-                    log.error("Failed to recover missed job {}: {}", job.getId(), e.getMessage());
+                    log.error("Failed to recover orphaned job {}: {}", id, e.getMessage());
+                }
+            }
+        } while (page.size() == pageSize);
+
+        if (orphansFound.get() > 0) {
+            log.info("Orphaned RUNNING jobs: {} found, {} re-queued, {} failed",
+                    orphansFound.get(), orphansRequeued.get(), orphansFailed.get());
+        }
+    }
+
+    private void feedOverdueJobs() throws InterruptedException {
+        phase = "OVERDUE";
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "missed-job-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        long nextSlot = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        long afterId = 0;
+        try {
+            List<Long> page;
+            do {
+                page = jobRepository.findOverdueIds(now, afterId, PageRequest.of(0, pageSize));
+                overdueFound.addAndGet(page.size());
+                for (Long id : page) {
+                    afterId = id;
+                    // Pace: never more than maxInFlight running or still being started, and one job
+                    // per interval counted from the previous start, so a wait for capacity is not
+                    // followed by a burst
+                    while (jobEngine.getActiveJobIds().size() + starting.get() >= inFlightLimit()) {
+                        TimeUnit.MILLISECONDS.sleep(200);
+                    }
+                    long wait = nextSlot - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    nextSlot = System.nanoTime() + intervalNanos;
+                    starting.incrementAndGet();
+                    workers.submit(() -> {
+                        try {
+                            jobExecutionService.runJob(id);
+                            overdueSubmitted.incrementAndGet();
+                        } catch (Exception e) {
+                            overdueErrors.incrementAndGet();
+                            log.error("Failed to recover missed job {}: {}", id, e.getMessage());
+                        } finally {
+                            starting.decrementAndGet();
+                        }
+                    });
+                }
+                if (!page.isEmpty()) {
+                    log.info("Missed job recovery: {} found, {} submitted so far", overdueFound.get(), overdueSubmitted.get());
                 }
+            } while (page.size() == pageSize);
+        } finally {
+            workers.shutdown();
+            phase = "DRAINING";
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Missed job recovery: waiting for submitted jobs to start, {} of {} done",
+                        overdueSubmitted.get() + overdueErrors.get(), overdueFound.get());
             }
         }
 
-        if (recovered > 0) {
-            log.info("Recovered {} missed job(s) on startup", recovered);
-        } else {
+        if (overdueFound.get() == 0) {
             log.info("No missed jobs to recover on startup");
         }
     }
+
+    private int inFlightLimit() {
+        return maxInFlight > 0 ? maxInFlight : jobEngine.getPoolSize() * 2;
+    }
+
+    public Map<String, Object> getProgress() {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("phase", phase);
+        p.put("startedAt", startedAt);
+        p.put("finishedAt", finishedAt);
+        p.put("orphansFound", orphansFound.get());
+        p.put("orphansRequeued", orphansRequeued.get());
+        p.put("orphansFailed", orphansFailed.get());
+        p.put("overdueFound", overdueFound.get());
+        p.put("overdueSubmitted", overdueSubmitted.get());
+        p.put("overdueErrors", overdueErrors.get());
+        p.put("ratePerSecond", ratePerSecond);
+        p.put("maxInFlight", inFlightLimit());
+        return p;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        feeder.shutdownNow();
+    }
 }
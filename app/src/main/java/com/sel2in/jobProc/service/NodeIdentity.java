@@ -0,0 +1,33 @@
+package com.sel2in.jobProc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Identifies this engine process among the nodes sharing one database.
+ * Uses jobproc.nodeId if set, else "pid@host:port" which is unique per running engine.
+ */
+@Slf4j
+@Component
+public class NodeIdentity {
+
+    private final String nodeId;
+
+    public NodeIdentity(@Value("${jobproc.nodeId:}") String configuredId,
+                        @Value("${server.port:8087}") String port) {
+        if (configuredId != null && !configuredId.isBlank()) {
+            nodeId = configuredId.trim();
+        } else {
+            // RuntimeMXBean name is "pid@hostname"
+            nodeId = ManagementFactory.getRuntimeMXBean().getName() + ":" + port;
+        }
+        log.info("Engine node id: {}", nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
@@ -0,0 +1,93 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.EngineNodeStatus;
+import com.sel2in.jobProc.repo.EngineNodeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Advertises this node's warm processors and free capacity in the EngineNode table,
+ * and keeps a snapshot of the other live nodes for AffinityRouter.
+ */
+@Slf4j
+@Service
+public class NodeRegistry {
+
+    private final EngineNodeRepository engineNodeRepository;
+    private final NodeIdentity nodeIdentity;
+    private final JobEngine jobEngine;
+    private final ProcessorLoader processorLoader;
+    private final long nodeTimeoutMs;
+    private final LocalDateTime startedTs = LocalDateTime.now();
+
+    /** Live nodes as of the last advertise() tick, this node included */
+    private volatile List<EngineNodeStatus> liveNodes = Collections.emptyList();
+
+    public NodeRegistry(EngineNodeRepository engineNodeRepository, NodeIdentity nodeIdentity,
+                        JobEngine jobEngine, ProcessorLoader processorLoader,
+                        @Value("${jobproc.routing.nodeTimeoutMs:20000}") long nodeTimeoutMs) {
+        this.engineNodeRepository = engineNodeRepository;
+        this.nodeIdentity = nodeIdentity;
+        this.jobEngine = jobEngine;
+        this.processorLoader = processorLoader;
+        this.nodeTimeoutMs = nodeTimeoutMs;
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.routing.advertiseMs:5000}", initialDelay = 1000)
+    public void advertise() {
+        try {
+            EngineNodeStatus me = engineNodeRepository.findById(nodeIdentity.getNodeId())
+                    .orElse(new EngineNodeStatus());
+            int active = jobEngine.getActiveJobIds().size();
+            me.setNodeId(nodeIdentity.getNodeId());
+            me.setWarmProcessors(truncate(String.join(",", processorLoader.getWarmProcessors()), 4000));
+            me.setPoolSize(jobEngine.getPoolSize());
+            me.setActiveJobs(active);
+            me.setFreeSlots(Math.max(0, jobEngine.getPoolSize() - active));
+            me.setStartedTs(startedTs);
+            me.setHeartbeatTs(LocalDateTime.now());
+            engineNodeRepository.save(me);
+
+            liveNodes = engineNodeRepository.findByHeartbeatTsAfter(
+                    LocalDateTime.now().minusNanos(nodeTimeoutMs * 1_000_000L));
+        } catch (Exception e) {
+            log.warn("Node advertise failed: {}", e.getMessage());
+        }
+    }
+
+    public List<EngineNodeStatus> getLiveNodes() {
+        return liveNodes;
+    }
+
+    /** Other live nodes that advertise className@version as warm */
+    public List<EngineNodeStatus> warmPeers(String warmKey) {
+        return liveNodes.stream()
+                .filter(n -> !n.getNodeId().equals(nodeIdentity.getNodeId()))
+                .filter(n -> warmSet(n).contains(warmKey))
+                .collect(Collectors.toList());
+    }
+
+    public static Set<String> warmSet(EngineNodeStatus node) {
+        if (node.getWarmProcessors() == null || node.getWarmProcessors().isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Set.copyOf(Arrays.asList(node.getWarmProcessors().split(",")));
+    }
+
+    private static String truncate(String s, int max) {
+        if (s.length() <= max) {
+            return s;
+        }
+        int cut = s.lastIndexOf(',', max);
+        return cut < 0 ? "" : s.substring(0, cut);
+    }
+}
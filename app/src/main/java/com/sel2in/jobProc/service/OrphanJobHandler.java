@@ -0,0 +1,139 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobError;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.repo.JobErrorRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the processor's orphan policy to a job left RUNNING by a dead engine node
+ * (no lease, or a lease nobody renewed). Used by startup recovery and the lease reaper.
+ */
+@Slf4j
+@Service
+public class OrphanJobHandler {
+
+    public static final String POLICY_RERUN = "RERUN";
+    public static final String POLICY_FAIL = "FAIL";
+    public static final String POLICY_RESUME = "RESUME";
+
+    private final JobRepository jobRepository;
+    private final JobStateStore jobStateStore;
+    private final ReferenceData referenceData;
+    private final JobErrorRepository jobErrorRepository;
+    private final CheckpointService checkpointService;
+    private final JobStateEvents jobStateEvents;
+    private final TransactionTemplate tx;
+
+    public OrphanJobHandler(JobRepository jobRepository, JobStateStore jobStateStore, ReferenceData referenceData,
+                            JobErrorRepository jobErrorRepository, CheckpointService checkpointService,
+                            JobStateEvents jobStateEvents, PlatformTransactionManager transactionManager) {
+        this.jobRepository = jobRepository;
+        this.jobStateStore = jobStateStore;
+        this.referenceData = referenceData;
+        this.jobErrorRepository = jobErrorRepository;
+        this.checkpointService = checkpointService;
+        this.jobStateEvents = jobStateEvents;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    public enum Outcome { REQUEUED, FAILED, SKIPPED }
+
+    /**
+     * @return REQUEUED (back to SCHEDULED, will run again), FAILED, or SKIPPED if the job
+     *         finished or its node renewed the lease in the meantime
+     */
+    @Transactional
+    public Outcome handle(Long jobId, String processorClassName) {
+        String policy = policyFor(processorClassName);
+        LocalDateTime now = LocalDateTime.now();
+
+        if (POLICY_FAIL.equals(policy)) {
+            String reason = "Engine node stopped while the job was running";
+            if (!jobStateStore.failOrphan(jobId, now, reason)) {
+                return Outcome.SKIPPED;
+            }
+            JobError error = new JobError();
+            error.setJobId(jobId);
+            error.setReasonCode("ORPHANED");
+            error.setReasonString(reason);
+            jobErrorRepository.save(error);
+            JobStateChangedEvent failed = new JobStateChangedEvent(jobId, "RUNNING", "FAILED");
+            failed.setProcessorClassName(processorClassName);
+            failed.setErrorCode("ORPHANED");
+            failed.setErrorReason(reason);
+            failed.setEndedAt(now);
+            jobStateEvents.publish(failed);
+            log.warn("Orphaned job {} marked FAILED (policy FAIL)", jobId);
+            return Outcome.FAILED;
+        }
+
+        // RERUN and RESUME both run the job again; only RESUME keeps the last checkpoint
+        if (!jobStateStore.requeueOrphan(jobId, now)) {
+            return Outcome.SKIPPED;
+        }
+        if (POLICY_RERUN.equals(policy)) {
+            checkpointService.clear(jobId);
+        }
+        jobStateEvents.changed(jobId, processorClassName, "RUNNING", "SCHEDULED");
+        log.warn("Orphaned job {} re-queued (policy {})", jobId, policy);
+        return Outcome.REQUEUED;
+    }
+
+    /**
+     * A node that restarts under a fixed jobproc.nodeId cannot still be running its old jobs,
+     * so their leases are expired right away instead of waiting for them to run out.
+     */
+    @Transactional
+    public int releaseLeasesOf(String nodeId) {
+        return jobRepository.expireLeasesOfNode(nodeId, LocalDateTime.now().minusSeconds(1));
+    }
+
+    /**
+     * Handles RUNNING jobs whose lease ran out, each in its own transaction so one failure
+     * does not roll back the others.
+     * @return IDs of jobs put back to SCHEDULED
+     */
+    public List<Long> reapExpiredLeases(int max) {
+        List<Long> requeued = new ArrayList<>();
+        for (Object[] row : jobRepository.findExpiredLeases(LocalDateTime.now(), PageRequest.of(0, max))) {
+            Long id = ((Number) row[0]).longValue();
+            try {
+                if (tx.execute(status -> handle(id, (String) row[1])) == Outcome.REQUEUED) {
+                    requeued.add(id);
+                }
+            } catch (RuntimeException e) {
+                log.error("Could not apply the orphan policy to job {}: {}", id, e.getMessage(), e);
+            }
+        }
+        if (!requeued.isEmpty()) {
+            log.warn("Re-queued {} job(s) with expired leases: {}", requeued.size(), requeued);
+        }
+        return requeued;
+    }
+
+    public String policyFor(String processorClassName) {
+        String policy = referenceData.processor(processorClassName)
+                .map(ProcessorDefinition::getOrphanPolicy)
+                .orElse(null);
+        if (policy == null || policy.isBlank()) {
+            return POLICY_RERUN;
+        }
+        policy = policy.trim().toUpperCase();
+        if (!POLICY_FAIL.equals(policy) && !POLICY_RESUME.equals(policy)) {
+            return POLICY_RERUN;
+        }
+        return policy;
+    }
+}
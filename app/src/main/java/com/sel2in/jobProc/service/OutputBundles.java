@@ -0,0 +1,369 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.OutputBundle;
+import com.sel2in.jobProc.entity.OutputFolder;
+import com.sel2in.jobProc.repo.OutputBundleRepository;
+import com.sel2in.jobProc.repo.OutputFolderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Output bundles: many old job folders packed into one ZIP under outputFiles/.bundles, entries
+ * named &lt;jobId&gt;/&lt;path&gt;. One file instead of thousands keeps directories small; the ZIP
+ * central directory is the index, so a single file is read without unpacking anything.
+ *
+ * compact() takes the folders with a conditional update of OutputFolder.bundleId (a folder
+ * another node took is left to it), writes the ZIP to a temp file, syncs and renames it, marks
+ * the bundle READY and only then deletes the folders. Until READY the folders still serve
+ * downloads; a bundle left WRITING by a crash is undone by recoverStale().
+ *
+ * Open ZipFiles are cached (openBundles, least recently used dropped first). Readers take a
+ * Handle from acquire() and close it when done; the ZipFile is closed once the cache and every
+ * reader have let go, so eviction or delete() never cuts off a download still streaming.
+ */
+@Slf4j
+@Service
+public class OutputBundles {
+
+    public static final String BUNDLE_DIR = ".bundles";
+
+    private final OutputBundleRepository outputBundleRepository;
+    private final OutputFolderRepository outputFolderRepository;
+    private final ReferenceData referenceData;
+    private final NodeIdentity nodeIdentity;
+    private final TransactionTemplate tx;
+    private final int bufferBytes;
+    private final Map<Long, Handle> open;
+
+    private final AtomicLong bundlesWritten = new AtomicLong();
+    private final AtomicLong foldersCompacted = new AtomicLong();
+    private final AtomicLong bundlesDeleted = new AtomicLong();
+    private final AtomicLong entriesServed = new AtomicLong();
+
+    public OutputBundles(OutputBundleRepository outputBundleRepository, OutputFolderRepository outputFolderRepository,
+                         ReferenceData referenceData, NodeIdentity nodeIdentity,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${jobproc.download.zipBufferBytes:65536}") int bufferBytes,
+                         @Value("${jobproc.retention.openBundles:32}") int openBundles) {
+        this.outputBundleRepository = outputBundleRepository;
+        this.outputFolderRepository = outputFolderRepository;
+        this.referenceData = referenceData;
+        this.nodeIdentity = nodeIdentity;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        int cached = Math.max(1, openBundles);
+        this.open = Collections.synchronizedMap(new LinkedHashMap<Long, Handle>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Handle> eldest) {
+                if (size() > cached) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    // ===== Write =====
+
+    /**
+     * Packs the folders into a new bundle and deletes them. throttle is called with the bytes
+     * read. Returns null if other nodes took all of them first.
+     */
+    public OutputBundle compact(String processorClassName, List<OutputFolder> folders, LocalDateTime deleteAfter,
+                                LongConsumer throttle) throws IOException {
+        OutputBundle bundle = new OutputBundle();
+        bundle.setProcessorClassName(processorClassName);
+        bundle.setStatus(OutputBundle.WRITING);
+        bundle.setDeleteAfter(deleteAfter);
+        bundle.setNodeId(nodeIdentity.getNodeId());
+        bundle = outputBundleRepository.save(bundle);
+        Long bundleId = bundle.getId();
+
+        List<Long> jobIds = folders.stream().map(OutputFolder::getJobId).collect(Collectors.toList());
+        Integer claimed = tx.execute(s -> outputFolderRepository.claim(bundleId, jobIds));
+        if (claimed == null || claimed == 0) {
+            outputBundleRepository.delete(bundle);
+            return null;
+        }
+        List<Long> ids = outputFolderRepository.findByBundleId(bundleId).stream()
+                .map(OutputFolder::getJobId).sorted().collect(Collectors.toList());
+
+        Path dir = bundleDirectory();
+        Files.createDirectories(dir);
+        Path target = dir.resolve(bundleId + ".zip");
+        Path tmp = dir.resolve(bundleId + ".zip.tmp");
+        int files = 0;
+        long sourceBytes = 0;
+        try {
+            byte[] buffer = new byte[bufferBytes];
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(fos, bufferBytes))) {
+                for (Long jobId : ids) {
+                    Path folder = jobFolder(jobId);
+                    if (!Files.isDirectory(folder)) {
+                        continue;
+                    }
+                    List<Path> paths;
+                    try (Stream<Path> walk = Files.walk(folder)) {
+                        paths = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                    for (Path file : paths) {
+                        String name = jobId + "/" + folder.relativize(file).toString().replace('\\', '/');
+                        ZipEntry entry = new ZipEntry(name);
+                        entry.setTime(Files.getLastModifiedTime(file).toMillis());
+                        zip.setLevel(ZipDownloads.compressed(name) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                        zip.putNextEntry(entry);
+                        try (InputStream in = Files.newInputStream(file)) {
+                            int n;
+                            while ((n = in.read(buffer)) > 0) {
+                                zip.write(buffer, 0, n);
+                                sourceBytes += n;
+                                throttle.accept(n);
+                            }
+                        }
+                        zip.closeEntry();
+                        files++;
+                    }
+                }
+                zip.finish();
+                zip.flush();
+                fos.getFD().sync();
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            tx.execute(s -> outputFolderRepository.release(bundleId));
+            outputBundleRepository.delete(bundle);
+            throw e;
+        }
+
+        bundle.setBundlePath(target.toString());
+        bundle.setJobCount(ids.size());
+        bundle.setFileCount(files);
+        bundle.setSourceBytes(sourceBytes);
+        bundle.setBundleBytes(Files.size(target));
+        bundle.setStatus(OutputBundle.READY);
+        bundle = outputBundleRepository.save(bundle);
+
+        for (Long jobId : ids) {
+            deleteTree(jobFolder(jobId));
+        }
+        bundlesWritten.incrementAndGet();
+        foldersCompacted.addAndGet(ids.size());
+        log.info("Output bundle {}: {} job folder(s), {} file(s), {} -> {} bytes",
+                bundleId, ids.size(), files, sourceBytes, bundle.getBundleBytes());
+        return bundle;
+    }
+
+    /** Deletes the bundle, its OutputFolder rows and any folder of its jobs still on disk */
+    public void delete(OutputBundle bundle) throws IOException {
+        Long bundleId = bundle.getId();
+        for (OutputFolder f : outputFolderRepository.findByBundleId(bundleId)) {
+            deleteTree(jobFolder(f.getJobId()));
+        }
+        tx.execute(s -> outputFolderRepository.deleteByBundle(bundleId));
+        outputBundleRepository.delete(bundle);
+        if (bundle.getBundlePath() != null) {
+            Files.deleteIfExists(Paths.get(bundle.getBundlePath()));
+        }
+        // Readers still holding it finish from the open file
+        Handle cached = open.remove(bundleId);
+        if (cached != null) {
+            cached.close();
+        }
+        bundlesDeleted.incrementAndGet();
+        log.info("Output bundle {} deleted ({} job(s))", bundleId, bundle.getJobCount());
+    }
+
+    /** Undoes bundles still WRITING after staleMinutes (the writing node died): the folders are released */
+    public int recoverStale(long staleMinutes) {
+        List<OutputBundle> stale = outputBundleRepository.findByStatusAndCreatedTsBefore(
+                OutputBundle.WRITING, LocalDateTime.now().minusMinutes(staleMinutes));
+        for (OutputBundle b : stale) {
+            tx.execute(s -> outputFolderRepository.release(b.getId()));
+            try {
+                Files.deleteIfExists(bundleDirectory().resolve(b.getId() + ".zip.tmp"));
+            } catch (IOException e) {
+                log.warn("Cannot delete partial bundle {}: {}", b.getId(), e.getMessage());
+            }
+            outputBundleRepository.delete(b);
+            log.warn("Output bundle {} of node {} was never finished; its folders were released", b.getId(), b.getNodeId());
+        }
+        return stale.size();
+    }
+
+    // ===== Read =====
+
+    /** The READY bundle holding the job's output, or null */
+    public Long bundleOf(Long jobId) {
+        Long bundleId = outputFolderRepository.findById(jobId).map(OutputFolder::getBundleId).orElse(null);
+        if (bundleId == null) {
+            return null;
+        }
+        return outputBundleRepository.findById(bundleId)
+                .filter(b -> OutputBundle.READY.equals(b.getStatus()))
+                .map(OutputBundle::getId)
+                .orElse(null);
+    }
+
+    /** The bundle's ZIP, opened once and cached. Close the handle when done reading */
+    public Handle acquire(Long bundleId) throws IOException {
+        while (true) {
+            Handle handle = open.get(bundleId);
+            if (handle == null) {
+                OutputBundle bundle = outputBundleRepository.findById(bundleId)
+                        .orElseThrow(() -> new NoSuchFileException("bundle " + bundleId));
+                Handle opened = new Handle(new ZipFile(bundle.getBundlePath()));
+                handle = open.putIfAbsent(bundleId, opened);
+                if (handle != null) {
+                    opened.close();
+                } else {
+                    handle = opened;
+                }
+            }
+            if (handle.retain()) {
+                return handle;
+            }
+            // Evicted or deleted while we looked: drop it and open the bundle again
+            open.remove(bundleId, handle);
+        }
+    }
+
+    /** The job's file in the bundle, or null */
+    public ZipEntry entry(ZipFile zip, Long jobId, String name) {
+        ZipEntry e = zip.getEntry(jobId + "/" + name);
+        if (e != null) {
+            entriesServed.incrementAndGet();
+        }
+        return e;
+    }
+
+    /** The job's files in the bundle, names relative to its folder */
+    public List<ZipEntry> entries(ZipFile zip, Long jobId) {
+        String prefix = jobId + "/";
+        List<ZipEntry> entries = new ArrayList<>();
+        zip.stream().filter(e -> !e.isDirectory() && e.getName().startsWith(prefix)).forEach(entries::add);
+        return entries;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("bundlesWritten", bundlesWritten.get());
+        status.put("foldersCompacted", foldersCompacted.get());
+        status.put("bundlesDeleted", bundlesDeleted.get());
+        status.put("entriesServed", entriesServed.get());
+        status.put("openBundles", open.size());
+        return status;
+    }
+
+    /** An open bundle ZIP shared by the cache and its readers; closed when the last one lets go */
+    public static final class Handle implements AutoCloseable {
+
+        private final ZipFile zip;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Handle(ZipFile zip) {
+            this.zip = zip;
+        }
+
+        public ZipFile zip() {
+            return zip;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int n = refs.get();
+                if (n <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (refs.decrementAndGet() == 0) {
+                closeQuietly(zip);
+            }
+        }
+    }
+
+    // ===== internals =====
+
+    Path jobFolder(Long jobId) {
+        return referenceData.outputFileDirectory().resolve(jobId.toString());
+    }
+
+    private Path bundleDirectory() {
+        return referenceData.outputFileDirectory().resolve(BUNDLE_DIR);
+    }
+
+    /** Deletes a folder and everything in it; a missing folder is fine */
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.deleteIfExists(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void closeQuietly(ZipFile zip) {
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
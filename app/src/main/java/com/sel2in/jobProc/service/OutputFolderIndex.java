@@ -0,0 +1,285 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.OutputFolder;
+import com.sel2in.jobProc.repo.OutputFolderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * File count, size and age of every job output folder (OutputFolder table), so /dwn/ pages
+ * through a sorted query instead of listing every folder on each request.
+ *
+ * A folder is indexed when its job finishes (flushed every flushMs, off the completion thread)
+ * and when something else changes it (changed()). reconcile() walks the output directory in
+ * job id order, reconcileBatch folders per run: a folder whose mtime differs from the indexed one
+ * is scanned again, rows of folders that are gone are deleted (unless OutputRetention compacted
+ * them into a bundle), and folders written outside the engine are picked up. One full pass over
+ * N folders takes N / reconcileBatch runs.
+ */
+@Slf4j
+@Service
+public class OutputFolderIndex {
+
+    private static final Map<String, String> SORTS = Map.of(
+            "job", "jobId", "files", "fileCount", "size", "totalBytes", "modified", "lastModified");
+
+    private final OutputFolderRepository outputFolderRepository;
+    private final ReferenceData referenceData;
+    private final int reconcileBatch;
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private volatile long cursor;
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private volatile LocalDateTime lastPassAt;
+
+    public OutputFolderIndex(OutputFolderRepository outputFolderRepository, ReferenceData referenceData,
+                             @Value("${jobproc.outputIndex.reconcileBatch:5000}") int reconcileBatch) {
+        this.outputFolderRepository = outputFolderRepository;
+        this.referenceData = referenceData;
+        this.reconcileBatch = Math.max(1, reconcileBatch);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent e) {
+        if (e.isFinal()) {
+            dirty.add(e.getJobId());
+        }
+    }
+
+    /** The job's output folder was written or deleted; it is re-indexed within flushMs */
+    public void changed(Long jobId) {
+        dirty.add(jobId);
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.outputIndex.flushMs:2000}")
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(dirty);
+        dirty.removeAll(ids);
+        for (Long id : ids) {
+            try {
+                refresh(id);
+            } catch (RuntimeException e) {
+                log.warn("Could not index output folder of job {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /** Scans the job's output folder now and stores its summary; deletes the row if the folder is gone */
+    public OutputFolder refresh(Long jobId) {
+        Path dir = folder(jobId);
+        OutputFolder folder = null;
+        try {
+            folder = scan(jobId, dir);
+        } catch (NoSuchFileException e) {
+            // deleted
+        } catch (IOException e) {
+            log.warn("Cannot scan output folder {}: {}", dir, e.getMessage());
+            return null;
+        }
+        OutputFolder existing = outputFolderRepository.findById(jobId).orElse(null);
+        if (existing != null && existing.getBundleId() != null) {
+            if (folder == null) {
+                return existing;   // compacted: the files are in the bundle
+            }
+            folder.setBundleId(existing.getBundleId());
+        }
+        if (folder == null) {
+            if (existing != null) {
+                outputFolderRepository.delete(existing);
+                removed.incrementAndGet();
+            }
+            return null;
+        }
+        scanned.incrementAndGet();
+        return outputFolderRepository.save(folder);
+    }
+
+    /**
+     * Checks the next reconcileBatch folders (by job id) against the index. Only the folder
+     * mtimes are read; folders are scanned when theirs changed.
+     */
+    @Scheduled(fixedDelayString = "${jobproc.outputIndex.reconcileMs:30000}", initialDelay = 10000)
+    public synchronized void reconcile() {
+        Path root = referenceData.outputFileDirectory();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long[] ids = folderIds(root);
+        int from = Arrays.binarySearch(ids, cursor + 1);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = Math.min(ids.length, from + reconcileBatch);
+        boolean last = to == ids.length;
+        // Rows in (cursor, upper] without a folder are stale; the last batch covers the rest of the id range
+        long lower = cursor + 1;
+        long upper = last ? Long.MAX_VALUE : ids[to - 1];
+
+        Map<Long, OutputFolder> indexed = new HashMap<>();
+        for (OutputFolder f : outputFolderRepository.findByJobIdBetween(lower, upper)) {
+            indexed.put(f.getJobId(), f);
+        }
+        int refreshed = 0;
+        for (int i = from; i < to; i++) {
+            long id = ids[i];
+            OutputFolder row = indexed.remove(id);
+            try {
+                long mtime = Files.getLastModifiedTime(folder(id)).toMillis();
+                if (row == null || row.getDirMtime() != mtime) {
+                    refresh(id);
+                    refreshed++;
+                }
+            } catch (IOException e) {
+                // gone since the listing; its row (if any) goes below
+                if (row != null) {
+                    indexed.put(id, row);
+                }
+            }
+        }
+        // Compacted folders are gone from the disk on purpose
+        List<OutputFolder> stale = indexed.values().stream()
+                .filter(f -> f.getBundleId() == null)
+                .collect(Collectors.toList());
+        if (!stale.isEmpty()) {
+            outputFolderRepository.deleteAll(stale);
+            removed.addAndGet(stale.size());
+        }
+        if (refreshed > 0 || !stale.isEmpty()) {
+            log.info("Output index: {} folder(s) re-scanned, {} removed", refreshed, stale.size());
+        }
+        if (last) {
+            cursor = 0;
+            passes.incrementAndGet();
+            lastPassAt = LocalDateTime.now();
+        } else {
+            cursor = ids[to - 1];
+        }
+    }
+
+    /**
+     * One page of folders. sort is job, files, size or modified.
+     */
+    public Page<OutputFolder> page(int page, int size, String sort, boolean descending) {
+        String property = SORTS.getOrDefault(sort, "jobId");
+        Sort order = Sort.by(descending ? Sort.Direction.DESC : Sort.Direction.ASC, property);
+        if (!"jobId".equals(property)) {
+            order = order.and(Sort.by("jobId"));
+        }
+        return outputFolderRepository.findAll(PageRequest.of(Math.max(0, page), size, order));
+    }
+
+    /** [folders, files, bytes] */
+    public long[] totals() {
+        Object[] row = outputFolderRepository.totals().get(0);
+        return new long[]{((Number) row[0]).longValue(), ((Number) row[1]).longValue(), ((Number) row[2]).longValue()};
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("pending", dirty.size());
+        status.put("scanned", scanned.get());
+        status.put("removed", removed.get());
+        status.put("reconcileCursor", cursor);
+        status.put("fullPasses", passes.get());
+        status.put("lastFullPassAt", lastPassAt);
+        return status;
+    }
+
+    // ===== internals =====
+
+    private OutputFolder scan(Long jobId, Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        long dirMtime = Files.getLastModifiedTime(dir).toMillis();
+        long[] counts = new long[3];   // files, bytes, newest mtime
+        counts[2] = dirMtime;
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    counts[0]++;
+                    counts[1] += attrs.size();
+                    counts[2] = Math.max(counts[2], attrs.lastModifiedTime().toMillis());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        OutputFolder folder = new OutputFolder();
+        folder.setJobId(jobId);
+        folder.setFileCount((int) counts[0]);
+        folder.setTotalBytes(counts[1]);
+        folder.setLastModified(LocalDateTime.ofInstant(Instant.ofEpochMilli(counts[2]), ZoneId.systemDefault()));
+        folder.setDirMtime(dirMtime);
+        folder.setIndexedTs(LocalDateTime.now());
+        return folder;
+    }
+
+    /** Sorted ids of the job folders under root; dot folders and other names are skipped */
+    private long[] folderIds(Path root) {
+        long[] ids = new long[1024];
+        int n = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path p : stream) {
+                long id;
+                try {
+                    id = Long.parseLong(p.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                }
+                ids[n++] = id;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot list output directory {}: {}", root, e.getMessage());
+        }
+        ids = Arrays.copyOf(ids, n);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private Path folder(long jobId) {
+        return referenceData.outputFileDirectory().resolve(Long.toString(jobId));
+    }
+}
@@ -0,0 +1,398 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.config.RetentionProperties;
+import com.sel2in.jobProc.config.RetentionProperties.Policy;
+import com.sel2in.jobProc.entity.JobArchive;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.OutputBundle;
+import com.sel2in.jobProc.entity.OutputFolder;
+import com.sel2in.jobProc.repo.JobArchiveRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.OutputBundleRepository;
+import com.sel2in.jobProc.repo.OutputFolderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps outputFiles and inputFiles from growing forever, per processor (jobproc.retention):
+ *
+ *   compactAfterDays      - finished jobs' output folders are packed into bundles (OutputBundles),
+ *                           one per processor and day, and still served by /dwn/ from there
+ *   deleteAfterDays       - output folders, and bundles whose newest job is this old, are deleted
+ *   inputDeleteAfterDays  - inputFiles/&lt;jobId&gt; folders are deleted; InputFileStore.gc then
+ *                           frees content no other job links to
+ *
+ * Ages are taken from the files (newest file of an output folder, mtime of an input folder).
+ * A run handles at most maxJobsPerRun folders and reads at most maxMbPerSecond, so it can run
+ * next to the jobs. Output folders are found through the OutputFolder index; input folders are
+ * walked by job id, continuing where the previous run stopped. Jobs that have not finished are
+ * never touched. A bundle keeps the delete time it was written with.
+ */
+@Slf4j
+@Service
+public class OutputRetention {
+
+    /** A bundle still WRITING after this long was abandoned by its node */
+    private static final long STALE_BUNDLE_MINUTES = 360;
+
+    private final RetentionProperties properties;
+    private final OutputFolderRepository outputFolderRepository;
+    private final OutputBundleRepository outputBundleRepository;
+    private final OutputBundles outputBundles;
+    private final JobRepository jobRepository;
+    private final JobArchiveRepository jobArchiveRepository;
+    private final ReferenceData referenceData;
+
+    private volatile long inputCursor;
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong foldersCompacted = new AtomicLong();
+    private final AtomicLong foldersDeleted = new AtomicLong();
+    private final AtomicLong bundlesExpired = new AtomicLong();
+    private final AtomicLong inputFoldersDeleted = new AtomicLong();
+    private volatile LocalDateTime lastRunAt;
+    private volatile Map<String, Object> lastRun;
+
+    public OutputRetention(RetentionProperties properties, OutputFolderRepository outputFolderRepository,
+                           OutputBundleRepository outputBundleRepository, OutputBundles outputBundles,
+                           JobRepository jobRepository, JobArchiveRepository jobArchiveRepository,
+                           ReferenceData referenceData) {
+        this.properties = properties;
+        this.outputFolderRepository = outputFolderRepository;
+        this.outputBundleRepository = outputBundleRepository;
+        this.outputBundles = outputBundles;
+        this.jobRepository = jobRepository;
+        this.jobArchiveRepository = jobArchiveRepository;
+        this.referenceData = referenceData;
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.retention.runMs:3600000}", initialDelay = 600000)
+    public void scheduledRun() {
+        if (properties.isEnabled()) {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                log.error("Retention run failed", e);
+            }
+        }
+    }
+
+    /** One retention pass; returns what it did */
+    public synchronized Map<String, Object> run() {
+        long start = System.currentTimeMillis();
+        Throttle throttle = new Throttle(properties.getMaxMbPerSecond() * 1024L * 1024L);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("abandonedBundles", outputBundles.recoverStale(STALE_BUNDLE_MINUTES));
+        result.put("bundlesExpired", expireBundles());
+        int[] outputs = retainOutputs(throttle);
+        result.put("foldersCompacted", outputs[0]);
+        result.put("bundlesWritten", outputs[1]);
+        result.put("foldersDeleted", outputs[2]);
+        result.put("inputFoldersDeleted", expireInputs());
+        result.put("ms", System.currentTimeMillis() - start);
+        runs.incrementAndGet();
+        lastRunAt = LocalDateTime.now();
+        lastRun = result;
+        if (outputs[0] + outputs[2] + (int) result.get("bundlesExpired") + (int) result.get("inputFoldersDeleted") > 0) {
+            log.info("Retention: {}", result);
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", properties.isEnabled());
+        status.put("runs", runs.get());
+        status.put("foldersCompacted", foldersCompacted.get());
+        status.put("foldersDeleted", foldersDeleted.get());
+        status.put("bundlesExpired", bundlesExpired.get());
+        status.put("inputFoldersDeleted", inputFoldersDeleted.get());
+        status.put("lastRunAt", lastRunAt);
+        status.put("lastRun", lastRun);
+        status.put("bundles", outputBundles.getStatus());
+        return status;
+    }
+
+    // ===== steps =====
+
+    private int expireBundles() {
+        int expired = 0;
+        while (true) {
+            List<OutputBundle> due = outputBundleRepository.findByStatusAndDeleteAfterBefore(
+                    OutputBundle.READY, LocalDateTime.now(), PageRequest.of(0, 50));
+            if (due.isEmpty()) {
+                break;
+            }
+            for (OutputBundle b : due) {
+                try {
+                    outputBundles.delete(b);
+                    expired++;
+                } catch (IOException e) {
+                    log.warn("Cannot delete output bundle {}: {}", b.getId(), e.getMessage());
+                    bundlesExpired.addAndGet(expired);
+                    return expired;
+                }
+            }
+        }
+        bundlesExpired.addAndGet(expired);
+        return expired;
+    }
+
+    /** {folders compacted, bundles written, folders deleted} */
+    private int[] retainOutputs(Throttle throttle) {
+        int minDays = minDays(p -> p.getCompactAfterDays(), p -> p.getDeleteAfterDays());
+        int[] done = new int[3];
+        if (minDays == 0) {
+            return done;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minusDays(minDays);
+        Map<String, List<OutputFolder>> groups = new LinkedHashMap<>();
+        long afterId = 0;
+        int handled = 0;
+        while (handled < properties.getMaxJobsPerRun()) {
+            List<OutputFolder> page = outputFolderRepository.findLooseBefore(cutoff, afterId,
+                    PageRequest.of(0, properties.getBatchSize()));
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = page.get(page.size() - 1).getJobId();
+            Map<Long, JobInfo> jobs = jobInfo(page.stream().map(OutputFolder::getJobId).collect(Collectors.toList()));
+            for (OutputFolder f : page) {
+                JobInfo job = jobs.get(f.getJobId());
+                if (job != null && !job.finished) {
+                    continue;
+                }
+                String processor = job != null ? job.processor : null;
+                Policy policy = policy(processor);
+                if (older(f.getLastModified(), policy.getDeleteAfterDays(), now)) {
+                    try {
+                        OutputBundles.deleteTree(outputBundles.jobFolder(f.getJobId()));
+                        outputFolderRepository.delete(f);
+                        done[2]++;
+                    } catch (IOException e) {
+                        log.warn("Cannot delete output folder of job {}: {}", f.getJobId(), e.getMessage());
+                    }
+                } else if (older(f.getLastModified(), policy.getCompactAfterDays(), now)) {
+                    String key = processor + "|" + f.getLastModified().toLocalDate();
+                    List<OutputFolder> group = groups.computeIfAbsent(key, k -> new ArrayList<>());
+                    group.add(f);
+                    if (group.size() >= properties.getBundleMaxJobs()) {
+                        writeBundle(processor, policy, groups.remove(key), throttle, done);
+                    }
+                } else {
+                    continue;
+                }
+                if (++handled >= properties.getMaxJobsPerRun()) {
+                    break;
+                }
+            }
+        }
+        groups.forEach((key, group) -> {
+            String processor = key.substring(0, key.lastIndexOf('|'));
+            processor = "null".equals(processor) ? null : processor;
+            writeBundle(processor, policy(processor), group, throttle, done);
+        });
+        foldersDeleted.addAndGet(done[2]);
+        return done;
+    }
+
+    private void writeBundle(String processor, Policy policy, List<OutputFolder> group, Throttle throttle, int[] done) {
+        LocalDateTime newest = group.stream().map(OutputFolder::getLastModified).max(LocalDateTime::compareTo).orElse(null);
+        LocalDateTime deleteAfter = positive(policy.getDeleteAfterDays()) && newest != null
+                ? newest.plusDays(policy.getDeleteAfterDays()) : null;
+        try {
+            OutputBundle bundle = outputBundles.compact(processor, group, deleteAfter, throttle);
+            if (bundle != null) {
+                done[0] += bundle.getJobCount();
+                done[1]++;
+                foldersCompacted.addAndGet(bundle.getJobCount());
+            }
+        } catch (IOException e) {
+            log.warn("Could not compact {} output folder(s) of {}: {}", group.size(), processor, e.getMessage());
+        }
+    }
+
+    /** Deletes old input folders of finished jobs, up to maxJobsPerRun folders looked at per run */
+    private int expireInputs() {
+        int minDays = minDays(p -> p.getInputDeleteAfterDays());
+        if (minDays == 0) {
+            return 0;
+        }
+        Path root = referenceData.inputFileDirectory();
+        long[] ids = folderIds(root);
+        int from = Arrays.binarySearch(ids, inputCursor + 1);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = Math.min(ids.length, from + properties.getMaxJobsPerRun());
+        long now = System.currentTimeMillis();
+        Map<Long, Long> ages = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            try {
+                long mtime = Files.getLastModifiedTime(root.resolve(Long.toString(ids[i]))).toMillis();
+                if (now - mtime > minDays * 86400000L) {
+                    ages.put(ids[i], mtime);
+                }
+            } catch (IOException e) {
+                // gone meanwhile
+            }
+        }
+        inputCursor = to == ids.length ? 0 : ids[to - 1];
+
+        int deleted = 0;
+        Map<Long, JobInfo> jobs = jobInfo(ages.keySet());
+        for (Map.Entry<Long, Long> e : ages.entrySet()) {
+            JobInfo job = jobs.get(e.getKey());
+            if (job != null && !job.finished) {
+                continue;
+            }
+            Integer days = policy(job != null ? job.processor : null).getInputDeleteAfterDays();
+            if (!positive(days) || now - e.getValue() <= days * 86400000L) {
+                continue;
+            }
+            try {
+                OutputBundles.deleteTree(root.resolve(e.getKey().toString()));
+                deleted++;
+            } catch (IOException ex) {
+                log.warn("Cannot delete input folder of job {}: {}", e.getKey(), ex.getMessage());
+            }
+        }
+        inputFoldersDeleted.addAndGet(deleted);
+        return deleted;
+    }
+
+    // ===== helpers =====
+
+    private static class JobInfo {
+        final String processor;
+        final boolean finished;
+
+        JobInfo(String processor, boolean finished) {
+            this.processor = processor;
+            this.finished = finished;
+        }
+    }
+
+    /** Processor and state of each job, from InputData or (archived jobs) JobArchive; unknown ids are left out */
+    private Map<Long, JobInfo> jobInfo(Collection<Long> ids) {
+        Map<Long, JobInfo> info = new HashMap<>();
+        if (ids.isEmpty()) {
+            return info;
+        }
+        for (JobRecord j : jobRepository.findAllById(ids)) {
+            info.put(j.getId(), new JobInfo(j.getProcessorClassName(), JobStateEvents.isFinal(j.getStatus())));
+        }
+        List<Long> missing = ids.stream().filter(id -> !info.containsKey(id)).collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            for (JobArchive a : jobArchiveRepository.findAllById(missing)) {
+                info.put(a.getJobId(), new JobInfo(a.getProcessorClassName(), true));
+            }
+        }
+        return info;
+    }
+
+    /** The processor's policy with unset values taken from the defaults */
+    private Policy policy(String processor) {
+        Policy defaults = properties.getDefaults();
+        if (processor != null) {
+            for (RetentionProperties.ProcessorPolicy p : properties.getProcessors()) {
+                if (processor.equals(p.getProcessor())) {
+                    return new Policy(
+                            p.getCompactAfterDays() != null ? p.getCompactAfterDays() : defaults.getCompactAfterDays(),
+                            p.getDeleteAfterDays() != null ? p.getDeleteAfterDays() : defaults.getDeleteAfterDays(),
+                            p.getInputDeleteAfterDays() != null ? p.getInputDeleteAfterDays() : defaults.getInputDeleteAfterDays());
+                }
+            }
+        }
+        return defaults;
+    }
+
+    /** Smallest positive day count of the given settings over all policies; 0 if none is set */
+    @SafeVarargs
+    private int minDays(java.util.function.Function<Policy, Integer>... settings) {
+        List<Policy> policies = new ArrayList<>();
+        policies.add(properties.getDefaults());
+        for (RetentionProperties.ProcessorPolicy p : properties.getProcessors()) {
+            policies.add(policy(p.getProcessor()));
+        }
+        return policies.stream()
+                .flatMap(p -> Stream.of(settings).map(s -> s.apply(p)))
+                .filter(OutputRetention::positive)
+                .mapToInt(Integer::intValue)
+                .min()
+                .orElse(0);
+    }
+
+    private static boolean older(LocalDateTime time, Integer days, LocalDateTime now) {
+        return positive(days) && time != null && time.isBefore(now.minusDays(days));
+    }
+
+    private static boolean positive(Integer days) {
+        return days != null && days > 0;
+    }
+
+    private static long[] folderIds(Path root) {
+        List<Long> ids = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (Path p : stream) {
+                    try {
+                        ids.add(Long.parseLong(p.getFileName().toString()));
+                    } catch (NumberFormatException e) {
+                        // .cas, .uploads and other non-job entries
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot list {}: {}", root, e.getMessage());
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /** Sleeps as needed to keep the bytes read under maxBytesPerSecond */
+    private static class Throttle implements LongConsumer {
+        private final long maxBytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        @Override
+        public void accept(long n) {
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+            bytes += n;
+            long dueMs = bytes * 1000 / maxBytesPerSecond;
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            if (dueMs - elapsedMs > 20) {
+                try {
+                    Thread.sleep(dueMs - elapsedMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.sel2in.jobProc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sel2in.jobProc.entity.OutputDataFile;
+import com.sel2in.jobProc.entity.OutputDataParam;
+import com.sel2in.jobProc.entity.OutputDataRecord;
+import com.sel2in.jobProc.processor.OutputData;
+import com.sel2in.jobProc.repo.OutputDataFileRepository;
+import com.sel2in.jobProc.repo.OutputDataParamRepository;
+import com.sel2in.jobProc.repo.OutputDataRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores what processors return in OutputData: the OutputData row, its parameters and an
+ * index of the output files. Writes are JDBC batches issued by CompletionWriter; reads give
+ * a summary first and load large parameter values only when asked for.
+ */
+@Slf4j
+@Service
+public class OutputStore {
+
+    public static final String TYPE_NUMBER = "NUMBER";
+    public static final String TYPE_STRING = "STRING";
+    public static final String TYPE_TEXT = "TEXT";
+    public static final String TYPE_JSON = "JSON";
+    public static final String GZIP_PREFIX = "GZIP_";
+
+    private static final int MAX_STRING_VALUE = 4000;
+
+    private static final String INSERT_OUTPUT = "INSERT INTO output_data (input_data_id, job_name, processor_class_name, "
+            + "output_command, output_note, job_start_datetime, job_end_datetime, job_start_timezone, job_end_timezone, "
+            + "main_error_reason, status, created_ts) "
+            + "SELECT input_data_id, job_name, processor_class_name, :command, :note, job_start_datetime, :endTime, "
+            + ":tz, :tz, :errorReason, :status, :now FROM input_data WHERE input_data_id = :jobId";
+
+    private static final String INSERT_PARAM = "INSERT INTO output_data_param (job_id, param_name, param_type, "
+            + "string_value, number_value, object_json, blob_value, value_size) "
+            + "VALUES (:outputId, :name, :type, :stringValue, :numberValue, :objectJson, :blobValue, :valueSize)";
+
+    private static final String INSERT_FILE = "INSERT INTO output_data_file (job_id, file_name, file_path, file_size, created_ts) "
+            + "VALUES (:outputId, :fileName, :filePath, :fileSize, :now)";
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final OutputDataRecordRepository outputRecordRepository;
+    private final OutputDataParamRepository outputParamRepository;
+    private final OutputDataFileRepository outputFileRepository;
+    private final ReferenceData referenceData;
+    private final int compressOverChars;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public OutputStore(NamedParameterJdbcTemplate jdbc, OutputDataRecordRepository outputRecordRepository,
+                       OutputDataParamRepository outputParamRepository, OutputDataFileRepository outputFileRepository,
+                       ReferenceData referenceData,
+                       @Value("${jobproc.output.compressOverChars:8192}") int compressOverChars) {
+        this.jdbc = jdbc;
+        this.outputRecordRepository = outputRecordRepository;
+        this.outputParamRepository = outputParamRepository;
+        this.outputFileRepository = outputFileRepository;
+        this.referenceData = referenceData;
+        this.compressOverChars = compressOverChars;
+    }
+
+    // ===== Write (called by CompletionWriter inside its transaction) =====
+
+    /**
+     * Replaces the stored output of each completed job with the one from this run.
+     */
+    void persist(List<CompletionWriter.Completion> completions) {
+        List<CompletionWriter.Completion> withOutput = completions.stream()
+                .filter(c -> c.output != null)
+                .collect(Collectors.toList());
+        if (withOutput.isEmpty()) {
+            return;
+        }
+        List<Long> jobIds = withOutput.stream().map(c -> c.jobId).collect(Collectors.toList());
+
+        // A rerun replaces the previous output
+        List<Long> previous = jdbc.queryForList("SELECT job_id FROM output_data WHERE input_data_id IN (:ids)",
+                Collections.singletonMap("ids", jobIds), Long.class);
+        if (!previous.isEmpty()) {
+            Map<String, Object> ids = Collections.singletonMap("ids", previous);
+            jdbc.update("DELETE FROM output_data_param WHERE job_id IN (:ids)", ids);
+            jdbc.update("DELETE FROM output_data_file WHERE job_id IN (:ids)", ids);
+            jdbc.update("DELETE FROM output_data WHERE job_id IN (:ids)", ids);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        String tz = ZoneId.systemDefault().getId();
+        SqlParameterSource[] outputRows = withOutput.stream().map(c -> new MapSqlParameterSource()
+                .addValue("jobId", c.jobId)
+                .addValue("command", clip(c.output.getOutputCommand(), 2000), Types.VARCHAR)
+                .addValue("note", clip(c.output.getOutputNote(), 4000), Types.VARCHAR)
+                .addValue("endTime", c.endTime)
+                .addValue("tz", tz)
+                .addValue("errorReason", clip(c.errorReason, 4000), Types.VARCHAR)
+                .addValue("status", c.status)
+                .addValue("now", now)).toArray(SqlParameterSource[]::new);
+        jdbc.batchUpdate(INSERT_OUTPUT, outputRows);
+
+        Map<Long, Long> outputIdByJob = new HashMap<>();
+        jdbc.query("SELECT job_id, input_data_id FROM output_data WHERE input_data_id IN (:ids)",
+                Collections.singletonMap("ids", jobIds),
+                rs -> { outputIdByJob.put(rs.getLong("input_data_id"), rs.getLong("job_id")); });
+
+        List<SqlParameterSource> paramRows = new ArrayList<>();
+        List<SqlParameterSource> fileRows = new ArrayList<>();
+        for (CompletionWriter.Completion c : withOutput) {
+            Long outputId = outputIdByJob.get(c.jobId);
+            if (outputId == null) {
+                continue;
+            }
+            Map<String, Object> params = c.output.getOutputParameters();
+            if (params != null) {
+                params.forEach((name, value) -> paramRows.add(paramRow(outputId, name, value)));
+            }
+            for (Path file : outputFiles(c.jobId, c.output.getOutputFiles())) {
+                fileRows.add(fileRow(outputId, file, now));
+            }
+        }
+        if (!paramRows.isEmpty()) {
+            jdbc.batchUpdate(INSERT_PARAM, paramRows.toArray(new SqlParameterSource[0]));
+        }
+        if (!fileRows.isEmpty()) {
+            jdbc.batchUpdate(INSERT_FILE, fileRows.toArray(new SqlParameterSource[0]));
+        }
+        log.debug("Stored output of {} job(s): {} params, {} files", withOutput.size(), paramRows.size(), fileRows.size());
+    }
+
+    private SqlParameterSource paramRow(Long outputId, String name, Object value) {
+        String type = TYPE_STRING;
+        String stringValue = null;
+        Double numberValue = null;
+        String text = null;
+
+        if (value instanceof Number) {
+            type = TYPE_NUMBER;
+            numberValue = ((Number) value).doubleValue();
+        } else if (value instanceof CharSequence || value instanceof Boolean || value instanceof Character) {
+            String s = value.toString();
+            if (s.length() <= MAX_STRING_VALUE) {
+                stringValue = s;
+            } else {
+                type = TYPE_TEXT;
+                text = s;
+            }
+        } else if (value != null) {
+            type = TYPE_JSON;
+            try {
+                text = mapper.writeValueAsString(value);
+            } catch (IOException e) {
+                type = TYPE_TEXT;
+                text = value.toString();
+            }
+        }
+
+        byte[] blob = null;
+        if (text != null && text.length() > compressOverChars) {
+            type = GZIP_PREFIX + type;
+            blob = gzip(text);
+        }
+        long size = stringValue != null ? stringValue.length() : text != null ? text.length() : 0;
+
+        return new MapSqlParameterSource()
+                .addValue("outputId", outputId)
+                .addValue("name", clip(name, 500))
+                .addValue("type", type)
+                .addValue("stringValue", stringValue, Types.VARCHAR)
+                .addValue("numberValue", numberValue, Types.DOUBLE)
+                .addValue("objectJson", blob == null ? text : null, Types.CLOB)
+                .addValue("blobValue", blob, Types.BLOB)
+                .addValue("valueSize", size);
+    }
+
+    private SqlParameterSource fileRow(Long outputId, Path file, LocalDateTime now) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            size = -1;
+        }
+        return new MapSqlParameterSource()
+                .addValue("outputId", outputId)
+                .addValue("fileName", clip(file.getFileName().toString(), 500))
+                .addValue("filePath", file.toString())
+                .addValue("fileSize", size)
+                .addValue("now", now);
+    }
+
+    /**
+     * Files to index for a job: whatever is in its output folder plus the files the
+     * processor listed in OutputData.outputFiles (which may be elsewhere in the output
+     * directory). Listed files outside the output directory are not indexed: /dwn/ serves
+     * what is indexed without authentication.
+     */
+    private List<Path> outputFiles(Long jobId, List<String> listed) {
+        Map<Path, Path> files = new LinkedHashMap<>();
+        Path dir = referenceData.outputFileDirectory().resolve(String.valueOf(jobId));
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> stream = Files.list(dir)) {
+                stream.filter(Files::isRegularFile)
+                        .map(p -> p.toAbsolutePath().normalize())
+                        .sorted()
+                        .forEach(p -> files.put(p, p));
+            } catch (IOException e) {
+                log.warn("Could not list output files of job {}: {}", jobId, e.getMessage());
+            }
+        }
+        if (listed != null) {
+            for (String name : listed) {
+                if (name == null || name.isBlank()) {
+                    continue;
+                }
+                Path p = Paths.get(name).toAbsolutePath().normalize();
+                if (!Files.isRegularFile(p)) {
+                    log.debug("Job {} listed output file {} which does not exist", jobId, name);
+                } else if (isServable(p)) {
+                    files.putIfAbsent(p, p);
+                } else {
+                    log.warn("Job {} listed output file {} outside the output directory, not indexed", jobId, name);
+                }
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    /**
+     * True if the file is inside the output directory (symbolic links resolved) and not in one
+     * of the engine's own hidden folders there (.gz, .bundles ...). Only such files are indexed
+     * and served from the index.
+     */
+    public boolean isServable(Path file) {
+        try {
+            Path root = referenceData.outputFileDirectory().toRealPath();
+            Path real = file.toRealPath();
+            if (!real.startsWith(root) || real.equals(root)) {
+                return false;
+            }
+            for (Path part : root.relativize(real)) {
+                if (part.toString().startsWith(".")) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // ===== Read =====
+
+    /**
+     * Output of a job's latest run: the OutputData fields, the parameters (large values
+     * are only described, see paramValue) and the indexed files. Null if none stored.
+     */
+    public Map<String, Object> describe(Long jobId) {
+        OutputDataRecord record = outputRecordRepository.findFirstByInputDataIdOrderByIdDesc(jobId).orElse(null);
+        if (record == null) {
+            return null;
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("jobId", jobId);
+        out.put("jobName", record.getJobName());
+        out.put("processorClassName", record.getProcessorClassName());
+        out.put("status", record.getStatus());
+        out.put("outputCommand", record.getOutputCommand());
+        out.put("outputNote", record.getOutputNote());
+        out.put("mainErrorReason", record.getMainErrorReason());
+        out.put("jobStartDateTime", record.getJobStartDateTime());
+        out.put("jobEndDateTime", record.getJobEndDateTime());
+
+        List<Map<String, Object>> params = new ArrayList<>();
+        for (Object[] row : outputParamRepository.findSummaries(record.getId())) {
+            Map<String, Object> p = new LinkedHashMap<>();
+            String name = (String) row[0];
+            String type = (String) row[1];
+            p.put("name", name);
+            p.put("type", type);
+            p.put("size", row[2]);
+            if (TYPE_NUMBER.equals(type)) {
+                p.put("value", row[4]);
+            } else if (TYPE_STRING.equals(type)) {
+                p.put("value", row[3]);
+            } else {
+                p.put("url", "/api/job/output/" + jobId + "/param/" + name);
+            }
+            params.add(p);
+        }
+        out.put("parameters", params);
+
+        List<Map<String, Object>> files = new ArrayList<>();
+        for (OutputDataFile f : outputFileRepository.findByJobIdOrderByFileName(record.getId())) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", f.getFileName());
+            m.put("size", f.getFileSize());
+            m.put("url", "/dwn/" + jobId + "/" + f.getFileName());
+            files.add(m);
+        }
+        out.put("files", files);
+        return out;
+    }
+
+    /** True if the job's output has been stored, i.e. its file index can be used. */
+    public boolean hasOutput(Long jobId) {
+        return outputRecordRepository.findFirstByInputDataIdOrderByIdDesc(jobId).isPresent();
+    }
+
+    /** Full value of one output parameter (decompressed / parsed), or null if there is none. */
+    public Object paramValue(Long jobId, String name) {
+        OutputDataRecord record = outputRecordRepository.findFirstByInputDataIdOrderByIdDesc(jobId).orElse(null);
+        if (record == null) {
+            return null;
+        }
+        OutputDataParam p = outputParamRepository.findFirstByJobIdAndParamName(record.getId(), name).orElse(null);
+        if (p == null) {
+            return null;
+        }
+        String type = p.getParamType() != null ? p.getParamType() : TYPE_STRING;
+        if (TYPE_NUMBER.equals(type)) {
+            return p.getNumberValue();
+        }
+        if (TYPE_STRING.equals(type)) {
+            return p.getStringValue();
+        }
+        String text = type.startsWith(GZIP_PREFIX) ? gunzip(p.getBlobValue()) : p.getObjectJson();
+        if (type.endsWith(TYPE_JSON) && text != null) {
+            try {
+                return mapper.readValue(text, Object.class);
+            } catch (IOException e) {
+                return text;
+            }
+        }
+        return text;
+    }
+
+    /** Indexed output files of a job, by name. */
+    public List<OutputDataFile> files(Long jobId) {
+        return outputFileRepository.findForJob(jobId);
+    }
+
+    // ===== Helpers =====
+
+    private static String clip(String s, int max) {
+        return s == null || s.length() <= max ? s : s.substring(0, max);
+    }
+
+    static byte[] gzip(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, text.length() / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static String gunzip(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return new String(gz.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
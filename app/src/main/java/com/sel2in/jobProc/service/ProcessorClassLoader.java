@@ -0,0 +1,64 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.processor.JobProcessor;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Child-first loader used to validate an uploaded processor JAR. Classes come from the JDK first,
+ * then from the JAR, and only then from the application, so the checks see the JAR's classes even
+ * where the application has one of the same name. The processor API package (JobProcessor, InputData ...) always comes
+ * from the application: a JAR bundling its own copy would otherwise not be a JobProcessor here.
+ */
+class ProcessorClassLoader extends URLClassLoader {
+
+    private static final String API_PACKAGE = JobProcessor.class.getPackageName() + ".";
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final ClassLoader platform = ClassLoader.getPlatformClassLoader();
+
+    ProcessorClassLoader(URL jar, ClassLoader parent) {
+        super(new URL[]{jar}, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.startsWith(API_PACKAGE)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = platform.loadClass(name);
+                } catch (ClassNotFoundException e) {
+                    // not a JDK class
+                }
+            }
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    // not in the JAR: the application's libraries
+                }
+            }
+            if (c == null) {
+                c = getParent().loadClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : super.getResource(name);
+    }
+}
@@ -0,0 +1,215 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.processor.JobProcessor;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+/**
+ * Installs uploaded processor JARs without holding them in memory or exposing half-written files.
+ *
+ * The upload is copied through a SHA-256 DigestInputStream into a temp file next to the target
+ * (bufferBytes at a time), opened as a JAR and checked for className implementing JobProcessor,
+ * then moved into place atomically. The installed file is named after its content
+ * (name-&lt;sha256 prefix&gt;.jar), so a new version never replaces a file a ProcessorDefinition
+ * still points at: jobs keep loading the old JAR with its own checksum until the new definition
+ * is saved and the reference data reloaded. The version before the previous one is then deleted.
+ * Install and cleanup hold a lock striped by file name, and registration one striped by class
+ * name (always in that order), so a cleanup never deletes a version another upload is about to
+ * register and two uploads for the same class do not both insert a row.
+ */
+@Slf4j
+@Service
+public class ProcessorJarInstaller {
+
+    private final ProcessorRepository processorRepository;
+    private final ProcessorLoader processorLoader;
+    private final ReferenceData referenceData;
+    private final int bufferBytes;
+
+    private static final int LOCK_STRIPES = 64;
+    private final Object[] jarLocks = new Object[LOCK_STRIPES];
+    private final Object[] classLocks = new Object[LOCK_STRIPES];
+
+    public ProcessorJarInstaller(ProcessorRepository processorRepository, ProcessorLoader processorLoader,
+                                 ReferenceData referenceData,
+                                 @Value("${jobproc.upload.bufferBytes:65536}") int bufferBytes) {
+        this.processorRepository = processorRepository;
+        this.processorLoader = processorLoader;
+        this.referenceData = referenceData;
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            jarLocks[i] = new Object();
+            classLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Streams, validates, installs and registers the JAR.
+     * @throws IllegalArgumentException if the file is not a JAR holding a JobProcessor named className
+     */
+    public ProcessorDefinition install(MultipartFile file, String className) throws IOException {
+        Path dir = referenceData.processorJarDirectory().toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        String fileName = file.getOriginalFilename();
+        if (!dir.resolve(fileName).normalize().getParent().equals(dir)) {
+            throw new IllegalArgumentException("file name must not contain a path");
+        }
+        String baseName = fileName.substring(0, fileName.length() - ".jar".length());
+
+        Path tmp = Files.createTempFile(dir, ".upload-", ".jar.tmp");
+        try {
+            long start = System.currentTimeMillis();
+            String checksum = copyAndHash(file, tmp);
+            validate(tmp, className);
+            // Same content, same name: a concurrent upload of the same JAR moves identical bytes
+            Path target = dir.resolve(baseName + "-" + ProcessorLoader.versionKey(checksum) + ".jar");
+
+            ProcessorDefinition def;
+            synchronized (stripe(jarLocks, baseName)) {
+                move(tmp, target);
+                String replaced;
+                synchronized (stripe(classLocks, className)) {
+                    def = processorRepository.findByClassName(className).orElse(new ProcessorDefinition());
+                    replaced = def.getJarPath();
+                    def.setClassName(className);
+                    def.setJarPath(target.toString());
+                    def.setChecksum(checksum);
+                    def = processorRepository.save(def);
+                }
+                referenceData.changed();
+                if (replaced != null && !replaced.equals(target.toString())) {
+                    processorLoader.evictCache(replaced);
+                }
+                deleteOldVersions(dir, baseName, target, replaced);
+            }
+            log.info("Installed JAR {} ({} bytes, sha256 {}) for {} in {} ms",
+                    target, file.getSize(), checksum, className, System.currentTimeMillis() - start);
+            return def;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Object stripe(Object[] locks, String key) {
+        return locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Deletes earlier versions of baseName no processor points at, keeping the one just replaced
+     * for jobs (here or on other nodes) that read its definition before the reload.
+     */
+    private void deleteOldVersions(Path dir, String baseName, Path installed, String replaced) {
+        Set<String> inUse = new HashSet<>();
+        for (ProcessorDefinition def : processorRepository.findAll()) {
+            inUse.add(def.getJarPath());
+        }
+        inUse.add(installed.toString());
+        if (replaced != null) {
+            inUse.add(replaced);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> isVersionOf(f.getFileName().toString(), baseName))
+                    .filter(f -> !inUse.contains(f.toString()))
+                    .forEach(f -> {
+                        try {
+                            Files.deleteIfExists(f);
+                            log.info("Deleted old processor JAR {}", f);
+                        } catch (IOException e) {
+                            log.warn("Could not delete old processor JAR {}: {}", f, e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            log.warn("Could not list {} for old versions of {}: {}", dir, baseName, e.getMessage());
+        }
+    }
+
+    /** baseName.jar (installed before JARs were versioned) or baseName-&lt;12 hex&gt;.jar */
+    private static boolean isVersionOf(String fileName, String baseName) {
+        if (fileName.equals(baseName + ".jar")) {
+            return true;
+        }
+        String prefix = baseName + "-";
+        return fileName.startsWith(prefix) && fileName.endsWith(".jar")
+                && fileName.length() == prefix.length() + 12 + ".jar".length()
+                && fileName.substring(prefix.length(), prefix.length() + 12).chars()
+                        .allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    private String copyAndHash(MultipartFile file, Path tmp) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[bufferBytes];
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+             OutputStream out = Files.newOutputStream(tmp)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return ProcessorLoader.toHex(digest.digest());
+    }
+
+    /** Opens the JAR and loads className without initializing it */
+    private void validate(Path jar, String className) throws IOException {
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            if (jarFile.getEntry(className.replace('.', '/') + ".class") == null) {
+                throw new IllegalArgumentException("JAR does not contain class " + className);
+            }
+        } catch (ZipException e) {
+            throw new IllegalArgumentException("not a valid JAR: " + e.getMessage());
+        }
+        // Jobs load the JAR parent-first, so a class the application already has would be run instead
+        if (getClass().getClassLoader().getResource(className.replace('.', '/') + ".class") != null) {
+            throw new IllegalArgumentException(className + " is an application class and cannot be replaced by a JAR");
+        }
+        // child-first, so the checks below see the JAR's class and not one of our libraries'
+        try (URLClassLoader loader = new ProcessorClassLoader(jar.toUri().toURL(), getClass().getClassLoader())) {
+            Class<?> clazz = Class.forName(className, false, loader);
+            if (!JobProcessor.class.isAssignableFrom(clazz)) {
+                throw new IllegalArgumentException(className + " does not implement " + JobProcessor.class.getName());
+            }
+            if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+                throw new IllegalArgumentException(className + " is abstract");
+            }
+            clazz.getConstructor();
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IllegalArgumentException("cannot load " + className + ": " + e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(className + " has no public no-argument constructor");
+        }
+    }
+
+    private static void move(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -12,6 +12,8 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
@@ -20,6 +22,11 @@ public class ProcessorLoader {
 
     private final Map<String, URLClassLoader> classLoaderCache = new ConcurrentHashMap<>();
 
+    /** Processors loaded at least once on this node: className -> version (see versionKey) */
+    private final Map<String, String> warmVersions = new ConcurrentHashMap<>();
+    /** className -> jarPath, so evictCache can cool down the processors of a JAR */
+    private final Map<String, String> warmJars = new ConcurrentHashMap<>();
+
     /**
      * Loads a JobProcessor instance from an external JAR file.
      * Uses a cache to reuse ClassLoaders for the same JAR path.
@@ -59,7 +66,10 @@ public class ProcessorLoader {
                 throw new IllegalArgumentException(className + " does not implement " + JobProcessor.class.getName());
             }
 
-            return (JobProcessor) clazz.getDeclaredConstructor().newInstance();
+            JobProcessor processor = (JobProcessor) clazz.getDeclaredConstructor().newInstance();
+            warmVersions.put(className, versionKey(expectedChecksum));
+            warmJars.put(className, jarPath);
+            return processor;
         } catch (Exception e) {
             log.error("Failed to load processor {} from {}", className, jarPath, e);
             throw new RuntimeException("Processor loading failed: " + e.getMessage(), e);
@@ -74,20 +84,58 @@ public class ProcessorLoader {
             while ((length = is.read(block)) > 0) {
                 digest.update(block, 0, length);
             }
-            byte[] hash = digest.digest();
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            return toHex(digest.digest());
         } catch (Exception e) {
             throw new RuntimeException("Failed to calculate checksum for " + path, e);
         }
     }
 
+    /** Lower-case hex, the form checksums are stored in */
+    static String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+
+    /**
+     * Short processor version used when nodes advertise what they have warm:
+     * first 12 chars of the SHA-256 checksum, or "-" for processors registered without one.
+     */
+    public static String versionKey(String checksum) {
+        if (checksum == null || checksum.isBlank()) {
+            return "-";
+        }
+        return checksum.length() > 12 ? checksum.substring(0, 12).toLowerCase() : checksum.toLowerCase();
+    }
+
+    /**
+     * True if className at this version has been loaded here (ClassLoader created, checksum verified).
+     */
+    public boolean isWarm(String className, String checksum) {
+        return versionKey(checksum).equals(warmVersions.get(className));
+    }
+
+    /**
+     * Warm processors as "className@version", sorted.
+     */
+    public Set<String> getWarmProcessors() {
+        Set<String> warm = new TreeSet<>();
+        warmVersions.forEach((cls, ver) -> warm.add(cls + "@" + ver));
+        return warm;
+    }
+
     public void evictCache(String jarPath) {
+        warmJars.entrySet().removeIf(e -> {
+            if (e.getValue().equals(jarPath)) {
+                warmVersions.remove(e.getKey());
+                return true;
+            }
+            return false;
+        });
         URLClassLoader loader = classLoaderCache.remove(jarPath);
         if (loader != null) {
             try {
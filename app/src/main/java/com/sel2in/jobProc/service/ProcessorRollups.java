@@ -0,0 +1,464 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.ProcessorRollup;
+import com.sel2in.jobProc.repo.ProcessorRollupRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Per-processor time series: submitted / started / completed counts, outcomes, and
+ * queue-wait and run-time histograms, in MINUTE and HOUR buckets (ProcessorRollup).
+ *
+ * Counted from JobStateChangedEvents into memory and added to the buckets every flushMs
+ * (value = value + delta, so nodes share the rows). Each flush adds to the minute bucket
+ * and to its hour bucket in the same transaction, so the hour series is exact and outlives
+ * the minute series: minute rows are kept minuteRetentionHours, hour rows hourRetentionDays.
+ */
+@Slf4j
+@Service
+public class ProcessorRollups {
+
+    public static final String MINUTE = "MINUTE";
+    public static final String HOUR = "HOUR";
+
+    /** Histogram bucket upper bounds (ms); the last bucket holds everything longer */
+    public static final long[] BOUNDS_MS = {1_000, 10_000, 60_000, 600_000, 3_600_000};
+    private static final int HISTOGRAM_SIZE = BOUNDS_MS.length + 1;
+    private static final int MAX_POINTS = 20_000;
+
+    // Counter slots of one bucket
+    private static final int SUBMITTED = 0, STARTED = 1, COMPLETED = 2, SUCCEEDED = 3, FAILED = 4,
+            TIMED_OUT = 5, CANCELLED = 6, WAIT_COUNT = 7, WAIT_SUM = 8, WAIT_MAX = 9,
+            WAIT_H = 10, RUN_COUNT = WAIT_H + HISTOGRAM_SIZE, RUN_SUM = RUN_COUNT + 1, RUN_MAX = RUN_COUNT + 2,
+            RUN_H = RUN_COUNT + 3, SLOTS = RUN_H + HISTOGRAM_SIZE;
+
+    private static final String UPDATE = "UPDATE processor_rollup SET submitted = submitted + :submitted, "
+            + "started = started + :started, completed = completed + :completed, succeeded = succeeded + :succeeded, "
+            + "failed = failed + :failed, timed_out = timed_out + :timedOut, cancelled = cancelled + :cancelled, "
+            + "wait_count = wait_count + :waitCount, wait_sum_ms = wait_sum_ms + :waitSum, "
+            + "wait_max_ms = GREATEST(wait_max_ms, :waitMax), "
+            + "wait_h0 = wait_h0 + :waitH0, wait_h1 = wait_h1 + :waitH1, wait_h2 = wait_h2 + :waitH2, "
+            + "wait_h3 = wait_h3 + :waitH3, wait_h4 = wait_h4 + :waitH4, wait_h5 = wait_h5 + :waitH5, "
+            + "run_count = run_count + :runCount, run_sum_ms = run_sum_ms + :runSum, "
+            + "run_max_ms = GREATEST(run_max_ms, :runMax), "
+            + "run_h0 = run_h0 + :runH0, run_h1 = run_h1 + :runH1, run_h2 = run_h2 + :runH2, "
+            + "run_h3 = run_h3 + :runH3, run_h4 = run_h4 + :runH4, run_h5 = run_h5 + :runH5 "
+            + "WHERE granularity = :granularity AND bucket_start = :bucketStart AND processor_class_name = :processor";
+
+    private static final String INSERT = "INSERT INTO processor_rollup (granularity, bucket_start, processor_class_name, "
+            + "submitted, started, completed, succeeded, failed, timed_out, cancelled, "
+            + "wait_count, wait_sum_ms, wait_max_ms, wait_h0, wait_h1, wait_h2, wait_h3, wait_h4, wait_h5, "
+            + "run_count, run_sum_ms, run_max_ms, run_h0, run_h1, run_h2, run_h3, run_h4, run_h5) "
+            + "VALUES (:granularity, :bucketStart, :processor, "
+            + ":submitted, :started, :completed, :succeeded, :failed, :timedOut, :cancelled, "
+            + ":waitCount, :waitSum, :waitMax, :waitH0, :waitH1, :waitH2, :waitH3, :waitH4, :waitH5, "
+            + ":runCount, :runSum, :runMax, :runH0, :runH1, :runH2, :runH3, :runH4, :runH5)";
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final ProcessorRollupRepository rollupRepository;
+    private final long minuteRetentionHours;
+    private final long hourRetentionDays;
+    private final TransactionTemplate tx;
+
+    /** Unflushed counters per (processor, minute); swapped out whole under the write lock */
+    private Map<BucketKey, long[]> pending = new ConcurrentHashMap<>();
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong lastFlushMicros = new AtomicLong();
+
+    public ProcessorRollups(NamedParameterJdbcTemplate jdbc, ProcessorRollupRepository rollupRepository,
+                            @Value("${jobproc.rollups.minuteRetentionHours:48}") long minuteRetentionHours,
+                            @Value("${jobproc.rollups.hourRetentionDays:90}") long hourRetentionDays,
+                            PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.rollupRepository = rollupRepository;
+        this.minuteRetentionHours = Math.max(1, minuteRetentionHours);
+        this.hourRetentionDays = Math.max(1, hourRetentionDays);
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    private static final class BucketKey {
+        final String processor;
+        final LocalDateTime minute;
+
+        BucketKey(String processor, LocalDateTime minute) {
+            this.processor = processor;
+            this.minute = minute;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey k = (BucketKey) o;
+            return processor.equals(k.processor) && minute.equals(k.minute);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(processor, minute);
+        }
+    }
+
+    // ===== Counting =====
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStateChanged(JobStateChangedEvent e) {
+        String processor = e.getProcessorClassName();
+        if (processor == null) {
+            return;
+        }
+        String to = e.getToStatus();
+        if (e.getFromStatus() == null) {
+            record(processor, e.getOccurredAt(), c -> c[SUBMITTED]++);
+        } else if ("RUNNING".equals(to)) {
+            LocalDateTime started = e.getStartedAt() != null ? e.getStartedAt() : e.getOccurredAt();
+            long waitMs = e.getScheduledAt() != null ? millisBetween(e.getScheduledAt(), started) : -1;
+            record(processor, started, c -> {
+                c[STARTED]++;
+                if (waitMs >= 0) {
+                    observe(c, WAIT_COUNT, WAIT_SUM, WAIT_MAX, WAIT_H, waitMs);
+                }
+            });
+        } else if (e.isFinal()) {
+            LocalDateTime ended = e.getEndedAt() != null ? e.getEndedAt() : e.getOccurredAt();
+            boolean ran = "RUNNING".equals(e.getFromStatus());
+            long runMs = ran && e.getStartedAt() != null ? millisBetween(e.getStartedAt(), ended) : -1;
+            record(processor, ended, c -> {
+                if (ran) {
+                    c[COMPLETED]++;
+                }
+                switch (to) {
+                    case "SUCCESS": c[SUCCEEDED]++; break;
+                    case "TIMED_OUT": c[TIMED_OUT]++; break;
+                    case "CANCELLED": c[CANCELLED]++; break;
+                    default: c[FAILED]++; break;
+                }
+                if (runMs >= 0) {
+                    observe(c, RUN_COUNT, RUN_SUM, RUN_MAX, RUN_H, runMs);
+                }
+            });
+        }
+    }
+
+    private interface Update {
+        void apply(long[] counters);
+    }
+
+    private void record(String processor, LocalDateTime at, Update update) {
+        BucketKey key = new BucketKey(processor, at.truncatedTo(ChronoUnit.MINUTES));
+        swapLock.readLock().lock();
+        try {
+            long[] counters = pending.computeIfAbsent(key, k -> new long[SLOTS]);
+            synchronized (counters) {
+                update.apply(counters);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private static void observe(long[] c, int count, int sum, int max, int histogram, long ms) {
+        c[count]++;
+        c[sum] += ms;
+        c[max] = Math.max(c[max], ms);
+        c[histogram + histogramIndex(ms)]++;
+    }
+
+    static int histogramIndex(long ms) {
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (ms <= BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS_MS.length;
+    }
+
+    private static long millisBetween(LocalDateTime from, LocalDateTime to) {
+        return Math.max(0, Duration.between(from, to).toMillis());
+    }
+
+    // ===== Flush and retention =====
+
+    @Scheduled(fixedDelayString = "${jobproc.rollups.flushMs:10000}", initialDelay = 10000)
+    public synchronized void flush() {
+        Map<BucketKey, long[]> batch;
+        swapLock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        // One transaction per processor and hour: its minute rows and the hour row they fold into
+        // go in together, so a failure leaves neither and the whole group is retried
+        Map<BucketKey, Map<BucketKey, long[]>> byHour = new HashMap<>();
+        batch.forEach((key, c) -> byHour.computeIfAbsent(
+                new BucketKey(key.processor, key.minute.truncatedTo(ChronoUnit.HOURS)), k -> new HashMap<>()).put(key, c));
+
+        Map<BucketKey, long[]> failed = new HashMap<>();
+        byHour.forEach((hour, minutes) -> {
+            long[] total = new long[SLOTS];
+            minutes.values().forEach(c -> merge(total, c));
+            try {
+                tx.executeWithoutResult(status -> {
+                    minutes.forEach((key, c) -> write(MINUTE, key, c));
+                    write(HOUR, hour, total);
+                });
+                rowsWritten.addAndGet(minutes.size() + 1);
+            } catch (Exception e) {
+                log.warn("Rollup write {} {} failed: {}", hour.processor, hour.minute, e.getMessage());
+                failed.putAll(minutes);
+            }
+        });
+        if (!failed.isEmpty()) {
+            flushFailures.incrementAndGet();
+            log.warn("Could not write {} minute rollup(s) and their hours, retrying next flush", failed.size());
+            swapLock.readLock().lock();
+            try {
+                failed.forEach((key, c) -> {
+                    long[] counters = pending.computeIfAbsent(key, k -> new long[SLOTS]);
+                    synchronized (counters) {
+                        merge(counters, c);
+                    }
+                });
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+        flushes.incrementAndGet();
+        lastFlushMicros.set((System.nanoTime() - start) / 1000);
+    }
+
+    private static void merge(long[] into, long[] from) {
+        for (int i = 0; i < SLOTS; i++) {
+            if (i == WAIT_MAX || i == RUN_MAX) {
+                into[i] = Math.max(into[i], from[i]);
+            } else {
+                into[i] += from[i];
+            }
+        }
+    }
+
+    private void write(String granularity, BucketKey key, long[] c) {
+        MapSqlParameterSource p = new MapSqlParameterSource()
+                .addValue("granularity", granularity)
+                .addValue("bucketStart", key.minute)
+                .addValue("processor", key.processor)
+                .addValue("submitted", c[SUBMITTED])
+                .addValue("started", c[STARTED])
+                .addValue("completed", c[COMPLETED])
+                .addValue("succeeded", c[SUCCEEDED])
+                .addValue("failed", c[FAILED])
+                .addValue("timedOut", c[TIMED_OUT])
+                .addValue("cancelled", c[CANCELLED])
+                .addValue("waitCount", c[WAIT_COUNT])
+                .addValue("waitSum", c[WAIT_SUM])
+                .addValue("waitMax", c[WAIT_MAX])
+                .addValue("runCount", c[RUN_COUNT])
+                .addValue("runSum", c[RUN_SUM])
+                .addValue("runMax", c[RUN_MAX]);
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            p.addValue("waitH" + i, c[WAIT_H + i]);
+            p.addValue("runH" + i, c[RUN_H + i]);
+        }
+        if (jdbc.update(UPDATE, p) == 0) {
+            try {
+                jdbc.update(INSERT, p);
+            } catch (DuplicateKeyException race) {
+                // Another node created the row first
+                jdbc.update(UPDATE, p);
+            }
+        }
+    }
+
+    /** Drops minute rows after minuteRetentionHours and hour rows after hourRetentionDays. */
+    @Scheduled(fixedDelayString = "${jobproc.rollups.retentionCheckMs:3600000}", initialDelay = 60000)
+    @Transactional
+    public void applyRetention() {
+        LocalDateTime now = LocalDateTime.now();
+        int minutes = rollupRepository.deleteOlderThan(MINUTE, now.minusHours(minuteRetentionHours));
+        int hours = rollupRepository.deleteOlderThan(HOUR, now.minusDays(hourRetentionDays));
+        if (minutes + hours > 0) {
+            log.info("Rollup retention removed {} minute and {} hour row(s)", minutes, hours);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // ===== Query =====
+
+    /**
+     * Buckets in [from, to) for one processor, or all when processorClassName is null,
+     * plus per-processor totals over the range. Counts lag by up to flushMs.
+     */
+    public Map<String, Object> query(String granularity, String processorClassName,
+                                     LocalDateTime from, LocalDateTime to) {
+        String g = granularity == null ? MINUTE : granularity.trim().toUpperCase();
+        if (!MINUTE.equals(g) && !HOUR.equals(g)) {
+            throw new IllegalArgumentException("granularity must be minute or hour");
+        }
+        ChronoUnit unit = MINUTE.equals(g) ? ChronoUnit.MINUTES : ChronoUnit.HOURS;
+        LocalDateTime end = (to != null ? to : LocalDateTime.now()).truncatedTo(unit).plus(1, unit);
+        LocalDateTime begin = from != null ? from.truncatedTo(unit)
+                : end.minus(MINUTE.equals(g) ? 60 : 48, unit);
+        if (!begin.isBefore(end)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        String processor = processorClassName == null || processorClassName.isBlank() ? null : processorClassName.trim();
+
+        List<ProcessorRollup> rows = rollupRepository.findRange(g, processor, begin, end,
+                PageRequest.of(0, MAX_POINTS + 1));
+        boolean truncated = rows.size() > MAX_POINTS;
+        if (truncated) {
+            rows = rows.subList(0, MAX_POINTS);
+        }
+
+        List<Map<String, Object>> series = new ArrayList<>();
+        Map<String, ProcessorRollup> totals = new TreeMap<>();
+        for (ProcessorRollup r : rows) {
+            series.add(describe(r, true));
+            ProcessorRollup t = totals.computeIfAbsent(r.getProcessorClassName(), k -> {
+                ProcessorRollup n = new ProcessorRollup();
+                n.setProcessorClassName(k);
+                return n;
+            });
+            add(t, r);
+        }
+        List<Map<String, Object>> totalList = new ArrayList<>();
+        totals.values().forEach(t -> totalList.add(describe(t, false)));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("granularity", g);
+        result.put("from", begin);
+        result.put("to", end);
+        result.put("histogramBoundsMs", BOUNDS_MS);
+        result.put("series", series);
+        result.put("totals", totalList);
+        result.put("truncated", truncated);
+        return result;
+    }
+
+    private static void add(ProcessorRollup t, ProcessorRollup r) {
+        t.setSubmitted(t.getSubmitted() + r.getSubmitted());
+        t.setStarted(t.getStarted() + r.getStarted());
+        t.setCompleted(t.getCompleted() + r.getCompleted());
+        t.setSucceeded(t.getSucceeded() + r.getSucceeded());
+        t.setFailed(t.getFailed() + r.getFailed());
+        t.setTimedOut(t.getTimedOut() + r.getTimedOut());
+        t.setCancelled(t.getCancelled() + r.getCancelled());
+        t.setWaitCount(t.getWaitCount() + r.getWaitCount());
+        t.setWaitSumMs(t.getWaitSumMs() + r.getWaitSumMs());
+        t.setWaitMaxMs(Math.max(t.getWaitMaxMs(), r.getWaitMaxMs()));
+        t.setWaitH0(t.getWaitH0() + r.getWaitH0());
+        t.setWaitH1(t.getWaitH1() + r.getWaitH1());
+        t.setWaitH2(t.getWaitH2() + r.getWaitH2());
+        t.setWaitH3(t.getWaitH3() + r.getWaitH3());
+        t.setWaitH4(t.getWaitH4() + r.getWaitH4());
+        t.setWaitH5(t.getWaitH5() + r.getWaitH5());
+        t.setRunCount(t.getRunCount() + r.getRunCount());
+        t.setRunSumMs(t.getRunSumMs() + r.getRunSumMs());
+        t.setRunMaxMs(Math.max(t.getRunMaxMs(), r.getRunMaxMs()));
+        t.setRunH0(t.getRunH0() + r.getRunH0());
+        t.setRunH1(t.getRunH1() + r.getRunH1());
+        t.setRunH2(t.getRunH2() + r.getRunH2());
+        t.setRunH3(t.getRunH3() + r.getRunH3());
+        t.setRunH4(t.getRunH4() + r.getRunH4());
+        t.setRunH5(t.getRunH5() + r.getRunH5());
+    }
+
+    private static Map<String, Object> describe(ProcessorRollup r, boolean withBucket) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (withBucket) {
+            m.put("bucketStart", r.getBucketStart());
+        }
+        m.put("processor", r.getProcessorClassName());
+        m.put("submitted", r.getSubmitted());
+        m.put("started", r.getStarted());
+        m.put("completed", r.getCompleted());
+        m.put("succeeded", r.getSucceeded());
+        m.put("failed", r.getFailed());
+        m.put("timedOut", r.getTimedOut());
+        m.put("cancelled", r.getCancelled());
+        m.put("wait", latency(r.getWaitCount(), r.getWaitSumMs(), r.getWaitMaxMs(), r.getWaitHistogram()));
+        m.put("run", latency(r.getRunCount(), r.getRunSumMs(), r.getRunMaxMs(), r.getRunHistogram()));
+        return m;
+    }
+
+    /** Percentiles are the upper bound of the histogram bucket they fall in (max for the last one) */
+    private static Map<String, Object> latency(long count, long sumMs, long maxMs, long[] histogram) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", count);
+        m.put("avgMs", count == 0 ? null : sumMs / count);
+        m.put("maxMs", count == 0 ? null : maxMs);
+        m.put("p50Ms", percentile(count, maxMs, histogram, 0.50));
+        m.put("p95Ms", percentile(count, maxMs, histogram, 0.95));
+        m.put("histogram", histogram);
+        return m;
+    }
+
+    private static Long percentile(long count, long maxMs, long[] histogram, double p) {
+        if (count == 0) {
+            return null;
+        }
+        long rank = (long) Math.ceil(count * p);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i < BOUNDS_MS.length ? Math.min(BOUNDS_MS[i], maxMs) : maxMs;
+            }
+        }
+        return maxMs;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("pendingBuckets", pending.size());
+        s.put("flushes", flushes.get());
+        s.put("flushFailures", flushFailures.get());
+        s.put("rowsWritten", rowsWritten.get());
+        s.put("lastFlushMs", lastFlushMicros.get() / 1000.0);
+        s.put("minuteRetentionHours", minuteRetentionHours);
+        s.put("hourRetentionDays", hourRetentionDays);
+        return s;
+    }
+}
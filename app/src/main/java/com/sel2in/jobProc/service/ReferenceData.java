@@ -0,0 +1,186 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.AppParam;
+import com.sel2in.jobProc.entity.CacheVersion;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.repo.AppParamRepository;
+import com.sel2in.jobProc.repo.CacheVersionRepository;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local copy of the reference data the run path needs: processor definitions by class
+ * name, AppParams, and the typed settings derived from them (thread pool size, directories).
+ *
+ * Loaded at startup and replaced as a whole. ProcessorController and AdminController call
+ * changed() after writing, which bumps the CacheVersion row and reloads this node; other nodes
+ * compare the row with their loaded version every checkMs and reload when it moved.
+ * Lookups never touch the database.
+ *
+ * Directories come from jobproc.*Directory; the AppParam of the same name is used only when
+ * the property is blank.
+ */
+@Slf4j
+@Service
+public class ReferenceData {
+
+    static final String CACHE_NAME = "referenceData";
+
+    private final ProcessorRepository processorRepository;
+    private final AppParamRepository appParamRepository;
+    private final CacheVersionRepository versionRepository;
+    private final TransactionTemplate tx;
+    private final int defaultThreads;
+    private final String inputFileDirectory;
+    private final String outputFileDirectory;
+    private final String processorJarDirectory;
+
+    private volatile Snapshot snapshot = new Snapshot(-1, Map.of(), Map.of());
+
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile LocalDateTime loadedAt;
+
+    private static final class Snapshot {
+        final long version;
+        final Map<String, ProcessorDefinition> processors;
+        final Map<String, String> params;
+
+        Snapshot(long version, Map<String, ProcessorDefinition> processors, Map<String, String> params) {
+            this.version = version;
+            this.processors = processors;
+            this.params = params;
+        }
+    }
+
+    public ReferenceData(ProcessorRepository processorRepository, AppParamRepository appParamRepository,
+                         CacheVersionRepository versionRepository, PlatformTransactionManager transactionManager,
+                         @Value("${jobproc.defaultNumberOfThreads:5}") int defaultThreads,
+                         @Value("${jobproc.inputFileDirectory:}") String inputFileDirectory,
+                         @Value("${jobproc.outputFileDirectory:}") String outputFileDirectory,
+                         @Value("${jobproc.processorJarDirectory:}") String processorJarDirectory) {
+        this.processorRepository = processorRepository;
+        this.appParamRepository = appParamRepository;
+        this.versionRepository = versionRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.defaultThreads = defaultThreads;
+        this.inputFileDirectory = inputFileDirectory;
+        this.outputFileDirectory = outputFileDirectory;
+        this.processorJarDirectory = processorJarDirectory;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!versionRepository.existsById(CACHE_NAME)) {
+            try {
+                CacheVersion row = new CacheVersion();
+                row.setName(CACHE_NAME);
+                row.setUpdatedTs(LocalDateTime.now());
+                versionRepository.save(row);
+            } catch (DataIntegrityViolationException e) {
+                // another node created it first
+            }
+        }
+        reload();
+    }
+
+    /** Reads everything again; the version is read first so a change made meanwhile is seen next check */
+    public synchronized void reload() {
+        Long version = versionRepository.findVersion(CACHE_NAME);
+        Map<String, ProcessorDefinition> processors = new HashMap<>();
+        for (ProcessorDefinition def : processorRepository.findAll()) {
+            processors.put(def.getClassName(), def);
+        }
+        Map<String, String> params = new HashMap<>();
+        for (AppParam param : appParamRepository.findAll()) {
+            params.put(param.getName(), param.getValue());
+        }
+        snapshot = new Snapshot(version != null ? version : 0, Map.copyOf(processors), Map.copyOf(params));
+        loadedAt = LocalDateTime.now();
+        reloads.incrementAndGet();
+        log.debug("Reference data v{} loaded: {} processor(s), {} param(s)",
+                snapshot.version, processors.size(), params.size());
+    }
+
+    /** Call after writing a ProcessorDefinition or AppParam */
+    public void changed() {
+        tx.executeWithoutResult(status -> versionRepository.bump(CACHE_NAME, LocalDateTime.now()));
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.referenceData.checkMs:5000}", initialDelay = 5000)
+    public void checkVersion() {
+        Long version = versionRepository.findVersion(CACHE_NAME);
+        if (version != null && version != snapshot.version) {
+            log.info("Reference data changed on another node (v{} -> v{}), reloading", snapshot.version, version);
+            reload();
+        }
+    }
+
+    public Optional<ProcessorDefinition> processor(String className) {
+        return Optional.ofNullable(className != null ? snapshot.processors.get(className) : null);
+    }
+
+    public String param(String name) {
+        return snapshot.params.get(name);
+    }
+
+    /** numberOfThreads AppParam, else jobproc.defaultNumberOfThreads */
+    public int numberOfThreads() {
+        String value = param("numberOfThreads");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid numberOfThreads value: {}", value);
+            }
+        }
+        return defaultThreads;
+    }
+
+    public Path inputFileDirectory() {
+        return directory(inputFileDirectory, "inputFileDirectory", "./inputFiles");
+    }
+
+    public Path outputFileDirectory() {
+        return directory(outputFileDirectory, "outputFileDirectory", "./outputFiles");
+    }
+
+    public Path processorJarDirectory() {
+        return directory(processorJarDirectory, "processorJarDirectory", "./processors");
+    }
+
+    private Path directory(String configured, String paramName, String fallback) {
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        String param = param(paramName);
+        return Paths.get(param != null && !param.isBlank() ? param : fallback);
+    }
+
+    public Map<String, Object> getStatus() {
+        Snapshot s = snapshot;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("version", s.version);
+        status.put("processors", s.processors.size());
+        status.put("params", s.params.size());
+        status.put("reloads", reloads.get());
+        status.put("loadedAt", loadedAt);
+        return status;
+    }
+}
@@ -0,0 +1,200 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.blob.BlobCache;
+import com.sel2in.jobProc.entity.OutputDataFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the output of one or more jobs as a ZIP built while it is sent: files are read with a
+ * bufferBytes buffer straight into the response, nothing is staged on disk and the archive is
+ * never in memory. Entries go in as they are found, so the first bytes leave before the folder
+ * has been fully listed.
+ *
+ * Files that are compressed already (zip, png, pdf ...) are written at level 0: stored blocks,
+ * no CPU spent on them, and no second read to compute the CRC a STORED entry needs up front.
+ * ZIP64 kicks in by itself past 4 GB or 65535 entries.
+ */
+@Slf4j
+@Service
+public class ZipDownloads {
+
+    private static final Set<String> COMPRESSED = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "jar", "war", "png", "jpg", "jpeg", "gif", "webp",
+            "pdf", "mp3", "mp4", "mov", "docx", "xlsx", "pptx", "odt", "ods");
+
+    private final ReferenceData referenceData;
+    private final JobReadModel jobReadModel;
+    private final OutputBundles outputBundles;
+    private final JobBlobs jobBlobs;
+    private final OutputStore outputStore;
+    private final int bufferBytes;
+    private final int level;
+    private final int maxJobs;
+
+    private final AtomicLong archives = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public ZipDownloads(ReferenceData referenceData, JobReadModel jobReadModel, OutputBundles outputBundles,
+                        JobBlobs jobBlobs, OutputStore outputStore,
+                        @Value("${jobproc.download.zipBufferBytes:65536}") int bufferBytes,
+                        @Value("${jobproc.download.zipLevel:6}") int level,
+                        @Value("${jobproc.download.zipMaxJobs:100}") int maxJobs) {
+        this.referenceData = referenceData;
+        this.jobReadModel = jobReadModel;
+        this.outputBundles = outputBundles;
+        this.jobBlobs = jobBlobs;
+        this.outputStore = outputStore;
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        this.level = level;
+        this.maxJobs = maxJobs;
+    }
+
+    /** Most jobs one /dwn/zip request may ask for */
+    public int getMaxJobs() {
+        return maxJobs;
+    }
+
+    /** True if the job has an output folder, indexed output files, a bundle or files in the blob store */
+    public boolean hasOutput(Long jobId) {
+        if (Files.isDirectory(jobDirectory(jobId)) || !jobReadModel.outputFiles(jobId).isEmpty()
+                || outputBundles.bundleOf(jobId) != null) {
+            return true;
+        }
+        try {
+            return !jobBlobs.outputNames(jobId).isEmpty();
+        } catch (IOException e) {
+            log.warn("Cannot list output of job {} in the blob store: {}", jobId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the ZIP to out. Entries are named as in the job's folder, under "&lt;jobId&gt;/" with
+     * perJobFolders. Jobs without output are skipped.
+     */
+    public void write(List<Long> jobIds, boolean perJobFolders, OutputStream out) throws IOException {
+        byte[] buffer = new byte[bufferBytes];
+        // finish() but not close(): the container owns the response stream
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, bufferBytes));
+        for (Long jobId : jobIds) {
+            String base = perJobFolders ? jobId + "/" : "";
+            Set<String> names = new HashSet<>();
+            Path dir = jobDirectory(jobId);
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> walk = Files.walk(dir)) {
+                    for (Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                        String name = dir.relativize(file).toString().replace('\\', '/');
+                        names.add(name);
+                        addEntry(zip, base + name, file, buffer);
+                    }
+                }
+            } else {
+                // Compacted by OutputRetention
+                Long bundleId = outputBundles.bundleOf(jobId);
+                if (bundleId != null) {
+                    try (OutputBundles.Handle bundle = outputBundles.acquire(bundleId)) {
+                        String prefix = jobId + "/";
+                        for (ZipEntry e : outputBundles.entries(bundle.zip(), jobId)) {
+                            String name = e.getName().substring(prefix.length());
+                            names.add(name);
+                            try (InputStream in = bundle.zip().getInputStream(e)) {
+                                copyEntry(zip, base + name, e.getTime(), in, buffer);
+                            }
+                        }
+                    }
+                }
+                // Run on another node
+                for (String name : jobBlobs.outputNames(jobId)) {
+                    if (names.contains(name)) {
+                        continue;
+                    }
+                    try (BlobCache.Pin cached = jobBlobs.outputFile(jobId, name)) {
+                        if (cached != null) {
+                            names.add(name);
+                            addEntry(zip, base + name, cached.path(), buffer);
+                        }
+                    }
+                }
+            }
+            // Files a processor reported outside its folder (still inside the output directory)
+            for (OutputDataFile f : jobReadModel.outputFiles(jobId)) {
+                // base name only: an entry name must not climb out of the folder it is unpacked into
+                String name = Paths.get(f.getFileName()).getFileName().toString();
+                Path file = Paths.get(f.getFilePath());
+                if (outputStore.isServable(file) && names.add(name)) {
+                    addEntry(zip, base + name, file, buffer);
+                }
+            }
+        }
+        zip.finish();
+        zip.flush();
+        archives.incrementAndGet();
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("archives", archives.get());
+        status.put("entries", entries.get());
+        status.put("bytesRead", bytesRead.get());
+        return status;
+    }
+
+    private void addEntry(ZipOutputStream zip, String name, Path file, byte[] buffer) throws IOException {
+        InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            log.debug("Output file {} vanished before it was zipped", file);
+            return;
+        }
+        try (in) {
+            copyEntry(zip, name, Files.getLastModifiedTime(file).toMillis(), in, buffer);
+        }
+    }
+
+    private void copyEntry(ZipOutputStream zip, String name, long time, InputStream in, byte[] buffer) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        zip.setLevel(compressed(name) ? Deflater.NO_COMPRESSION : level);
+        zip.putNextEntry(entry);
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            zip.write(buffer, 0, n);
+            bytesRead.addAndGet(n);
+        }
+        zip.closeEntry();
+        entries.incrementAndGet();
+    }
+
+    /** True for file types that are compressed already (no point deflating them again) */
+    static boolean compressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private Path jobDirectory(Long jobId) {
+        return referenceData.outputFileDirectory().resolve(jobId.toString());
+    }
+}
@@ -0,0 +1,60 @@
+package com.sel2in.jobProc.store;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Where the status transitions of the run path (claim, lease, completion, cancel, orphan
+ * handling) and the JobEvent log rows are made durable.
+ *
+ * Implementations (jobproc.stateStore.type):
+ *   jpa - conditional updates on InputData in the caller's transaction (default)
+ *   wal - in-memory state for this node's running jobs, made durable in a write-ahead log and
+ *         written to InputData / JobEvent in batches shortly after; single engine node only
+ *
+ * Every method returns whether the transition applied, with the same conditions as the
+ * JobRepository queries it replaces. Scheduling, re-runs and reads still use JobRepository;
+ * use current() on a row read from it before deciding on its status.
+ */
+public interface JobStateStore {
+
+    /** SCHEDULED -> RUNNING on nodeId. False if the job is not SCHEDULED (another node or run took it). */
+    boolean claim(Long jobId, String nodeId, LocalDateTime startTime, LocalDateTime leaseExpires);
+
+    /** Extends the lease of jobs RUNNING on nodeId; returns how many were extended. */
+    int renewLeases(Collection<Long> jobIds, String nodeId, LocalDateTime leaseExpires);
+
+    /**
+     * RUNNING on nodeId -> a final status. False if the job was cancelled or re-queued meanwhile.
+     * Completions are written in batches: they are durable once sync() returns.
+     */
+    boolean complete(Long jobId, String nodeId, String status, LocalDateTime endTime,
+                     String errorCode, String errorReason);
+
+    /** RUNNING (any node) -> CANCELLED. False if it already finished. */
+    boolean cancelRunning(Long jobId, LocalDateTime now, String errorCode, String reason);
+
+    /** fromStatus (SCHEDULED, FAILED or TIMED_OUT) -> SCHEDULED at runAt. False if the job left fromStatus (e.g. it was claimed). */
+    boolean reschedule(Long jobId, String fromStatus, LocalDateTime runAt);
+
+    /** RUNNING with no or an expired lease -> SCHEDULED. */
+    boolean requeueOrphan(Long jobId, LocalDateTime now);
+
+    /** RUNNING with no or an expired lease -> FAILED (ORPHANED). */
+    boolean failOrphan(Long jobId, LocalDateTime now, String reason);
+
+    /** Returns once every transition accepted so far is durable (jpa: when the caller's transaction commits). */
+    void sync();
+
+    /** The row with any transition accepted here but not yet in InputData; the row itself if none. */
+    JobRecord current(JobRecord row);
+
+    /** Adds a row to the JobEvent log (see JobEventLog). */
+    void appendEvent(JobEvent event);
+
+    Map<String, Object> getStatus();
+}
@@ -0,0 +1,87 @@
+package com.sel2in.jobProc.store;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobEventRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Default store: every transition is a conditional update on InputData, every event an insert
+ * into JobEvent, both in the caller's transaction.
+ */
+@Service
+@ConditionalOnProperty(name = "jobproc.stateStore.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaJobStateStore implements JobStateStore {
+
+    private final JobRepository jobRepository;
+    private final JobEventRepository eventRepository;
+
+    public JpaJobStateStore(JobRepository jobRepository, JobEventRepository eventRepository) {
+        this.jobRepository = jobRepository;
+        this.eventRepository = eventRepository;
+    }
+
+    @Override
+    public boolean claim(Long jobId, String nodeId, LocalDateTime startTime, LocalDateTime leaseExpires) {
+        return jobRepository.claimScheduled(jobId, startTime, nodeId, leaseExpires) == 1;
+    }
+
+    @Override
+    public int renewLeases(Collection<Long> jobIds, String nodeId, LocalDateTime leaseExpires) {
+        return jobIds.isEmpty() ? 0 : jobRepository.renewLeases(jobIds, nodeId, leaseExpires);
+    }
+
+    @Override
+    public boolean complete(Long jobId, String nodeId, String status, LocalDateTime endTime,
+                            String errorCode, String errorReason) {
+        return jobRepository.completeRunning(jobId, nodeId, status, endTime, errorCode, errorReason) == 1;
+    }
+
+    @Override
+    public boolean cancelRunning(Long jobId, LocalDateTime now, String errorCode, String reason) {
+        return jobRepository.cancelRunning(jobId, now, errorCode, reason) == 1;
+    }
+
+    @Override
+    public boolean reschedule(Long jobId, String fromStatus, LocalDateTime runAt) {
+        return jobRepository.reschedule(jobId, fromStatus, runAt) == 1;
+    }
+
+    @Override
+    public boolean requeueOrphan(Long jobId, LocalDateTime now) {
+        return jobRepository.requeueOrphan(jobId, now) == 1;
+    }
+
+    @Override
+    public boolean failOrphan(Long jobId, LocalDateTime now, String reason) {
+        return jobRepository.failOrphan(jobId, now, reason) == 1;
+    }
+
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public JobRecord current(JobRecord row) {
+        return row;
+    }
+
+    @Override
+    public void appendEvent(JobEvent event) {
+        eventRepository.save(event);
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("type", "jpa");
+        return s;
+    }
+}
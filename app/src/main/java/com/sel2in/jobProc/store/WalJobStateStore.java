@@ -0,0 +1,582 @@
+package com.sel2in.jobProc.store;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.WalApplyMark;
+import com.sel2in.jobProc.repo.JobEventRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.WalApplyMarkRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded state store (jobproc.stateStore.type=wal) for one engine node.
+ *
+ * Claims, completions and cancels of this node's jobs are decided against an in-memory table
+ * (the last accepted transition of every job running here or finished but not yet written),
+ * appended to the write-ahead log and acknowledged once the log is durable - no database write
+ * on the run path. A job not in the table is only claimed if its InputData row is still
+ * SCHEDULED (one primary key read), the condition the JPA store's UPDATE has: it may have
+ * finished here and been written already, or been cancelled through the database.
+ * Completions and JobEvent rows are appended without waiting; a batch of completions shares
+ * one wait in sync(). Records in the table are replaced, never changed, so a snapshot can
+ * encode them while leases are renewed.
+ *
+ * Every applyMs the durable records are written to InputData and JobEvent in one transaction:
+ * batched conditional UPDATEs with the same conditions as the JPA store, batched INSERTs, and
+ * the WalApplyMark row. An UPDATE that matches nothing (the row was changed behind the store)
+ * is counted as a conflict, skipped and its job dropped from the table. Once a final transition
+ * is written the job leaves the table; the database stays the source for every read and for
+ * all other writes.
+ *
+ * Every snapshotMs the table is written to snapshot.bin (fsynced, then renamed into place and
+ * the directory fsynced) and log segments that are both in the snapshot and applied are deleted. On start the snapshot is loaded, the log replayed over it
+ * and every record past the apply mark written, before any job is claimed.
+ *
+ * The table only knows this node's claims, so run a single engine node with this store.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "jobproc.stateStore.type", havingValue = "wal")
+public class WalJobStateStore implements JobStateStore {
+
+    private static final int MAX_TEXT = 4000;
+    private static final String RUNNING = "RUNNING";
+    private static final String CANCELLED = "CANCELLED";
+    private static final String SCHEDULED = "SCHEDULED";
+    private static final String SNAPSHOT = "snapshot.bin";
+
+    private static final String APPLY_CLAIM = "UPDATE input_data SET status = 'RUNNING', job_start_datetime = :time, "
+            + "node_id = :nodeId, lease_expires_ts = :lease WHERE input_data_id = :jobId AND status = 'SCHEDULED'";
+    private static final String APPLY_END = "UPDATE input_data SET status = :status, job_end_datetime = :time, "
+            + "main_error_code = :errorCode, error_reason = :reason, lease_expires_ts = NULL "
+            + "WHERE input_data_id = :jobId AND status = 'RUNNING' AND (node_id IS NULL OR node_id = :nodeId)";
+    private static final String INSERT_EVENT = "INSERT INTO job_event (job_id, from_status, to_status, "
+            + "processor_class_name, node_id, origin_node, error_code, reason, occurred_ts) "
+            + "VALUES (:jobId, :fromStatus, :status, :processor, :nodeId, :originNode, :errorCode, :reason, :time)";
+    private static final String SELECT_STATUS = "SELECT status FROM input_data WHERE input_data_id = :jobId";
+
+    private final JobStateStore database;
+    private final WalApplyMarkRepository markRepository;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate applyTx;
+    private final Path dir;
+    private final int applyBatch;
+    private final boolean fsync;
+    private final WriteAheadLog wal;
+
+    /** Last accepted transition (a CLAIM or END record) of each job running here or not yet applied */
+    private final Map<Long, WalRecord> table = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<WalRecord> pending = new ConcurrentLinkedQueue<>();
+    private final Deque<WalRecord> retry = new ArrayDeque<>();
+    private final Object decideLock = new Object();
+    private final Object applyLock = new Object();
+
+    private volatile long appliedLsn;
+    private volatile long snapshotLsn;
+
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong ends = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong applyBatches = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong applyFailures = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    public WalJobStateStore(JobRepository jobRepository, JobEventRepository eventRepository,
+                            WalApplyMarkRepository markRepository, NamedParameterJdbcTemplate jdbc,
+                            PlatformTransactionManager txManager,
+                            @Value("${jobproc.stateStore.wal.dir:./data/wal}") String dir,
+                            @Value("${jobproc.stateStore.wal.segmentMb:16}") int segmentMb,
+                            @Value("${jobproc.stateStore.wal.fsync:true}") boolean fsync,
+                            @Value("${jobproc.stateStore.wal.groupCommitMs:2}") long groupCommitMs,
+                            @Value("${jobproc.stateStore.wal.applyBatch:500}") int applyBatch) {
+        this.database = new JpaJobStateStore(jobRepository, eventRepository);
+        this.markRepository = markRepository;
+        this.jdbc = jdbc;
+        this.applyTx = new TransactionTemplate(txManager);
+        this.applyTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.applyBatch = Math.max(1, applyBatch);
+        this.fsync = fsync;
+        this.wal = new WriteAheadLog(this.dir, Math.max(1, segmentMb) * 1024 * 1024, fsync, groupCommitMs);
+    }
+
+    @PostConstruct
+    public void recover() {
+        long mark = markRepository.findById(dir.toString()).map(WalApplyMark::getAppliedLsn).orElse(0L);
+        long snap = loadSnapshot();
+        List<WalRecord> records = wal.open(Math.min(snap, mark), mark + 1);
+        int replayed = 0;
+        for (WalRecord r : records) {
+            if (r.getLsn() > snap && r.getType() != WalRecord.EVENT) {
+                table.put(r.getJobId(), r);
+            }
+            if (r.getLsn() > mark) {
+                pending.add(r);
+                replayed++;
+            }
+        }
+        appliedLsn = mark;
+        snapshotLsn = snap;
+        while (!pending.isEmpty() || !retry.isEmpty()) {
+            if (!applyPending()) {
+                throw new IllegalStateException("Could not write the recovered write-ahead log to the database");
+            }
+        }
+        table.values().removeIf(r -> r.getType() == WalRecord.END);
+        log.info("WAL state store in {}: snapshot at lsn {}, applied to lsn {}, {} record(s) re-applied, "
+                + "{} job(s) running here", dir, snap, mark, replayed, table.size());
+        log.warn("jobproc.stateStore.type=wal keeps job claims in this node's memory; run a single engine node");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wal.close();
+        applyPending();
+        writeSnapshot();
+    }
+
+    @Override
+    public boolean claim(Long jobId, String nodeId, LocalDateTime startTime, LocalDateTime leaseExpires) {
+        WalRecord r = WalRecord.of(WalRecord.CLAIM, jobId);
+        r.setNodeId(nodeId);
+        r.setStatus(RUNNING);
+        r.setTime(startTime);
+        r.setLeaseExpires(leaseExpires);
+        synchronized (decideLock) {
+            // Read under the lock: an end applied meanwhile would otherwise look SCHEDULED here
+            if (table.containsKey(jobId) || !SCHEDULED.equals(durableStatus(jobId))) {
+                return false;
+            }
+            log(r);
+            table.put(jobId, r);
+        }
+        wal.awaitDurable(r.getLsn());
+        claims.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int renewLeases(Collection<Long> jobIds, String nodeId, LocalDateTime leaseExpires) {
+        int inTable = 0;
+        for (Long id : jobIds) {
+            WalRecord r = table.get(id);
+            if (r != null && r.getType() == WalRecord.CLAIM && nodeId.equals(r.getNodeId())
+                    && table.replace(id, r, r.withLeaseExpires(leaseExpires))) {
+                inTable++;
+            }
+        }
+        return Math.max(inTable, database.renewLeases(jobIds, nodeId, leaseExpires));
+    }
+
+    @Override
+    public boolean complete(Long jobId, String nodeId, String status, LocalDateTime endTime,
+                            String errorCode, String errorReason) {
+        synchronized (decideLock) {
+            WalRecord claim = table.get(jobId);
+            if (claim == null) {
+                return database.complete(jobId, nodeId, status, endTime, errorCode, errorReason);
+            }
+            if (claim.getType() != WalRecord.CLAIM
+                    || (claim.getNodeId() != null && !claim.getNodeId().equals(nodeId))) {
+                return false;
+            }
+            end(claim, status, endTime, errorCode, errorReason);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancelRunning(Long jobId, LocalDateTime now, String errorCode, String reason) {
+        WalRecord r;
+        synchronized (decideLock) {
+            WalRecord claim = table.get(jobId);
+            if (claim == null) {
+                return database.cancelRunning(jobId, now, errorCode, reason);
+            }
+            if (claim.getType() != WalRecord.CLAIM) {
+                return false;
+            }
+            r = end(claim, CANCELLED, now, errorCode, reason);
+        }
+        wal.awaitDurable(r.getLsn());
+        return true;
+    }
+
+    /** Writes everything accepted so far, then lets the database decide; the job leaves the table if it applied. */
+    @Override
+    public boolean reschedule(Long jobId, String fromStatus, LocalDateTime runAt) {
+        synchronized (decideLock) {
+            flush();
+            boolean done = database.reschedule(jobId, fromStatus, runAt);
+            if (done) {
+                table.remove(jobId);
+            }
+            return done;
+        }
+    }
+
+    @Override
+    public boolean requeueOrphan(Long jobId, LocalDateTime now) {
+        synchronized (decideLock) {
+            flush();
+            boolean done = database.requeueOrphan(jobId, now);
+            if (done) {
+                table.remove(jobId);
+            }
+            return done;
+        }
+    }
+
+    @Override
+    public boolean failOrphan(Long jobId, LocalDateTime now, String reason) {
+        synchronized (decideLock) {
+            flush();
+            boolean done = database.failOrphan(jobId, now, reason);
+            if (done) {
+                table.remove(jobId);
+            }
+            return done;
+        }
+    }
+
+    @Override
+    public void sync() {
+        wal.awaitDurable(wal.getAppendedLsn());
+    }
+
+    @Override
+    public JobRecord current(JobRecord row) {
+        WalRecord r = row.getId() != null ? table.get(row.getId()) : null;
+        if (r == null) {
+            return row;
+        }
+        JobRecord copy = new JobRecord();
+        BeanUtils.copyProperties(row, copy);
+        copy.setStatus(r.getStatus());
+        copy.setNodeId(r.getNodeId());
+        if (r.getType() == WalRecord.CLAIM) {
+            copy.setJobStartDateTime(r.getTime());
+            copy.setLeaseExpires(r.getLeaseExpires());
+        } else {
+            copy.setJobEndDateTime(r.getTime());
+            copy.setMainErrorCode(r.getErrorCode());
+            copy.setErrorReason(r.getReason());
+            copy.setLeaseExpires(null);
+        }
+        return copy;
+    }
+
+    @Override
+    public void appendEvent(JobEvent event) {
+        WalRecord r = WalRecord.of(WalRecord.EVENT, event.getJobId());
+        r.setFromStatus(event.getFromStatus());
+        r.setStatus(event.getToStatus());
+        r.setProcessorClassName(event.getProcessorClassName());
+        r.setNodeId(event.getNodeId());
+        r.setOriginNode(event.getOriginNode());
+        r.setErrorCode(clip(event.getErrorCode()));
+        r.setReason(clip(event.getReason()));
+        r.setTime(event.getOccurredTs());
+        synchronized (decideLock) {
+            log(r);
+        }
+        events.incrementAndGet();
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.stateStore.wal.applyMs:50}", initialDelay = 1000)
+    public void applyTick() {
+        applyPending();
+    }
+
+    @Scheduled(fixedDelayString = "${jobproc.stateStore.wal.snapshotMs:60000}", initialDelay = 60000)
+    public void snapshotTick() {
+        writeSnapshot();
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("type", "wal");
+        s.put("dir", dir.toString());
+        s.put("jobsInTable", table.size());
+        s.put("pending", pending.size() + retry.size());
+        s.put("appendedLsn", wal.getAppendedLsn());
+        s.put("durableLsn", wal.getDurableLsn());
+        s.put("appliedLsn", appliedLsn);
+        s.put("snapshotLsn", snapshotLsn);
+        s.put("segments", wal.getSegments());
+        s.put("appends", wal.getAppends());
+        s.put("groupCommits", wal.getForces());
+        s.put("claims", claims.get());
+        s.put("ends", ends.get());
+        s.put("events", events.get());
+        s.put("applied", applied.get());
+        s.put("applyBatches", applyBatches.get());
+        s.put("conflicts", conflicts.get());
+        s.put("applyFailures", applyFailures.get());
+        s.put("snapshots", snapshots.get());
+        return s;
+    }
+
+    /** Appends under decideLock so pending holds records in lsn order */
+    private void log(WalRecord r) {
+        wal.append(r);
+        pending.add(r);
+    }
+
+    private WalRecord end(WalRecord claim, String status, LocalDateTime endTime, String errorCode, String reason) {
+        WalRecord r = WalRecord.of(WalRecord.END, claim.getJobId());
+        r.setNodeId(claim.getNodeId());
+        r.setStatus(status);
+        r.setTime(endTime);
+        r.setErrorCode(clip(errorCode));
+        r.setReason(clip(reason));
+        log(r);
+        table.put(claim.getJobId(), r);
+        ends.incrementAndGet();
+        return r;
+    }
+
+    /** Waits for the log and writes all of it; for the few transitions the database decides. */
+    private void flush() {
+        sync();
+        while (!pending.isEmpty() || !retry.isEmpty()) {
+            if (!applyPending()) {
+                throw new IllegalStateException("Write-ahead log could not be written to the database");
+            }
+        }
+    }
+
+    /**
+     * Writes up to applyBatch durable records in one transaction. Within a batch claims go first,
+     * then ends, then events: a job is claimed at most once between two applies. Returns false
+     * if the batch failed; it is retried first next time.
+     */
+    private boolean applyPending() {
+        synchronized (applyLock) {
+            long durable = wal.getDurableLsn();
+            List<WalRecord> batch = new ArrayList<>();
+            while (batch.size() < applyBatch && !retry.isEmpty()) {
+                batch.add(retry.poll());
+            }
+            while (batch.size() < applyBatch) {
+                WalRecord next = pending.peek();
+                if (next == null || next.getLsn() > durable) {
+                    break;
+                }
+                batch.add(pending.poll());
+            }
+            if (batch.isEmpty()) {
+                return true;
+            }
+            long last = batch.get(batch.size() - 1).getLsn();
+            try {
+                applyTx.executeWithoutResult(status -> write(batch, last));
+            } catch (RuntimeException e) {
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    retry.addFirst(batch.get(i));
+                }
+                applyFailures.incrementAndGet();
+                log.error("Applying WAL records up to lsn {} failed, will retry: {}", last, e.getMessage());
+                return false;
+            }
+            appliedLsn = last;
+            applied.addAndGet(batch.size());
+            applyBatches.incrementAndGet();
+            for (WalRecord r : batch) {
+                if (r.getType() == WalRecord.END) {
+                    removeFromTable(r);
+                }
+            }
+            return true;
+        }
+    }
+
+    private void write(List<WalRecord> batch, long last) {
+        List<WalRecord> claimRows = new ArrayList<>();
+        List<WalRecord> endRows = new ArrayList<>();
+        List<WalRecord> eventRows = new ArrayList<>();
+        for (WalRecord r : batch) {
+            (r.getType() == WalRecord.CLAIM ? claimRows : r.getType() == WalRecord.END ? endRows : eventRows).add(r);
+        }
+        update(APPLY_CLAIM, claimRows);
+        update(APPLY_END, endRows);
+        if (!eventRows.isEmpty()) {
+            jdbc.batchUpdate(INSERT_EVENT, params(eventRows));
+        }
+        WalApplyMark mark = new WalApplyMark();
+        mark.setWalDir(dir.toString());
+        mark.setAppliedLsn(last);
+        mark.setUpdatedTs(LocalDateTime.now());
+        markRepository.save(mark);
+    }
+
+    private void update(String sql, List<WalRecord> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int[] counts = jdbc.batchUpdate(sql, params(rows));
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                conflicts.incrementAndGet();
+                WalRecord r = rows.get(i);
+                removeFromTable(r);
+                log.warn("WAL lsn {}: job {} was changed outside the state store; {} not applied",
+                        r.getLsn(), r.getJobId(), r.getStatus());
+            }
+        }
+    }
+
+    /** Drops the job unless a later transition replaced r meanwhile (a renewed copy keeps r's lsn) */
+    private void removeFromTable(WalRecord r) {
+        table.computeIfPresent(r.getJobId(), (id, current) -> current.getLsn() == r.getLsn() ? null : current);
+    }
+
+    private String durableStatus(Long jobId) {
+        List<String> status = jdbc.queryForList(SELECT_STATUS, new MapSqlParameterSource("jobId", jobId), String.class);
+        return status.isEmpty() ? null : status.get(0);
+    }
+
+    private static SqlParameterSource[] params(List<WalRecord> rows) {
+        SqlParameterSource[] params = new SqlParameterSource[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            WalRecord r = rows.get(i);
+            params[i] = new MapSqlParameterSource()
+                    .addValue("jobId", r.getJobId())
+                    .addValue("nodeId", r.getNodeId())
+                    .addValue("status", r.getStatus())
+                    .addValue("fromStatus", r.getFromStatus())
+                    .addValue("processor", r.getProcessorClassName())
+                    .addValue("originNode", r.getOriginNode())
+                    .addValue("time", r.getTime())
+                    .addValue("lease", r.getLeaseExpires())
+                    .addValue("errorCode", r.getErrorCode())
+                    .addValue("reason", r.getReason());
+        }
+        return params;
+    }
+
+    /**
+     * snapshot.bin: [long lsn][int count] then [long lsn][int length][record] per table entry, each
+     * with its own lsn: removeFromTable() tells a record from its replacement by it. Segments are
+     * only deleted once the new snapshot and its directory entry are on disk: a torn or lost
+     * snapshot with its segments gone could not be recovered.
+     */
+    private void writeSnapshot() {
+        long lsn;
+        List<WalRecord> entries;
+        synchronized (decideLock) {
+            lsn = wal.getAppendedLsn();
+            entries = new ArrayList<>(table.values());
+        }
+        if (lsn == snapshotLsn) {
+            return;
+        }
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeLong(lsn);
+            out.writeInt(entries.size());
+            for (WalRecord r : entries) {
+                byte[] bytes = r.encode();
+                out.writeLong(r.getLsn());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            if (fsync) {
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            log.error("Writing WAL snapshot failed: {}", e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Replacing WAL snapshot failed: {}", e.getMessage());
+            return;
+        }
+        if (fsync) {
+            try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) {
+                // Windows cannot open a directory; its file systems journal the rename
+                log.debug("Cannot fsync WAL directory {}: {}", dir, e.getMessage());
+            }
+        }
+        snapshotLsn = lsn;
+        snapshots.incrementAndGet();
+        int deleted = wal.deleteSegmentsUpTo(Math.min(lsn, appliedLsn));
+        if (deleted > 0) {
+            log.info("WAL snapshot at lsn {}; deleted {} old segment(s)", lsn, deleted);
+        }
+    }
+
+    /** Loads snapshot.bin into the table; returns its lsn, 0 if there is none */
+    private long loadSnapshot() {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(raw)) {
+            long lsn = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long recordLsn = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                WalRecord r = WalRecord.decode(recordLsn, bytes);
+                table.put(r.getJobId(), r);
+            }
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read WAL snapshot " + file, e);
+        }
+    }
+
+    private static String clip(String s) {
+        return s != null && s.length() > MAX_TEXT ? s.substring(0, MAX_TEXT) : s;
+    }
+}
@@ -0,0 +1,117 @@
+package com.sel2in.jobProc.store;
+
+import lombok.Data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * One entry of the write-ahead log. CLAIM and END carry a job transition, EVENT a JobEvent row;
+ * fields a type does not use stay null.
+ */
+@Data
+class WalRecord {
+
+    static final byte CLAIM = 1;
+    static final byte END = 2;
+    static final byte EVENT = 3;
+
+    private byte type;
+    private long lsn;
+    private long jobId;
+    private String nodeId;
+    /** CLAIM: RUNNING; END: the final status; EVENT: to status */
+    private String status;
+    private String fromStatus;
+    private String processorClassName;
+    private String originNode;
+    /** CLAIM: start time; END: end time; EVENT: occurred */
+    private LocalDateTime time;
+    private LocalDateTime leaseExpires;
+    private String errorCode;
+    private String reason;
+
+    static WalRecord of(byte type, long jobId) {
+        WalRecord r = new WalRecord();
+        r.type = type;
+        r.jobId = jobId;
+        return r;
+    }
+
+    /** Copy with another lease: records in the store's table are replaced, never changed */
+    WalRecord withLeaseExpires(LocalDateTime lease) {
+        WalRecord r = decode(lsn, encode());
+        r.leaseExpires = lease;
+        return r;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeLong(jobId);
+            writeString(out, nodeId);
+            writeString(out, status);
+            writeString(out, fromStatus);
+            writeString(out, processorClassName);
+            writeString(out, originNode);
+            writeTime(out, time);
+            writeTime(out, leaseExpires);
+            writeString(out, errorCode);
+            writeString(out, reason);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static WalRecord decode(long lsn, byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            WalRecord r = new WalRecord();
+            r.lsn = lsn;
+            r.type = in.readByte();
+            r.jobId = in.readLong();
+            r.nodeId = readString(in);
+            r.status = readString(in);
+            r.fromStatus = readString(in);
+            r.processorClassName = readString(in);
+            r.originNode = readString(in);
+            r.time = readTime(in);
+            r.leaseExpires = readTime(in);
+            r.errorCode = readString(in);
+            r.reason = readString(in);
+            return r;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime t) throws IOException {
+        out.writeBoolean(t != null);
+        if (t != null) {
+            out.writeLong(t.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(t.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+}
@@ -0,0 +1,322 @@
+package com.sel2in.jobProc.store;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log in memory-mapped segment files (wal-&lt;first lsn&gt;.seg, segmentBytes each).
+ *
+ * Frame: [int payload length][int crc32 of lsn + payload][long lsn][payload]. A zero length
+ * marks the end of the written part of a segment; a frame whose crc does not match (a write
+ * torn by a crash) ends the log.
+ *
+ * append() copies the frame into the mapping and returns at once. A single committer thread
+ * forces the mapping to disk for everything appended so far, at most every groupCommitMs, and
+ * wakes the threads waiting in awaitDurable(), so concurrent writers share one fsync.
+ */
+@Slf4j
+class WriteAheadLog implements Closeable {
+
+    private static final int HEADER = 16;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final long groupCommitMs;
+
+    private final Object appendLock = new Object();
+    private final Object durableLock = new Object();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long nextLsn = 1;
+    private long appendedLsn;
+    private volatile long durableLsn;
+    private volatile boolean open;
+    private Thread committer;
+
+    private long appends;
+    private long forces;
+    private int segments;
+
+    WriteAheadLog(Path dir, int segmentBytes, boolean fsync, long groupCommitMs) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.groupCommitMs = groupCommitMs;
+    }
+
+    /**
+     * Reads every intact record with lsn > afterLsn, oldest first, then positions the log for
+     * appending after the last intact record. New records get an lsn above minNextLsn - 1.
+     */
+    List<WalRecord> open(long afterLsn, long minNextLsn) {
+        try {
+            Files.createDirectories(dir);
+            List<Path> files = segmentFiles();
+            List<WalRecord> records = new ArrayList<>();
+            long lastLsn = 0;
+            int endOfLast = 0;
+            for (Path file : files) {
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                    MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                    int pos = 0;
+                    while (pos + HEADER <= map.limit()) {
+                        int len = map.getInt(pos);
+                        if (len <= 0 || pos + HEADER + len > map.limit()) {
+                            break;
+                        }
+                        int crc = map.getInt(pos + 4);
+                        long lsn = map.getLong(pos + 8);
+                        byte[] payload = new byte[len];
+                        map.position(pos + HEADER);
+                        map.get(payload);
+                        if (crc != checksum(lsn, payload)) {
+                            log.warn("WAL {} has a torn record at offset {}; log ends there", file.getFileName(), pos);
+                            break;
+                        }
+                        if (lsn > afterLsn) {
+                            records.add(WalRecord.decode(lsn, payload));
+                        }
+                        lastLsn = Math.max(lastLsn, lsn);
+                        pos += HEADER + len;
+                    }
+                    endOfLast = pos;
+                }
+            }
+            nextLsn = Math.max(lastLsn + 1, minNextLsn);
+            appendedLsn = nextLsn - 1;
+            durableLsn = appendedLsn;
+            if (files.isEmpty() || endOfLast + HEADER >= segmentBytes) {
+                openSegment(nextLsn, 0);
+                segments = files.size() + 1;
+            } else {
+                openSegment(firstLsnOf(files.get(files.size() - 1)), endOfLast);
+                segments = files.size();
+            }
+            open = true;
+            committer = new Thread(this::commitLoop, "wal-committer");
+            committer.setDaemon(true);
+            committer.start();
+            return records;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open write-ahead log in " + dir, e);
+        }
+    }
+
+    /** Adds the record, sets its lsn and returns it; the record is durable after awaitDurable(lsn). */
+    long append(WalRecord record) {
+        byte[] payload = record.encode();
+        if (HEADER + payload.length > segmentBytes) {
+            throw new IllegalArgumentException("WAL record of " + payload.length + " bytes exceeds the segment size");
+        }
+        synchronized (appendLock) {
+            if (!open) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            long lsn = nextLsn;
+            if (buffer.position() + HEADER + payload.length > segmentBytes) {
+                buffer.force();
+                openSegment(lsn, 0);
+                segments++;
+            }
+            buffer.putInt(payload.length);
+            buffer.putInt(checksum(lsn, payload));
+            buffer.putLong(lsn);
+            buffer.put(payload);
+            record.setLsn(lsn);
+            nextLsn = lsn + 1;
+            appendedLsn = lsn;
+            appends++;
+            appendLock.notifyAll();
+            return lsn;
+        }
+    }
+
+    void awaitDurable(long lsn) {
+        synchronized (durableLock) {
+            while (durableLsn < lsn) {
+                if (!open) {
+                    throw new IllegalStateException("Write-ahead log closed before lsn " + lsn + " was durable");
+                }
+                try {
+                    durableLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for the write-ahead log", e);
+                }
+            }
+        }
+    }
+
+    long getDurableLsn() {
+        return durableLsn;
+    }
+
+    long getAppendedLsn() {
+        synchronized (appendLock) {
+            return appendedLsn;
+        }
+    }
+
+    /** Deletes the segments holding only records with lsn <= upToLsn (never the current one). */
+    int deleteSegmentsUpTo(long upToLsn) {
+        int deleted = 0;
+        try {
+            List<Path> files = segmentFiles();
+            for (int i = 0; i + 1 < files.size(); i++) {
+                if (firstLsnOf(files.get(i + 1)) - 1 > upToLsn) {
+                    break;
+                }
+                Files.deleteIfExists(files.get(i));
+                deleted++;
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete old WAL segments in {}: {}", dir, e.getMessage());
+        }
+        synchronized (appendLock) {
+            segments = Math.max(0, segments - deleted);
+        }
+        return deleted;
+    }
+
+    long getAppends() {
+        synchronized (appendLock) {
+            return appends;
+        }
+    }
+
+    long getForces() {
+        synchronized (durableLock) {
+            return forces;
+        }
+    }
+
+    int getSegments() {
+        synchronized (appendLock) {
+            return segments;
+        }
+    }
+
+    @Override
+    public void close() {
+        long last;
+        synchronized (appendLock) {
+            if (!open) {
+                return;
+            }
+            last = appendedLsn;
+            buffer.force();
+            open = false;
+            appendLock.notifyAll();
+        }
+        markDurable(last);
+        try {
+            committer.join(1000);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Closing WAL segment failed: {}", e.getMessage());
+        }
+    }
+
+    private void commitLoop() {
+        while (open) {
+            try {
+                synchronized (appendLock) {
+                    while (open && appendedLsn == durableLsn) {
+                        appendLock.wait();
+                    }
+                }
+                if (groupCommitMs > 0) {
+                    Thread.sleep(groupCommitMs);
+                }
+                long target;
+                MappedByteBuffer current;
+                synchronized (appendLock) {
+                    if (!open) {
+                        return;
+                    }
+                    target = appendedLsn;
+                    current = buffer;
+                }
+                if (fsync) {
+                    current.force();
+                }
+                markDurable(target);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("WAL commit failed, retrying: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void markDurable(long lsn) {
+        synchronized (durableLock) {
+            if (lsn > durableLsn) {
+                durableLsn = lsn;
+            }
+            forces++;
+            durableLock.notifyAll();
+        }
+    }
+
+    /** Maps the segment starting at firstLsn and positions at offset; clears any torn tail. */
+    private void openSegment(long firstLsn, int offset) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            Path file = dir.resolve(String.format("%s%020d%s", PREFIX, firstLsn, SUFFIX));
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            for (int i = offset; i < segmentBytes && i < offset + HEADER; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.position(offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open WAL segment in " + dir, e);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long firstLsnOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static int checksum(long lsn, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (lsn >>> i));
+        }
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
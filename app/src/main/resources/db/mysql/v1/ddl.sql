@@ -27,7 +27,8 @@ CREATE TABLE JobProcessor (
     jar_path VARCHAR(1000) NOT NULL,
     created_ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
-    active CHAR(1) DEFAULT 'Y'
+    active CHAR(1) DEFAULT 'Y',
+    orphan_policy VARCHAR(10) DEFAULT 'RERUN'  -- RERUN | FAIL | RESUME
 );
 
 -- ---------------------------------------------------------
@@ -56,6 +57,8 @@ CREATE TABLE InputData (
     job_submitted_datetime TIMESTAMP,
     job_submitted_timezone VARCHAR(100),
     status VARCHAR(50),
+    node_id VARCHAR(200),           -- engine node that claimed the job
+    lease_expires_ts TIMESTAMP NULL, -- renewed by the node while RUNNING
     created_ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
@@ -87,6 +90,7 @@ CREATE TABLE InputDataFile (
     file_name VARCHAR(500),
     file_path VARCHAR(2000),
     file_size BIGINT,
+    content_hash VARCHAR(64),         -- SHA-256; the file is a hard link to inputFiles/.cas/<2 hex>/<hash>
     created_ts TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     CONSTRAINT fk_input_file
         FOREIGN KEY (input_data_id)
@@ -124,6 +128,8 @@ CREATE TABLE OutputDataParam (
     number_value DOUBLE,
     date_value TIMESTAMP,
     object_json LONGTEXT, -- Using LONGTEXT for MySQL
+    blob_value LONGBLOB,  -- gzip of large TEXT / JSON values (param_type GZIP_*)
+    value_size BIGINT,
     CONSTRAINT fk_out_param
         FOREIGN KEY (job_id)
         REFERENCES OutputData(job_id)
@@ -157,3 +163,226 @@ CREATE TABLE JobError (
         FOREIGN KEY (job_id)
         REFERENCES OutputData(job_id)
 );
+
+-- ---------------------------------------------------------
+-- 11. EngineNode Table
+-- Warm processors and free capacity advertised by each engine node
+-- ---------------------------------------------------------
+CREATE TABLE EngineNode (
+    node_id VARCHAR(200) PRIMARY KEY,
+    warm_processors VARCHAR(4000), -- comma separated className@version
+    pool_size INT,
+    active_jobs INT,
+    free_slots INT,
+    started_ts TIMESTAMP NULL,
+    heartbeat_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 12. JobCheckpoint Table
+-- Latest processor checkpoint per job, handed back when the job runs again
+-- ---------------------------------------------------------
+CREATE TABLE JobCheckpoint (
+    job_id BIGINT PRIMARY KEY,
+    checkpoint_data LONGBLOB,
+    file_name VARCHAR(500),
+    size_bytes BIGINT,
+    checkpoint_seq BIGINT,
+    node_id VARCHAR(200),
+    updated_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 13. JobStatusCount Table
+-- Jobs per status for /api/job/stats; nodes add their changes every few seconds
+-- ---------------------------------------------------------
+CREATE TABLE JobStatusCount (
+    status VARCHAR(50) PRIMARY KEY,
+    job_count BIGINT NOT NULL,
+    updated_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 14. ProcessorRollup Table
+-- Per-processor counts and wait / run time histograms per MINUTE or HOUR bucket
+-- Histogram upper bounds: 1s, 10s, 1m, 10m, 1h, longer
+-- ---------------------------------------------------------
+CREATE TABLE ProcessorRollup (
+    rollup_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    granularity VARCHAR(10) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    processor_class_name VARCHAR(200) NOT NULL,
+    submitted BIGINT NOT NULL,
+    started BIGINT NOT NULL,
+    completed BIGINT NOT NULL,
+    succeeded BIGINT NOT NULL,
+    failed BIGINT NOT NULL,
+    timed_out BIGINT NOT NULL,
+    cancelled BIGINT NOT NULL,
+    wait_count BIGINT NOT NULL,
+    wait_sum_ms BIGINT NOT NULL,
+    wait_max_ms BIGINT NOT NULL,
+    wait_h0 BIGINT NOT NULL,
+    wait_h1 BIGINT NOT NULL,
+    wait_h2 BIGINT NOT NULL,
+    wait_h3 BIGINT NOT NULL,
+    wait_h4 BIGINT NOT NULL,
+    wait_h5 BIGINT NOT NULL,
+    run_count BIGINT NOT NULL,
+    run_sum_ms BIGINT NOT NULL,
+    run_max_ms BIGINT NOT NULL,
+    run_h0 BIGINT NOT NULL,
+    run_h1 BIGINT NOT NULL,
+    run_h2 BIGINT NOT NULL,
+    run_h3 BIGINT NOT NULL,
+    run_h4 BIGINT NOT NULL,
+    run_h5 BIGINT NOT NULL,
+    CONSTRAINT uk_rollup_bucket UNIQUE (granularity, bucket_start, processor_class_name)
+);
+
+-- ---------------------------------------------------------
+-- 15. JobEvent Table
+-- Append-only log of job status transitions, written with the change itself
+-- Consumers (timeline, change feed, other nodes) read it by event_seq
+-- ---------------------------------------------------------
+CREATE TABLE JobEvent (
+    event_seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+    job_id BIGINT NOT NULL,
+    from_status VARCHAR(50),          -- NULL when the job was created
+    to_status VARCHAR(50),
+    processor_class_name VARCHAR(500),
+    node_id VARCHAR(200),             -- node the job runs on
+    origin_node VARCHAR(200),         -- node that made the change
+    error_code VARCHAR(200),
+    reason VARCHAR(4000),
+    occurred_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 16. JobArchive Table
+-- Finished jobs moved out of InputData by the archiver; the job's InputDataParam
+-- and InputDataFile rows are kept in payload as gzip JSON
+-- ---------------------------------------------------------
+CREATE TABLE JobArchive (
+    job_id BIGINT PRIMARY KEY,        -- input_data_id the job had
+    job_name VARCHAR(500),
+    processor_class_name VARCHAR(500),
+    comment VARCHAR(2000),
+    notes VARCHAR(4000),
+    status VARCHAR(50),
+    main_error_code VARCHAR(200),
+    error_reason VARCHAR(4000),
+    node_id VARCHAR(200),
+    job_submitted_datetime TIMESTAMP NULL,
+    job_submitted_timezone VARCHAR(100),
+    scheduled_run_time TIMESTAMP NULL,
+    job_start_datetime TIMESTAMP NULL,
+    job_end_datetime TIMESTAMP NULL,
+    created_ts TIMESTAMP NULL,
+    archived_ts TIMESTAMP NULL,
+    payload LONGBLOB,
+    payload_bytes BIGINT              -- JSON size before gzip
+);
+
+-- ---------------------------------------------------------
+-- 17. WalApplyMark Table
+-- How far the write-ahead log of jobproc.stateStore.type=wal has been written
+-- into InputData / JobEvent; one row per log directory
+-- ---------------------------------------------------------
+CREATE TABLE WalApplyMark (
+    wal_dir VARCHAR(500) PRIMARY KEY,
+    applied_lsn BIGINT NOT NULL,      -- highest log sequence number applied
+    updated_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 18. CacheVersion Table
+-- Version counters of node-local caches (ReferenceData: processors and AppParams);
+-- bumped on every change, other nodes reload when it moves
+-- ---------------------------------------------------------
+CREATE TABLE CacheVersion (
+    cache_name VARCHAR(100) PRIMARY KEY,
+    version BIGINT NOT NULL,
+    updated_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 19. UploadSession Table
+-- Chunked input file uploads in progress (/api/job/upload); received has one bit
+-- per chunk written. Deleted when the file is attached to a job or the upload expires
+-- ---------------------------------------------------------
+CREATE TABLE UploadSession (
+    upload_id VARCHAR(36) PRIMARY KEY,
+    file_name VARCHAR(255),
+    total_size BIGINT NOT NULL,
+    chunk_size INT NOT NULL,
+    chunk_count INT NOT NULL,
+    received_count INT NOT NULL,
+    received LONGBLOB,
+    sha256 VARCHAR(64),               -- optional checksum of the whole file
+    part_path VARCHAR(1000),
+    node_id VARCHAR(200),             -- node holding the part file
+    created_ts TIMESTAMP NULL,
+    updated_ts TIMESTAMP NULL
+);
+
+-- ---------------------------------------------------------
+-- 20. OutputFolder Table
+-- File count, size and age of each job output folder (OutputFolderIndex); the /dwn/
+-- listing pages through it. Written when a job finishes and by the background reconcile
+-- ---------------------------------------------------------
+CREATE TABLE OutputFolder (
+    job_id BIGINT PRIMARY KEY,        -- folder name under outputFiles
+    file_count INT NOT NULL,
+    total_bytes BIGINT NOT NULL,
+    last_modified TIMESTAMP NULL,     -- newest file or folder mtime
+    dir_mtime BIGINT NOT NULL,        -- folder mtime (epoch ms) at the last scan
+    indexed_ts TIMESTAMP NULL,
+    bundle_id BIGINT                  -- OutputBundle holding the folder once compacted
+);
+CREATE INDEX idx_output_folder_files ON OutputFolder (file_count);
+CREATE INDEX idx_output_folder_bytes ON OutputFolder (total_bytes);
+CREATE INDEX idx_output_folder_modified ON OutputFolder (last_modified);
+CREATE INDEX idx_output_folder_bundle ON OutputFolder (bundle_id);
+
+-- ---------------------------------------------------------
+-- 21. OutputBundle Table
+-- Finished jobs' output folders packed into one ZIP per processor and day (OutputRetention);
+-- the ZIP's central directory is the index /dwn/ serves files from
+-- ---------------------------------------------------------
+CREATE TABLE OutputBundle (
+    bundle_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    processor_class_name VARCHAR(500),
+    status VARCHAR(20),               -- WRITING, READY
+    bundle_path VARCHAR(1000),        -- outputFiles/.bundles/<id>.zip
+    job_count INT NOT NULL,
+    file_count INT NOT NULL,
+    bundle_bytes BIGINT NOT NULL,
+    source_bytes BIGINT NOT NULL,     -- size of the files before packing
+    delete_after TIMESTAMP NULL,      -- null = kept
+    node_id VARCHAR(255),             -- node that wrote it
+    created_ts TIMESTAMP NULL
+);
+CREATE INDEX idx_output_bundle_delete ON OutputBundle (status, delete_after);
+
+-- Output lookups by job (OutputStore, /dwn/ listings)
+CREATE INDEX idx_output_input ON OutputData (input_data_id);
+CREATE INDEX idx_output_param_job ON OutputDataParam (job_id);
+CREATE INDEX idx_output_file_job ON OutputDataFile (job_id);
+
+-- Input store references (InputFileStore.gc where link counts are not available)
+CREATE INDEX idx_input_file_hash ON InputDataFile (content_hash);
+
+-- Job search (/api/job/search) and due-job scans; input_data_id last for keyset paging
+CREATE INDEX idx_input_status_id ON InputData (status, input_data_id);
+CREATE INDEX idx_input_status_sched ON InputData (status, scheduled_run_time, input_data_id);
+CREATE INDEX idx_input_proc_status ON InputData (processor_class_name, status, input_data_id);
+CREATE INDEX idx_input_name ON InputData (job_name, input_data_id);
+CREATE INDEX idx_input_submitted ON InputData (job_submitted_datetime, input_data_id);
+CREATE INDEX idx_input_ended ON InputData (job_end_datetime, input_data_id);
+
+-- Job timeline (/api/job/{id}/timeline)
+CREATE INDEX idx_job_event_job ON JobEvent (job_id, event_seq);
+
+-- Archived jobs by end time (/api/job/archive)
+CREATE INDEX idx_archive_ended ON JobArchive (job_end_datetime, job_id);
@@ -0,0 +1,70 @@
+package com.sel2in.jobProc;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.ResourcePropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts the engine with the cluster profile on its own in-memory database and checks
+ * Quartz runs on the clustered JDBC job store.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:clusterdb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "jobproc.inbox.enabled=false"})
+@ActiveProfiles("cluster")
+@DirtiesContext
+public class ClusterProfileTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Test
+    @DisplayName("cluster profile: Quartz uses the clustered JDBC store and keeps triggers in QRTZ_TRIGGERS")
+    void clusteredJobStore() {
+        Map status = rest.withBasicAuth("admin", "admin").getForObject(url("/api/admin/engine/status"), Map.class);
+        assertEquals(Boolean.TRUE, status.get("clustered"), status.toString());
+        assertEquals(Boolean.TRUE, status.get("persistentJobStore"), status.toString());
+
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Clustered&processorClassName=com.example.Clustered"
+                + "&delayDays=1"), null, Map.class);
+        assertNotNull(job.get("id"));
+        Integer triggers = jdbc.queryForObject("SELECT COUNT(*) FROM QRTZ_TRIGGERS", Integer.class);
+        assertEquals(1, triggers);
+    }
+
+    @Test
+    @DisplayName("prod,cluster: the Quartz tables are created from the MySQL script, not the H2 one")
+    void prodClusterUsesMysqlSchema() throws Exception {
+        // Later profiles win, as with --spring.profiles.active=prod,cluster
+        StandardEnvironment env = new StandardEnvironment();
+        new YamlPropertySourceLoader().load("cluster", new ClassPathResource("application-cluster.yaml"))
+                .forEach(env.getPropertySources()::addLast);
+        env.getPropertySources().addLast(new ResourcePropertySource(new ClassPathResource("application-prod.properties")));
+        assertEquals("classpath:db/mysql/v1/quartz.sql", env.getProperty("spring.quartz.jdbc.schema"));
+        assertTrue(new ClassPathResource("db/mysql/v1/quartz.sql").exists());
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sel2in.jobProc.blob;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * S3BlobStore against an in-process stand-in that checks every request's signature, and
+ * BlobCache on top of it. No Spring context.
+ */
+public class S3BlobStoreTest {
+
+    @Test
+    @DisplayName("Blob store - S3 client against a signature-checking stand-in, plus the LRU cache")
+    void s3BlobStoreAndCache() throws Exception {
+        // Published SigV4 example (IAM ListUsers)
+        Map<String, String> example = new TreeMap<>(Map.of(
+                "content-type", "application/x-www-form-urlencoded; charset=utf-8",
+                "host", "iam.amazonaws.com", "x-amz-date", "20150830T123600Z"));
+        assertTrue(SigV4.authorization("GET", "/", "Action=ListUsers&Version=2010-05-08",
+                example, SigV4.EMPTY_SHA256, "20150830T123600Z", "us-east-1", "iam",
+                "AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY")
+                .endsWith("Signature=5d672d79c15b13162d9279b0855cfba6789a8edb4c82c400e06b5924a6f2b5d7"));
+
+        Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", ex -> {
+            try (ex) {
+                byte[] body = ex.getRequestBody().readAllBytes();
+                String path = ex.getRequestURI().getRawPath();
+                String query = ex.getRequestURI().getRawQuery();
+                String payloadHash = ex.getRequestHeaders().getFirst("x-amz-content-sha256");
+                Map<String, String> signed = new TreeMap<>(Map.of(
+                        "host", ex.getRequestHeaders().getFirst("Host"),
+                        "x-amz-content-sha256", payloadHash,
+                        "x-amz-date", ex.getRequestHeaders().getFirst("x-amz-date")));
+                String expected = SigV4.authorization(ex.getRequestMethod(), path,
+                        query == null ? "" : query, signed, payloadHash, signed.get("x-amz-date"),
+                        "us-east-1", "s3", "test", "secret");
+                if (!expected.equals(ex.getRequestHeaders().getFirst("Authorization")) || !payloadHash.equals(SigV4.sha256Hex(body))) {
+                    ex.sendResponseHeaders(403, -1);
+                    return;
+                }
+                if (path.equals("/bucket")) {
+                    String prefix = URLDecoder.decode(query.replaceAll(".*prefix=([^&]*).*", "$1"), "UTF-8");
+                    StringBuilder xml = new StringBuilder("<ListBucketResult><IsTruncated>false</IsTruncated>");
+                    objects.keySet().stream().filter(k -> k.startsWith(prefix))
+                            .forEach(k -> xml.append("<Contents><Key>").append(k).append("</Key></Contents>"));
+                    byte[] out = xml.append("</ListBucketResult>").toString().getBytes();
+                    ex.sendResponseHeaders(200, out.length);
+                    ex.getResponseBody().write(out);
+                    return;
+                }
+                String key = URLDecoder.decode(path.substring("/bucket/".length()), "UTF-8");
+                byte[] object = objects.get(key);
+                switch (ex.getRequestMethod()) {
+                    case "PUT":
+                        objects.put(key, body);
+                        ex.sendResponseHeaders(200, -1);
+                        break;
+                    case "DELETE":
+                        objects.remove(key);
+                        ex.sendResponseHeaders(204, -1);
+                        break;
+                    case "HEAD":
+                        if (object != null) {
+                            ex.getResponseHeaders().set("Content-Length", String.valueOf(object.length));
+                            ex.getResponseHeaders().set("ETag", "\"" + SigV4.sha256Hex(object).substring(0, 32) + "\"");
+                        }
+                        ex.sendResponseHeaders(object == null ? 404 : 200, -1);
+                        break;
+                    default:
+                        if (object == null) {
+                            ex.sendResponseHeaders(404, -1);
+                        } else {
+                            ex.sendResponseHeaders(200, object.length);
+                            ex.getResponseBody().write(object);
+                        }
+                }
+            }
+        });
+        server.start();
+        try {
+            S3BlobStore store = new S3BlobStore(
+                    "http://127.0.0.1:" + server.getAddress().getPort(), "us-east-1", "bucket", "test", "secret", true, 5000);
+            Path tmp = Files.createTempDirectory("blobs");
+            Path report = Files.write(tmp.resolve("report.csv"), "a,b\n1,2\n".getBytes());
+
+            store.put("outputs/7/my report.csv", report);
+            assertEquals(8, store.size("outputs/7/my report.csv"));
+            assertEquals(-1, store.size("outputs/7/none.csv"));
+            assertEquals(List.of("outputs/7/my report.csv"), store.list("outputs/7/"));
+            try (InputStream in = store.get("outputs/7/my report.csv")) {
+                assertEquals("a,b\n1,2\n", new String(in.readAllBytes()));
+            }
+            assertThrows(NoSuchFileException.class, () -> store.get("outputs/7/none.csv"));
+
+            // 1 MB cache: the second 700 KB blob pushes out the first
+            BlobCache cache = new BlobCache(Optional.of(store), tmp.resolve("cache").toString(), 1);
+            Path big = Files.write(tmp.resolve("big"), new byte[700 * 1024]);
+            store.put("inputs/sha256/aa", big);
+            store.put("inputs/sha256/bb", big);
+            Path first = cache.get("inputs/sha256/aa");
+            assertEquals(first, cache.get("inputs/sha256/aa"));
+            cache.get("inputs/sha256/bb");
+            assertFalse(Files.exists(first), "least recently used copy dropped");
+            Map<String, Object> status = cache.getStatus();
+            assertEquals(1L, status.get("hits"));
+            assertEquals(1L, status.get("evictions"));
+
+            // A pinned copy outlives eviction and invalidate() until the pin is closed
+            store.put("inputs/sha256/cc", big);
+            BlobCache.Pin pinned = cache.pin("inputs/sha256/aa", store.version("inputs/sha256/aa"));
+            cache.get("inputs/sha256/cc");
+            assertTrue(Files.exists(pinned.path()), "pinned copy not evicted");
+            cache.invalidate("inputs/sha256/aa");
+            assertTrue(Files.exists(pinned.path()), "pinned copy not deleted");
+            pinned.close();
+            assertFalse(Files.exists(pinned.path()), "deleted with its last pin");
+
+            // A re-run replacing an output with one of the same size is not served from the old copy
+            String key = "outputs/7/run.txt";
+            assertNull(store.version(key));
+            store.put(key, Files.write(tmp.resolve("run1"), "run 1".getBytes()));
+            String run1 = store.version(key);
+            try (BlobCache.Pin run = cache.pin(key, run1)) {
+                assertEquals("run 1", Files.readString(run.path()));
+            }
+            store.put(key, Files.write(tmp.resolve("run2"), "run 2".getBytes()));
+            assertNotEquals(run1, store.version(key));
+            try (BlobCache.Pin run = cache.pin(key, store.version(key))) {
+                assertEquals("run 2", Files.readString(run.path()));
+            }
+            store.delete(key);
+
+            // The local store's version changes with every put as well
+            LocalBlobStore local = new LocalBlobStore(tmp.resolve("local").toString());
+            local.put(key, tmp.resolve("run1"));
+            String localFirst = local.version(key);
+            local.put(key, tmp.resolve("run2"));
+            assertNotEquals(localFirst, local.version(key));
+            assertNull(local.version("outputs/7/none.txt"));
+
+            store.delete("outputs/7/my report.csv");
+            assertTrue(store.list("outputs/").isEmpty());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
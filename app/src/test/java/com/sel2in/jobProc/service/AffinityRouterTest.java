@@ -0,0 +1,159 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.EngineNodeStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AffinityRouter on its own: peers, warm processors and this node's load are stubbed.
+ */
+public class AffinityRouterTest {
+
+    private static final String PROCESSOR = "com.example.Routed";
+    private static final String WARM_KEY = PROCESSOR + "@" + ProcessorLoader.versionKey(null);
+
+    /** Live peers as NodeRegistry would report them */
+    private final List<EngineNodeStatus> peers = new ArrayList<>();
+    private boolean warmHere;
+    private int poolSize = 4;
+    private int activeHere;
+
+    @Test
+    @DisplayName("Routing: warm here, or no warm peer with a free slot, claims the job")
+    void claimWhenWarmOrNoWarmPeer() {
+        AffinityRouter router = router(2, 10);
+        warmHere = true;
+        peers.add(peer("warm-node", 3, WARM_KEY));
+        assertTrue(router.shouldClaim(1L, PROCESSOR, LocalDateTime.now()));
+
+        warmHere = false;
+        peers.clear();
+        peers.add(peer("cold-node", 3, "com.example.Other@-"));
+        peers.add(peer("full-node", 0, WARM_KEY));
+        assertTrue(router.shouldClaim(2L, PROCESSOR, LocalDateTime.now()));
+        assertEquals("COLD_NO_WARM_NODE", lastDecision(router));
+        assertEquals(Map.of("WARM", 1L, "COLD_NO_WARM_NODE", 1L), counts(router));
+    }
+
+    @Test
+    @DisplayName("Routing: a cold node defers to a warm peer unless the job is overdue or the peer is much busier")
+    void deferUnlessOverdueOrImbalanced() {
+        AffinityRouter router = router(2, 10);
+        peers.add(peer("warm-node", 2, WARM_KEY));
+
+        // 4 free here, 2 on the warm peer: within the imbalance limit
+        assertFalse(router.shouldClaim(1L, PROCESSOR, LocalDateTime.now()));
+        assertEquals("DEFERRED", lastDecision(router));
+        assertEquals("warm-node", recent(router).get(0).get("warmNode"));
+
+        assertTrue(router.shouldClaim(2L, PROCESSOR, LocalDateTime.now().minusSeconds(11)));
+        assertEquals("COLD_OVERDUE", lastDecision(router));
+
+        // 4 free here, 1 on the warm peer: more than 2 apart
+        peers.clear();
+        peers.add(peer("warm-node", 1, WARM_KEY));
+        assertTrue(router.shouldClaim(3L, PROCESSOR, LocalDateTime.now()));
+        assertEquals("COLD_CAPACITY", lastDecision(router));
+
+        // Busy here as well: back to deferring
+        activeHere = 3;
+        assertFalse(router.shouldClaim(4L, PROCESSOR, LocalDateTime.now()));
+        assertEquals("DEFERRED", lastDecision(router));
+        assertEquals(Map.of("DEFERRED", 2L, "COLD_OVERDUE", 1L, "COLD_CAPACITY", 1L), counts(router));
+    }
+
+    @Test
+    @DisplayName("Routing: a job deferred on every poll is recorded once, and again only after a different decision")
+    void deferralRecordedOncePerJob() {
+        AffinityRouter router = router(2, 10);
+        peers.add(peer("warm-node", 4, WARM_KEY));
+        LocalDateTime due = LocalDateTime.now();
+        for (int poll = 0; poll < 20; poll++) {
+            assertFalse(router.shouldClaim(1L, PROCESSOR, due));
+            assertFalse(router.shouldClaim(2L, PROCESSOR, due));
+        }
+        assertEquals(Map.of("DEFERRED", 2L), counts(router));
+        assertEquals(2, recent(router).size());
+        assertEquals(2, router.getStatus().get("deferredJobs"));
+
+        // The warm node fills up: job 1 is claimed here, and a later deferral of it counts again
+        peers.set(0, peer("warm-node", 0, WARM_KEY));
+        assertTrue(router.shouldClaim(1L, PROCESSOR, due));
+        peers.set(0, peer("warm-node", 4, WARM_KEY));
+        assertFalse(router.shouldClaim(1L, PROCESSOR, due));
+        assertEquals(Map.of("DEFERRED", 3L, "COLD_NO_WARM_NODE", 1L), counts(router));
+        assertEquals(List.of(1L, 1L, 2L, 1L), recent(router).stream().map(d -> d.get("jobId")).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("Routing: the recent decisions list keeps the newest 50")
+    void recentDecisionsBounded() {
+        AffinityRouter router = router(2, 10);
+        peers.add(peer("warm-node", 4, WARM_KEY));
+        LongStream.rangeClosed(1, 60).forEach(id -> router.shouldClaim(id, PROCESSOR, LocalDateTime.now()));
+        List<Map<String, Object>> recent = recent(router);
+        assertEquals(50, recent.size());
+        assertEquals(60L, recent.get(0).get("jobId"));
+        assertEquals(Set.of("DEFERRED"), counts(router).keySet());
+    }
+
+    private AffinityRouter router(int imbalanceLimit, long maxDeferSeconds) {
+        ProcessorLoader loader = new ProcessorLoader() {
+            @Override
+            public boolean isWarm(String className, String checksum) {
+                return warmHere;
+            }
+        };
+        ReferenceData referenceData = new ReferenceData(null, null, null, null, 5, "", "", "");
+        NodeRegistry registry = new NodeRegistry(null, null, null, loader, 20000) {
+            @Override
+            public List<EngineNodeStatus> warmPeers(String warmKey) {
+                return peers.stream().filter(n -> warmSet(n).contains(warmKey)).collect(Collectors.toList());
+            }
+        };
+        JobEngine engine = new JobEngine(loader, referenceData) {
+            @Override
+            public int getPoolSize() {
+                return poolSize;
+            }
+
+            @Override
+            public Set<Long> getActiveJobIds() {
+                return LongStream.range(0, activeHere).boxed().collect(Collectors.toSet());
+            }
+        };
+        return new AffinityRouter(registry, loader, referenceData, engine, true, imbalanceLimit, maxDeferSeconds);
+    }
+
+    private static EngineNodeStatus peer(String nodeId, int freeSlots, String warmProcessors) {
+        EngineNodeStatus node = new EngineNodeStatus();
+        node.setNodeId(nodeId);
+        node.setFreeSlots(freeSlots);
+        node.setWarmProcessors(warmProcessors);
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> recent(AffinityRouter router) {
+        return (List<Map<String, Object>>) router.getStatus().get("recentDecisions");
+    }
+
+    private static String lastDecision(AffinityRouter router) {
+        return (String) recent(router).get(0).get("decision");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> counts(AffinityRouter router) {
+        return (Map<String, Long>) router.getStatus().get("decisionCounts");
+    }
+}
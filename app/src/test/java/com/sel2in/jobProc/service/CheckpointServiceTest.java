@@ -0,0 +1,187 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobCheckpoint;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.processor.JobProcessor;
+import com.sel2in.jobProc.repo.JobCheckpointRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class CheckpointServiceTest {
+
+    private static final String PROCESSOR = "com.example.ResumeFromCheckpoint";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private ProcessorRepository processorRepository;
+
+    @Autowired
+    private ProcessorLoader processorLoader;
+
+    @Autowired
+    private JobExecutionService jobExecutionService;
+
+    @Autowired
+    private CheckpointService checkpointService;
+
+    @Test
+    @DisplayName("A checkpoint saved by a failing run is handed to the rerun and removed once the job succeeds")
+    void checkpointResumesRerun(@TempDir Path dir) throws Exception {
+        uploadProcessor(dir);
+        try {
+            resumeAfterFailure();
+        } finally {
+            ProcessorDefinition def = processorRepository.findByClassName(PROCESSOR).orElseThrow();
+            processorLoader.evictCache(def.getJarPath());
+            rest.delete(url("/api/job/remove/" + PROCESSOR));
+        }
+    }
+
+    private void resumeAfterFailure() throws InterruptedException {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Resume&processorClassName=" + PROCESSOR
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+
+        // First run: the processor saves its progress from a file, then fails
+        jobExecutionService.runJob(id);
+        awaitStatus(id, "FAILED");
+        JobCheckpoint saved = checkpointRepository.findById(id).orElseThrow();
+        assertEquals("progress.bin", saved.getFileName());
+        assertEquals(4, saved.getSizeBytes());
+        assertEquals("half", new String(saved.getData()));
+        assertEquals(1, saved.getSequence());
+
+        // Rerun: the processor only succeeds if it was given the checkpoint
+        setStatus(id, "SCHEDULED");
+        jobExecutionService.runJob(id);
+        awaitStatus(id, "SUCCESS");
+        assertTrue(checkpointRepository.findById(id).isEmpty());
+    }
+
+    @Test
+    @DisplayName("A checkpointer stops saving once its run has ended, and a save larger than the limit is rejected")
+    void closedCheckpointerIgnoresSaves() {
+        Long id = ((Number) rest.postForObject(url("/api/job/schedule?jobName=Closed&processorClassName="
+                + "com.example.Closed&delayDays=1"), null, Map.class).get("id")).longValue();
+        CheckpointService.JobCheckpointer checkpointer = checkpointService.open(id);
+        byte[] buffer = "one".getBytes();
+        checkpointer.save(buffer);
+        // The checkpointer keeps its own copy; the processor may reuse its buffer
+        buffer[0] = 'x';
+        assertEquals("one", new String(checkpointer.latest()));
+        checkpointer.close();
+        checkpointer.save("two".getBytes());
+        assertEquals("one", new String(checkpointRepository.findById(id).orElseThrow().getData()));
+
+        long maxBytes = ((Number) checkpointService.getMetrics().get("maxBytes")).longValue();
+        CheckpointService.JobCheckpointer next = checkpointService.open(id);
+        assertEquals("one", new String(next.latest()));
+        assertThrows(IllegalArgumentException.class, () -> next.save(new byte[(int) maxBytes + 1]));
+        checkpointService.clear(id);
+    }
+
+    private void uploadProcessor(Path dir) throws Exception {
+        LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        byte[] jar = processorJar(dir);
+        body.add("file", new ByteArrayResource(jar) {
+            @Override
+            public String getFilename() {
+                return "resume.jar";
+            }
+        });
+        body.add("className", PROCESSOR);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        String resp = rest.postForObject(url("/api/job/uploadJar"), new HttpEntity<>(body, headers), String.class);
+        assertTrue(resp.startsWith("JAR uploaded"), resp);
+    }
+
+    /** A processor that checkpoints and fails when started fresh, and succeeds when resumed from that checkpoint */
+    private static byte[] processorJar(Path dir) throws Exception {
+        int dot = PROCESSOR.lastIndexOf('.');
+        Path source = dir.resolve(PROCESSOR.substring(dot + 1) + ".java");
+        Files.writeString(source, "package " + PROCESSOR.substring(0, dot) + ";\n"
+                + "import com.sel2in.jobProc.processor.*;\n"
+                + "import java.nio.file.*;\n"
+                + "public class " + PROCESSOR.substring(dot + 1) + " implements JobProcessor {\n"
+                + "  public JobEstimate reviewJob(InputData in) { return new JobEstimate(60000); }\n"
+                + "  public OutputData processJob(InputData in) {\n"
+                + "    if (in.getCheckpointer() == null) return new OutputData();\n"
+                + "    if (!in.isResuming()) {\n"
+                + "      try {\n"
+                + "        Path dir = Files.createDirectories(Paths.get(in.getOutputDirectory()));\n"
+                + "        in.getCheckpointer().saveFile(Files.write(dir.resolve(\"progress.bin\"), \"half\".getBytes()));\n"
+                + "      } catch (java.io.IOException e) { throw new RuntimeException(e); }\n"
+                + "      throw new IllegalStateException(\"failed half way\");\n"
+                + "    }\n"
+                + "    if (!\"half\".equals(new String(in.getLastCheckpoint()))) throw new IllegalStateException(\"wrong checkpoint\");\n"
+                + "    return new OutputData();\n"
+                + "  }\n"
+                + "}\n");
+        String classpath = Paths.get(JobProcessor.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        int rc = ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-cp", classpath, "-d", dir.toString(), source.toString());
+        assertEquals(0, rc, "compiled " + PROCESSOR);
+        String entry = PROCESSOR.replace('.', '/') + ".class";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new JarEntry(entry));
+            jar.write(Files.readAllBytes(dir.resolve(entry)));
+            jar.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private void awaitStatus(Long id, String status) throws InterruptedException {
+        for (int i = 0; i < 100 && !status.equals(jobRepository.findById(id).orElseThrow().getStatus()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(status, jobRepository.findById(id).orElseThrow().getStatus());
+    }
+
+    private void setStatus(Long id, String status) {
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus(status);
+        jobRepository.save(record);
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
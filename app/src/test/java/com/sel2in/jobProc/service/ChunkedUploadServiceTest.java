@@ -0,0 +1,114 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ChunkedUploadServiceTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("/api/job/upload - chunks out of order, bad checksum rejected, finish attaches to job")
+    void chunkedUpload() throws Exception {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Chunked&processorClassName=com.example.Chunked"
+                + "&delayDays=1"), null, Map.class);
+        Long jobId = ((Number) job.get("id")).longValue();
+        byte[] data = new byte[65536 + 100];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        Map start = rest.postForObject(url("/api/job/upload?fileName=big.bin&size=" + data.length + "&chunkSize=65536"),
+                null, Map.class);
+        String id = (String) start.get("uploadId");
+        assertEquals(2, start.get("chunkCount"));
+
+        byte[] tail = Arrays.copyOfRange(data, 65536, data.length);
+        assertEquals(HttpStatus.OK, putChunk(id, 1, tail, sha256(tail)).getStatusCode());
+        byte[] head = Arrays.copyOfRange(data, 0, 65536);
+        assertEquals(HttpStatus.BAD_REQUEST, putChunk(id, 0, head, sha256(tail)).getStatusCode());
+        // A received chunk is not overwritten: the same data again is a no-op, other data is refused
+        ResponseEntity<Map> again = putChunk(id, 1, tail, sha256(tail));
+        assertEquals(HttpStatus.OK, again.getStatusCode());
+        assertEquals(1, again.getBody().get("receivedCount"));
+        byte[] other = new byte[tail.length];
+        assertEquals(HttpStatus.CONFLICT, putChunk(id, 1, other, sha256(other)).getStatusCode());
+
+        Map status = rest.getForObject(url("/api/job/upload/" + id), Map.class);
+        assertEquals(List.of(0), status.get("missing"));
+        String finish = url("/api/job/upload/" + id + "/finish?jobId=" + jobId);
+        ResponseEntity<Map> early = rest.postForEntity(finish, null, Map.class);
+        assertEquals(HttpStatus.CONFLICT, early.getStatusCode());
+
+        assertEquals(HttpStatus.OK, putChunk(id, 0, head, sha256(head)).getStatusCode());
+        // No whole-file sha256 was given: finish still checks each chunk and asks again for one that changed
+        Path part = referenceData.inputFileDirectory().resolve(".uploads").resolve(id + ".part");
+        try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+            file.seek(65536 + 10);
+            file.write(0x55);
+        }
+        ResponseEntity<Map> corrupt = rest.postForEntity(finish, null, Map.class);
+        assertEquals(HttpStatus.CONFLICT, corrupt.getStatusCode());
+        assertEquals(List.of(1), rest.getForObject(url("/api/job/upload/" + id), Map.class).get("missing"));
+        assertEquals(HttpStatus.OK, putChunk(id, 1, tail, sha256(tail)).getStatusCode());
+
+        ResponseEntity<Map> done = rest.postForEntity(finish, null, Map.class);
+        assertEquals(HttpStatus.OK, done.getStatusCode());
+        assertEquals(data.length, ((Number) done.getBody().get("fileSize")).intValue());
+        assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity(url("/api/job/upload/" + id), Map.class).getStatusCode());
+        assertArrayEquals(data, Files.readAllBytes(referenceData.inputFileDirectory().resolve(jobId.toString()).resolve("big.bin")));
+        jobRepository.findById(jobId).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    private ResponseEntity<Map> putChunk(String uploadId, int index, byte[] body, String sha256) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set("X-Chunk-Sha256", sha256);
+        return rest.exchange(url("/api/job/upload/" + uploadId + "/chunks/" + index), HttpMethod.PUT,
+                new HttpEntity<>(body, headers), Map.class);
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobCheckpointRepository;
+import com.sel2in.jobProc.repo.JobErrorRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class CompletionWriterTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobStateStore jobStateStore;
+
+    @Autowired
+    private JobErrorRepository jobErrorRepository;
+
+    @Autowired
+    private JobCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Autowired
+    private OutputStore outputStore;
+
+    @Autowired
+    private JobStateEvents jobStateEvents;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JobClaimService jobClaimService;
+
+    @Autowired
+    private JobExecutionService jobExecutionService;
+
+    @Autowired
+    private JobEngine jobEngine;
+
+    @Autowired
+    private OrphanJobHandler orphanJobHandler;
+
+    @Test
+    @DisplayName("A completion whose write fails is retried with backoff, not dropped")
+    void completionRetried() throws Exception {
+        JobRecord running = runningJob("Flaky");
+        Long id = running.getId();
+
+        // The first two writes fail as if the database were unavailable
+        AtomicInteger failures = new AtomicInteger(2);
+        CompletionWriter writer = writer(() -> failures.getAndDecrement() > 0);
+        writer.start();
+        try {
+            writer.submit(new CompletionWriter.Completion(id, "SUCCESS", null, null, null).forJob(running));
+            awaitStatus(id, "SUCCESS");
+            Map<String, Object> status = writer.getStatus();
+            assertEquals(2L, status.get("retried"), status.toString());
+            assertEquals(1L, status.get("written"), status.toString());
+            assertEquals(0L, status.get("abandoned"), status.toString());
+            assertTrue(writer.getPendingJobIds().isEmpty());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("While a completion waits for its retry, the job's lease is renewed and the reaper does not re-run it")
+    void retriedCompletionKeepsLease() throws Exception {
+        JobRecord running = runningJob("Outage");
+        Long id = running.getId();
+
+        AtomicBoolean down = new AtomicBoolean(true);
+        CompletionWriter writer = writer(down::get);
+        JobLeaseScheduler scheduler = new JobLeaseScheduler(jobClaimService, jobExecutionService, jobEngine, writer,
+                orphanJobHandler, 10);
+        writer.start();
+        try {
+            writer.submit(new CompletionWriter.Completion(id, "SUCCESS", null, null, null).forJob(running));
+            for (int i = 0; i < 50 && (Long) writer.getStatus().get("retried") < 2; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(Set.of(id), writer.getPendingJobIds());
+
+            // The outage outlasts the lease: the engine no longer tracks the job, the heartbeat still renews it
+            JobRecord row = jobRepository.findById(id).orElseThrow();
+            row.setLeaseExpires(LocalDateTime.now().minusMinutes(1));
+            jobRepository.save(row);
+            scheduler.heartbeat();
+            assertTrue(jobRepository.findById(id).orElseThrow().getLeaseExpires().isAfter(LocalDateTime.now()));
+            assertFalse(orphanJobHandler.reapExpiredLeases(100).contains(id), "finished job re-queued");
+
+            down.set(false);
+            awaitStatus(id, "SUCCESS");
+            assertTrue(writer.getPendingJobIds().isEmpty());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /** A writer over the real state store whose complete() fails while failing says so */
+    private CompletionWriter writer(BooleanSupplier failing) {
+        JobStateStore flaky = (JobStateStore) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JobStateStore.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("complete") && failing.getAsBoolean()) {
+                        throw new IllegalStateException("database unavailable");
+                    }
+                    try {
+                        return method.invoke(jobStateStore, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        return new CompletionWriter(flaky, jobErrorRepository, checkpointRepository, nodeIdentity,
+                outputStore, jobStateEvents, transactionManager, 10, 10, 50, 20);
+    }
+
+    private void awaitStatus(Long id, String status) throws InterruptedException {
+        for (int i = 0; i < 50 && !status.equals(jobRepository.findById(id).orElseThrow().getStatus()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(status, jobRepository.findById(id).orElseThrow().getStatus());
+    }
+
+    /** A job this test marks RUNNING on this node, as if it had claimed it */
+    private JobRecord runningJob(String name) {
+        Map job = rest.postForObject("http://localhost:" + port + "/api/job/schedule?jobName=" + name
+                + "&processorClassName=com.example." + name + "&delayDays=1", null, Map.class);
+        JobRecord running = jobRepository.findById(((Number) job.get("id")).longValue()).orElseThrow();
+        running.setStatus("RUNNING");
+        running.setNodeId(nodeIdentity.getNodeId());
+        running.setJobStartDateTime(LocalDateTime.now());
+        running.setLeaseExpires(LocalDateTime.now().plusMinutes(1));
+        return jobRepository.save(running);
+    }
+}
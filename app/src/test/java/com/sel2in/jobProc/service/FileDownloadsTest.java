@@ -0,0 +1,148 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class FileDownloadsTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("GET /dwn/input - byte ranges, 304 on If-None-Match, gzip copy when accepted")
+    void downloadRangesAndGzip() throws Exception {
+        StringBuilder csv = new StringBuilder("id,amount\n");
+        for (int i = 0; i < 500; i++) csv.append(i).append(",").append(i * 10).append("\n");
+        byte[] data = csv.toString().getBytes();
+        Long jobId = schedule("Download", "report.csv", data);
+        String path = url("/dwn/input/" + jobId + "/report.csv");
+
+        ResponseEntity<byte[]> full = rest.getForEntity(path, byte[].class);
+        assertEquals(HttpStatus.OK, full.getStatusCode());
+        assertArrayEquals(data, full.getBody());
+        String etag = full.getHeaders().getETag();
+        assertNotNull(etag);
+
+        HttpHeaders range = new HttpHeaders();
+        range.set(HttpHeaders.RANGE, "bytes=10-19");
+        ResponseEntity<byte[]> part = rest.exchange(path, HttpMethod.GET, new HttpEntity<>(range), byte[].class);
+        assertEquals(HttpStatus.PARTIAL_CONTENT, part.getStatusCode());
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), part.getBody());
+        assertEquals("bytes 10-19/" + data.length, part.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+        HttpHeaders cached = new HttpHeaders();
+        cached.setIfNoneMatch(etag);
+        assertEquals(HttpStatus.NOT_MODIFIED,
+                rest.exchange(path, HttpMethod.GET, new HttpEntity<>(cached), byte[].class).getStatusCode());
+
+        HttpHeaders gzip = new HttpHeaders();
+        gzip.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        ResponseEntity<byte[]> zipped = rest.exchange(path, HttpMethod.GET, new HttpEntity<>(gzip), byte[].class);
+        assertEquals("gzip", zipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped.getBody()))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        // The gzip copy and the content store are not served, even by their names on disk
+        try (Stream<Path> gz = Files.list(referenceData.outputFileDirectory().resolve(".gz"))) {
+            String cachedName = gz.findFirst().orElseThrow().getFileName().toString();
+            assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity(url("/dwn/.gz/" + cachedName), byte[].class).getStatusCode());
+        }
+        assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity(url("/dwn/.gz/"), String.class).getStatusCode());
+        String hash = sha256(data);
+        assertEquals(HttpStatus.NOT_FOUND,
+                rest.getForEntity(url("/dwn/input/.cas/" + hash.substring(0, 2) + "/" + hash), byte[].class).getStatusCode());
+
+        // 64 KB: large enough for sendfile
+        byte[] bigData = new byte[65536 + 100];
+        for (int i = 0; i < bigData.length; i++) bigData[i] = (byte) i;
+        Long bigJobId = schedule("DownloadBig", "big.bin", bigData);
+        ResponseEntity<byte[]> big = rest.getForEntity(url("/dwn/input/" + bigJobId + "/big.bin"), byte[].class);
+        assertEquals(HttpStatus.OK, big.getStatusCode());
+        assertArrayEquals(bigData, big.getBody());
+
+        // Quotes and commas in a name do not break the header
+        Path odd = referenceData.outputFileDirectory().resolve("777777");
+        Files.createDirectories(odd);
+        Files.write(odd.resolve("report \"final\", v2.txt"), "hello".getBytes());
+        ResponseEntity<String> named = rest.getForEntity(
+                URI.create(url("/dwn/777777/report%20%22final%22,%20v2.txt")), String.class);
+        assertEquals(HttpStatus.OK, named.getStatusCode());
+        assertEquals("report \"final\", v2.txt", named.getHeaders().getContentDisposition().getFilename());
+        assertEquals("inline", named.getHeaders().getContentDisposition().getType());
+        Files.delete(odd.resolve("report \"final\", v2.txt"));
+        Files.delete(odd);
+        for (Long id : new Long[]{jobId, bigJobId}) {
+            jobRepository.findById(id).ifPresent(j -> {
+                j.setStatus("CANCELLED");
+                jobRepository.save(j);
+            });
+        }
+    }
+
+    /** A job that runs tomorrow with one uploaded input file */
+    private Long schedule(String jobName, String fileName, byte[] content) {
+        LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("jobName", jobName);
+        body.add("processorClassName", "com.example.Dl");
+        body.add("delayDays", "1");
+        body.add("files", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return fileName;
+            }
+        });
+        HttpHeaders multipart = new HttpHeaders();
+        multipart.setContentType(MediaType.MULTIPART_FORM_DATA);
+        Map job = rest.postForObject(url("/api/job/schedule"), new HttpEntity<>(body, multipart), Map.class);
+        return ((Number) job.get("id")).longValue();
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,146 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.config.InboxProperties;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class InboxWatcherTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private InputDataFileRepository inputDataFileRepository;
+
+    @Autowired
+    private InputDataParamRepository inputDataParamRepository;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private JobBlobs jobBlobs;
+
+    @Autowired
+    private JobStateEvents jobStateEvents;
+
+    @Autowired
+    private JobTriggers jobTriggers;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("Inbox - a file dropped into the inbox becomes a SCHEDULED job with templated params")
+    void inboxCreatesJob() throws Exception {
+        Path inbox = Paths.get("target/test-inbox");
+        String name = "drop-" + System.currentTimeMillis() + ".csv";
+        Files.write(inbox.resolve("." + name), "x,y\n".getBytes());
+        Files.move(inbox.resolve("." + name), inbox.resolve(name));
+
+        Map job = null;
+        for (int i = 0; i < 100 && job == null; i++) {
+            Thread.sleep(100);
+            for (Object o : rest.getForObject(url("/api/job/status"), List.class)) {
+                if (("Inbox " + name).equals(((Map) o).get("jobName"))) {
+                    job = (Map) o;
+                }
+            }
+        }
+        assertNotNull(job, "no job was created for " + name);
+        assertEquals("SCHEDULED", job.get("status"));
+        assertEquals("com.example.Inbox", job.get("processorClassName"));
+        assertFalse(Files.exists(inbox.resolve(name)), "the file is moved out of the inbox");
+        Map files = rest.getForObject(url("/api/job/files/" + job.get("id")), Map.class);
+        assertEquals(name, ((Map) ((List) files.get("inputFiles")).get(0)).get("name"));
+        jobRepository.findById(((Number) job.get("id")).longValue()).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    @Test
+    @DisplayName("Inbox: a job that fails while being created leaves no rows and its file in .failed under a unique name")
+    void inboxAdoptionRolledBack(@TempDir Path dir) throws Exception {
+        for (boolean deduplicate : new boolean[]{false, true}) {
+            Path inbox = dir.resolve("inbox-" + deduplicate);
+            Files.createDirectories(inbox);
+            Files.write(inbox.resolve("fail.csv"), ("a,b\n" + deduplicate + "\n").getBytes());
+            InboxProperties.Inbox config = new InboxProperties.Inbox();
+            config.setPath(inbox.toString());
+            config.setProcessor("com.example.InboxFail");
+            config.setJobName("InboxFail ${fileName}");
+            config.setDeduplicate(deduplicate);
+            InboxProperties properties = new InboxProperties();
+            properties.setEnabled(true);
+            properties.setSettleMs(0);
+            properties.setDirs(List.of(config));
+            // The file is taken into the job's folder, then the job cannot be completed
+            InputFileStore failingStore = new InputFileStore(inputDataFileRepository, referenceData, jobBlobs, 65536, 60) {
+                @Override
+                public InputDataFile adopt(Long jobId, String fileName, Path file, boolean dedup) throws IOException {
+                    super.adopt(jobId, fileName, file, dedup);
+                    throw new IOException("disk full");
+                }
+            };
+            InboxWatcher watcher = new InboxWatcher(properties, jobRepository, inputDataParamRepository, failingStore,
+                    jobStateEvents, jobTriggers, transactionManager);
+            long jobs = jobRepository.count();
+            watcher.start();
+            try {
+                watcher.poll();
+                Thread.sleep(10);
+                watcher.poll();
+            } finally {
+                watcher.stop();
+            }
+
+            assertEquals(1L, watcher.getStatus().get("failed"));
+            assertEquals(jobs, jobRepository.count(), "job row rolled back");
+            assertTrue(jobRepository.findAll().stream().noneMatch(j -> "InboxFail fail.csv".equals(j.getJobName())));
+            List<Path> failed;
+            try (Stream<Path> list = Files.list(inbox.resolve(".failed"))) {
+                failed = list.collect(Collectors.toList());
+            }
+            assertEquals(1, failed.size());
+            assertTrue(failed.get(0).getFileName().toString().matches("[0-9a-f-]{36}_fail\\.csv"), failed.toString());
+            assertEquals("a,b\n" + deduplicate + "\n", Files.readString(failed.get(0)));
+            try (Stream<Path> list = Files.list(inbox.resolve(".processing"))) {
+                assertEquals(0, list.count());
+            }
+        }
+        assertTrue(inputDataFileRepository.findAll().stream().noneMatch(f -> "fail.csv".equals(f.getFileName())));
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
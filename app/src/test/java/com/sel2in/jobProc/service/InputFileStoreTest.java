@@ -0,0 +1,129 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class InputFileStoreTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private InputFileStore inputFileStore;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("POST /api/job/clone - clone keeps params and shares the stored input file")
+    void cloneSharesInputFiles() {
+        LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("jobName", "FanOut");
+        body.add("processorClassName", "com.example.Fan");
+        body.add("delayDays", "1");
+        body.add("files", new ByteArrayResource("a,b\n1,2\n".getBytes()) {
+            @Override
+            public String getFilename() {
+                return "ref.csv";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        Map job = rest.postForObject(url("/api/job/schedule"), new HttpEntity<>(body, headers), Map.class);
+        Long sourceId = ((Number) job.get("id")).longValue();
+
+        ResponseEntity<Map> clone = rest.postForEntity(url("/api/job/clone?jobId=" + sourceId), null, Map.class);
+        assertEquals(HttpStatus.OK, clone.getStatusCode());
+        assertEquals("FanOut", clone.getBody().get("jobName"));
+        Long cloneId = ((Number) clone.getBody().get("id")).longValue();
+        Map files = rest.getForObject(url("/api/job/files/" + cloneId), Map.class);
+        assertEquals("ref.csv", ((Map) ((List) files.get("inputFiles")).get(0)).get("name"));
+
+        Map status = rest.withBasicAuth("admin", "admin").getForObject(url("/api/admin/engine/status"), Map.class);
+        Map store = (Map) status.get("inputStore");
+        assertTrue(((Number) store.get("deduplicated")).intValue() >= 1, store.toString());
+
+        assertEquals(HttpStatus.NOT_FOUND, rest.postForEntity(url("/api/job/clone?jobId=99999"), null, Map.class).getStatusCode());
+        for (Long id : List.of(sourceId, cloneId)) {
+            jobRepository.findById(id).ifPresent(j -> {
+                j.setStatus("CANCELLED");
+                jobRepository.save(j);
+            });
+        }
+    }
+
+    @Test
+    @DisplayName("InputFileStore: uploads of the same content racing each other share one blob, none replaces it")
+    void inputStoreSameContentRace() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 5; round++) {
+                byte[] content = new byte[256 << 10];
+                new Random().nextBytes(content);
+                CyclicBarrier start = new CyclicBarrier(8);
+                List<Future<InputDataFile>> stored = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    long jobId = 90000 + round * 10 + i;
+                    stored.add(pool.submit(() -> {
+                        start.await();
+                        return inputFileStore.store(jobId, "same.csv", new ByteArrayInputStream(content));
+                    }));
+                }
+                Object blobKey = null;
+                Path blob = null;
+                for (Future<InputDataFile> f : stored) {
+                    InputDataFile idf = f.get(30, TimeUnit.SECONDS);
+                    blob = referenceData.inputFileDirectory().resolve(".cas")
+                            .resolve(idf.getContentHash().substring(0, 2)).resolve(idf.getContentHash());
+                    blobKey = Files.readAttributes(blob, BasicFileAttributes.class).fileKey();
+                    assertEquals(blobKey, Files.readAttributes(Paths.get(idf.getFilePath()), BasicFileAttributes.class).fileKey(),
+                            "job file links to the blob");
+                }
+                assertEquals(9, Files.getAttribute(blob, "unix:nlink"), "blob and its 8 job files");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,55 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobArchiverTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("GET /api/job/archive - range query, bad range rejected, a job still in InputData 404")
+    void archiveQueries() {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Live&processorClassName=com.example.Live"
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+        ResponseEntity<Map> resp = rest.getForEntity(
+                url("/api/job/archive?from=2020-01-01T00:00:00&to=2030-01-01T00:00:00"), Map.class);
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertTrue(((List) resp.getBody().get("items")).isEmpty(), "Nothing is old enough to archive");
+
+        ResponseEntity<Map> bad = rest.getForEntity(url("/api/job/archive"), Map.class);
+        assertEquals(HttpStatus.BAD_REQUEST, bad.getStatusCode());
+
+        ResponseEntity<Map> missing = rest.getForEntity(url("/api/job/archive/" + id), Map.class);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+        jobRepository.findById(id).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,86 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.blob.BlobCache;
+import com.sel2in.jobProc.blob.LocalBlobStore;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobBlobsTest {
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private InputDataFileRepository inputDataFileRepository;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Test
+    @DisplayName("Blob store - prefetch fetches inputs only for jobs this node has claimed")
+    void prefetchClaimedOnly(@TempDir Path dir) throws Exception {
+        LocalBlobStore store = new LocalBlobStore(dir.resolve("blobs").toString());
+        BlobCache cache = new BlobCache(Optional.of(store), dir.resolve("cache").toString(), 10);
+        JobBlobs blobs = new JobBlobs(cache, referenceData, jobRepository, inputDataFileRepository, nodeIdentity, 100);
+        List<Long> ids = new ArrayList<>();
+        ids.add(job("PrefetchMine", "RUNNING", nodeIdentity.getNodeId()));
+        ids.add(job("PrefetchOther", "RUNNING", "other-node"));
+        ids.add(job("PrefetchDue", "SCHEDULED", null));
+        for (Long id : ids) {
+            InputDataFile f = new InputDataFile();
+            f.setInputDataId(id);
+            f.setFileName("in.csv");
+            f.setFilePath(dir.resolve("elsewhere").resolve(id + ".csv").toString());
+            inputDataFileRepository.save(f);
+            store.put("inputs/jobs/" + id + "/in.csv", Files.write(dir.resolve(id + ".csv"), ("job " + id).getBytes()));
+        }
+
+        blobs.prefetch();
+        Path mine = referenceData.inputFileDirectory().resolve(ids.get(0).toString()).resolve("in.csv");
+        assertEquals("job " + ids.get(0), Files.readString(mine));
+        assertFalse(Files.exists(referenceData.inputFileDirectory().resolve(ids.get(1).toString()).resolve("in.csv")),
+                "claimed by another node");
+        assertFalse(Files.exists(referenceData.inputFileDirectory().resolve(ids.get(2).toString()).resolve("in.csv")),
+                "not claimed yet");
+
+        Files.delete(mine);
+        Files.delete(mine.getParent());
+        for (Long id : ids) {
+            JobRecord record = jobRepository.findById(id).orElseThrow();
+            record.setStatus("CANCELLED");
+            jobRepository.save(record);
+        }
+    }
+
+    /** A job due long ago, saved straight to the table with no trigger */
+    private Long job(String name, String status, String nodeId) {
+        JobRecord job = new JobRecord();
+        job.setJobName(name);
+        job.setProcessorClassName("com.example." + name);
+        job.setJobSubmittedDateTime(LocalDateTime.now());
+        job.setScheduledRunTime(LocalDateTime.of(2000, 1, 1, 0, 0));
+        job.setStatus(status);
+        job.setNodeId(nodeId);
+        return jobRepository.save(job).getId();
+    }
+}
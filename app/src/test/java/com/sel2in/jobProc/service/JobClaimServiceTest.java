@@ -0,0 +1,85 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobClaimServiceTest {
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private OrphanJobHandler orphanJobHandler;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("Lease reaper - a RUNNING job whose node stopped renewing its lease is re-queued")
+    void expiredLeaseRequeued() {
+        JobRecord running = job("Orphan", LocalDateTime.now().plusDays(1));
+        running.setStatus("RUNNING");
+        running.setNodeId("dead-node");
+        running.setLeaseExpires(LocalDateTime.now().minusMinutes(5));
+        Long id = jobRepository.save(running).getId();
+
+        assertTrue(orphanJobHandler.reapExpiredLeases(10).contains(id));
+        JobRecord requeued = jobRepository.findById(id).orElseThrow();
+        assertEquals("SCHEDULED", requeued.getStatus());
+        assertNull(requeued.getNodeId());
+        assertNull(requeued.getLeaseExpires());
+        assertFalse(orphanJobHandler.reapExpiredLeases(10).contains(id), "reaped once");
+        cancel(id);
+    }
+
+    @Test
+    @DisplayName("Lease claim - the skip-locked statement reads the due batch from input_data")
+    void lockDueSkipLocked() throws Exception {
+        // Due long ago, so it sorts first among due jobs
+        Long id = jobRepository.save(job("SkipLocked", LocalDateTime.of(2000, 1, 1, 0, 0))).getId();
+        // H2 2.1 has no SKIP LOCKED; everything else (table, columns, row shape) is the real statement
+        String sql = JobRepository.class.getMethod("lockDueSkipLocked", LocalDateTime.class, int.class)
+                .getAnnotation(Query.class).value().replace(" SKIP LOCKED", "");
+        List<?> rows = new TransactionTemplate(transactionManager).execute(s -> entityManager.createNativeQuery(sql)
+                .setParameter("now", LocalDateTime.now()).setParameter("limit", 5).getResultList());
+        Object[] first = (Object[]) rows.get(0);
+        assertEquals(id, ((Number) first[0]).longValue());
+        assertEquals("com.example.SkipLocked", first[1]);
+        assertNotNull(first[2]);
+        cancel(id);
+    }
+
+    /** A SCHEDULED job with no trigger, saved straight to the table */
+    private JobRecord job(String name, LocalDateTime runAt) {
+        JobRecord job = new JobRecord();
+        job.setJobName(name);
+        job.setProcessorClassName("com.example." + name);
+        job.setJobSubmittedDateTime(LocalDateTime.now());
+        job.setScheduledRunTime(runAt);
+        job.setStatus("SCHEDULED");
+        return job;
+    }
+
+    private void cancel(Long id) {
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus("CANCELLED");
+        jobRepository.save(record);
+    }
+}
@@ -0,0 +1,64 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobEventLogTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("GET /api/job/{id}/timeline and /changes - transitions recorded in order")
+    void timelineAndChanges() {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Timeline&processorClassName=com.example.Timeline"
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+        ResponseEntity<Map> resp = rest.getForEntity(url("/api/job/" + id + "/timeline"), Map.class);
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        List events = (List) resp.getBody().get("events");
+        assertEquals(1, events.size());
+        Map created = (Map) events.get(0);
+        assertNull(created.get("fromStatus"));
+        assertEquals("SCHEDULED", created.get("toStatus"));
+
+        Map changes = rest.getForObject(url("/api/job/changes?after=0"), Map.class);
+        List all = (List) changes.get("events");
+        assertFalse(all.isEmpty());
+        assertEquals(((Number) ((Map) all.get(all.size() - 1)).get("seq")).longValue(),
+                ((Number) changes.get("nextAfter")).longValue());
+        long seq = ((Number) created.get("seq")).longValue();
+        Map next = rest.getForObject(url("/api/job/changes?after=" + (seq - 1) + "&limit=1"), Map.class);
+        assertEquals(id, ((Number) ((Map) ((List) next.get("events")).get(0)).get("jobId")).longValue());
+
+        ResponseEntity<Map> missing = rest.getForEntity(url("/api/job/99999/timeline"), Map.class);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+        jobRepository.findById(id).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,123 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobEventStreamTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobEventStream jobEventStream;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("GET /api/job/{id}/await - times out with 202 while the job is scheduled")
+    void awaitScheduledJob() {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Awaited&processorClassName=com.example.Awaited"
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+        ResponseEntity<Map> resp = rest.getForEntity(url("/api/job/" + id + "/await?timeoutMs=200"), Map.class);
+        assertEquals(HttpStatus.ACCEPTED, resp.getStatusCode());
+        assertEquals(false, resp.getBody().get("finished"));
+        assertEquals("SCHEDULED", resp.getBody().get("status"));
+
+        ResponseEntity<Map> missing = rest.getForEntity(url("/api/job/99999/await?timeoutMs=200"), Map.class);
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+        jobRepository.findById(id).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    @Test
+    @DisplayName("GET /api/job/events - a client that stops reading is disconnected without holding up the others")
+    void eventStreamDropsLaggard() throws Exception {
+        // Never reads its stream: the server's writes to it block once the socket buffers are full
+        Socket stalled = eventStream(4096);
+        Socket reading = eventStream(0);
+        AtomicInteger received = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(reading.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    if (line.startsWith("event:job")) {
+                        received.incrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                // closed at the end of the test
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        for (int i = 0; i < 50 && (int) jobEventStream.getStatus().get("clients") < 2; i++) {
+            Thread.sleep(100);
+        }
+
+        long droppedBefore = (Long) jobEventStream.getStatus().get("laggardsDropped");
+        String reason = "x".repeat(8192);
+        int sent = 0;
+        try {
+            while (sent < 5000 && (Long) jobEventStream.getStatus().get("laggardsDropped") == droppedBefore) {
+                JobStateChangedEvent e = new JobStateChangedEvent(-2L, "SCHEDULED", "RUNNING");
+                e.setErrorReason(reason);
+                jobEventStream.onStateChanged(e);
+                sent++;
+                if (sent % 50 == 0) {
+                    for (int i = 0; i < 100 && received.get() < sent; i++) {
+                        Thread.sleep(20);
+                    }
+                }
+            }
+            assertEquals(droppedBefore + 1, jobEventStream.getStatus().get("laggardsDropped"), "stalled client dropped");
+            for (int i = 0; i < 100 && received.get() < sent; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(sent, received.get(), "reading client got every event");
+        } finally {
+            stalled.close();
+            reading.close();
+        }
+    }
+
+    /** /api/job/events without ticks over HTTP/1.0, so the body is not chunked; receiveBuffer 0 = default */
+    private Socket eventStream(int receiveBuffer) throws Exception {
+        Socket socket = new Socket();
+        if (receiveBuffer > 0) {
+            socket.setReceiveBufferSize(receiveBuffer);
+        }
+        socket.connect(new InetSocketAddress("localhost", port));
+        socket.getOutputStream().write(("GET /api/job/events?ticks=false HTTP/1.0\r\n"
+                + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,187 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.blob.BlobCache;
+import com.sel2in.jobProc.entity.InputDataFile;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobExecutionServiceTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobStateStore jobStateStore;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private InputDataFileRepository inputDataFileRepository;
+
+    @Autowired
+    private InputDataParamRepository inputDataParamRepository;
+
+    @Autowired
+    private JobEngine jobEngine;
+
+    @Autowired
+    private JobClaimService jobClaimService;
+
+    @Autowired
+    private CheckpointService checkpointService;
+
+    @Autowired
+    private CompletionWriter completionWriter;
+
+    @Autowired
+    private JobStateEvents jobStateEvents;
+
+    @Autowired
+    private BlobCache blobCache;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Autowired
+    private OrphanJobHandler orphanJobHandler;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JobExecutionService jobExecutionService;
+
+    @Test
+    @DisplayName("GET /api/job/run - a failed job goes back to SCHEDULED through the state store and is logged; a claimed one stays claimed")
+    void runNowReschedules() {
+        Long failed = scheduledJob("RunAgain");
+        setStatus(failed, "FAILED");
+        String resp = rest.getForObject(url("/api/job/run?jobId=" + failed), String.class);
+        assertTrue(resp.contains("rescheduled"), resp);
+        JobRecord rescheduled = jobRepository.findById(failed).orElseThrow();
+        assertEquals("SCHEDULED", rescheduled.getStatus());
+        assertTrue(rescheduled.getScheduledRunTime().isBefore(LocalDateTime.now().plusSeconds(10)));
+        List events = (List) rest.getForObject(url("/api/job/" + failed + "/timeline"), Map.class).get("events");
+        Map last = (Map) events.get(events.size() - 1);
+        assertEquals("FAILED", last.get("fromStatus"));
+        assertEquals("SCHEDULED", last.get("toStatus"));
+
+        // Read as FAILED, claimed before the update: the transition does not apply
+        Long claimed = scheduledJob("RunClaimed");
+        setStatus(claimed, "RUNNING");
+        assertFalse(jobExecutionService.reschedule(claimed, "FAILED", LocalDateTime.now().plusSeconds(3)));
+        assertEquals("RUNNING", jobRepository.findById(claimed).orElseThrow().getStatus());
+        setStatus(claimed, "CANCELLED");
+    }
+
+    @Test
+    @DisplayName("A claimed job whose inputs take longer to fetch than its lease keeps the lease and runs once")
+    void slowInputFetchKeepsLease() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch fetched = new CountDownLatch(1);
+        JobBlobs slowBlobs = new JobBlobs(blobCache, referenceData, jobRepository, inputDataFileRepository, nodeIdentity, 100) {
+            @Override
+            public List<String> localInputs(List<InputDataFile> files) {
+                fetching.countDown();
+                try {
+                    fetched.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.localInputs(files);
+            }
+        };
+        JobExecutionService service = new JobExecutionService(jobRepository, jobStateStore, entityManager, referenceData,
+                inputDataFileRepository, inputDataParamRepository, jobEngine, jobClaimService, checkpointService,
+                completionWriter, jobStateEvents, slowBlobs, transactionManager);
+        JobLeaseScheduler scheduler = new JobLeaseScheduler(jobClaimService, service, jobEngine, completionWriter,
+                orphanJobHandler, 10);
+
+        Long id = scheduledJob("SlowFetch");
+        InputDataFile file = new InputDataFile();
+        file.setInputDataId(id);
+        file.setFileName("in.csv");
+        file.setFilePath(referenceData.inputFileDirectory().resolve(id + "/in.csv").toString());
+        inputDataFileRepository.save(file);
+
+        Thread runner = new Thread(() -> service.runJob(id));
+        runner.start();
+        try {
+            assertTrue(fetching.await(10, TimeUnit.SECONDS));
+            // The claim is committed before the fetch starts, so other connections see it
+            assertEquals("RUNNING", jobRepository.findById(id).orElseThrow().getStatus());
+            assertEquals(Set.of(id), service.getStartingJobIds());
+
+            // The fetch outlasts the lease: the heartbeat renews it and the reaper leaves the job alone
+            jdbc.update("UPDATE input_data SET lease_expires_ts = :past WHERE input_data_id = :id",
+                    Map.of("past", LocalDateTime.now().minusMinutes(1), "id", id));
+            scheduler.heartbeat();
+            assertTrue(jobRepository.findById(id).orElseThrow().getLeaseExpires().isAfter(LocalDateTime.now()));
+            assertFalse(orphanJobHandler.reapExpiredLeases(100).contains(id), "job re-queued while starting");
+        } finally {
+            fetched.countDown();
+            runner.join(10_000);
+        }
+        assertTrue(service.getStartingJobIds().isEmpty());
+
+        // No processor JAR: the run itself fails and is completed once, by this node
+        for (int i = 0; i < 100 && "RUNNING".equals(jobRepository.findById(id).orElseThrow().getStatus()); i++) {
+            Thread.sleep(100);
+        }
+        JobRecord done = jobRepository.findById(id).orElseThrow();
+        assertEquals("FAILED", done.getStatus());
+        assertEquals(nodeIdentity.getNodeId(), done.getNodeId());
+    }
+
+    /** A SCHEDULED job whose trigger fires only tomorrow, so only this test runs it */
+    private Long scheduledJob(String name) {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=" + name
+                + "&processorClassName=com.example." + name + "&delayDays=1"), null, Map.class);
+        return ((Number) job.get("id")).longValue();
+    }
+
+    private void setStatus(Long id, String status) {
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus(status);
+        jobRepository.save(record);
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,183 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.JobEventRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobReadModelTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobEventRepository jobEventRepository;
+
+    @Autowired
+    private InputDataFileRepository inputDataFileRepository;
+
+    @Autowired
+    private OutputStore outputStore;
+
+    @Autowired
+    private JobEventLog jobEventLog;
+
+    @Autowired
+    private JobReadModel jobReadModel;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    @Test
+    @DisplayName("GET /api/job/status - served from the in-memory read model, kept current by job events")
+    void statusFromReadModel() {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=ReadModel&processorClassName=com.example.ReadModel"
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+        assertEquals("SCHEDULED", newestStatus(id));
+
+        // A write that raises no event is not seen: the page does not come from the DB
+        long hits = (Long) jobReadModel.getStatus().get("hits");
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus("RUNNING");
+        record.setNodeId("read-model-node");
+        jobRepository.save(record);
+        assertEquals("SCHEDULED", newestStatus(id));
+        assertTrue((Long) jobReadModel.getStatus().get("hits") > hits);
+
+        // The event for that transition updates the held copy
+        JobStateChangedEvent started = new JobStateChangedEvent(id, "SCHEDULED", "RUNNING");
+        started.setNodeId("read-model-node");
+        jobReadModel.onStateChanged(started);
+        assertEquals("RUNNING", newestStatus(id));
+        Map newest = (Map) rest.getForObject(url("/api/job/status?page=0&size=5"), List.class).get(0);
+        assertEquals("read-model-node", newest.get("nodeId"));
+        assertNotNull(newest.get("jobStartDateTime"));
+        setStatus(List.of(id), "CANCELLED");
+    }
+
+    @Test
+    @DisplayName("Read model - a row reconcile read before a local event does not replace the newer state")
+    void reconcileKeepsNewerLocalState() {
+        Long id = scheduledJobs("Reconciled", 1).get(0);
+        AtomicReference<Runnable> duringRead = new AtomicReference<>();
+        JobReadModel model = new JobReadModel(reading(duringRead), inputDataFileRepository, outputStore, jobEventLog,
+                100, 10);
+        model.rebuild();
+        assertTrue(model.holds(id));
+
+        // Another node starts the job...
+        setStatus(List.of(id), "RUNNING");
+        JobEvent foreign = new JobEvent();
+        foreign.setJobId(id);
+        foreign.setFromStatus("SCHEDULED");
+        foreign.setToStatus("RUNNING");
+        foreign.setNodeId("other-node");
+        foreign.setOriginNode("other-node");
+        foreign.setOccurredTs(LocalDateTime.now());
+        jobEventRepository.save(foreign);
+
+        // ...and this node cancels it while reconcile holds the RUNNING row
+        duringRead.set(() -> {
+            JobStateChangedEvent cancelled = new JobStateChangedEvent(id, "RUNNING", "CANCELLED");
+            cancelled.setEndedAt(LocalDateTime.now());
+            model.onStateChanged(cancelled);
+        });
+        model.reconcile();
+        assertNull(duringRead.get(), "reconcile did not read the job");
+        assertEquals("CANCELLED", model.page(0, 100).stream()
+                .filter(j -> j.getId().equals(id)).findFirst().orElseThrow().getStatus());
+        setStatus(List.of(id), "CANCELLED");
+    }
+
+    @Test
+    @DisplayName("Read model - with more jobs than it holds, the newest ones are served as a window, not the whole table")
+    void partialWindow() {
+        List<Long> ids = scheduledJobs("Window", 120);
+        JobReadModel model = new JobReadModel(jobRepository, inputDataFileRepository, outputStore, jobEventLog, 100, 10);
+        model.rebuild();
+        try {
+            assertNull(model.allJobs());
+            long from = model.coveredFromId();
+            assertEquals(ids.get(ids.size() - 100), from);
+            List<Long> window = model.window(from).stream().map(JobRecord::getId).collect(Collectors.toList());
+            assertEquals(ids.subList(ids.size() - 100, ids.size()), window);
+        } finally {
+            setStatus(ids, "CANCELLED");
+        }
+    }
+
+    /** The job repository; findAllById runs the pending action, once, after reading the rows */
+    private JobRepository reading(AtomicReference<Runnable> duringRead) {
+        return (JobRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JobRepository.class}, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(jobRepository, args);
+                        Runnable action = method.getName().equals("findAllById") ? duringRead.getAndSet(null) : null;
+                        if (action != null) {
+                            action.run();
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /** SCHEDULED jobs with no trigger, saved straight to the table, ids ascending */
+    private List<Long> scheduledJobs(String name, int count) {
+        List<JobRecord> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            JobRecord job = new JobRecord();
+            job.setJobName(name + i);
+            job.setProcessorClassName("com.example." + name);
+            job.setJobSubmittedDateTime(LocalDateTime.now());
+            job.setScheduledRunTime(LocalDateTime.now().plusDays(1));
+            job.setStatus("SCHEDULED");
+            jobs.add(job);
+        }
+        return jobRepository.saveAll(jobs).stream().map(JobRecord::getId).sorted().collect(Collectors.toList());
+    }
+
+    private void setStatus(List<Long> ids, String status) {
+        jdbc.update("UPDATE input_data SET status = :status WHERE input_data_id IN (:ids)",
+                Map.of("status", status, "ids", ids));
+    }
+
+    /** Status of the newest job on /api/job/status, which must be jobId */
+    private String newestStatus(Long jobId) {
+        Map newest = (Map) rest.getForObject(url("/api/job/status?page=0&size=5"), List.class).get(0);
+        assertEquals(jobId, ((Number) newest.get("id")).longValue());
+        return (String) newest.get("status");
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
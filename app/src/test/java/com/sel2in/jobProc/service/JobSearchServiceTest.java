@@ -0,0 +1,74 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobSearchServiceTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Test
+    @DisplayName("GET /api/job/search - keyset pages, newest first")
+    void searchPages() {
+        String prefix = "Search" + System.nanoTime();
+        Long first = schedule(prefix + "A");
+        Long second = schedule(prefix + "B");
+        try {
+            ResponseEntity<Map> page = rest.getForEntity(url("/api/job/search?namePrefix=" + prefix + "&limit=1"), Map.class);
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            List items = (List) page.getBody().get("items");
+            assertEquals(1, items.size());
+            assertEquals(prefix + "B", ((Map) items.get(0)).get("jobName"));
+            String cursor = (String) page.getBody().get("nextCursor");
+            assertNotNull(cursor);
+
+            Map next = rest.getForObject(url("/api/job/search?namePrefix=" + prefix + "&limit=1&after=" + cursor), Map.class);
+            items = (List) next.get("items");
+            assertEquals(prefix + "A", ((Map) items.get(0)).get("jobName"));
+            assertNull(next.get("nextCursor"));
+
+            ResponseEntity<Map> bad = rest.getForEntity(url("/api/job/search?sort=nope"), Map.class);
+            assertEquals(HttpStatus.BAD_REQUEST, bad.getStatusCode());
+        } finally {
+            cancel(first);
+            cancel(second);
+        }
+    }
+
+    private Long schedule(String name) {
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=" + name + "&processorClassName=com.example.Search"
+                + "&delayDays=1"), null, Map.class);
+        return ((Number) job.get("id")).longValue();
+    }
+
+    private void cancel(Long id) {
+        jobRepository.findById(id).ifPresent(job -> {
+            job.setStatus("CANCELLED");
+            jobRepository.save(job);
+        });
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,86 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.JobStatusCountRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class JobStatsTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobStats jobStats;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobStatusCountRepository statusCountRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("GET /api/job/stats - counts follow scheduled jobs")
+    void statsCounts() {
+        Map before = rest.getForObject(url("/api/job/stats"), Map.class);
+        Map job = rest.postForObject(url("/api/job/schedule?jobName=Counted&processorClassName=com.example.Counted"
+                + "&delayDays=1"), null, Map.class);
+        Long id = ((Number) job.get("id")).longValue();
+
+        ResponseEntity<Map> resp = rest.getForEntity(url("/api/job/stats"), Map.class);
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertEquals(scheduled(before) + 1, scheduled(resp.getBody()));
+        assertEquals(((Number) before.get("total")).longValue() + 1, ((Number) resp.getBody().get("total")).longValue());
+        assertNotNull(resp.getBody().get("history"));
+        jobRepository.findById(id).ifPresent(j -> {
+            j.setStatus("CANCELLED");
+            jobRepository.save(j);
+        });
+    }
+
+    @Test
+    @DisplayName("Job stats - a node starting on a filled count table keeps the counts other nodes synced")
+    void statsKeptOnStart() {
+        // Another node has synced 1000 SCHEDULED jobs this node's tables know nothing about
+        new TransactionTemplate(transactionManager).executeWithoutResult(s ->
+                statusCountRepository.addToCount("SCHEDULED", 1000, LocalDateTime.now()));
+        long before = jobStats.getStatusCounts().getOrDefault("SCHEDULED", 0L);
+        try {
+            jobStats.load();
+            assertEquals(before + 1000, jobStats.getStatusCounts().get("SCHEDULED"));
+        } finally {
+            new TransactionTemplate(transactionManager).executeWithoutResult(s ->
+                    statusCountRepository.addToCount("SCHEDULED", -1000, LocalDateTime.now()));
+            jobStats.load();
+        }
+    }
+
+    private static long scheduled(Map stats) {
+        Number count = (Number) ((Map) stats.get("statusCounts")).get("SCHEDULED");
+        return count == null ? 0 : count.longValue();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
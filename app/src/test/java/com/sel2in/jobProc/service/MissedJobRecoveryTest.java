@@ -0,0 +1,315 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.repo.InputDataFileRepository;
+import com.sel2in.jobProc.repo.InputDataParamRepository;
+import com.sel2in.jobProc.repo.JobCheckpointRepository;
+import com.sel2in.jobProc.repo.JobErrorRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import com.sel2in.jobProc.store.JobStateStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs startup recovery against this test's own jobs: the engine and the job runner are
+ * stubbed, and jobs of other tests are left alone.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class MissedJobRecoveryTest {
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobStateStore jobStateStore;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private InputDataFileRepository inputDataFileRepository;
+
+    @Autowired
+    private InputDataParamRepository inputDataParamRepository;
+
+    @Autowired
+    private ProcessorRepository processorRepository;
+
+    @Autowired
+    private ProcessorLoader processorLoader;
+
+    @Autowired
+    private JobClaimService jobClaimService;
+
+    @Autowired
+    private CheckpointService checkpointService;
+
+    @Autowired
+    private JobCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private JobErrorRepository jobErrorRepository;
+
+    @Autowired
+    private CompletionWriter completionWriter;
+
+    @Autowired
+    private JobStateEvents jobStateEvents;
+
+    @Autowired
+    private JobBlobs jobBlobs;
+
+    @Autowired
+    private OrphanJobHandler orphanJobHandler;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /** Jobs this test owns; recovery only acts on these */
+    private final Set<Long> mine = ConcurrentHashMap.newKeySet();
+    /** Jobs the stub engine reports as running */
+    private final Set<Long> active = ConcurrentHashMap.newKeySet();
+    private final List<Long> started = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> startNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    @Test
+    @DisplayName("Recovery: overdue jobs are read in pages, started at ratePerSecond and never more than maxInFlight at once")
+    void overdueJobsPagedAndPaced() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            mine.add(overdueJob("Missed" + i));
+        }
+        Long last = Collections.max(mine);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> pageSizes = Collections.synchronizedList(new ArrayList<>());
+
+        // 3 per page, 10 per second, 2 in flight; each job stays "running" for 250 ms
+        MissedJobRecovery recovery = new MissedJobRecovery(pagedRepository(pageSizes), runner(last, release),
+                jobClaimService, ownOrphans(), engine(), 3, 10, 2, 2);
+        try {
+            recovery.recoverMissedJobs();
+            awaitStarted(mine.size());
+
+            // The last job is still being started: recovery is not done yet
+            assertEquals("DRAINING", awaitPhase(recovery, "DRAINING"));
+            release.countDown();
+            assertEquals("DONE", awaitPhase(recovery, "DONE"));
+        } finally {
+            release.countDown();
+            recovery.shutdown();
+            mine.forEach(id -> setStatus(id, "CANCELLED"));
+        }
+
+        assertTrue(pageSizes.size() >= 3, "pages " + pageSizes);
+        assertTrue(pageSizes.stream().allMatch(size -> size <= 3), "pages " + pageSizes);
+        assertEquals(mine, Set.copyOf(started));
+        assertTrue(peakActive.get() <= 2, "peak in flight " + peakActive.get());
+        // One start per 100 ms, allowing for timer slack
+        for (int i = 1; i < startNanos.size(); i++) {
+            long gapMs = (startNanos.get(i) - startNanos.get(i - 1)) / 1_000_000;
+            assertTrue(gapMs >= 80, "start " + i + " came " + gapMs + " ms after the previous one");
+        }
+        Map<String, Object> progress = recovery.getProgress();
+        assertTrue((Long) progress.get("overdueSubmitted") >= 7, progress.toString());
+        assertEquals(2, progress.get("maxInFlight"));
+    }
+
+    @Test
+    @DisplayName("Recovery: orphaned RUNNING jobs get their processor's policy - RERUN, RESUME or FAIL")
+    void orphanPolicies() throws Exception {
+        Map<String, Long> orphans = new ConcurrentHashMap<>();
+        for (String policy : List.of("RERUN", "RESUME", "FAIL")) {
+            String className = "com.example.Orphan" + policy;
+            ProcessorDefinition def = new ProcessorDefinition();
+            def.setClassName(className);
+            def.setJarPath("orphan.jar");
+            def.setOrphanPolicy(policy);
+            processorRepository.save(def);
+
+            Long id = overdueJob("Orphan" + policy);
+            JobRecord running = jobRepository.findById(id).orElseThrow();
+            running.setProcessorClassName(className);
+            running.setStatus("RUNNING");
+            running.setNodeId("dead-node");
+            jobRepository.save(running);
+            CheckpointService.JobCheckpointer checkpointer = checkpointService.open(id);
+            checkpointer.save(policy.getBytes());
+            checkpointer.close();
+            orphans.put(policy, id);
+            mine.add(id);
+        }
+        referenceData.changed();
+
+        MissedJobRecovery recovery = new MissedJobRecovery(jobRepository, runner(null, null),
+                jobClaimService, ownOrphans(), engine(), 200, 100, 2, 4);
+        try {
+            recovery.recoverMissedJobs();
+            assertEquals("DONE", awaitPhase(recovery, "DONE"));
+
+            // RERUN starts over, RESUME keeps the checkpoint; both are run again by the same recovery
+            Long rerun = orphans.get("RERUN");
+            Long resume = orphans.get("RESUME");
+            assertEquals("SCHEDULED", jobRepository.findById(rerun).orElseThrow().getStatus());
+            assertTrue(checkpointRepository.findById(rerun).isEmpty());
+            assertEquals("SCHEDULED", jobRepository.findById(resume).orElseThrow().getStatus());
+            assertEquals("RESUME", new String(checkpointRepository.findById(resume).orElseThrow().getData()));
+            assertTrue(started.containsAll(List.of(rerun, resume)), "started " + started);
+
+            Long failed = orphans.get("FAIL");
+            JobRecord failedJob = jobRepository.findById(failed).orElseThrow();
+            assertEquals("FAILED", failedJob.getStatus());
+            assertTrue(jobErrorRepository.findAll().stream()
+                    .anyMatch(e -> failed.equals(e.getJobId()) && "ORPHANED".equals(e.getReasonCode())));
+            assertFalse(started.contains(failed));
+
+            Map<String, Object> progress = recovery.getProgress();
+            assertEquals(2L, progress.get("orphansRequeued"), progress.toString());
+            assertEquals(1L, progress.get("orphansFailed"), progress.toString());
+        } finally {
+            recovery.shutdown();
+            mine.forEach(id -> {
+                setStatus(id, "CANCELLED");
+                checkpointService.clear(id);
+            });
+            for (String policy : orphans.keySet()) {
+                processorRepository.findByClassName("com.example.Orphan" + policy).ifPresent(processorRepository::delete);
+            }
+            referenceData.changed();
+        }
+    }
+
+    /** Stands in for the engine: reports the jobs the runner marked active */
+    private JobEngine engine() {
+        return new JobEngine(processorLoader, referenceData) {
+            @Override
+            public Set<Long> getActiveJobIds() {
+                return active;
+            }
+        };
+    }
+
+    /**
+     * Records which of this test's jobs recovery starts; each stays active for 250 ms.
+     * Starting blockUntil waits for the latch, as a slow input fetch would.
+     */
+    private JobExecutionService runner(Long blockOn, CountDownLatch blockUntil) {
+        return new JobExecutionService(jobRepository, jobStateStore, entityManager, referenceData,
+                inputDataFileRepository, inputDataParamRepository, engine(), jobClaimService, checkpointService,
+                completionWriter, jobStateEvents, jobBlobs, transactionManager) {
+            @Override
+            public void runJob(Long jobId) {
+                if (!mine.contains(jobId)) {
+                    return;
+                }
+                startNanos.add(System.nanoTime());
+                started.add(jobId);
+                active.add(jobId);
+                peakActive.accumulateAndGet(active.size(), Math::max);
+                if (jobId.equals(blockOn)) {
+                    try {
+                        blockUntil.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.remove(jobId);
+                    return;
+                }
+                new Thread(() -> {
+                    try {
+                        Thread.sleep(250);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    active.remove(jobId);
+                }).start();
+            }
+        };
+    }
+
+    /** The real orphan handler, limited to this test's jobs and leaving this node's leases alone */
+    private OrphanJobHandler ownOrphans() {
+        return new OrphanJobHandler(jobRepository, jobStateStore, referenceData, jobErrorRepository,
+                checkpointService, jobStateEvents, transactionManager) {
+            @Override
+            public Outcome handle(Long jobId, String processorClassName) {
+                return mine.contains(jobId) ? orphanJobHandler.handle(jobId, processorClassName) : Outcome.SKIPPED;
+            }
+
+            @Override
+            public int releaseLeasesOf(String nodeId) {
+                return 0;
+            }
+        };
+    }
+
+    /** The job repository, recording the size of each page of overdue ids */
+    private JobRepository pagedRepository(List<Integer> pageSizes) {
+        return (JobRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JobRepository.class}, (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(jobRepository, args);
+                        if (method.getName().equals("findOverdueIds")) {
+                            pageSizes.add(((List<?>) result).size());
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && started.size() < count; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(count, started.size(), "started " + started);
+    }
+
+    private String awaitPhase(MissedJobRecovery recovery, String phase) throws InterruptedException {
+        for (int i = 0; i < 100 && !phase.equals(recovery.getProgress().get("phase")); i++) {
+            Thread.sleep(100);
+        }
+        return (String) recovery.getProgress().get("phase");
+    }
+
+    /** A SCHEDULED job that should have run an hour ago, with no trigger */
+    private Long overdueJob(String name) {
+        JobRecord job = new JobRecord();
+        job.setJobName(name);
+        job.setProcessorClassName("com.example.Missed");
+        job.setJobSubmittedDateTime(LocalDateTime.now().minusHours(2));
+        job.setScheduledRunTime(LocalDateTime.now().minusHours(1));
+        job.setStatus("SCHEDULED");
+        return jobRepository.save(job).getId();
+    }
+
+    private void setStatus(Long id, String status) {
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus(status);
+        jobRepository.save(record);
+    }
+}
@@ -0,0 +1,63 @@
+package com.sel2in.jobProc.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OutputFolderIndexTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private OutputFolderIndex outputFolderIndex;
+
+    @Test
+    @DisplayName("GET /dwn/ - pages and sorts the output folder index; reconcile drops deleted folders")
+    void outputFolderListing() throws Exception {
+        Path root = referenceData.outputFileDirectory();
+        Files.createDirectories(root.resolve("880"));
+        Files.write(root.resolve("880/a.txt"), "a".getBytes());
+        // More files than any other test's folder, so it comes first by file count
+        Files.createDirectories(root.resolve("881"));
+        for (int i = 0; i < 20; i++) {
+            Files.write(root.resolve("881").resolve("f" + i + ".txt"), "xyz".getBytes());
+        }
+        outputFolderIndex.reconcile();
+
+        String page = rest.getForObject(url("/dwn/?sort=files&dir=desc&size=1"), String.class);
+        assertTrue(page.contains("/dwn/881/"), page);
+        assertFalse(page.contains("/dwn/880/"), "one folder per page");
+        assertTrue(page.contains("Page 1 of"), page);
+
+        Files.walk(root.resolve("881")).sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        outputFolderIndex.reconcile();
+        page = rest.getForObject(url("/dwn/?sort=job&dir=asc"), String.class);
+        assertTrue(page.contains("/dwn/880/"), page);
+        assertFalse(page.contains("/dwn/881/"), page);
+        Files.walk(root.resolve("880")).sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        outputFolderIndex.reconcile();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
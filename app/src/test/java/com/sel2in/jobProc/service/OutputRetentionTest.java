@@ -0,0 +1,106 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.OutputBundleRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OutputRetentionTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private OutputFolderIndex outputFolderIndex;
+
+    @Autowired
+    private OutputRetention outputRetention;
+
+    @Autowired
+    private OutputBundles outputBundles;
+
+    @Autowired
+    private OutputBundleRepository outputBundleRepository;
+
+    @Test
+    @DisplayName("Retention - old output folders are compacted into a bundle and still served by /dwn/")
+    void outputRetentionCompacts() throws Exception {
+        Path dir = referenceData.outputFileDirectory().resolve("882");
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("old.txt"), "old output".getBytes());
+        FileTime monthAgo = FileTime.from(Instant.now().minus(Duration.ofDays(30)));
+        Files.setLastModifiedTime(dir.resolve("old.txt"), monthAgo);
+        Files.setLastModifiedTime(dir, monthAgo);
+        outputFolderIndex.refresh(882L);
+
+        Map<String, Object> run = outputRetention.run();
+        assertEquals(1, ((Number) run.get("foldersCompacted")).intValue(), run.toString());
+        assertFalse(Files.exists(dir), "folder removed after compaction");
+
+        ResponseEntity<String> file = rest.getForEntity(url("/dwn/882/old.txt"), String.class);
+        assertEquals(HttpStatus.OK, file.getStatusCode());
+        assertEquals("old output", file.getBody());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=4-");
+        ResponseEntity<String> part = rest.exchange(url("/dwn/882/old.txt"), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.PARTIAL_CONTENT, part.getStatusCode());
+        assertEquals("output", part.getBody());
+        assertTrue(rest.getForObject(url("/dwn/882/"), String.class).contains("old.txt"));
+        assertEquals("old output", new String(unzip(rest.getForObject(url("/dwn/zip/882"), byte[].class)).get("old.txt")));
+
+        // Deleting the bundle does not cut off a reader still streaming from it
+        Long bundleId = outputBundles.bundleOf(882L);
+        OutputBundles.Handle reader = outputBundles.acquire(bundleId);
+        try (InputStream in = reader.zip().getInputStream(outputBundles.entry(reader.zip(), 882L, "old.txt"))) {
+            assertEquals('o', in.read());
+            outputBundles.delete(outputBundleRepository.findById(bundleId).orElseThrow());
+            assertEquals("ld output", new String(in.readAllBytes()));
+        }
+        reader.close();
+        assertThrows(IllegalStateException.class, () -> reader.zip().size(), "closed by the last reader");
+        assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity(url("/dwn/882/old.txt"), String.class).getStatusCode());
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+                entries.put(e.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
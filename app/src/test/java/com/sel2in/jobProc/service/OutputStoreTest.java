@@ -0,0 +1,79 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.processor.OutputData;
+import com.sel2in.jobProc.repo.JobRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OutputStoreTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Autowired
+    private CompletionWriter completionWriter;
+
+    @Autowired
+    private OutputStore outputStore;
+
+    @Test
+    @DisplayName("GET /dwn/ - reported output files outside the output directory are neither indexed nor served")
+    void outputFilesStayInOutputDirectory() throws Exception {
+        JobRecord running = new JobRecord();
+        running.setJobName("Leaky");
+        running.setProcessorClassName("com.example.Leaky");
+        running.setJobSubmittedDateTime(LocalDateTime.now());
+        running.setScheduledRunTime(LocalDateTime.now());
+        running.setStatus("RUNNING");
+        running.setNodeId(nodeIdentity.getNodeId());
+        running = jobRepository.save(running);
+        Long id = running.getId();
+        Path secret = Files.write(Files.createTempFile("secret", ".txt"), "secret".getBytes());
+        Path shared = Files.createDirectories(referenceData.outputFileDirectory().resolve("shared"));
+        Path report = Files.write(shared.resolve("leaky-report.txt"), "report".getBytes());
+        OutputData output = new OutputData();
+        output.setStatus("SUCCESS");
+        output.setOutputFiles(List.of(secret.toString(), report.toString()));
+        completionWriter.submit(new CompletionWriter.Completion(id, "SUCCESS", null, null, output).forJob(running));
+        for (int i = 0; i < 50 && !outputStore.hasOutput(id); i++) {
+            Thread.sleep(100);
+        }
+
+        List<String> indexed = outputStore.files(id).stream().map(f -> f.getFileName()).collect(Collectors.toList());
+        assertEquals(List.of("leaky-report.txt"), indexed);
+        assertEquals("report", rest.getForObject(url("/dwn/" + id + "/leaky-report.txt"), String.class));
+        assertEquals(HttpStatus.NOT_FOUND,
+                rest.getForEntity(url("/dwn/" + id + "/" + secret.getFileName()), String.class).getStatusCode());
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
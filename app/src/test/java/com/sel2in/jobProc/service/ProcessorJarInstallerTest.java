@@ -0,0 +1,190 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.JobProcApp;
+import com.sel2in.jobProc.entity.ProcessorDefinition;
+import com.sel2in.jobProc.processor.InputData;
+import com.sel2in.jobProc.processor.JobProcessor;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ProcessorJarInstallerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ProcessorRepository processorRepository;
+
+    @Autowired
+    private ProcessorLoader processorLoader;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("POST /api/job/uploadJar - a file that is not a JAR is rejected and not registered")
+    void rejectsInvalidJar() {
+        String resp = upload("broken.jar", "not a jar".getBytes(), "com.example.Broken");
+        assertTrue(resp.startsWith("Error: not a valid JAR"), resp);
+        assertTrue(processorRepository.findByClassName("com.example.Broken").isEmpty());
+    }
+
+    @Test
+    @DisplayName("POST /api/job/uploadJar - a JAR whose class has the name of an application class is rejected")
+    void rejectsApplicationClass() throws Exception {
+        // Jobs load JARs parent-first: our JobProcApp, which is not a JobProcessor, would be run instead
+        String className = JobProcApp.class.getName();
+        String resp = upload("shadow.jar", processorJar(className, "shadow"), className);
+        assertTrue(resp.startsWith("Error: " + className + " is an application class"), resp);
+        assertTrue(processorRepository.findByClassName(className).isEmpty());
+    }
+
+    @Test
+    @DisplayName("POST /api/job/uploadJar - a new version is installed beside the old one, which keeps loading with its checksum")
+    void newVersionBesideOld() throws Exception {
+        String className = "com.example.Versioned";
+        try {
+            assertTrue(upload("versioned.jar", processorJar(className, "v1"), className).startsWith("JAR uploaded"));
+            ProcessorDefinition v1 = processorRepository.findByClassName(className).orElseThrow();
+            assertTrue(v1.getJarPath().endsWith("versioned-" + ProcessorLoader.versionKey(v1.getChecksum()) + ".jar"),
+                    v1.getJarPath());
+            assertEquals("v1", run(v1, className));
+
+            // A job that read the v1 definition before the upload still gets the file it expects
+            assertTrue(upload("versioned.jar", processorJar(className, "v2"), className).startsWith("JAR uploaded"));
+            ProcessorDefinition v2 = processorRepository.findByClassName(className).orElseThrow();
+            assertNotEquals(v1.getJarPath(), v2.getJarPath());
+            assertEquals("v1", run(v1, className));
+            assertEquals("v2", run(v2, className));
+
+            // The next upload drops v1, which nothing points at any more, and keeps v2 for late readers
+            assertTrue(upload("versioned.jar", processorJar(className, "v3"), className).startsWith("JAR uploaded"));
+            ProcessorDefinition v3 = processorRepository.findByClassName(className).orElseThrow();
+            assertFalse(Files.exists(Paths.get(v1.getJarPath())));
+            assertTrue(Files.exists(Paths.get(v2.getJarPath())));
+            assertEquals("v3", run(v3, className));
+        } finally {
+            remove(className);
+        }
+    }
+
+    @Test
+    @DisplayName("POST /api/job/uploadJar - concurrent uploads for one class all succeed and leave one definition")
+    void concurrentUploadsOneDefinition() throws Exception {
+        String className = "com.example.Concurrent";
+        List<byte[]> jars = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            jars.add(processorJar(className, "c" + i));
+        }
+        CyclicBarrier start = new CyclicBarrier(jars.size());
+        ExecutorService uploaders = Executors.newFixedThreadPool(jars.size());
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (byte[] jar : jars) {
+                results.add(uploaders.submit(() -> {
+                    start.await();
+                    return upload("concurrent.jar", jar, className);
+                }));
+            }
+            for (Future<String> result : results) {
+                String resp = result.get();
+                assertTrue(resp.startsWith("JAR uploaded"), resp);
+            }
+            ProcessorDefinition def = processorRepository.findByClassName(className).orElseThrow();
+            assertTrue(Files.exists(Paths.get(def.getJarPath())));
+            run(def, className);
+        } finally {
+            uploaders.shutdownNow();
+            remove(className);
+        }
+    }
+
+    /** Loads the processor as a job would and returns the note it writes */
+    private String run(ProcessorDefinition def, String className) {
+        JobProcessor processor = processorLoader.load(def.getJarPath(), className, def.getChecksum());
+        return processor.processJob(new InputData()).getOutputNote();
+    }
+
+    private String upload(String fileName, byte[] content, String className) {
+        LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return fileName;
+            }
+        });
+        body.add("className", className);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        return rest.postForObject(url("/api/job/uploadJar"), new HttpEntity<>(body, headers), String.class);
+    }
+
+    private void remove(String className) {
+        processorRepository.findByClassName(className).ifPresent(def -> processorLoader.evictCache(def.getJarPath()));
+        rest.delete(url("/api/job/remove/" + className));
+    }
+
+    /** A JAR holding className as a JobProcessor that reports note, compiled against our classes */
+    private byte[] processorJar(String className, String note) throws Exception {
+        int dot = className.lastIndexOf('.');
+        Path src = Files.createDirectories(dir.resolve(note));
+        Path source = src.resolve(className.substring(dot + 1) + ".java");
+        Files.writeString(source, "package " + className.substring(0, dot) + ";\n"
+                + "import com.sel2in.jobProc.processor.*;\n"
+                + "public class " + className.substring(dot + 1) + " implements JobProcessor {\n"
+                + "  public JobEstimate reviewJob(InputData in) { return new JobEstimate(60000); }\n"
+                + "  public OutputData processJob(InputData in) {\n"
+                + "    OutputData out = new OutputData();\n"
+                + "    out.setOutputNote(\"" + note + "\");\n"
+                + "    return out;\n"
+                + "  }\n"
+                + "}\n");
+        String classpath = Paths.get(JobProcessor.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        int rc = ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-cp", classpath, "-d", src.toString(), source.toString());
+        assertEquals(0, rc, "compiled " + className);
+        String entry = className.replace('.', '/') + ".class";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new JarEntry(entry));
+            jar.write(Files.readAllBytes(src.resolve(entry)));
+            jar.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
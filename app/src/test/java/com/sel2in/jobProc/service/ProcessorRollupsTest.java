@@ -0,0 +1,92 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.repo.ProcessorRollupRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ProcessorRollupsTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ProcessorRollupRepository rollupRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("GET /api/job/rollups - hourly buckets, bad granularity rejected")
+    void rollups() {
+        ResponseEntity<Map> resp = rest.getForEntity(url("/api/job/rollups?granularity=hour"), Map.class);
+        assertEquals(HttpStatus.OK, resp.getStatusCode());
+        assertEquals("HOUR", resp.getBody().get("granularity"));
+        assertNotNull(resp.getBody().get("series"));
+
+        ResponseEntity<Map> bad = rest.getForEntity(url("/api/job/rollups?granularity=week"), Map.class);
+        assertEquals(HttpStatus.BAD_REQUEST, bad.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Rollups - a failed hour write also undoes the minute write and both are retried together")
+    void rollupFlushAtomic() {
+        AtomicInteger hourFailures = new AtomicInteger(1);
+        NamedParameterJdbcTemplate flaky = new NamedParameterJdbcTemplate(jdbc.getJdbcTemplate()) {
+            @Override
+            public int update(String sql, SqlParameterSource params) {
+                if (ProcessorRollups.HOUR.equals(params.getValue("granularity")) && hourFailures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("database unavailable");
+                }
+                return super.update(sql, params);
+            }
+        };
+        ProcessorRollups rollups = new ProcessorRollups(flaky, rollupRepository, 48, 90, transactionManager);
+        JobStateChangedEvent submitted = new JobStateChangedEvent(-1L, null, "SCHEDULED");
+        submitted.setProcessorClassName("com.example.Atomic");
+        rollups.onStateChanged(submitted);
+
+        rollups.flush();
+        assertEquals(1L, rollups.getStatus().get("flushFailures"));
+        assertEquals(List.of(0L, 0L), submittedRollups());
+
+        rollups.flush();
+        assertEquals(List.of(1L, 1L), submittedRollups(), "minute and hour written once each");
+    }
+
+    /** Submitted counts of com.example.Atomic: minute buckets, then hour buckets */
+    private List<Long> submittedRollups() {
+        return List.of(ProcessorRollups.MINUTE, ProcessorRollups.HOUR).stream()
+                .mapToLong(g -> rollupRepository.findRange(g, "com.example.Atomic", LocalDateTime.now().minusDays(1),
+                        LocalDateTime.now().plusDays(1), PageRequest.of(0, 10)).stream().mapToLong(r -> r.getSubmitted()).sum())
+                .boxed().collect(Collectors.toList());
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
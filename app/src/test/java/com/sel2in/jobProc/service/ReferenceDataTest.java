@@ -0,0 +1,65 @@
+package com.sel2in.jobProc.service;
+
+import com.sel2in.jobProc.entity.AppParam;
+import com.sel2in.jobProc.repo.AppParamRepository;
+import com.sel2in.jobProc.repo.CacheVersionRepository;
+import com.sel2in.jobProc.repo.ProcessorRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ReferenceDataTest {
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Autowired
+    private ProcessorRepository processorRepository;
+
+    @Autowired
+    private AppParamRepository appParamRepository;
+
+    @Autowired
+    private CacheVersionRepository cacheVersionRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("Reference data - lookups come from memory; a change reaches other nodes through CacheVersion")
+    void referenceDataInvalidation() {
+        // A second node sharing the database
+        ReferenceData otherNode = new ReferenceData(processorRepository, appParamRepository, cacheVersionRepository,
+                transactionManager, 5, "", "", "");
+        otherNode.load();
+        long version = (Long) referenceData.getStatus().get("version");
+        assertEquals(version, otherNode.getStatus().get("version"));
+
+        AppParam param = new AppParam();
+        param.setName("referenceDataTest");
+        param.setValue("1");
+        appParamRepository.save(param);
+        assertNull(referenceData.param("referenceDataTest"), "read from the loaded copy, not the table");
+        otherNode.checkVersion();
+        assertNull(otherNode.param("referenceDataTest"), "no reload while the version stands still");
+
+        referenceData.changed();
+        assertEquals("1", referenceData.param("referenceDataTest"));
+        assertEquals(version + 1, referenceData.getStatus().get("version"));
+        assertNull(otherNode.param("referenceDataTest"));
+        long reloads = (Long) otherNode.getStatus().get("reloads");
+        otherNode.checkVersion();
+        assertEquals("1", otherNode.param("referenceDataTest"));
+        assertEquals(version + 1, otherNode.getStatus().get("version"));
+        assertEquals(reloads + 1, otherNode.getStatus().get("reloads"));
+
+        appParamRepository.delete(param);
+        referenceData.changed();
+        assertNull(referenceData.param("referenceDataTest"));
+    }
+}
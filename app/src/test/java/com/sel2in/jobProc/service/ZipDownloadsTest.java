@@ -0,0 +1,71 @@
+package com.sel2in.jobProc.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ZipDownloadsTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Autowired
+    private ReferenceData referenceData;
+
+    @Test
+    @DisplayName("GET /dwn/zip - a job's output folder streamed as one ZIP, several jobs in folders")
+    void zipDownload() throws Exception {
+        Path dir = referenceData.outputFileDirectory().resolve("777");
+        Files.createDirectories(dir.resolve("charts"));
+        byte[] png = new byte[5000];
+        new Random(7).nextBytes(png);
+        Files.write(dir.resolve("report.csv"), "a,b\n1,2\n".getBytes());
+        Files.write(dir.resolve("charts/plot.png"), png);
+
+        ResponseEntity<byte[]> one = rest.getForEntity(url("/dwn/zip/777"), byte[].class);
+        assertEquals(HttpStatus.OK, one.getStatusCode());
+        Map<String, byte[]> entries = unzip(one.getBody());
+        assertEquals(Set.of("report.csv", "charts/plot.png"), entries.keySet());
+        assertArrayEquals(png, entries.get("charts/plot.png"));
+
+        ResponseEntity<byte[]> many = rest.getForEntity(url("/dwn/zip?jobIds=777,778"), byte[].class);
+        assertEquals(Set.of("777/report.csv", "777/charts/plot.png"), unzip(many.getBody()).keySet());
+
+        assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity(url("/dwn/zip/778"), byte[].class).getStatusCode());
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+                entries.put(e.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + port + path;
+    }
+}
@@ -0,0 +1,181 @@
+package com.sel2in.jobProc.store;
+
+import com.sel2in.jobProc.entity.JobEvent;
+import com.sel2in.jobProc.entity.JobRecord;
+import com.sel2in.jobProc.repo.JobEventRepository;
+import com.sel2in.jobProc.repo.JobRepository;
+import com.sel2in.jobProc.repo.WalApplyMarkRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WalJobStateStore against the database. Each test builds its own store over a temp directory;
+ * a crash is a second store recovered from the same directory without shutting down the first.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class WalJobStateStoreTest {
+
+    @Autowired
+    private JobRepository jobRepository;
+
+    @Autowired
+    private JobEventRepository jobEventRepository;
+
+    @Autowired
+    private WalApplyMarkRepository walApplyMarkRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("A job is claimed once, also after its end was written and it left the table")
+    void doubleClaim(@TempDir Path dir) {
+        WalJobStateStore store = walStore(dir);
+        LocalDateTime now = LocalDateTime.now();
+        Long id = scheduledJob("WalClaim");
+        assertTrue(store.claim(id, "wal-node", now, now.plusMinutes(1)));
+        assertFalse(store.claim(id, "other-node", now, now.plusMinutes(1)), "claimed twice from the table");
+
+        assertTrue(store.complete(id, "wal-node", "SUCCESS", now, null, null));
+        store.sync();
+        store.applyTick();
+        assertEquals(0, store.getStatus().get("jobsInTable"));
+        assertEquals("SUCCESS", jobRepository.findById(id).orElseThrow().getStatus());
+        assertFalse(store.claim(id, "wal-node", now, now.plusMinutes(1)), "finished job claimed again");
+
+        Long cancelled = scheduledJob("WalCancelled");
+        setStatus(cancelled, "CANCELLED");
+        assertFalse(store.claim(cancelled, "wal-node", now, now.plusMinutes(1)), "job cancelled in the database claimed");
+        store.shutdown();
+    }
+
+    @Test
+    @DisplayName("After a crash the snapshot and the remaining log segments restore the claims")
+    void snapshotRecovery(@TempDir Path dir) {
+        WalJobStateStore store = walStore(dir);
+        LocalDateTime now = LocalDateTime.now();
+        Long finished = scheduledJob("WalFinished");
+        Long running = scheduledJob("WalRunning");
+        Long late = scheduledJob("WalLate");
+        assertTrue(store.claim(finished, "wal-node", now, now.plusMinutes(1)));
+        assertTrue(store.claim(running, "wal-node", now, now.plusMinutes(1)));
+        assertTrue(store.complete(finished, "wal-node", "SUCCESS", now, null, null));
+        // The heartbeat renews in its own transaction (the database part is a JPA update)
+        Integer renewed = new TransactionTemplate(transactionManager).execute(s ->
+                store.renewLeases(List.of(running), "wal-node", now.plusMinutes(2)));
+        assertEquals(1, renewed);
+
+        // Events large enough to fill several 1 MB segments
+        String reason = "r".repeat(3000);
+        for (int i = 0; i < 800; i++) {
+            JobEvent e = new JobEvent();
+            e.setJobId(running);
+            e.setToStatus("RUNNING");
+            e.setOriginNode("wal-test");
+            e.setReason(reason);
+            e.setOccurredTs(now);
+            store.appendEvent(e);
+        }
+        store.sync();
+        while ((Integer) store.getStatus().get("pending") > 0) {
+            store.applyTick();
+        }
+        int segments = (Integer) store.getStatus().get("segments");
+        assertTrue(segments > 2, "segments: " + segments);
+        store.snapshotTick();
+        assertTrue(Files.exists(dir.resolve("snapshot.bin")));
+        assertEquals(1, store.getStatus().get("segments"), "applied segments in the snapshot are deleted");
+
+        // Durable in the log but not yet written to InputData when the node dies (no shutdown)
+        assertTrue(store.claim(late, "wal-node", now, now.plusMinutes(1)));
+        assertEquals("SCHEDULED", jobRepository.findById(late).orElseThrow().getStatus());
+
+        WalJobStateStore recovered = walStore(dir);
+        assertEquals(2, recovered.getStatus().get("jobsInTable"), "running from the snapshot, late from the log");
+        assertEquals("RUNNING", jobRepository.findById(late).orElseThrow().getStatus());
+        assertEquals(now.plusMinutes(2), recovered.current(jobRepository.findById(running).orElseThrow()).getLeaseExpires());
+        assertFalse(recovered.claim(running, "wal-node", now, now.plusMinutes(1)));
+        assertFalse(recovered.claim(late, "wal-node", now, now.plusMinutes(1)));
+        assertFalse(recovered.claim(finished, "wal-node", now, now.plusMinutes(1)));
+
+        assertTrue(recovered.complete(running, "wal-node", "SUCCESS", now, null, null));
+        recovered.sync();
+        recovered.applyTick();
+        assertEquals("SUCCESS", jobRepository.findById(running).orElseThrow().getStatus());
+        assertEquals(1, recovered.getStatus().get("jobsInTable"));
+        setStatus(late, "CANCELLED");
+        recovered.shutdown();
+    }
+
+    @Test
+    @DisplayName("A claim in the snapshot but not yet applied, whose job changed while the node was down, is dropped on recovery")
+    void snapshotBeforeApplyRecovery(@TempDir Path dir) {
+        WalJobStateStore store = walStore(dir);
+        LocalDateTime now = LocalDateTime.now();
+        Long kept = scheduledJob("WalKept");
+        Long cancelled = scheduledJob("WalCancelledWhileDown");
+        // The claim that will conflict is not the last record, so its lsn differs from the snapshot's
+        assertTrue(store.claim(cancelled, "wal-node", now, now.plusMinutes(1)));
+        assertTrue(store.claim(kept, "wal-node", now, now.plusMinutes(1)));
+        // Snapshot after the claims are durable, before they are written to InputData and the apply mark moves
+        store.snapshotTick();
+        assertEquals(2, store.getStatus().get("jobsInTable"));
+
+        // The node dies; meanwhile the job is cancelled in the database
+        setStatus(cancelled, "CANCELLED");
+
+        WalJobStateStore recovered = walStore(dir);
+        assertEquals(1L, recovered.getStatus().get("conflicts"));
+        assertEquals(1, recovered.getStatus().get("jobsInTable"), "the conflicting claim left the table");
+        assertEquals("CANCELLED", recovered.current(jobRepository.findById(cancelled).orElseThrow()).getStatus());
+        assertEquals("RUNNING", recovered.current(jobRepository.findById(kept).orElseThrow()).getStatus());
+
+        assertTrue(recovered.complete(kept, "wal-node", "SUCCESS", now, null, null));
+        recovered.sync();
+        recovered.applyTick();
+        assertEquals(0, recovered.getStatus().get("jobsInTable"));
+        assertEquals("SUCCESS", jobRepository.findById(kept).orElseThrow().getStatus());
+        recovered.shutdown();
+    }
+
+    /** A WAL store over dir with 1 MB segments, recovered as at startup */
+    private WalJobStateStore walStore(Path dir) {
+        WalJobStateStore store = new WalJobStateStore(jobRepository, jobEventRepository, walApplyMarkRepository, jdbc,
+                transactionManager, dir.toString(), 1, true, 0, 500);
+        store.recover();
+        return store;
+    }
+
+    /** A SCHEDULED job with no trigger, so only the store under test moves it */
+    private Long scheduledJob(String name) {
+        JobRecord job = new JobRecord();
+        job.setJobName(name);
+        job.setProcessorClassName("com.example.Wal");
+        job.setJobSubmittedDateTime(LocalDateTime.now());
+        job.setScheduledRunTime(LocalDateTime.now().plusDays(1));
+        job.setStatus("SCHEDULED");
+        return jobRepository.save(job).getId();
+    }
+
+    private void setStatus(Long id, String status) {
+        JobRecord record = jobRepository.findById(id).orElseThrow();
+        record.setStatus(status);
+        jobRepository.save(record);
+    }
+}
@@ -0,0 +1,145 @@
+package com.sel2in.jobProc.store;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WriteAheadLog on its own: group commit and replay of what is on disk. The store built on it
+ * is tested against the database in WalJobStateStoreTest.
+ */
+public class WriteAheadLogTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Concurrent writers share fsyncs; lsns are dense and replay returns them in order")
+    void groupCommitOrdering() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir, SEGMENT_BYTES, true, 5);
+        wal.open(0, 1);
+        Map<Long, Long> jobOfLsn = new ConcurrentHashMap<>();
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < 8; w++) {
+            int writer = w;
+            done.add(writers.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    long jobId = writer * 1000L + i;
+                    long lsn = wal.append(record(jobId));
+                    jobOfLsn.put(lsn, jobId);
+                    wal.awaitDurable(lsn);
+                    assertTrue(wal.getDurableLsn() >= lsn);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get(60, TimeUnit.SECONDS);
+        }
+        writers.shutdown();
+
+        assertEquals(1600, jobOfLsn.size());
+        assertEquals(1600L, wal.getDurableLsn());
+        assertTrue(wal.getForces() < wal.getAppends(), "writers shared fsyncs: " + wal.getForces() + " forces");
+        assertTrue(wal.getSegments() > 1, "rolled over to new segments");
+        wal.close();
+
+        List<WalRecord> replayed = new WriteAheadLog(dir, SEGMENT_BYTES, true, 5).open(0, 1);
+        assertEquals(1600, replayed.size());
+        for (int i = 0; i < replayed.size(); i++) {
+            WalRecord r = replayed.get(i);
+            assertEquals(i + 1, r.getLsn());
+            assertEquals(jobOfLsn.get(r.getLsn()), r.getJobId());
+        }
+    }
+
+    @Test
+    @DisplayName("A record torn by a crash ends the log; the next append takes its place")
+    void tornTailReplay() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir, SEGMENT_BYTES, true, 0);
+        wal.open(0, 1);
+        for (long jobId = 1; jobId <= 10; jobId++) {
+            wal.awaitDurable(wal.append(record(jobId)));
+        }
+        wal.close();
+
+        // Crash halfway through writing the last record: its payload never fully reached the disk
+        try (RandomAccessFile file = new RandomAccessFile(segment().toFile(), "rw")) {
+            file.seek(frames(9) + 16 + 4);
+            file.write(new byte[8]);
+        }
+
+        WriteAheadLog reopened = new WriteAheadLog(dir, SEGMENT_BYTES, true, 0);
+        List<WalRecord> replayed = reopened.open(0, 1);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L),
+                replayed.stream().map(WalRecord::getJobId).collect(Collectors.toList()));
+        assertEquals(9L, reopened.getDurableLsn());
+
+        WalRecord next = record(42);
+        assertEquals(10L, reopened.append(next));
+        reopened.awaitDurable(10);
+        reopened.close();
+
+        List<WalRecord> again = new WriteAheadLog(dir, SEGMENT_BYTES, true, 0).open(0, 1);
+        assertEquals(10, again.size());
+        assertEquals(42L, again.get(9).getJobId());
+        assertEquals("RUNNING", again.get(9).getStatus());
+    }
+
+    @Test
+    @DisplayName("open(afterLsn) skips what a snapshot already holds; minNextLsn keeps lsns above the apply mark")
+    void openAfterSnapshot() throws Exception {
+        WriteAheadLog wal = new WriteAheadLog(dir, SEGMENT_BYTES, true, 0);
+        wal.open(0, 1);
+        for (long jobId = 1; jobId <= 5; jobId++) {
+            wal.awaitDurable(wal.append(record(jobId)));
+        }
+        wal.close();
+
+        WriteAheadLog reopened = new WriteAheadLog(dir, SEGMENT_BYTES, true, 0);
+        assertEquals(List.of(4L, 5L), reopened.open(3, 100).stream().map(WalRecord::getLsn).collect(Collectors.toList()));
+        assertEquals(100L, reopened.append(record(6)));
+        reopened.close();
+    }
+
+    private static WalRecord record(long jobId) {
+        WalRecord r = WalRecord.of(WalRecord.CLAIM, jobId);
+        r.setNodeId("node-" + jobId % 3);
+        r.setStatus("RUNNING");
+        return r;
+    }
+
+    /** Bytes taken by the first n frames written by record() */
+    private static long frames(int n) {
+        long total = 0;
+        for (long jobId = 1; jobId <= n; jobId++) {
+            total += 16 + record(jobId).encode().length;
+        }
+        return total;
+    }
+
+    private Path segment() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+    }
+}
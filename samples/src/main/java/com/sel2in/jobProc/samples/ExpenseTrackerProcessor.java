@@ -160,7 +160,9 @@ public class ExpenseTrackerProcessor implements JobProcessor {
                     inputFiles.size(), inputData.getJobName());
 
             // ── 4. Save report ──
-            Path outputDir = Paths.get("./outputFiles", String.valueOf(inputData.getInputDataId()));
+            Path outputDir = inputData.getOutputDirectory() != null
+                    ? Paths.get(inputData.getOutputDirectory())
+                    : Paths.get("./outputFiles", String.valueOf(inputData.getInputDataId()));
             Files.createDirectories(outputDir);
             Path reportPath = outputDir.resolve("expense_report.html");
             Files.write(reportPath, html.getBytes("UTF-8"));